@@ -15,13 +15,43 @@ repositories {
     mavenCentral()
 }
 
+configure<JavaPluginConvention> {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+
+    // microbenchmarks and scene render benchmarks, see src/jmh and "./gradlew jmh"
+    sourceSets.create("jmh") {
+        val main = sourceSets["main"].output
+        compileClasspath += main
+        runtimeClasspath += main
+    }
+}
+
+configurations["jmhImplementation"].extendsFrom(configurations["implementation"])
+
 dependencies {
     testCompile("junit", "junit", "4.12")
     implementation(fileTree("./lib") { include("*.jar") }) // fallback for future jars
+
+    "jmhImplementation"("org.openjdk.jmh", "jmh-core", "1.21")
+    "jmhAnnotationProcessor"("org.openjdk.jmh", "jmh-generator-annprocess", "1.21")
 }
 
-configure<JavaPluginConvention> {
-    sourceCompatibility = JavaVersion.VERSION_1_8
+// ./gradlew jmh [-Pjmh.include=REGEX] [-Pjmh.quick] [-Pjmh.saveBaseline] [-Pjmh.baseline=FILE]
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks and compares them to the stored baseline."
+    dependsOn("jmhClasses")
+
+    val jmh = the<JavaPluginConvention>().sourceSets["jmh"]
+    classpath = jmh.runtimeClasspath
+    main = "raytracer.bench.BenchmarkRunner"
+
+    val results = "$buildDir/reports/jmh/results.json"
+    val baseline = project.findProperty("jmh.baseline") ?: "$projectDir/jmh-baseline.properties"
+    args = listOf("--results", results, "--baseline", baseline.toString()) +
+            (project.findProperty("jmh.include")?.let { listOf("--include", it.toString()) } ?: emptyList()) +
+            (if (project.hasProperty("jmh.saveBaseline")) listOf("--save-baseline") else emptyList()) +
+            (if (project.hasProperty("jmh.quick")) listOf("--quick") else emptyList())
 }
 
 tasks.named<Jar>("jar") {
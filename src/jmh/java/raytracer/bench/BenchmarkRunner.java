@@ -0,0 +1,183 @@
+package raytracer.bench;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Runs the benchmarks with the GC profiler and compares them to a stored baseline.
+ * The baseline is a properties file holding, for every benchmark (and its parameters),
+ * the score and the allocated bytes per operation.
+ *
+ * Arguments:
+ *  --include REGEX      only run matching benchmarks (default: all in raytracer.bench)
+ *  --results FILE       write the full JMH results as JSON
+ *  --baseline FILE      the baseline to compare to (skipped if the file does not exist)
+ *  --save-baseline      store the results of this run in the baseline instead of comparing; benchmarks that
+ *                       did not run (see --include) keep their stored results
+ *  --threshold PERCENT  how much slower (or more allocating) counts as a regression; default 10
+ *  --quick              one short warmup and measurement iteration, for smoke-testing
+ *
+ * Exits with 1 if a benchmark regressed against the baseline, or is not in the baseline at all: a benchmark
+ * that was added without storing its results would never be guarded.
+ */
+public class BenchmarkRunner {
+
+    private static final String ALLOCATION = "\u00b7gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = "raytracer\\.bench\\..*";
+        String results = null;
+        File baseline = null;
+        boolean saveBaseline = false;
+        double threshold = 10;
+        boolean quick = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--include": include = args[++i]; break;
+                case "--results": results = args[++i]; break;
+                case "--baseline": baseline = new File(args[++i]); break;
+                case "--save-baseline": saveBaseline = true; break;
+                case "--threshold": threshold = Double.parseDouble(args[++i]); break;
+                case "--quick": quick = true; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class);
+        if (results != null) {
+            new File(results).getAbsoluteFile().getParentFile().mkdirs();
+            options.result(results).resultFormat(ResultFormatType.JSON);
+        }
+        if (quick) {
+            options.warmupIterations(1).warmupTime(TimeValue.milliseconds(200))
+                    .measurementIterations(1).measurementTime(TimeValue.milliseconds(200));
+        }
+
+        Collection<RunResult> runs = new Runner(options.build()).run();
+        Properties current = toProperties(runs);
+
+        if (baseline == null) return;
+        Properties stored = new Properties();
+        if (baseline.exists()) {
+            try (InputStream in = new FileInputStream(baseline)) {
+                stored.load(in);
+            }
+        }
+        if (saveBaseline) {
+            stored.putAll(current);
+            try (OutputStream out = new FileOutputStream(baseline)) {
+                stored.store(out, "raytracer benchmark baseline: score and allocated bytes per operation (machine specific)");
+            }
+            System.out.println("Saved " + runs.size() + " results to the baseline " + baseline);
+            return;
+        }
+        if (!baseline.exists()) {
+            System.out.println("No baseline at " + baseline + "; run with --save-baseline to store one.");
+            return;
+        }
+
+        if (compare(stored, current, threshold) > 0) System.exit(1);
+    }
+
+    /**
+     * Flattens the results to key -> value, with keys like
+     * "raytracer.bench.RenderBenchmark.renderFrame:resolution=128,scene=example1.score".
+     * The score is stored together with its direction (".higherIsBetter"), since
+     * throughput benchmarks improve upwards and average time benchmarks downwards.
+     */
+    private static Properties toProperties(Collection<RunResult> runs) {
+        Properties properties = new Properties();
+        for (RunResult run : runs) {
+            String key = key(run.getParams());
+            Result<?> primary = run.getPrimaryResult();
+            properties.setProperty(key + ".score", Double.toString(primary.getScore()));
+            properties.setProperty(key + ".unit", primary.getScoreUnit());
+            properties.setProperty(key + ".higherIsBetter", Boolean.toString(run.getParams().getMode().shortLabel().equals("thrpt")));
+
+            Result<?> allocation = run.getSecondaryResults().get(ALLOCATION);
+            if (allocation != null) {
+                properties.setProperty(key + ".alloc", Double.toString(allocation.getScore()));
+            }
+        }
+        return properties;
+    }
+
+    private static String key(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(params.getBenchmark());
+        String separator = ":";
+        for (String param : new TreeSet<>(params.getParamsKeys())) {
+            key.append(separator).append(param).append('=').append(params.getParam(param));
+            separator = ",";
+        }
+        return key.toString();
+    }
+
+    /**
+     * Prints the change of every benchmark against the baseline.
+     * @return the number of regressions and benchmarks missing from the baseline
+     */
+    private static int compare(Properties baseline, Properties current, double threshold) {
+        int regressions = 0, missing = 0;
+        System.out.println();
+        System.out.println("Change against the baseline (threshold " + threshold + "%):");
+
+        for (String name : new TreeSet<>(current.stringPropertyNames())) {
+            if (!name.endsWith(".score")) continue;
+            String key = name.substring(0, name.length() - ".score".length());
+            if (baseline.getProperty(name) == null) {
+                System.out.println("  " + key + ": not in the baseline  MISSING");
+                missing++;
+                continue;
+            }
+
+            boolean higherIsBetter = Boolean.parseBoolean(current.getProperty(key + ".higherIsBetter"));
+            double before = Double.parseDouble(baseline.getProperty(name));
+            double after = Double.parseDouble(current.getProperty(name));
+            // positive = worse, in both directions
+            double scoreChange = percentChange(before, after) * (higherIsBetter ? -1 : 1);
+
+            String line = String.format(Locale.ROOT, "  %s: score %.3f -> %.3f %s (%.1f%% %s)",
+                    key, before, after, current.getProperty(key + ".unit"),
+                    Math.abs(scoreChange), scoreChange > 0 ? "worse" : "better");
+            boolean regressed = scoreChange > threshold;
+
+            String allocBefore = baseline.getProperty(key + ".alloc"), allocAfter = current.getProperty(key + ".alloc");
+            if (allocBefore != null && allocAfter != null) {
+                double bytesBefore = Double.parseDouble(allocBefore), bytesAfter = Double.parseDouble(allocAfter);
+                line += String.format(Locale.ROOT, ", alloc %.1f -> %.1f B/op", bytesBefore, bytesAfter);
+                // a few bytes of noise per operation are not worth failing the build for
+                regressed |= bytesAfter - bytesBefore > 16 && percentChange(bytesBefore, bytesAfter) > threshold;
+            }
+
+            if (regressed) {
+                line += "  REGRESSION";
+                regressions++;
+            }
+            System.out.println(line);
+        }
+        System.out.println(regressions == 0 ? "No regressions." : regressions + " regression(s).");
+        if (missing > 0) {
+            System.out.println(missing + " benchmark(s) not in the baseline; store them with --save-baseline.");
+        }
+        return regressions + missing;
+    }
+
+    private static double percentChange(double before, double after) {
+        if (before == 0) return after == 0 ? 0 : Double.POSITIVE_INFINITY;
+        return (after - before) / before * 100;
+    }
+}
@@ -0,0 +1,103 @@
+package raytracer.bench;
+
+import raytracer.graphics.Camera;
+import raytracer.graphics.Ray;
+import raytracer.graphics.Scene;
+import raytracer.graphics.illumination.Phong;
+import raytracer.graphics.materials.SolidMaterial;
+import raytracer.graphics.surfaces.Mesh;
+import raytracer.graphics.surfaces.Sphere;
+import raytracer.graphics.surfaces.obj.TriangleMesh;
+import raytracer.io.SceneParser;
+import raytracer.math.Vector3;
+
+import java.awt.Color;
+import java.util.Random;
+
+/**
+ * Fixtures shared by the benchmarks. Everything is generated with fixed seeds,
+ * so every run (and the stored baseline) measures exactly the same work.
+ */
+final class BenchmarkScenes {
+
+    static final SolidMaterial MATERIAL = new SolidMaterial(new Phong(0.3, 0.9, 1.0, 200), 0, 0, 0, Color.WHITE);
+
+    /**
+     * A unit sphere around (0,0,-5).
+     */
+    static Sphere sphere() {
+        return new Sphere(MATERIAL, null, new Vector3(0, 0, -5), 1);
+    }
+
+    /**
+     * A tessellated sphere around (0,0,-5), as a mesh of rings * segments * 2 triangles.
+     */
+    static Mesh meshSphere(int rings, int segments) {
+        double[] vertices = new double[rings * segments * 2 * 9];
+        int v = 0;
+        for (int ring = 0; ring < rings; ring++) {
+            double theta0 = Math.PI * ring / rings, theta1 = Math.PI * (ring + 1) / rings;
+            for (int segment = 0; segment < segments; segment++) {
+                double phi0 = 2 * Math.PI * segment / segments, phi1 = 2 * Math.PI * (segment + 1) / segments;
+                double[][] quad = {
+                        spherePoint(theta0, phi0), spherePoint(theta1, phi0),
+                        spherePoint(theta1, phi1), spherePoint(theta0, phi1)
+                };
+                for (int corner : new int[] { 0, 1, 2, 0, 2, 3 }) {
+                    System.arraycopy(quad[corner], 0, vertices, v, 3);
+                    v += 3;
+                }
+            }
+        }
+        TriangleMesh triangles = new TriangleMesh("benchmark-sphere", vertices, null);
+        return new Mesh(MATERIAL, null, "benchmark-sphere", triangles);
+    }
+
+    private static double[] spherePoint(double theta, double phi) {
+        return new double[] {
+                Math.sin(theta) * Math.cos(phi),
+                Math.cos(theta),
+                Math.sin(theta) * Math.sin(phi) - 5
+        };
+    }
+
+    /**
+     * Rays from the origin towards the bounding square of the spheres above; most of them hit.
+     */
+    static Ray[] raysTowardsSphere(int count) {
+        Random random = new Random(42);
+        Ray[] rays = new Ray[count];
+        for (int i = 0; i < count; i++) {
+            rays[i] = new Ray(new Vector3(), new Vector3(random.nextDouble() * 2.4 - 1.2, random.nextDouble() * 2.4 - 1.2, -5));
+        }
+        return rays;
+    }
+
+    /**
+     * Loads one of the bundled example scenes and renders it at a fixed resolution,
+     * so the benchmark does not depend on what the scene file asks for.
+     * @param name example1 ... example6
+     * @param resolution the width and height of the image
+     */
+    static Scene exampleScene(String name, int resolution) {
+        String path;
+        switch (name) {
+            case "example1": path = SceneParser.example1; break;
+            case "example2": path = SceneParser.example2; break;
+            case "example3": path = SceneParser.example3; break;
+            case "example4": path = SceneParser.example4; break;
+            case "example5": path = SceneParser.example5; break;
+            case "example6": path = SceneParser.example6; break;
+            default: throw new IllegalArgumentException("Unknown example scene: " + name);
+        }
+
+        Scene scene = SceneParser.parseXML(path);
+        Camera c = scene.getCamera();
+        scene.setCamera(new Camera(c.getPosition(), c.getLookAt(), c.getUp(), c.getHorizontalFOV(),
+                resolution, resolution, c.getMaxBounces()));
+        return scene;
+    }
+
+    private BenchmarkScenes() {
+    }
+}
@@ -0,0 +1,49 @@
+package raytracer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import raytracer.Raytracer;
+import raytracer.image.FrameBuffer;
+import raytracer.io.PngEncoder;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes a rendered frame as PNG, with ImageIO and with the parallel PngEncoder.
+ * The frame is rendered in the setup; only the encoding into memory is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({ "512" })
+    public int resolution;
+
+    private FrameBuffer frame;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+    @Setup
+    public void setup() {
+        frame = Raytracer.renderScene(BenchmarkScenes.exampleScene("example5", resolution));
+    }
+
+    @Benchmark
+    public int encodeImageIO() throws IOException {
+        out.reset();
+        ImageIO.write(frame.toImage(), "png", out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int encodeParallel() throws IOException {
+        out.reset();
+        new PngEncoder().encode(frame, out);
+        return out.size();
+    }
+}
@@ -0,0 +1,77 @@
+package raytracer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import raytracer.graphics.Ray;
+import raytracer.graphics.surfaces.Mesh;
+import raytracer.graphics.surfaces.Sphere;
+import raytracer.math.MathUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single intersection tests. Every invocation takes the next of a fixed set of rays,
+ * so hits and misses are mixed like in a real image.
+ * (Mesh.triangleIntersect is private; meshIntersect measures it behind the mesh BVH.)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmark {
+
+    private static final int RAYS = 1024; // a power of two, see next()
+
+    /**
+     * The number of triangles of the mesh is 2 * rings * segments.
+     */
+    @Param({ "64" })
+    public int rings;
+
+    private Sphere sphere;
+    private Mesh mesh;
+    private Ray[] rays;
+    private int next;
+
+    @Setup
+    public void setup() {
+        sphere = BenchmarkScenes.sphere();
+        mesh = BenchmarkScenes.meshSphere(rings, 2 * rings);
+        rays = BenchmarkScenes.raysTowardsSphere(RAYS);
+    }
+
+    private Ray next() {
+        return rays[next++ & (RAYS - 1)];
+    }
+
+    @Benchmark
+    public double sphereIntersect() {
+        return sphere.intersect(next());
+    }
+
+    @Benchmark
+    public double meshIntersect() {
+        return mesh.intersect(next());
+    }
+
+    /**
+     * A shadow ray towards a light behind the sphere: any hit will do.
+     */
+    @Benchmark
+    public boolean sphereOccluded() {
+        return sphere.occluded(next(), 10);
+    }
+
+    @Benchmark
+    public boolean meshOccluded() {
+        return mesh.occluded(next(), 10);
+    }
+
+    @Benchmark
+    public double[] solveQuadratic() {
+        Ray ray = next();
+        double b = 2 * ray.getDirection().getZ() * 5;
+        return MathUtils.solveQuadratic(1, b, 24);
+    }
+}
@@ -0,0 +1,47 @@
+package raytracer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import raytracer.Raytracer;
+import raytracer.graphics.Scene;
+import raytracer.image.FrameBuffer;
+import raytracer.render.PacketTracer;
+import raytracer.render.TileRenderer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the bundled example scenes with the serial renderer, at a fixed resolution,
+ * and on one thread with ray packets (see PacketTracer).
+ * Scene parsing and BVH construction happen in the setup and are not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({ "example1", "example2", "example3", "example4", "example5", "example6" })
+    public String scene;
+
+    @Param({ "128" })
+    public int resolution;
+
+    private Scene loaded;
+
+    @Setup
+    public void setup() {
+        loaded = BenchmarkScenes.exampleScene(scene, resolution);
+    }
+
+    @Benchmark
+    public FrameBuffer renderFrame() {
+        return Raytracer.renderScene(loaded);
+    }
+
+    @Benchmark
+    public FrameBuffer renderFramePackets() {
+        return new TileRenderer(loaded, 1, TileRenderer.DEFAULT_TILE_SIZE, PacketTracer.DEFAULT_PACKET_SIZE).render();
+    }
+}
@@ -0,0 +1,92 @@
+package raytracer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Ray;
+import raytracer.graphics.illumination.Phong;
+import raytracer.image.Radiance;
+import raytracer.image.Texture;
+import raytracer.math.Vector3;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-pixel work besides intersection: primary ray generation, Phong shading and texture lookups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShadingBenchmark {
+
+    private static final int RESOLUTION = 512;
+
+    private Camera camera;
+    private int pixel;
+
+    private Phong phong;
+    private Radiance color, lightColor, result;
+    private Vector3 surfToLight, surfNorm, surfToEye;
+
+    private static final int TEXTURE_SIZE = 1024;
+    private static final int LOOKUPS = 4096;
+    private BufferedImage image;
+    private Texture texture;
+    private float[] lookups;
+    private int lookup;
+
+    @Setup
+    public void setup() {
+        camera = new Camera(new Vector3(0, 2, 1), new Vector3(0, 0, -2.5), new Vector3(0, 1, 0), 45, RESOLUTION, RESOLUTION, 5);
+
+        phong = new Phong(0.3, 0.9, 1.0, 200);
+        color = new Radiance(0.17, 0.18, 0.5);
+        lightColor = new Radiance(0.7, 0.7, 0.7);
+        result = new Radiance();
+        surfToLight = new Vector3(1, 2, 0.5).normalize();
+        surfNorm = new Vector3(0.2, 1, 0).normalize();
+        surfToEye = new Vector3(-0.3, 1, 1).normalize();
+
+        // a noisy texture, looked up at random coordinates (like a distant, minified surface)
+        Random random = new Random(42);
+        image = new BufferedImage(TEXTURE_SIZE, TEXTURE_SIZE, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < TEXTURE_SIZE; y++) {
+            for (int x = 0; x < TEXTURE_SIZE; x++) image.setRGB(x, y, random.nextInt(0x1000000));
+        }
+        texture = new Texture(image);
+        lookups = new float[2 * LOOKUPS];
+        for (int i = 0; i < lookups.length; i++) lookups[i] = random.nextFloat();
+    }
+
+    @Benchmark
+    public Ray generateRay() {
+        int p = pixel++ & (RESOLUTION * RESOLUTION - 1);
+        return camera.generateRay(p % RESOLUTION, p / RESOLUTION);
+    }
+
+    @Benchmark
+    public Radiance phongIllumination() {
+        return phong.computeIllumination(color, lightColor, surfToLight, surfNorm, surfToEye, true, result);
+    }
+
+    /**
+     * The texture lookup before mip-mapping: the nearest texel, straight from the BufferedImage.
+     */
+    @Benchmark
+    public Radiance textureNearestImage() {
+        int i = 2 * (lookup++ & (LOOKUPS - 1));
+        int x = Math.round(lookups[i] * (TEXTURE_SIZE - 1));
+        int y = Math.round(lookups[i + 1] * (TEXTURE_SIZE - 1));
+        return result.setRGB(image.getRGB(x, y));
+    }
+
+    @Benchmark
+    public Radiance textureTrilinear() {
+        int i = 2 * (lookup++ & (LOOKUPS - 1));
+        return texture.sample(lookups[i], lookups[i + 1], 2.5, result);
+    }
+}
@@ -1,9 +1,14 @@
 package raytracer;
 
+import raytracer.animation.Animation;
+import raytracer.farm.RenderCoordinator;
+import raytracer.farm.RenderWorker;
+import raytracer.farm.SceneBundle;
 import raytracer.graphics.Camera;
 import raytracer.graphics.Ray;
 import raytracer.graphics.Scene;
 import raytracer.graphics.illumination.Phong;
+import raytracer.graphics.lights.Light;
 import raytracer.graphics.lights.ParallelLight;
 import raytracer.graphics.lights.PointLight;
 import raytracer.graphics.lights.SpotLight;
@@ -11,21 +16,45 @@ import raytracer.graphics.materials.SolidMaterial;
 import raytracer.graphics.surfaces.Sphere;
 import raytracer.graphics.surfaces.Surface;
 import raytracer.graphics.trafo.Transformation;
+import raytracer.image.FrameBuffer;
+import raytracer.image.Radiance;
+import raytracer.io.AnimationParser;
+import raytracer.io.AsyncImageWriter;
 import raytracer.io.ImageWriter;
+import raytracer.io.MeshCache;
 import raytracer.io.SceneParser;
 import raytracer.math.MathUtils;
 import raytracer.math.Vector3;
+import raytracer.render.AdaptiveRenderer;
+import raytracer.render.AnimationRenderer;
+import raytracer.render.ProgressiveRenderer;
+import raytracer.render.RenderStats;
+import raytracer.render.TileRenderer;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Raytracer {
 
 
-    // Syntax: raytracer {file <'path/to/file.xml'> | scene {debug|example1|example2} | color}
+    // Syntax: raytracer [--threads <n>] [--tile <size>] [--packet <size>] [--farm <port> [--farm-workers <n>]] [--animate <keyframes>] [--progressive [--preview-interval <ms>]] [--aa [--aa-min <n>] [--aa-max <n>] [--aa-threshold <t>]] [--format <png|ppm|exr|pfm|...>] [--stats] [--stats-json] [--mesh-cache <dir> | --no-mesh-cache] {file <'path/to/file.xml'> | scene {debug|example1|example2} | color | worker <host:port>}
     public static void main(String[] args) {
 
+        RenderOptions options = RenderOptions.parse(args);
+        args = options.getArguments();
+        // RenderStats reads this once when it is loaded, i.e. before the first ray is traced
+        if (options.isStats()) System.setProperty(RenderStats.PROPERTY, "true");
+        MeshCache.setDirectory(options.getMeshCacheDirectory());
+
         String scenefile = null;
         boolean renderColor = false;
 
@@ -34,6 +63,19 @@ public class Raytracer {
             System.out.println(" Render an input file: 'gradle run file <filename>");
             System.out.println(" Render an example scene: 'gradle run scene {example1|example2}");
             System.out.println(" Render rays as 500x500 color image: 'gradle run color");
+            System.out.println(" Render tiles for a render farm: 'gradle run worker <host:port>' (uses --threads and --packet)");
+            System.out.println(" Options: --threads <n> (0 = all cores), --tile <size> (tile edge length in pixels)");
+            System.out.println("          --packet <size> (trace blocks of size x size pixels as ray packets, 1 to 8; 0 = off)");
+            System.out.println("          --farm <port> (render on worker processes that connect to this port, see 'worker'),");
+            System.out.println("          --farm-workers <n> (start n workers on this machine, with --threads threads each)");
+            System.out.println("          --animate <keyframes> (render all frames of an animation, see AnimationParser for the file format)");
+            System.out.println("          --progressive (coarse-to-fine, writes <output>.preview.png while rendering),");
+            System.out.println("          --preview-interval <ms> (minimum time between two previews, default 2000)");
+            System.out.println("          --aa (adaptive anti-aliasing), --aa-min <n> (samples per pixel, a square number, default 4),");
+            System.out.println("          --aa-max <n> (samples per pixel on edges, default 16), --aa-threshold <t> (edge contrast 0..1, default 0.05)");
+            System.out.println("          --format <png|ppm|exr|pfm|...> (image format, default png; ppm is an uncompressed dump, exr and pfm hold linear HDR colors)");
+            System.out.println("          --stats (print render statistics; not with --farm), --stats-json (also write them next to the image)");
+            System.out.println("          --mesh-cache <dir> (where parsed meshes are cached, default ~/.cache/raytracer), --no-mesh-cache");
         } else if (args.length == 2) {
             if (args[0].equals("file")) { // check if file exists
                 File file = new File(args[1]);
@@ -43,6 +85,9 @@ public class Raytracer {
                     System.out.println(" Falling back to debug scene.");
                     scenefile = SceneParser.debugScene;
                 }
+            } else if (args[0].equals("worker")) {
+                runWorker(args[1], options);
+                return;
             } else if (args[0].equals("scene")) {
                 switch (args[1]) {
                     case "example1": scenefile = SceneParser.example1; break;
@@ -68,12 +113,168 @@ public class Raytracer {
         } else
             System.out.printf("Now rendering: %s...%n", scenefile);
 
+        // the phase timings are taken here; the BVH builders add their own time to the build phase
+        long start = System.nanoTime();
         Scene scene = SceneParser.parseXML(scenefile);
-        BufferedImage image = renderSceneAsImage(scene);
+        if (RenderStats.ENABLED) {
+            RenderStats.addTime(RenderStats.Phase.PARSE, System.nanoTime() - start - RenderStats.getTime(RenderStats.Phase.BUILD));
+        }
+
+        if (options.getAnimation() != null) {
+            renderAnimation(scene, options);
+            return;
+        }
+
+        start = System.nanoTime();
+        FrameBuffer frameBuffer;
+        if (options.isFarm()) {
+            frameBuffer = renderOnFarm(scene, scenefile, options);
+        } else {
+            // HDR formats need the unclamped colors, which the frame buffer only keeps if asked to
+            Camera camera = scene.getCamera();
+            frameBuffer = new FrameBuffer(camera.getRes().getHorizontal(), camera.getRes().getVertical(),
+                    ImageWriter.isHdr(options.getFormat()));
+            if (options.isProgressive()) {
+                renderProgressive(scene, frameBuffer, options);
+            } else if (options.isAntiAliasing()) {
+                AdaptiveRenderer renderer = new AdaptiveRenderer(scene, options.getThreads(),
+                        options.getMinSamples(), options.getMaxSamples(), options.getAaThreshold());
+                renderer.render(frameBuffer);
+                System.out.printf("Anti-aliasing: %.2f samples per pixel on average (%d to %d)%n",
+                        renderer.getAverageSamplesPerPixel(), options.getMinSamples(), options.getMaxSamples());
+            } else if (options.getThreads() > 1 || options.getPacketSize() > 0) {
+                new TileRenderer(scene, options.getThreads(), options.getTileSize(), options.getPacketSize()).render(frameBuffer);
+            } else {
+                renderScene(scene, frameBuffer);
+            }
+        }
+        if (RenderStats.ENABLED) RenderStats.addTime(RenderStats.Phase.RENDER, System.nanoTime() - start);
+
+        start = System.nanoTime();
         ImageWriter.writeImage(
-                image,
-                "png",
+                frameBuffer,
+                options.getFormat(),
                 scene.getOutputFileName());
+        if (RenderStats.ENABLED) RenderStats.addTime(RenderStats.Phase.ENCODE, System.nanoTime() - start);
+
+        if (options.isStats()) printStats(scene, options, (long) frameBuffer.getWidth() * frameBuffer.getHeight());
+    }
+
+    /**
+     * Prints the render statistics, and writes them to "<output>.stats.json" if asked to.
+     * @param pixels the number of pixels rendered, over all frames
+     */
+    private static void printStats(Scene scene, RenderOptions options, long pixels) {
+        System.out.print(RenderStats.summary(pixels));
+        if (options.isStatsJson()) {
+            // ImageWriter writes into the working directory, so the statistics go there as well
+            Path json = Paths.get("").toAbsolutePath().resolve(scene.getOutputFileName() + ".stats.json");
+            RenderStats.writeJson(json, pixels);
+            System.out.println("Wrote render statistics to " + json);
+        }
+    }
+
+    /**
+     * Renders coarse-to-fine and keeps overwriting "<output>.preview.png" with the image so far,
+     * so that a bad render can be spotted (and killed) early. The preview is removed once the render is done.
+     * Previews are written in the background; one that comes while the last is still being written is skipped.
+     */
+    private static void renderProgressive(Scene scene, FrameBuffer frameBuffer, RenderOptions options) {
+        String previewName = scene.getOutputFileName() + ".preview";
+        Path directory = Paths.get("").toAbsolutePath();
+        try (AsyncImageWriter previews = new AsyncImageWriter(1)) {
+            new ProgressiveRenderer(scene, options.getThreads(), options.getPreviewInterval())
+                    .render(frameBuffer, (preview, progress, finished) -> {
+                        if (finished) return; // the final image is written by main
+                        // the renderer keeps writing into its frame buffer, the writer gets a snapshot
+                        if (previews.tryWrite(preview.copy(), ImageWriter.PNG, directory, previewName) != null) {
+                            System.out.printf("Preview: %.0f%% of all pixels traced%n", progress * 100);
+                        }
+                    });
+        }
+
+        File preview = directory.resolve(previewName + ".png").toFile();
+        if (preview.exists() && !preview.delete()) System.out.println(" WARNING: Could not delete " + preview);
+    }
+
+    /**
+     * Renders all frames of an animation of the scene, each into its own image file.
+     */
+    private static void renderAnimation(Scene scene, RenderOptions options) {
+        Animation animation = AnimationParser.parseKeyframes(options.getAnimation());
+        AnimationRenderer renderer = new AnimationRenderer(scene, animation,
+                options.getThreads(), options.getTileSize(), options.getPacketSize());
+        renderer.setHdr(ImageWriter.isHdr(options.getFormat()));
+        String output = scene.getOutputFileName();
+        long start = System.nanoTime();
+        renderer.render((frame, frameBuffer) -> {
+            long encodeStart = System.nanoTime();
+            ImageWriter.writeImage(frameBuffer, options.getFormat(), animation.getOutputName(frame, output));
+            if (RenderStats.ENABLED) RenderStats.addTime(RenderStats.Phase.ENCODE, System.nanoTime() - encodeStart);
+        });
+
+        long nanos = System.nanoTime() - start;
+        double seconds = nanos / 1e9;
+        System.out.printf("Animation: %d frames in %.2f s (%.3f s per frame), %d BVH refits, %d rebuilds, %.2f s waiting for the encoder%n",
+                animation.getFrameCount(), seconds, seconds / animation.getFrameCount(),
+                renderer.getRefits(), renderer.getRebuilds(), renderer.getEncodeWaitSeconds());
+
+        if (options.isStats()) {
+            // frames are encoded while the next ones render, so the render time includes the encoding
+            if (RenderStats.ENABLED) RenderStats.addTime(RenderStats.Phase.RENDER, nanos);
+            Camera camera = scene.getCamera();
+            printStats(scene, options, (long) camera.getRes().getHorizontal() * camera.getRes().getVertical() * animation.getFrameCount());
+        }
+    }
+
+    /**
+     * Renders the scene on a render farm: this process is the coordinator, the tiles are rendered by workers
+     * that connect to it (possibly on other machines), and optionally by workers started here.
+     */
+    private static FrameBuffer renderOnFarm(Scene scene, String scenefile, RenderOptions options) {
+        SceneBundle bundle = SceneBundle.of(new File(scenefile));
+        Camera camera = scene.getCamera();
+        List<Process> workers = Collections.emptyList();
+        try (RenderCoordinator coordinator = new RenderCoordinator(bundle,
+                camera.getRes().getHorizontal(), camera.getRes().getVertical(), options.getTileSize(), options.getFarmPort())) {
+            System.out.printf("Render farm: waiting for workers on port %d (%d files, %d bytes)%n",
+                    coordinator.getPort(), bundle.getFiles().size(), bundle.getSize());
+            if (options.getFarmWorkers() > 0) {
+                workers = RenderWorker.startLocal(options.getFarmWorkers(), "localhost", coordinator.getPort(),
+                        "--threads", String.valueOf(options.getThreads()), "--packet", String.valueOf(options.getPacketSize()));
+            }
+            FrameBuffer frameBuffer = coordinator.render();
+            System.out.printf("Render farm: %d workers, %d tiles retried%n", coordinator.getWorkerCount(), coordinator.getRetriedTiles());
+            return frameBuffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start the render farm: " + e.getMessage(), e);
+        } finally {
+            // the workers leave on their own once they are done; this is for failed renders
+            for (Process worker : workers) {
+                try {
+                    if (!worker.waitFor(5, TimeUnit.SECONDS)) worker.destroy();
+                } catch (InterruptedException e) {
+                    worker.destroy();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders tiles for the coordinator at host:port until it is done.
+     */
+    private static void runWorker(String address, RenderOptions options) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("Worker needs the coordinator as <host:port>: " + address);
+        RenderWorker worker = new RenderWorker(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)), options.getThreads());
+        worker.setPacketSize(options.getPacketSize());
+        System.out.println("Render worker: connecting to " + address + "...");
+        try {
+            System.out.println("Render worker: rendered " + worker.run() + " tiles");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Render worker failed: " + e.getMessage(), e);
+        }
     }
 
     // debug main method
@@ -115,23 +316,41 @@ public class Raytracer {
         return image;
     }
 
+    public static BufferedImage renderSceneAsImage(Scene scene) {
+        return renderScene(scene).toImage();
+    }
+
     // image-order rendering
     // Resources: Shirley, Marsh: Fundamentals of Computer Graphics, Chp.4 - Ray Tracing
-    public static BufferedImage renderSceneAsImage(Scene scene) {
+    public static FrameBuffer renderScene(Scene scene) {
 
         Camera camera = scene.getCamera();
 
-        // create the image we render into
-        BufferedImage image = new BufferedImage(
+        // create the frame buffer we render into
+        FrameBuffer frameBuffer = new FrameBuffer(
                 camera.getRes().getHorizontal(),
-                camera.getRes().getVertical(),
-                BufferedImage.TYPE_INT_ARGB);
+                camera.getRes().getVertical());
+        renderScene(scene, frameBuffer);
+        return frameBuffer;
+    }
+
+    /**
+     * Renders the scene on this thread into a frame buffer of the camera's resolution.
+     * @param scene the scene
+     * @param frameBuffer the target; with HDR, it also receives the unclamped colors
+     */
+    public static void renderScene(Scene scene, FrameBuffer frameBuffer) {
+
+        Camera camera = scene.getCamera();
 
         // TODO remove these
         //scene.getSurfaces().get(1).getTransformation().translateBy(new Vector3(1,1,-1));
         //scene.getSurfaces().get(1).getTransformation().setScale(new Vector3(2,2,2));
         //scene.getCamera().transformation.translateBy(new Vector3(0,0,5));
 
+        // the color of the current pixel, reused for all of them
+        Radiance color = new Radiance();
+
         // for each pixel in this image, do...
         for (int i = 0; i < camera.getRes().getHorizontal(); i++) {
             for (int j = 0; j < camera.getRes().getVertical(); j++) {
@@ -140,15 +359,13 @@ public class Raytracer {
                 //Ray ray = camera.generateRay(camera.imPlane_u(i),camera.imPlane_v(j));
 
                 // trace this ray
-                Color color = traceRay(scene, ray, 0, scene.getCamera().getPosition());
+                traceRay(scene, ray, 0, scene.getCamera().getOrigin(), color);
                 //Color color = traceDebugSphere(ray);
 
-                // store the resulting color in the pixel
-                image.setRGB(i, j, color.getRGB());
+                // store the resulting color in the pixel (the only conversion to 8 bits)
+                frameBuffer.set(i, j, color);
             }
         }
-
-        return image;
     }
 
     @Deprecated
@@ -181,125 +398,188 @@ public class Raytracer {
         return color;
     }
 
+    /**
+     * The temporaries of one traceRay() call. Every recursion depth of every thread has its own,
+     * so tracing a ray creates (almost) no garbage.
+     */
+    private static class TraceScratch {
+        final Ray.RayHitResult hit = new Ray.RayHitResult(null, Double.MAX_VALUE);
+        final Vector3 intersectionPos = new Vector3();
+        final Vector3 surfaceNormal = new Vector3();
+        final Vector3 surfToView = new Vector3();
+        final Vector3 surfaceToLight = new Vector3();
+        final Vector3 offset = new Vector3();
+        final Ray shadowRay = new Ray();
+        final Ray reflRay = new Ray();
+        final Radiance light = new Radiance();
+        final Radiance reflection = new Radiance();
+        final Radiance material = new Radiance();
+        /**
+         * How far the ray of this depth has travelled from the camera, over all bounces, up to its hit.
+         */
+        double distance;
+    }
+
+    /**
+     * Below this cosine between the normal and the view direction, the footprint of a pixel stops growing:
+     * without anisotropic filtering, surfaces seen at grazing angles would blur into the coarsest mip level.
+     */
+    private static final double MIN_FOOTPRINT_COSINE = 0.125;
+
+    private static final ThreadLocal<TraceScratch[]> traceScratch = ThreadLocal.withInitial(() -> new TraceScratch[0]);
+
+    private static TraceScratch traceScratch(int depth) {
+        TraceScratch[] scratch = traceScratch.get();
+        if (depth >= scratch.length) { // grows once per thread, up to the maximum bounce depth
+            TraceScratch[] grown = Arrays.copyOf(scratch, depth + 1);
+            for (int i = scratch.length; i < grown.length; i++) grown[i] = new TraceScratch();
+            traceScratch.set(grown);
+            scratch = grown;
+        }
+        return scratch[depth];
+    }
+
     // inspiration for this from here: https://www.youtube.com/watch?v=m_IeoWvSbQI
     // and the tutorial
     public static Color traceRay(Scene scene, Ray ray, int depth, Vector3 currentView) {
+        return traceRay(scene, ray, depth, currentView, new Radiance()).toColor();
+    }
+
+    /**
+     * Traces a ray through the scene.
+     * The color stays in linear floating point through all lights and bounces;
+     * only the renderer converts it to 8 bits (Radiance.toRGB), once per pixel.
+     * @param scene the scene
+     * @param ray the ray
+     * @param depth the current recursion depth (0 for primary rays)
+     * @param currentView the point the ray is seen from
+     * @param result receives the color
+     * @return result
+     */
+    public static Radiance traceRay(Scene scene, Ray ray, int depth, Vector3 currentView, Radiance result) {
         //initialize the color to black
-        Color color = Color.BLACK;
+        result.set(0, 0, 0);
 
         // Check how deep into the recursion we are, and abort if we must.
-        if (depth > scene.getCamera().getMaxBounces()) return color;
+        if (depth > scene.getCamera().getMaxBounces()) return result;
 
-        // find closest intersection i
-        // For all objects in the scene, do an intersection test.
-        double t = Double.MAX_VALUE-1; // the t-parameter of the ray where we intersect
-        Surface closestSurface = null;
-
-        for (Surface s : scene.getSurfaces()) {
-            double tt = s.intersect(ray);
-            // if this new value is in front of our ray (that is, positive)
-            // and if it is smaller than t, we have a new closest object!
-            if ((tt > 0) && (tt < t)) {
-                closestSurface = s;
-                t = tt;
-            }
+        if (RenderStats.ENABLED) {
+            RenderStats.Counters stats = RenderStats.local();
+            if (depth == 0) stats.primaryRays++;
+            else stats.reflectionRays++;
+            if (depth > stats.maxDepth) stats.maxDepth = depth;
         }
 
+        // All vectors of this call live in the scratch of this depth (see TraceScratch).
+        TraceScratch tmp = traceScratch(depth);
+
+        // find closest intersection i
+        // The scene's BVH only tests the objects whose bounding boxes the ray passes through.
+        Ray.RayHitResult hit = scene.intersect(ray, tmp.hit);
+        double t = hit.t; // the t-parameter of the ray where we intersect
+        Surface closestSurface = hit.surface;
+
         if (closestSurface == null) { // if no intersection was found
             // add the background color
-            return scene.getBackgroundColor();
+            return result.set(scene.getBackgroundColor());
             // return ray.toColor(1); // ray direction colored background for debugging
         }
 
+        return shade(scene, ray, closestSurface, t, depth, currentView, null, result);
+    }
+
+    /**
+     * Computes the color where a ray hits a surface: ambient light, Phong for every unshadowed light, and reflections.
+     * @param scene the scene
+     * @param ray the ray
+     * @param closestSurface the surface that the ray hits first
+     * @param t the ray parameter of the hit
+     * @param depth the current recursion depth (0 for primary rays)
+     * @param currentView the point the ray is seen from
+     * @param shadowed for every light, whether the hit point is in its shadow (e.g. traced as a packet);
+     *                 null to trace the shadow rays here
+     * @param result receives the color
+     * @return result
+     */
+    public static Radiance shade(Scene scene, Ray ray, Surface closestSurface, double t, int depth, Vector3 currentView,
+                                 boolean[] shadowed, Radiance result) {
+        TraceScratch tmp = traceScratch(depth);
+
         // An intersection exists! Now, we compute the color.
         // For this, we need to know the position where we intersected the element:
-        Vector3 intersectionPos = ray.at(t);
-        // todo: transform intersection position from object to world space
+        Vector3 intersectionPos = ray.at(t, tmp.intersectionPos);
 
         // Pre-calculate important variables at the reflection point.
-        Vector3 surfaceNormal = closestSurface.surfaceNormal(intersectionPos);
-        Vector3 surfToView = currentView.subtract(intersectionPos).normalize();
+        Vector3 surfaceNormal = closestSurface.surfaceNormal(intersectionPos, tmp.surfaceNormal);
+        Vector3 surfToView = Vector3.normalize(Vector3.subtract(currentView, intersectionPos, tmp.surfToView), tmp.surfToView);
 
-        // We need to sum up red, green and blue over all lights:
-        int r = 0, g = 0, b = 0;
+        // The material color is the same for all lights, so it is looked up once.
+        // Textures are filtered over the footprint of the pixel: its cone widens with the distance along the
+        // whole path (reflections keep the angle, the curvature of mirrors is ignored) and stretches at grazing angles.
+        tmp.distance = (depth > 0 ? traceScratch(depth - 1).distance : 0) + t;
+        double cosine = Math.max(MIN_FOOTPRINT_COSINE, Math.abs(surfaceNormal.dot(surfToView)));
+        double footprint = tmp.distance * scene.getCamera().getPixelSpread() / cosine;
+        Radiance materialColor = closestSurface.getMaterial().getMaterialColor(closestSurface, intersectionPos, footprint, tmp.material);
 
+        // We need to sum up red, green and blue over all lights:
         // First, factor in the ambient light.
-        Color amb = closestSurface.illuminateAmbient(intersectionPos);
-        r += amb.getRed();
-        g += amb.getGreen();
-        b += amb.getBlue();
+        closestSurface.illuminateAmbient(materialColor, result);
 
         // Basic Phong: Find each light source and compute the phong illumination.
+        Vector3 surfaceToLight = tmp.surfaceToLight;
         for (int i = 0; i < scene.getLights().size(); i++) {
             // Compute the required vectors for phong illumination:
-            Vector3 surfaceToLight = null;
-
-            // Which kind of light source is it?
-            if (scene.getLights().get(i) instanceof ParallelLight) {
-                ParallelLight light = (ParallelLight)scene.getLights().get(i);
-                surfaceToLight = light.getDirection().multiply(-1).normalize(); // inverse
-            } else if (scene.getLights().get(i) instanceof PointLight) {
-                PointLight light = (PointLight)scene.getLights().get(i);
-                surfaceToLight = light.getPosition().subtract(intersectionPos).normalize();
-            } else if (scene.getLights().get(i) instanceof SpotLight) {
-                SpotLight light = (SpotLight)scene.getLights().get(i);
-                // TODO implement this properly
-                surfaceToLight = light.getPosition().subtract(intersectionPos).normalize();
-            } else throw new RuntimeException("Unknown light type!");
+            // Only things between us and the light cast a shadow, so we also need the distance to the light.
+            double lightDistance = toLight(scene.getLights().get(i), intersectionPos, surfaceToLight);
 
             // Are we shadowed?
             // We start from a slightly offset position so that we don't get shadowed by "ourself".
-            Vector3 ipOffset = intersectionPos.add(surfaceNormal.multiply(MathUtils.EPSILON));
-            Ray shadowRay = new Ray(ipOffset, surfaceToLight);
-            boolean shadowed = false;
-            for (Surface s : scene.getSurfaces()) {
-                double tt = s.intersect(shadowRay);
-                if (tt > 0 && tt < Double.MAX_VALUE) {
-                    shadowed = true; break; // TODO adjust for translucent things
-                }
+            // Any surface in front of the light will do, so this is an any-hit query that stops at the first one.
+            if (shadowed != null) {
+                if (shadowed[i]) continue;
+            } else {
+                Ray shadowRay = tmp.shadowRay.set(shadowOrigin(intersectionPos, surfaceNormal, tmp.offset), surfaceToLight);
+                if (RenderStats.ENABLED) RenderStats.local().shadowRays++;
+                // if (shadowed) return Color.CYAN; // colored shadow for debugging
+                if (scene.occluded(shadowRay, lightDistance)) continue; // TODO adjust for translucent things
             }
 
-            // if (shadowed) return Color.CYAN; // colored shadow for debugging
-            if (shadowed) continue;
-
             // Compute color
-            Color phong = closestSurface.illuminate(
-                    scene.getLights().get(i).getColor(),
-                    intersectionPos,
+            Radiance phong = closestSurface.illuminate(
+                    materialColor,
+                    scene.getLights().get(i).getRadiance(),
                     surfaceToLight,
                     surfaceNormal,
                     surfToView,
-                    scene.getAmbientLight() == null
+                    scene.getAmbientLight() == null,
+                    tmp.light
             );
 
-            r += phong.getRed();
-            g += phong.getGreen();
-            b += phong.getBlue();
+            result.add(phong);
         }
 
         // if reflectivity > 0
         if (closestSurface.getMaterial().getReflectance() > 0) {
             // ############# compute reflected ray #############
             // Perfect reflection formula: 2*(n.l)n - l
-            Vector3 reflDir = surfaceNormal.multiply(
-                    2*Math.max(0, surfaceNormal.dot(surfToView))
-            ).subtract(surfToView).normalize();
+            // (the light vector is not needed anymore, so it holds the reflected direction)
+            Vector3 reflDir = Vector3.multiply(surfaceNormal, 2*Math.max(0, surfaceNormal.dot(surfToView)), surfaceToLight);
+            Vector3.normalize(Vector3.subtract(reflDir, surfToView, reflDir), reflDir);
 
-            Ray reflRay = new Ray(
-                    intersectionPos.add(reflDir.multiply(MathUtils.EPSILON)),
+            Ray reflRay = tmp.reflRay.set(
+                    Vector3.scaleAdd(intersectionPos, reflDir, MathUtils.EPSILON, tmp.offset),
                     reflDir
             );
 
             // ############# Trace it #############
             // Now we trace this ray - recursively!
-            Color reflColor = traceRay(scene, reflRay, depth+1, reflRay.getOriginPoint());
+            // (deeper calls use their own scratch, so reflRay stays intact)
+            Radiance reflColor = traceRay(scene, reflRay, depth+1, reflRay.getOriginPoint(), tmp.reflection);
 
             // ############# add contribution to output #############
-            float rf = (float)closestSurface.getMaterial().getReflectance();
+            double rf = closestSurface.getMaterial().getReflectance();
             // todo review this if necessary
-            r = Math.round((1-rf)*r + rf*reflColor.getRed());
-            g = Math.round((1-rf)*g + rf*reflColor.getGreen());
-            b = Math.round((1-rf)*b + rf*reflColor.getBlue());
+            result.blend(reflColor, rf);
         }
 
         // TODO: if transmittivity > 0
@@ -307,11 +587,42 @@ public class Raytracer {
 
         }
 
+        return result;
+    }
 
-        return new Color(
-                Math.max(0, Math.min(255, r)),
-                Math.max(0, Math.min(255, g)),
-                Math.max(0, Math.min(255, b))
-        );
+    /**
+     * Computes the direction from a point to a light, and how far away the light is.
+     * @param light the light
+     * @param at the point
+     * @param surfaceToLight receives the normalized direction towards the light
+     * @return the distance to the light (Double.MAX_VALUE for parallel lights, which are infinitely far away)
+     */
+    public static double toLight(Light light, Vector3 at, Vector3 surfaceToLight) {
+        // Which kind of light source is it?
+        if (light instanceof ParallelLight) {
+            Vector3.normalize(Vector3.multiply(((ParallelLight) light).getDirection(), -1, surfaceToLight), surfaceToLight); // inverse
+            return Double.MAX_VALUE; // infinitely far away
+        } else if (light instanceof PointLight) {
+            double lightDistance = Vector3.subtract(((PointLight) light).getPosition(), at, surfaceToLight).length();
+            Vector3.normalize(surfaceToLight, surfaceToLight);
+            return lightDistance;
+        } else if (light instanceof SpotLight) {
+            // TODO implement this properly
+            double lightDistance = Vector3.subtract(((SpotLight) light).getPosition(), at, surfaceToLight).length();
+            Vector3.normalize(surfaceToLight, surfaceToLight);
+            return lightDistance;
+        } else throw new RuntimeException("Unknown light type!");
+    }
+
+    /**
+     * Where the shadow rays of a hit point start: slightly offset along the normal,
+     * so that the surface does not shadow "itself".
+     * @param at the hit point
+     * @param surfaceNormal the normal at the hit point
+     * @param dest receives the origin
+     * @return dest
+     */
+    public static Vector3 shadowOrigin(Vector3 at, Vector3 surfaceNormal, Vector3 dest) {
+        return Vector3.scaleAdd(at, surfaceNormal, MathUtils.EPSILON, dest);
     }
 }
@@ -0,0 +1,320 @@
+package raytracer;
+
+import raytracer.io.ImageWriter;
+import raytracer.io.MeshCache;
+import raytracer.render.AdaptiveRenderer;
+import raytracer.render.PacketTracer;
+import raytracer.render.TileRenderer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command line options that control how a scene is rendered.
+ * Options start with "--" and may appear anywhere; everything else is kept as a positional argument.
+ */
+public class RenderOptions {
+
+    /**
+     * How many threads render the image. 1 selects the serial renderer.
+     */
+    private int threads = 1;
+    /**
+     * The edge length (in pixels) of a tile for the parallel renderer.
+     */
+    private int tileSize = TileRenderer.DEFAULT_TILE_SIZE;
+    /**
+     * The edge length (in pixels) of the blocks traced as ray packets (see PacketTracer); 0 traces every ray on its own.
+     */
+    private int packetSize = 0;
+    /**
+     * The port a render farm coordinator listens on (see RenderCoordinator); -1 renders on this machine only.
+     */
+    private int farmPort = -1;
+    /**
+     * How many local worker processes the coordinator starts.
+     */
+    private int farmWorkers = 0;
+    /**
+     * The keyframe file of an animation to render (see AnimationParser); null renders a single image.
+     */
+    private String animation = null;
+    /**
+     * Whether to render coarse-to-fine and write previews while rendering (see ProgressiveRenderer).
+     */
+    private boolean progressive = false;
+    /**
+     * The minimum time between two previews, in milliseconds.
+     */
+    private long previewInterval = 2000;
+    /**
+     * Whether to anti-alias with adaptive supersampling (see AdaptiveRenderer).
+     */
+    private boolean antiAliasing = false;
+    /**
+     * The samples every pixel gets with anti-aliasing; a square number.
+     */
+    private int minSamples = AdaptiveRenderer.DEFAULT_MIN_SAMPLES;
+    /**
+     * The most samples a pixel can get with anti-aliasing.
+     */
+    private int maxSamples = AdaptiveRenderer.DEFAULT_MAX_SAMPLES;
+    /**
+     * The difference of a color channel (0..1) that makes a pixel take more samples.
+     */
+    private double aaThreshold = AdaptiveRenderer.DEFAULT_THRESHOLD;
+    /**
+     * The format of the written images: "png", "ppm", the HDR formats "exr" and "pfm",
+     * or any other format ImageIO can write (see ImageWriter).
+     */
+    private String format = ImageWriter.PNG;
+    /**
+     * Whether to print render statistics (see RenderStats).
+     */
+    private boolean stats = false;
+    /**
+     * Whether to also write the statistics as JSON next to the image.
+     */
+    private boolean statsJson = false;
+    /**
+     * Where parsed meshes are cached (see MeshCache); null disables the cache.
+     */
+    private File meshCacheDirectory = MeshCache.getDirectory();
+    /**
+     * All arguments that are not options, in their original order.
+     */
+    private List<String> arguments = new ArrayList<>();
+
+    /**
+     * Parses the command line.
+     * @param args the raw command line arguments
+     * @return the parsed options
+     * @throws IllegalArgumentException for unknown options or missing/illegal values
+     */
+    public static RenderOptions parse(String[] args) {
+        RenderOptions options = new RenderOptions();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                options.arguments.add(arg);
+                continue;
+            }
+
+            switch (arg) {
+                case "--threads":
+                    // 0 means "one thread per core"
+                    int n = parseInt(args, ++i, arg);
+                    options.threads = n == 0 ? Runtime.getRuntime().availableProcessors() : n;
+                    break;
+                case "--tile":
+                    options.tileSize = parseInt(args, ++i, arg);
+                    break;
+                case "--packet":
+                    options.packetSize = parseInt(args, ++i, arg);
+                    break;
+                case "--farm":
+                    options.farmPort = parseInt(args, ++i, arg);
+                    break;
+                case "--farm-workers":
+                    if (options.farmPort < 0) options.farmPort = 0; // any free port will do for local workers
+                    options.farmWorkers = parseInt(args, ++i, arg);
+                    break;
+                case "--animate":
+                    if (++i >= args.length) throw new IllegalArgumentException("Missing value for option " + arg);
+                    options.animation = args[i];
+                    break;
+                case "--progressive":
+                    options.progressive = true;
+                    break;
+                case "--preview-interval":
+                    options.previewInterval = parseInt(args, ++i, arg);
+                    break;
+                case "--aa":
+                    options.antiAliasing = true;
+                    break;
+                case "--aa-min":
+                    options.antiAliasing = true;
+                    options.minSamples = parseInt(args, ++i, arg);
+                    break;
+                case "--aa-max":
+                    options.antiAliasing = true;
+                    options.maxSamples = parseInt(args, ++i, arg);
+                    break;
+                case "--aa-threshold":
+                    options.antiAliasing = true;
+                    options.aaThreshold = parseDouble(args, ++i, arg);
+                    break;
+                case "--format":
+                    if (++i >= args.length) throw new IllegalArgumentException("Missing value for option " + arg);
+                    options.format = args[i].toLowerCase(Locale.ROOT);
+                    break;
+                case "--stats-json":
+                    options.statsJson = true;
+                    options.stats = true; // JSON statistics need statistics
+                    break;
+                case "--stats":
+                    options.stats = true;
+                    break;
+                case "--mesh-cache":
+                    if (++i >= args.length) throw new IllegalArgumentException("Missing value for option " + arg);
+                    options.meshCacheDirectory = new File(args[i]);
+                    break;
+                case "--no-mesh-cache":
+                    options.meshCacheDirectory = null;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        if (options.threads < 1) throw new IllegalArgumentException("--threads must not be negative!");
+        if (options.tileSize < 1) throw new IllegalArgumentException("--tile must be positive!");
+        if (options.packetSize < 0 || options.packetSize > PacketTracer.MAX_PACKET_SIZE) {
+            throw new IllegalArgumentException("--packet must be between 0 and " + PacketTracer.MAX_PACKET_SIZE + "!");
+        }
+        if (options.farmPort > 65535) throw new IllegalArgumentException("--farm must be a port number!");
+        if (options.farmWorkers < 0) throw new IllegalArgumentException("--farm-workers must not be negative!");
+        if (options.isFarm() && (options.progressive || options.antiAliasing)) {
+            throw new IllegalArgumentException("--farm cannot be combined with --progressive or --aa!");
+        }
+        if (options.isFarm() && options.stats) {
+            // the rays are traced, and counted, in the worker processes
+            throw new IllegalArgumentException("--farm cannot be combined with --stats or --stats-json!");
+        }
+        if (options.isFarm() && ImageWriter.isHdr(options.format)) {
+            throw new IllegalArgumentException("--farm only renders 8-bit images, not --format " + options.format + "!");
+        }
+        if (options.animation != null && (options.isFarm() || options.progressive || options.antiAliasing)) {
+            throw new IllegalArgumentException("--animate cannot be combined with --farm, --progressive or --aa!");
+        }
+        if (options.previewInterval < 0) throw new IllegalArgumentException("--preview-interval must not be negative!");
+        if (options.antiAliasing) {
+            int strata = (int) Math.round(Math.sqrt(options.minSamples));
+            if (options.minSamples < 1 || strata * strata != options.minSamples) throw new IllegalArgumentException("--aa-min must be a square number!");
+            if (options.maxSamples < options.minSamples) throw new IllegalArgumentException("--aa-max must not be less than --aa-min!");
+            if (options.aaThreshold < 0) throw new IllegalArgumentException("--aa-threshold must not be negative!");
+            if (options.progressive) throw new IllegalArgumentException("--aa cannot be combined with --progressive!");
+        }
+
+        return options;
+    }
+
+    private static int parseInt(String[] args, int index, String option) {
+        if (index >= args.length) throw new IllegalArgumentException("Missing value for option " + option);
+        try {
+            return Integer.parseInt(args[index]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Illegal value for option " + option + ": " + args[index]);
+        }
+    }
+
+    private static double parseDouble(String[] args, int index, String option) {
+        if (index >= args.length) throw new IllegalArgumentException("Missing value for option " + option);
+        try {
+            return Double.parseDouble(args[index]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Illegal value for option " + option + ": " + args[index]);
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    /**
+     * @return whether to render on a render farm
+     */
+    public boolean isFarm() {
+        return farmPort >= 0;
+    }
+
+    public int getFarmPort() {
+        return farmPort;
+    }
+
+    public int getFarmWorkers() {
+        return farmWorkers;
+    }
+
+    public String getAnimation() {
+        return animation;
+    }
+
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    public long getPreviewInterval() {
+        return previewInterval;
+    }
+
+    public boolean isAntiAliasing() {
+        return antiAliasing;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    public double getAaThreshold() {
+        return aaThreshold;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public boolean isStats() {
+        return stats;
+    }
+
+    public boolean isStatsJson() {
+        return statsJson;
+    }
+
+    public File getMeshCacheDirectory() {
+        return meshCacheDirectory;
+    }
+
+    public String[] getArguments() {
+        return arguments.toArray(new String[0]);
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.RenderOptions[" +
+                "threads=" + threads +
+                ", tileSize=" + tileSize +
+                ", packetSize=" + packetSize +
+                ", farmPort=" + farmPort +
+                ", farmWorkers=" + farmWorkers +
+                ", animation=" + animation +
+                ", progressive=" + progressive +
+                ", previewInterval=" + previewInterval +
+                ", antiAliasing=" + antiAliasing +
+                ", minSamples=" + minSamples +
+                ", maxSamples=" + maxSamples +
+                ", aaThreshold=" + aaThreshold +
+                ", format=" + format +
+                ", stats=" + stats +
+                ", statsJson=" + statsJson +
+                ", meshCacheDirectory=" + meshCacheDirectory +
+                ", arguments=" + arguments +
+                ']';
+    }
+}
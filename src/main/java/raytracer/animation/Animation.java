@@ -0,0 +1,122 @@
+package raytracer.animation;
+
+import raytracer.graphics.Scene;
+import raytracer.graphics.trafo.Transformation;
+import raytracer.math.Vector3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keyframes for the camera and surface transformations of a scene (see AnimationParser).
+ * An animation does not copy the scene: it moves the camera and surfaces of the one scene to where they are in a
+ * frame, so meshes, textures and the BVHs of meshes are loaded once and serve every frame.
+ */
+public class Animation {
+
+    /**
+     * How many frames to render: 0 to frameCount - 1.
+     */
+    private final int frameCount;
+    /**
+     * The file name of a frame (without extension) as a String.format pattern with the frame number;
+     * null to name frames after the output file of the scene.
+     */
+    private String outputPattern = null;
+    private final List<Track> tracks = new ArrayList<>();
+
+    /**
+     * @param target Track.CAMERA, or the index of a surface
+     * @param channel the part of the transformation
+     * @return the track for them, created if there is none yet
+     */
+    public Track track(int target, Track.Channel channel) {
+        if (target == Track.CAMERA && channel == Track.Channel.SCALE) throw new IllegalArgumentException("The camera cannot be scaled");
+        for (Track track : tracks) {
+            if (track.getTarget() == target && track.getChannel() == channel) return track;
+        }
+        Track track = new Track(target, channel);
+        tracks.add(track);
+        return track;
+    }
+
+    /**
+     * Moves the camera and the surfaces to where they are in a frame. Transformations that do not change
+     * are left alone, so surfaces that do not move keep their cached object space data.
+     * Must not run while the scene is rendered.
+     * @param scene the scene
+     * @param frame the frame number
+     * @return true if any surface moved, i.e. the BVH of the scene must be refitted (see Scene.refitBVH)
+     * @throws IllegalArgumentException if a track targets a surface the scene does not have
+     */
+    public boolean apply(Scene scene, int frame) {
+        boolean moved = false;
+        for (Track track : tracks) {
+            Transformation transformation;
+            if (track.getTarget() == Track.CAMERA) {
+                transformation = scene.getCamera().transformation;
+            } else if (track.getTarget() < scene.getSurfaces().size()) {
+                transformation = scene.getSurfaces().get(track.getTarget()).getTransformation();
+            } else {
+                throw new IllegalArgumentException("Keyframes for surface " + track.getTarget() + ", but the scene has only " + scene.getSurfaces().size());
+            }
+
+            Vector3 value = track.valueAt(frame);
+            if (value == null) continue;
+            switch (track.getChannel()) {
+                case TRANSLATE:
+                    if (value.equals(transformation.getTranslation())) continue;
+                    transformation.setTranslation(value);
+                    break;
+                case ROTATE:
+                    if (value.equals(transformation.getRotationDegrees())) continue;
+                    transformation.setRotationDegrees(value);
+                    break;
+                case SCALE:
+                    if (value.equals(transformation.getScale())) continue;
+                    transformation.setScale(value);
+                    break;
+            }
+            if (track.getTarget() != Track.CAMERA) moved = true;
+        }
+        return moved;
+    }
+
+    /**
+     * @param frame the frame number
+     * @param sceneOutput the output file name of the scene (see Scene.getOutputFileName)
+     * @return the file name of the frame, without extension
+     */
+    public String getOutputName(int frame, String sceneOutput) {
+        if (outputPattern != null) return String.format(outputPattern, frame);
+        String base = sceneOutput.endsWith(".png") ? sceneOutput.substring(0, sceneOutput.length() - 4) : sceneOutput;
+        return String.format("%s_%04d", base, frame);
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public String getOutputPattern() {
+        return outputPattern;
+    }
+
+    public void setOutputPattern(String outputPattern) {
+        this.outputPattern = outputPattern;
+    }
+
+    public List<Track> getTracks() {
+        return Collections.unmodifiableList(tracks);
+    }
+
+    public Animation(int frameCount) {
+        if (frameCount < 1) throw new IllegalArgumentException("An animation needs at least one frame: " + frameCount);
+        this.frameCount = frameCount;
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.animation.Animation[frames=" + frameCount + ", outputPattern=" + outputPattern + ", tracks=" + tracks + ']';
+    }
+}
@@ -0,0 +1,89 @@
+package raytracer.animation;
+
+import raytracer.math.Vector3;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The keyframes of one part (translation, rotation or scale) of one transformation: of the camera or of a surface.
+ * Between two keyframes, the value is interpolated linearly; before the first and after the last, it is held.
+ */
+public class Track {
+
+    /**
+     * Which part of a transformation a track animates.
+     */
+    public enum Channel {
+        TRANSLATE, ROTATE, SCALE
+    }
+
+    /**
+     * The target of camera tracks; surfaces are targeted by their index in Scene.getSurfaces().
+     */
+    public static final int CAMERA = -1;
+
+    /**
+     * CAMERA, or the index of the surface.
+     */
+    private final int target;
+    private final Channel channel;
+    /**
+     * The keyframes: frame number to value.
+     */
+    private final TreeMap<Double, Vector3> keys = new TreeMap<>();
+
+    /**
+     * Adds a keyframe, replacing one at the same frame.
+     * @param frame the frame number (may be fractional)
+     * @param value the translation, the rotation in degrees, or the scale at that frame
+     */
+    public void addKey(double frame, Vector3 value) {
+        keys.put(frame, value);
+    }
+
+    /**
+     * @param frame the frame number
+     * @return the interpolated value at that frame, or null if the track has no keyframes
+     */
+    public Vector3 valueAt(double frame) {
+        Map.Entry<Double, Vector3> before = keys.floorEntry(frame);
+        Map.Entry<Double, Vector3> after = keys.ceilingEntry(frame);
+        if (before == null) return after == null ? null : after.getValue();
+        if (after == null || before.getKey().equals(after.getKey())) return before.getValue();
+
+        double s = (frame - before.getKey()) / (after.getKey() - before.getKey());
+        Vector3 a = before.getValue(), b = after.getValue();
+        return new Vector3(
+                a.getX() + (b.getX() - a.getX()) * s,
+                a.getY() + (b.getY() - a.getY()) * s,
+                a.getZ() + (b.getZ() - a.getZ()) * s);
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the number of keyframes
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    public Track(int target, Channel channel) {
+        if (target < CAMERA) throw new IllegalArgumentException("Illegal track target: " + target);
+        this.target = target;
+        this.channel = channel;
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.animation.Track[" + (target == CAMERA ? "camera" : "surface " + target) +
+                ", " + channel + ", keys=" + keys + ']';
+    }
+}
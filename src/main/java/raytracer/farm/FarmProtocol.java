@@ -0,0 +1,36 @@
+package raytracer.farm;
+
+/**
+ * The messages between a RenderCoordinator and its RenderWorkers, sent with DataOutputStream (big-endian).
+ *
+ * worker      -> coordinator  MAGIC, VERSION, threads (ints): the worker can render that many tiles at once
+ * coordinator -> worker       SCENE, SceneBundle
+ * worker      -> coordinator  READY once the scene is parsed, or ERROR, message (UTF)
+ * coordinator -> worker       TILE, id, x0, y0, x1, y1 (ints); up to "threads" tiles are outstanding
+ * worker      -> coordinator  PIXELS, id, then the ARGB pixels of the tile row by row (ints), or ERROR, message
+ * coordinator -> worker       DONE when all tiles are finished
+ *
+ * A worker that disconnects, sends ERROR or does not answer within the timeout is dropped,
+ * and its outstanding tiles go to the other workers.
+ */
+final class FarmProtocol {
+
+    /**
+     * "RTFW" as big-endian int.
+     */
+    static final int MAGIC = 'R' << 24 | 'T' << 16 | 'F' << 8 | 'W';
+    /**
+     * Increment whenever a message changes.
+     */
+    static final int VERSION = 1;
+
+    static final byte SCENE = 1;
+    static final byte READY = 2;
+    static final byte TILE = 3;
+    static final byte PIXELS = 4;
+    static final byte DONE = 5;
+    static final byte ERROR = 6;
+
+    private FarmProtocol() {
+    }
+}
@@ -0,0 +1,353 @@
+package raytracer.farm;
+
+import raytracer.image.FrameBuffer;
+import raytracer.render.Tile;
+import raytracer.render.TileRenderer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders one frame on worker processes (see RenderWorker), possibly on other machines.
+ *
+ * The coordinator listens on a TCP port. Every worker that connects gets the scene as a SceneBundle, parses it,
+ * and is then handed tiles one by one, as many at once as it has threads (see FarmProtocol). Tiles are taken from
+ * a shared queue, so fast workers simply take more of them, and workers may join while the frame is rendered.
+ * If a worker disconnects, reports an error or does not answer within the timeout, its outstanding tiles go back
+ * to the front of the queue; a tile that fails on maxAttempts workers fails the whole frame.
+ * Workers trace every pixel exactly like the serial renderer, so the assembled image is the same.
+ */
+public class RenderCoordinator implements Closeable {
+
+    /**
+     * The default for how long a worker may take to answer, and how long the frame may go without any worker, in ms.
+     */
+    public static final int DEFAULT_TIMEOUT = 10 * 60 * 1000;
+    /**
+     * The default for how many workers may fail on a tile before the frame is given up.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /**
+     * The scene, as shipped to every worker.
+     */
+    private final SceneBundle bundle;
+    /**
+     * The resolution of the frame.
+     */
+    private final int width;
+    private final int height;
+    /**
+     * The edge length (in pixels) of a tile.
+     */
+    private final int tileSize;
+    private final ServerSocket server;
+
+    private int timeout = DEFAULT_TIMEOUT;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    /**
+     * A tile and how often it failed.
+     */
+    private static class Job {
+        final int id;
+        final Tile tile;
+        int attempts = 0;
+
+        Job(int id, Tile tile) {
+            this.id = id;
+            this.tile = tile;
+        }
+    }
+
+    /**
+     * The tiles no worker has; failed tiles are put back at the front.
+     */
+    private final LinkedBlockingDeque<Job> pending = new LinkedBlockingDeque<>();
+    /**
+     * Counts down for every finished tile.
+     */
+    private CountDownLatch remaining;
+    /**
+     * Set when the frame is finished or given up; workers then get DONE (or are disconnected).
+     */
+    private volatile boolean done = false;
+    private volatile RuntimeException failure = null;
+    /**
+     * The connections of all workers, to disconnect them if the frame fails.
+     */
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger connectedWorkers = new AtomicInteger();
+    private final AtomicInteger joinedWorkers = new AtomicInteger();
+    private final AtomicInteger retriedTiles = new AtomicInteger();
+
+    /**
+     * Renders the frame: waits for workers, hands out all tiles and assembles their pixels.
+     * A coordinator renders a single frame; afterwards it stops listening.
+     * @return the frame
+     * @throws RuntimeException if a tile failed on maxAttempts workers, or no worker was connected for the timeout
+     */
+    public FrameBuffer render() {
+        FrameBuffer frameBuffer = new FrameBuffer(width, height);
+        List<Tile> tiles = TileRenderer.splitIntoTiles(width, height, tileSize);
+        for (int i = 0; i < tiles.size(); i++) pending.add(new Job(i, tiles.get(i)));
+        remaining = new CountDownLatch(tiles.size());
+
+        Thread acceptor = new Thread(() -> accept(frameBuffer), "render-farm-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        try {
+            long idleSince = System.nanoTime();
+            while (!remaining.await(100, TimeUnit.MILLISECONDS)) {
+                if (failure != null) throw failure;
+                if (connectedWorkers.get() > 0) {
+                    idleSince = System.nanoTime();
+                } else if (System.nanoTime() - idleSince > TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                    fail(new RuntimeException("No render worker for " + timeout / 1000 + " s, "
+                            + remaining.getCount() + " of " + tiles.size() + " tiles left"));
+                    throw failure;
+                }
+            }
+            return frameBuffer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new RuntimeException("Interrupted while rendering", e));
+            throw failure;
+        } finally {
+            // the workers get DONE from their connection threads
+            done = true;
+            closeQuietly(server);
+        }
+    }
+
+    /**
+     * Accepts workers until the server socket is closed.
+     */
+    private void accept(FrameBuffer frameBuffer) {
+        while (!done) {
+            try {
+                Socket socket = server.accept();
+                Thread thread = new Thread(() -> serve(socket, frameBuffer), "render-farm-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!done) System.out.println(" WARNING: Render farm stopped accepting workers: " + e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Talks to one worker until the frame is done or the worker fails.
+     */
+    private void serve(Socket socket, FrameBuffer frameBuffer) {
+        List<Job> outstanding = new ArrayList<>();
+        connections.add(socket);
+        connectedWorkers.incrementAndGet();
+        try {
+            socket.setSoTimeout(timeout);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            // handshake: the worker introduces itself and gets the scene
+            if (in.readInt() != FarmProtocol.MAGIC) throw new IOException("not a render worker");
+            int version = in.readInt();
+            if (version != FarmProtocol.VERSION) throw new IOException("protocol version " + version + ", expected " + FarmProtocol.VERSION);
+            int window = Math.max(1, Math.min(in.readInt(), 256));
+            out.writeByte(FarmProtocol.SCENE);
+            bundle.write(out);
+            out.flush();
+            expect(in, FarmProtocol.READY);
+            joinedWorkers.incrementAndGet();
+
+            while (!done) {
+                // keep every thread of the worker busy
+                Job job;
+                while (outstanding.size() < window && (job = pending.poll()) != null) send(out, job, outstanding);
+                if (outstanding.isEmpty()) {
+                    if (remaining.getCount() == 0) break;
+                    // the other tiles are on other workers, but they may fail and bring them back
+                    job = pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (job != null) send(out, job, outstanding);
+                    continue;
+                }
+                out.flush();
+
+                expect(in, FarmProtocol.PIXELS);
+                job = find(outstanding, in.readInt());
+                Tile tile = job.tile;
+                int[] pixels = frameBuffer.getPixels();
+                for (int y = tile.getY0(); y < tile.getY1(); y++) {
+                    for (int x = tile.getX0(); x < tile.getX1(); x++) pixels[y * width + x] = in.readInt();
+                }
+                // only now: if the worker fails halfway through the pixels, the tile is still retried
+                outstanding.remove(job);
+                remaining.countDown();
+            }
+
+            out.writeByte(FarmProtocol.DONE);
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            if (!done) System.out.println(" WARNING: Render worker " + socket.getRemoteSocketAddress() + " failed: " + e);
+            for (Job job : outstanding) retry(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Job job : outstanding) retry(job);
+        } finally {
+            connectedWorkers.decrementAndGet();
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void send(DataOutputStream out, Job job, List<Job> outstanding) throws IOException {
+        Tile tile = job.tile;
+        out.writeByte(FarmProtocol.TILE);
+        out.writeInt(job.id);
+        out.writeInt(tile.getX0());
+        out.writeInt(tile.getY0());
+        out.writeInt(tile.getX1());
+        out.writeInt(tile.getY1());
+        outstanding.add(job);
+    }
+
+    private static Job find(List<Job> outstanding, int id) throws IOException {
+        for (Job job : outstanding) {
+            if (job.id == id) return job;
+        }
+        throw new IOException("pixels of tile " + id + ", which the worker does not have");
+    }
+
+    /**
+     * Reads the next message type; an ERROR is turned into an exception with the worker's message.
+     */
+    private static void expect(DataInputStream in, byte type) throws IOException {
+        byte actual = in.readByte();
+        if (actual == FarmProtocol.ERROR) throw new IOException(in.readUTF());
+        if (actual != type) throw new IOException("unexpected message " + actual + ", expected " + type);
+    }
+
+    /**
+     * Puts the tile of a failed worker back at the front of the queue, or gives up the frame.
+     */
+    private void retry(Job job) {
+        job.attempts++;
+        if (job.attempts >= maxAttempts) {
+            fail(new RuntimeException("Tile " + job.tile + " failed on " + job.attempts + " render workers"));
+            return;
+        }
+        retriedTiles.incrementAndGet();
+        pending.addFirst(job);
+    }
+
+    private void fail(RuntimeException e) {
+        if (failure == null) failure = e;
+        done = true;
+        closeQuietly(server);
+        for (Socket socket : connections) closeQuietly(socket);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+    }
+
+    /**
+     * Stops listening. Workers that are still connected finish their current message and are then dropped.
+     */
+    @Override
+    public void close() {
+        done = true;
+        closeQuietly(server);
+    }
+
+    /**
+     * @return the port the coordinator listens on (useful when it was created with port 0)
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return how many workers received the scene and started rendering
+     */
+    public int getWorkerCount() {
+        return joinedWorkers.get();
+    }
+
+    /**
+     * @return how often a tile was handed out again because its worker failed
+     */
+    public int getRetriedTiles() {
+        return retriedTiles.get();
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout how long a worker may take to answer (e.g. to parse the scene or render a tile),
+     *                and how long the frame may go without any worker, in ms
+     */
+    public void setTimeout(int timeout) {
+        if (timeout < 1) throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        this.timeout = timeout;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts how many workers may fail on a tile before the frame is given up
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("Attempts must be positive: " + maxAttempts);
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Starts listening for workers.
+     * @param bundle the scene
+     * @param width the width of the frame
+     * @param height the height of the frame
+     * @param tileSize the edge length (in pixels) of a tile
+     * @param port the TCP port; 0 picks a free one (see getPort)
+     */
+    public RenderCoordinator(SceneBundle bundle, int width, int height, int tileSize, int port) throws IOException {
+        if (width < 1 || height < 1) throw new IllegalArgumentException("Illegal frame size: " + width + "x" + height);
+        if (tileSize < 1) throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        this.bundle = bundle;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.server = new ServerSocket(port);
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.farm.RenderCoordinator[port=" + getPort() + ", " + width + "x" + height +
+                ", tileSize=" + tileSize + ", workers=" + getWorkerCount() + ", retriedTiles=" + getRetriedTiles() + ']';
+    }
+}
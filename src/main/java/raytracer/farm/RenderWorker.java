@@ -0,0 +1,269 @@
+package raytracer.farm;
+
+import raytracer.Raytracer;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Scene;
+import raytracer.image.FrameBuffer;
+import raytracer.image.Radiance;
+import raytracer.io.SceneParser;
+import raytracer.render.PacketTracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders tiles for a RenderCoordinator (see FarmProtocol).
+ *
+ * A worker connects to the coordinator, receives the scene as a SceneBundle, extracts and parses it, and then
+ * renders every tile it is sent on its own threads until the coordinator says DONE. Workers hold no state between
+ * sessions apart from the extracted bundles, so they can be started and killed at any time.
+ */
+public class RenderWorker {
+
+    /**
+     * The default for how long a worker keeps trying to reach its coordinator, in ms.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30 * 1000;
+
+    private final String host;
+    private final int port;
+    /**
+     * How many tiles the worker renders at once.
+     */
+    private final int threads;
+    /**
+     * The edge length (in pixels) of the blocks traced as ray packets (see PacketTracer); 0 traces every ray on its own.
+     */
+    private int packetSize = 0;
+    /**
+     * Where received scenes are extracted. Bundles stay there for the next session, until they were not used
+     * for SceneBundle.MAX_AGE.
+     */
+    private File bundleDirectory = new File(System.getProperty("java.io.tmpdir"), "raytracer-farm");
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+    /**
+     * Connects to the coordinator and renders until it is done.
+     * @return how many tiles this worker rendered
+     * @throws IOException if the coordinator cannot be reached, the connection breaks, or the scene cannot be parsed
+     */
+    public int run() throws IOException {
+        try (Socket socket = connect()) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            out.writeInt(FarmProtocol.MAGIC);
+            out.writeInt(FarmProtocol.VERSION);
+            out.writeInt(threads);
+            out.flush();
+
+            byte type = in.readByte();
+            if (type != FarmProtocol.SCENE) throw new IOException("Unexpected message " + type + ", expected the scene");
+            SceneBundle bundle = SceneBundle.read(in);
+            Scene scene;
+            try {
+                scene = SceneParser.parseXML(bundle.extract(bundleDirectory).getPath());
+            } catch (RuntimeException e) {
+                out.writeByte(FarmProtocol.ERROR);
+                out.writeUTF("Cannot parse " + bundle.getSceneName() + ": " + e.getMessage());
+                out.flush();
+                throw new IOException("Cannot parse " + bundle.getSceneName() + ": " + e.getMessage(), e);
+            }
+            out.writeByte(FarmProtocol.READY);
+            out.flush();
+
+            return renderTiles(scene, socket, in, out);
+        }
+    }
+
+    /**
+     * Renders tiles on the pool until DONE; the pixels are sent by the thread that rendered them.
+     */
+    private int renderTiles(Scene scene, Socket socket, DataInputStream in, DataOutputStream out) throws IOException {
+        // every tile writes into its own pixels, as in TileRenderer
+        Camera camera = scene.getCamera();
+        FrameBuffer frameBuffer = new FrameBuffer(camera.getRes().getHorizontal(), camera.getRes().getVertical());
+        ThreadLocal<PacketTracer> tracers = ThreadLocal.withInitial(() -> new PacketTracer(scene, packetSize));
+        AtomicInteger rendered = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type == FarmProtocol.DONE) break;
+                if (type != FarmProtocol.TILE) throw new IOException("Unexpected message " + type + ", expected a tile");
+                int id = in.readInt();
+                int x0 = in.readInt(), y0 = in.readInt(), x1 = in.readInt(), y1 = in.readInt();
+                if (x0 < 0 || y0 < 0 || x1 > frameBuffer.getWidth() || y1 > frameBuffer.getHeight() || x0 >= x1 || y0 >= y1) {
+                    throw new IOException("Tile outside of the image: " + x0 + "," + y0 + " - " + x1 + "," + y1);
+                }
+
+                pool.execute(() -> {
+                    try {
+                        try {
+                            if (packetSize > 0) tracers.get().render(x0, y0, x1, y1, frameBuffer);
+                            else renderTile(scene, x0, y0, x1, y1, frameBuffer);
+                        } catch (RuntimeException e) {
+                            synchronized (out) {
+                                out.writeByte(FarmProtocol.ERROR);
+                                out.writeUTF("Tile " + id + " failed: " + e);
+                                out.flush();
+                            }
+                            return;
+                        }
+
+                        int[] pixels = frameBuffer.getPixels();
+                        int width = frameBuffer.getWidth();
+                        synchronized (out) {
+                            out.writeByte(FarmProtocol.PIXELS);
+                            out.writeInt(id);
+                            for (int y = y0; y < y1; y++) {
+                                for (int x = x0; x < x1; x++) out.writeInt(pixels[y * width + x]);
+                            }
+                            out.flush();
+                        }
+                        rendered.incrementAndGet();
+                    } catch (IOException e) {
+                        // the reading thread notices the broken connection as well
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                            // already broken
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rendered.get();
+    }
+
+    /**
+     * Traces the pixels of a tile one by one, like TileRenderer.
+     */
+    private static void renderTile(Scene scene, int x0, int y0, int x1, int y1, FrameBuffer frameBuffer) {
+        Camera camera = scene.getCamera();
+        Radiance color = new Radiance();
+        for (int i = x0; i < x1; i++) {
+            for (int j = y0; j < y1; j++) {
+                frameBuffer.set(i, j, Raytracer.traceRay(scene, camera.generateRay(i, j), 0, camera.getOrigin(), color));
+            }
+        }
+    }
+
+    /**
+     * Workers may be started before their coordinator, so refused connections are retried for a while.
+     */
+    private Socket connect() throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeout);
+        while (true) {
+            try {
+                return new Socket(host, port);
+            } catch (ConnectException e) {
+                if (System.nanoTime() > deadline) throw new ConnectException("Cannot reach the coordinator at " + host + ":" + port + ": " + e.getMessage());
+                try {
+                    Thread.sleep(250);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts workers as separate JVMs on this machine, with the class path of this one.
+     * Their output goes to the output of this process.
+     * @param count how many workers to start
+     * @param host the host of the coordinator
+     * @param port the port of the coordinator
+     * @param options further command line options for the workers (e.g. "--threads", "2")
+     * @return the worker processes
+     */
+    public static List<Process> startLocal(int count, String host, int port, String... options) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Raytracer.class.getName());
+        for (String option : options) command.add(option);
+        command.add("worker");
+        command.add(host + ":" + port);
+
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+        }
+        return processes;
+    }
+
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    /**
+     * @param packetSize the edge length (in pixels) of the blocks traced as ray packets, up to
+     *                   PacketTracer.MAX_PACKET_SIZE; 0 traces every ray on its own
+     */
+    public void setPacketSize(int packetSize) {
+        if (packetSize < 0 || packetSize > PacketTracer.MAX_PACKET_SIZE) {
+            throw new IllegalArgumentException("Packet size must be between 0 and " + PacketTracer.MAX_PACKET_SIZE + ": " + packetSize);
+        }
+        this.packetSize = packetSize;
+    }
+
+    public File getBundleDirectory() {
+        return bundleDirectory;
+    }
+
+    public void setBundleDirectory(File bundleDirectory) {
+        this.bundleDirectory = bundleDirectory;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout how long to keep trying to reach the coordinator, in ms
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @param host the host of the coordinator
+     * @param port the port of the coordinator
+     * @param threads how many tiles to render at once
+     */
+    public RenderWorker(String host, int port, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Threads must be positive: " + threads);
+        this.host = host;
+        this.port = port;
+        this.threads = threads;
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.farm.RenderWorker[" + host + ":" + port + ", threads=" + threads + ", packetSize=" + packetSize + ']';
+    }
+}
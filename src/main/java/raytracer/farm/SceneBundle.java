@@ -0,0 +1,263 @@
+package raytracer.farm;
+
+import raytracer.io.SceneParser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A scene file together with every file it references (DTD, OBJ files, textures), so that a worker on another
+ * machine can parse exactly the same scene. Files are kept by their path relative to the scene file.
+ *
+ * A bundle is identified by the SHA-256 over all names and contents. Workers extract it into a directory named
+ * after that hash, so the files of a scene keep their paths across frames and sessions, and the mesh cache of
+ * the worker (see MeshCache) finds them again. Extracted bundles that were not used for MAX_AGE are deleted
+ * whenever a bundle is extracted.
+ */
+public class SceneBundle {
+
+    /**
+     * The largest file a bundle may contain (the wire format stores lengths as int).
+     */
+    public static final long MAX_FILE_SIZE = Integer.MAX_VALUE - 8;
+    /**
+     * How long an extracted bundle is kept after it was last extracted, in ms. Not just the current bundle is
+     * kept, since other workers on the same machine may still render an older scene.
+     */
+    public static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+    /**
+     * The name of an extracted bundle: its id (see getId).
+     */
+    private static final Pattern BUNDLE_NAME = Pattern.compile("[0-9a-f]{16}");
+
+    /**
+     * The name of the scene file.
+     */
+    private final String sceneName;
+    /**
+     * All files, including the scene file, by relative path.
+     */
+    private final Map<String, byte[]> files;
+    /**
+     * The SHA-256 over all names and contents.
+     */
+    private final byte[] hash;
+
+    /**
+     * Reads a scene file and all files it references.
+     * @param sceneFile the XML file
+     * @return the bundle
+     * @throws UncheckedIOException if a file cannot be read
+     * @throws IllegalArgumentException if the scene references a file outside of its directory
+     */
+    public static SceneBundle of(File sceneFile) {
+        File dir = sceneFile.getAbsoluteFile().getParentFile();
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        try {
+            files.put(sceneFile.getName(), Files.readAllBytes(sceneFile.toPath()));
+            for (String name : SceneParser.referencedFiles(sceneFile.getPath())) {
+                checkName(name);
+                File file = new File(dir, name);
+                if (file.length() > MAX_FILE_SIZE) throw new IllegalArgumentException("File too large for a scene bundle: " + file);
+                files.put(name, Files.readAllBytes(file.toPath()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read scene " + sceneFile + ": " + e.getMessage(), e);
+        }
+        return new SceneBundle(sceneFile.getName(), files);
+    }
+
+    /**
+     * Writes the bundle: the hash, the scene name, and every file as name, length and content.
+     * @param out the stream
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.write(hash);
+        out.writeUTF(sceneName);
+        out.writeInt(files.size());
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            out.writeUTF(file.getKey());
+            out.writeInt(file.getValue().length);
+            out.write(file.getValue());
+        }
+    }
+
+    /**
+     * Reads a bundle written by write().
+     * @param in the stream
+     * @return the bundle
+     * @throws IOException if the stream ends early, or the content does not match the hash
+     */
+    public static SceneBundle read(DataInputStream in) throws IOException {
+        byte[] hash = new byte[32];
+        in.readFully(hash);
+        String sceneName = in.readUTF();
+        int count = in.readInt();
+        if (count < 1) throw new IOException("Illegal file count in scene bundle: " + count);
+
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int length = in.readInt();
+            if (length < 0) throw new IOException("Illegal file length in scene bundle: " + length);
+            byte[] content = new byte[length];
+            in.readFully(content);
+            files.put(name, content);
+        }
+        if (!files.containsKey(sceneName)) throw new IOException("Scene bundle without its scene file " + sceneName);
+
+        SceneBundle bundle;
+        try {
+            bundle = new SceneBundle(sceneName, files);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (!Arrays.equals(hash, bundle.hash)) throw new IOException("Scene bundle is corrupt (hash mismatch)");
+        return bundle;
+    }
+
+    /**
+     * Writes all files below root/&lt;hash&gt;, unless they are there already. Files are written to a temporary
+     * file first and then moved into place, so several workers on one machine can extract the same bundle.
+     * Bundles below root that were not extracted within MAX_AGE are deleted.
+     * @param root the directory that holds extracted bundles
+     * @return the extracted scene file
+     */
+    public File extract(File root) throws IOException {
+        Path dir = root.toPath().resolve(getId());
+        Files.createDirectories(dir);
+        // the time of the directory is when the bundle was last used
+        Files.setLastModifiedTime(dir, FileTime.fromMillis(System.currentTimeMillis()));
+        evictStale(root.toPath());
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            Path target = dir.resolve(file.getKey());
+            if (Files.exists(target) && Files.size(target) == file.getValue().length) continue;
+
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, file.getValue());
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return dir.resolve(sceneName).toFile();
+    }
+
+    /**
+     * Deletes the bundles below root that were not extracted within MAX_AGE. Only directories named like a
+     * bundle are touched, in case root holds anything else.
+     */
+    private static void evictStale(Path root) throws IOException {
+        long oldest = System.currentTimeMillis() - MAX_AGE;
+        try (DirectoryStream<Path> bundles = Files.newDirectoryStream(root, path -> BUNDLE_NAME.matcher(path.getFileName().toString()).matches())) {
+            for (Path bundle : bundles) {
+                if (!Files.isDirectory(bundle) || Files.getLastModifiedTime(bundle).toMillis() >= oldest) continue;
+                List<Path> files;
+                try (Stream<Path> walk = Files.walk(bundle)) {
+                    files = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList()); // children first
+                } catch (IOException | UncheckedIOException e) {
+                    continue; // e.g. deleted by another worker right now
+                }
+                for (Path file : files) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        System.out.println(" WARNING: Cannot delete old scene bundle file " + file + ": " + e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Only plain relative paths may leave the machine of the coordinator, and only those are extracted:
+     * no absolute paths, no ".." that could write outside of the bundle directory.
+     */
+    private static void checkName(String name) {
+        Path path = new File(name).toPath().normalize();
+        if (name.isEmpty() || path.isAbsolute() || path.startsWith("..") || name.contains(":")) {
+            throw new IllegalArgumentException("Scene bundles only hold files below the scene directory: " + name);
+        }
+    }
+
+    private static byte[] hash(String sceneName, Map<String, byte[]> files) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(sceneName.getBytes(StandardCharsets.UTF_8));
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                digest.update((byte) 0);
+                digest.update(file.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(file.getValue());
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e); // every JRE has it
+        }
+    }
+
+    /**
+     * @return the first 16 hex digits of the hash, which name the directory of the extracted bundle
+     */
+    public String getId() {
+        StringBuilder id = new StringBuilder();
+        for (int i = 0; i < 8; i++) id.append(String.format("%02x", hash[i]));
+        return id.toString();
+    }
+
+    public String getSceneName() {
+        return sceneName;
+    }
+
+    /**
+     * @return all files by relative path, the scene file first
+     */
+    public Map<String, byte[]> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * @return the total size of all files in bytes
+     */
+    public long getSize() {
+        long size = 0;
+        for (byte[] content : files.values()) size += content.length;
+        return size;
+    }
+
+    private SceneBundle(String sceneName, Map<String, byte[]> files) {
+        checkName(sceneName);
+        for (String name : files.keySet()) checkName(name);
+        this.sceneName = sceneName;
+        this.files = files;
+        this.hash = hash(sceneName, files);
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.farm.SceneBundle['" + sceneName + "', " + files.size() + " files, " + getSize() + " bytes, id=" + getId() + ']';
+    }
+}
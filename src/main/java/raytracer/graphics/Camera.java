@@ -2,10 +2,9 @@ package raytracer.graphics;
 
 import raytracer.graphics.trafo.Transformation;
 import raytracer.image.Resolution;
-import raytracer.math.Matrix;
+import raytracer.math.Matrix4;
 import raytracer.math.MatrixUtils;
 import raytracer.math.Vector3;
-import raytracer.math.Vector4;
 
 // TUTORIALS:
 // Shirley/Marsh
@@ -57,41 +56,130 @@ public class Camera {
         );
     }
 
+    /**
+     * Everything generateRay(int, double) needs that does not depend on the pixel.
+     * Immutable, so render threads can share it without locking.
+     */
+    private static class RaySetup {
+        /**
+         * The transformation (and its version) this setup was computed for.
+         */
+        final Transformation transformation;
+        final long version;
+        /**
+         * The camera position in world space: the origin of all rays.
+         */
+        final Vector3 origin;
+        /**
+         * The (unnormalized) ray direction through the pixel corner (0,0) ...
+         */
+        final double cornerX, cornerY, cornerZ;
+        /**
+         * ... and how it changes per pixel to the right ...
+         */
+        final double stepXX, stepXY, stepXZ;
+        /**
+         * ... and per pixel downwards.
+         */
+        final double stepYX, stepYY, stepYZ;
+        /**
+         * The angle between the rays through two neighboring pixels at the center of the image.
+         */
+        final double pixelSpread;
+
+        RaySetup(Camera camera) {
+            this.transformation = camera.transformation;
+            this.version = transformation.getVersion();
+            Resolution res = camera.res;
+
+            // the same steps as in the per-pixel method, but with the pixel left as a variable:
+            // xCamera = ((pixelX+0.5)/width * 2 - 1) * aspect * tan = xCamera0 + pixelX * xCameraStep
+            // yCamera = (1 - (pixelY+0.5)/height * 2) * tan        = yCamera0 + pixelY * yCameraStep
+            double tan = Math.tan(Math.toRadians(camera.horizontalFOV));
+            double xCamera0 = (2*(0.5/res.width()) - 1) * res.aspectRatio() * tan;
+            double xCameraStep = 2/res.width() * res.aspectRatio() * tan;
+            double yCamera0 = (1 - 2*(0.5/res.height())) * tan;
+            double yCameraStep = -2/res.height() * tan;
+            this.pixelSpread = Math.atan(-yCameraStep);
+
+            // Camera - to - World
+            // direction = camToWorld * (xCamera, yCamera, -1, 1) - camToWorld * (position, 1), which is linear in x/yCamera
+            Matrix4 camToWorld = MatrixUtils.cameraToWorld(transformation.getRotationDegrees(), transformation.getTranslation());
+            this.origin = camToWorld.transformPoint(camera.position);
+            Vector3 center = camToWorld.transformPoint(new Vector3(0, 0, -1)).subtract(origin);
+
+            this.cornerX = center.getX() + camToWorld.m11*xCamera0 + camToWorld.m12*yCamera0;
+            this.cornerY = center.getY() + camToWorld.m21*xCamera0 + camToWorld.m22*yCamera0;
+            this.cornerZ = center.getZ() + camToWorld.m31*xCamera0 + camToWorld.m32*yCamera0;
+            this.stepXX = camToWorld.m11*xCameraStep;
+            this.stepXY = camToWorld.m21*xCameraStep;
+            this.stepXZ = camToWorld.m31*xCameraStep;
+            this.stepYX = camToWorld.m12*yCameraStep;
+            this.stepYY = camToWorld.m22*yCameraStep;
+            this.stepYZ = camToWorld.m32*yCameraStep;
+        }
+
+        boolean isValidFor(Camera camera) {
+            return camera.transformation == transformation && transformation.getVersion() == version;
+        }
+    }
+
+    /**
+     * The cached ray setup; recomputed when the transformation is replaced or changed.
+     */
+    private volatile RaySetup raySetup;
+
+    private RaySetup raySetup() {
+        RaySetup setup = raySetup;
+        if (setup == null || !setup.isValidFor(this)) {
+            // several threads may recompute it at the same time, but they all get the same result
+            setup = new RaySetup(this);
+            raySetup = setup;
+        }
+        return setup;
+    }
+
     // by scratch-a-pixel
     // raster space to world space
+    // The full derivation is in RaySetup; per pixel, only the final multiply-adds remain.
     public Ray generateRay(int pixelX, double pixelY) {
-        // first, we transform the raster space into normalized device coordinates
-        // which is a raster top left [0,0]
-        double xNDC = (pixelX+0.5)/res.width();
-        double yNDC = (pixelY+0.5)/res.height();
-
-        // then, we convert them into screen space: top left [-1,1] to bot right [1,-1]
-        double xScreen = 2*xNDC-1;
-        double yScreen = 1-2*yNDC;
-
-        // the next step is to convert them to camera space to account for different
-        // aspect ratios, as well as the FoV
-        // The camera coordinate system is called so because the raster coordinates are
-        // now expressed through the camera coordinate system.
-        // Assuming the camera is in default position, this CS and the world CS are aligned!
-        double xCamera = xScreen * res.aspectRatio() * Math.tan(Math.toRadians(horizontalFOV));
-        double yCamera = yScreen * Math.tan(Math.toRadians(horizontalFOV));
-
-        // the final coordinates on the image plane are now:
-        Vector3 pixelOnPlane = new Vector3(xCamera, yCamera, -1);
-
-        // Camera - to - World
-        Matrix camToWorld = MatrixUtils.cameraToWorld(transformation.getRotationDegrees(), transformation.getTranslation());
-        Vector4 wPos = camToWorld.multiply4x4(new Vector4(position,1));
-        Vector4 wPixel = camToWorld.multiply4x4(new Vector4(pixelOnPlane, 1));
-        Vector4 wDir = wPixel.subtract(wPos);
+        // raster space -> NDC -> screen space -> camera space -> world space:
+        // all of these steps are linear, so the world space direction is corner + x * stepX + y * stepY
+        RaySetup setup = raySetup();
 
         return new Ray(
-                new Vector3(wPos),
-                new Vector3(wDir)
+                setup.origin,
+                new Vector3(
+                        setup.cornerX + pixelX*setup.stepXX + pixelY*setup.stepYX,
+                        setup.cornerY + pixelX*setup.stepXY + pixelY*setup.stepYY,
+                        setup.cornerZ + pixelX*setup.stepXZ + pixelY*setup.stepYZ
+                )
         );
     }
 
+    /**
+     * Generates a ray through an arbitrary point inside a pixel, e.g. for anti-aliasing.
+     * @param pixelX the pixel column
+     * @param pixelY the pixel row
+     * @param offsetX where in the pixel, from 0 (left edge) to 1 (right edge); 0.5 is the center
+     * @param offsetY where in the pixel, from 0 (top edge) to 1 (bottom edge); 0.5 is the center
+     * @return the ray
+     */
+    public Ray generateRay(int pixelX, int pixelY, double offsetX, double offsetY) {
+        // the corner of RaySetup already points through the center of the pixel
+        double x = pixelX + (offsetX - 0.5);
+        double y = pixelY + (offsetY - 0.5);
+        RaySetup setup = raySetup();
+
+        return new Ray(
+                setup.origin,
+                new Vector3(
+                        setup.cornerX + x*setup.stepXX + y*setup.stepYX,
+                        setup.cornerY + x*setup.stepXY + y*setup.stepYY,
+                        setup.cornerZ + x*setup.stepXZ + y*setup.stepYZ
+                )
+        );
+    }
 
     public double imPlane_left() {
         return -res.width()/2.0;
@@ -203,6 +291,25 @@ public class Camera {
         return position;
     }
 
+    /**
+     * The camera position with the camera transformation applied: where all primary rays start,
+     * and therefore the point the scene is seen from. Equals getPosition() as long as the camera is not transformed.
+     * @return the position in world space
+     */
+    public Vector3 getOrigin() {
+        return raySetup().origin;
+    }
+
+    /**
+     * The angle (in radians) between the rays through neighboring pixels, i.e. how fast the footprint of a pixel
+     * grows with the distance: at distance t, a pixel covers a width of about t * getPixelSpread().
+     * Source: Akenine-Moller et al., "Texture Level of Detail Strategies for Real-Time Ray Tracing", Ray Tracing Gems, chp. 20
+     * @return the spread angle of a pixel
+     */
+    public double getPixelSpread() {
+        return raySetup().pixelSpread;
+    }
+
     public Vector3 getLookAt() {
         return lookAt;
     }
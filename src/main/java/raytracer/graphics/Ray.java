@@ -15,7 +15,7 @@ import java.util.ArrayList;
  */
 public class Ray {
 
-    public class RayHitResult {
+    public static class RayHitResult {
         public Surface surface;
         public double t;
 
@@ -46,6 +46,28 @@ public class Ray {
         return originPoint.add(direction.multiply(t));
     }
 
+    /**
+     * Computes the point r(t) into an existing vector.
+     * @param t the ray parameter
+     * @param dest receives the point
+     * @return dest
+     */
+    public Vector3 at(double t, Vector3 dest) {
+        return Vector3.scaleAdd(originPoint, direction, t, dest);
+    }
+
+    /**
+     * Re-aims this ray, so that e.g. shadow rays can be reused instead of created for every light.
+     * @param originPoint the new origin (copied)
+     * @param direction the new direction (copied and normalized)
+     * @return this ray
+     */
+    public Ray set(Vector3 originPoint, Vector3 direction) {
+        this.originPoint.set(originPoint);
+        Vector3.normalize(direction, this.direction);
+        return this;
+    }
+
     public RayHitResult cast(ArrayList<Surface> surfaces) {
         // find closest intersection i
         // For all objects in the scene, do an intersection test.
@@ -66,10 +88,17 @@ public class Ray {
     }
 
     public Ray(Vector3 originPoint, Vector3 direction) {
-        this.originPoint = originPoint;
+        this.originPoint = new Vector3(originPoint); // own copy, since set() overwrites it
         this.direction = direction.normalize();
     }
 
+    /**
+     * Creates a ray from the origin along +z, meant to be re-aimed with set().
+     */
+    public Ray() {
+        this(new Vector3(), new Vector3(0, 0, 1));
+    }
+
     @Override
     public String toString() {
         return
@@ -1,7 +1,11 @@
 package raytracer.graphics;
 
+import raytracer.graphics.accel.BVH;
+import raytracer.graphics.accel.BoundingBox;
+import raytracer.graphics.accel.RayPacket;
 import raytracer.graphics.lights.Light;
 import raytracer.graphics.surfaces.Surface;
+import raytracer.math.Vector3;
 
 import java.awt.Color;
 import java.util.ArrayList;
@@ -15,6 +19,25 @@ public class Scene {
     private Color ambientLight = null;
     private ArrayList<Light> lights = new ArrayList<>();
     private ArrayList<Surface> surfaces = new ArrayList<>();
+    /**
+     * The acceleration structure over all surfaces. Null until built; without it, rays test every surface.
+     */
+    private BVH bvh = null;
+    /**
+     * The cost (see BVH.cost) of the BVH when it was built, to tell when refitting has made it too slow.
+     */
+    private double bvhBuildCost;
+
+    /**
+     * A refitted BVH is rebuilt once its cost grows beyond this factor of the cost after the build.
+     */
+    private static final double REBUILD_FACTOR = 1.5;
+
+    // the BVH callbacks are created once, not for every ray
+    private final BVH.ClosestIntersector surfaceTest = (p, r, tMax) -> surfaces.get(p).intersect(r);
+    private final BVH.OcclusionTest surfaceOcclusionTest = (p, r, tMax) -> surfaces.get(p).occluded(r, tMax);
+    private final BVH.PacketTest surfacePacketTest = (p, packet) -> surfaces.get(p).intersect(packet, p);
+    private final BVH.PacketTest surfacePacketOcclusionTest = (p, packet) -> surfaces.get(p).occluded(packet);
 
 
     public void addLight(Light light) {
@@ -23,6 +46,139 @@ public class Scene {
 
     public void addSurface(Surface surface) {
         surfaces.add(surface);
+        bvh = null; // outdated
+    }
+
+    /**
+     * Builds the bounding volume hierarchy over all surfaces.
+     * Must be called again whenever surfaces are added; for moved surfaces, refitBVH() is cheaper.
+     */
+    public void buildBVH() {
+        bvh = BVH.build(surfaceBounds());
+        bvhBuildCost = bvh.cost();
+    }
+
+    /**
+     * Updates the bounding volume hierarchy after surfaces were moved (but none added or removed), e.g. between
+     * the frames of an animation. The surfaces keep their meshes and mesh BVHs (they are intersected in
+     * object space), so only the boxes of the scene BVH change: they are refitted, and the BVH is only
+     * rebuilt when refitting made it much worse than a fresh one.
+     * @return true if the BVH was rebuilt
+     */
+    public boolean refitBVH() {
+        if (bvh == null || bvh.getPrimitiveCount() != surfaces.size()) {
+            buildBVH();
+            return true;
+        }
+        bvh.refit(surfaceBounds());
+        if (bvh.cost() > REBUILD_FACTOR * bvhBuildCost) {
+            buildBVH();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the world space boxes of all surfaces, 6 values each (see BVH.build)
+     */
+    private double[] surfaceBounds() {
+        double[] bounds = new double[surfaces.size() * 6];
+        for (int i = 0; i < surfaces.size(); i++) {
+            BoundingBox box = surfaces.get(i).getBoundingBox();
+            Vector3 min = box.getMin(), max = box.getMax();
+            bounds[i*6] = min.getX(); bounds[i*6 + 1] = min.getY(); bounds[i*6 + 2] = min.getZ();
+            bounds[i*6 + 3] = max.getX(); bounds[i*6 + 4] = max.getY(); bounds[i*6 + 5] = max.getZ();
+        }
+        return bounds;
+    }
+
+    /**
+     * Finds the closest surface hit by a ray.
+     * @param ray the ray
+     * @return the closest surface and its t, or a result with surface == null if nothing is hit
+     */
+    public Ray.RayHitResult intersect(Ray ray) {
+        if (bvh == null) return ray.cast(surfaces);
+        return intersect(ray, new Ray.RayHitResult(null, Double.MAX_VALUE));
+    }
+
+    /**
+     * Finds the closest surface hit by a ray, without allocating.
+     * @param ray the ray
+     * @param result receives the closest surface and its t (surface == null if nothing is hit)
+     * @return result
+     */
+    public Ray.RayHitResult intersect(Ray ray, Ray.RayHitResult result) {
+        if (bvh == null) {
+            Ray.RayHitResult hit = ray.cast(surfaces);
+            result.surface = hit.surface;
+            result.t = hit.t;
+            return result;
+        }
+
+        BVH.Hit hit = bvh.closestHit(ray, Double.MAX_VALUE, surfaceTest);
+        result.surface = hit.primitive < 0 ? null : surfaces.get(hit.primitive);
+        result.t = hit.t;
+        return result;
+    }
+
+    /**
+     * Checks whether any surface blocks a ray, e.g. for shadows.
+     * @param ray the ray
+     * @return true if any surface is hit in front of the ray origin
+     */
+    public boolean occluded(Ray ray) {
+        return occluded(ray, Double.MAX_VALUE);
+    }
+
+    /**
+     * Checks whether any surface blocks a ray before it reaches tMax, e.g. a shadow ray towards a point light.
+     * Stops at the first blocking surface.
+     * @param ray the ray (with a normalized direction, t is the distance)
+     * @param tMax only hits with 0 < t < tMax count
+     * @return true if any surface is hit in between
+     */
+    public boolean occluded(Ray ray, double tMax) {
+        if (bvh == null) {
+            for (Surface s : surfaces) {
+                if (s.occluded(ray, tMax)) return true;
+            }
+            return false;
+        }
+
+        return bvh.anyHit(ray, tMax, surfaceOcclusionTest);
+    }
+
+    /**
+     * Finds the closest surface hit by every ray of a packet.
+     * @param packet the rays; receives the index of the closest surface in getSurfaces() (packet.hit, -1 if nothing is hit),
+     *               its t, and what the surface remembers about the hit (packet.lastHit, see Surface.getLastHit)
+     */
+    public void intersect(RayPacket packet) {
+        if (bvh == null) {
+            for (int i = 0; i < packet.size; i++) {
+                Ray.RayHitResult hit = packet.rays[i].cast(surfaces);
+                if (hit.surface != null) packet.hit(i, surfaces.indexOf(hit.surface), hit.t, hit.surface.getLastHit());
+            }
+            return;
+        }
+
+        bvh.closestHit(packet, surfacePacketTest);
+    }
+
+    /**
+     * Checks for every ray of a packet whether any surface blocks it before its limit t (see occluded(Ray, double)).
+     * @param packet the rays, e.g. the shadow rays of several hit points towards one light; receives packet.occluded
+     */
+    public void occluded(RayPacket packet) {
+        if (bvh == null) {
+            for (int i = 0; i < packet.size; i++) {
+                if (occluded(packet.rays[i], packet.t[i])) packet.block(i);
+            }
+            return;
+        }
+
+        bvh.anyHit(packet, surfacePacketOcclusionTest);
     }
 
     @Override
@@ -79,6 +235,10 @@ public class Scene {
         return surfaces;
     }
 
+    public BVH getBVH() {
+        return bvh;
+    }
+
     public void setLights(ArrayList<Light> lights) {
         this.lights = lights;
     }
@@ -0,0 +1,573 @@
+package raytracer.graphics.accel;
+
+import raytracer.graphics.Ray;
+import raytracer.io.ChannelWriter;
+import raytracer.render.RenderStats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A bounding volume hierarchy (BVH) over arbitrary primitives, flattened into arrays.
+ * The BVH only knows the bounding boxes of its primitives; the actual intersection tests
+ * are supplied by the caller, so the same structure serves surfaces in a scene and triangles in a mesh.
+ *
+ * Nodes are stored depth-first: the left child of an interior node directly follows it,
+ * the index of the right child is stored in offsets. For leaves, offsets points into primitives.
+ */
+public class BVH {
+
+    /**
+     * Tests a ray against a single primitive.
+     */
+    public interface ClosestIntersector {
+        /**
+         * @param primitive the index of the primitive, as passed to the builder
+         * @param ray the ray
+         * @param tMax the closest hit found so far; hits beyond it are of no interest
+         * @return the ray parameter t of the hit (Double.MAX_VALUE if there is none)
+         */
+        double intersect(int primitive, Ray ray, double tMax);
+    }
+
+    /**
+     * Tests whether a primitive blocks a ray.
+     */
+    public interface OcclusionTest {
+        /**
+         * @param primitive the index of the primitive, as passed to the builder
+         * @param ray the ray
+         * @param tMax only hits in (0, tMax) count
+         * @return true if the primitive is hit within (0, tMax)
+         */
+        boolean occluded(int primitive, Ray ray, double tMax);
+    }
+
+    /**
+     * Tests the rays of a packet against a single primitive.
+     * Only rays with packet.isActive(i) can hit anything new; the others may be skipped.
+     * Closest-hit tests record closer hits with packet.hit(), occlusion tests mark blocked rays with packet.block().
+     */
+    public interface PacketTest {
+        /**
+         * @param primitive the index of the primitive, as passed to the builder
+         * @param packet the rays
+         */
+        void test(int primitive, RayPacket packet);
+    }
+
+    /**
+     * The result of a closest-hit query.
+     */
+    public static class Hit {
+        /**
+         * The index of the closest primitive, or -1 if nothing was hit.
+         */
+        public int primitive = -1;
+        /**
+         * The ray parameter t of the closest hit.
+         */
+        public double t = Double.MAX_VALUE;
+    }
+
+    /**
+     * The boxes of all nodes: minX, minY, minZ, maxX, maxY, maxZ.
+     */
+    final double[] bounds;
+    /**
+     * Interior nodes: the index of the right child. Leaves: the first entry in primitives.
+     */
+    final int[] offsets;
+    /**
+     * The number of primitives in a leaf; 0 for interior nodes.
+     */
+    final int[] counts;
+    /**
+     * The primitive indices, sorted such that every leaf references a contiguous range.
+     */
+    final int[] primitives;
+    /**
+     * The number of nodes.
+     */
+    final int nodeCount;
+    /**
+     * The depth of the deepest leaf (the root has depth 0), used to size the traversal stack.
+     */
+    final int maxDepth;
+    /**
+     * How long the build took, in nanoseconds.
+     */
+    final long buildNanos;
+
+    /**
+     * Per-thread traversal state, so queries do not allocate.
+     * Every BVH has its own, because a query on the scene BVH runs queries on mesh BVHs while it is active.
+     */
+    private static class Scratch {
+        final int[] stack;
+        final double[] stackEntry;
+        final Hit hit = new Hit();
+
+        Scratch(int size) {
+            stack = new int[size];
+            stackEntry = new double[size];
+        }
+    }
+
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Builds a BVH with the surface area heuristic.
+     * @param primitiveBounds 6 values per primitive: minX, minY, minZ, maxX, maxY, maxZ
+     * @return the BVH
+     */
+    public static BVH build(double[] primitiveBounds) {
+        return BVHBuilder.build(primitiveBounds);
+    }
+
+    /**
+     * Finds the closest primitive along a ray.
+     * @param ray the ray
+     * @param tMax hits at or beyond this parameter are ignored
+     * @param intersector the primitive intersection test
+     * @param hit receives the closest primitive and its t (unchanged if nothing is hit)
+     * @return true if a primitive was hit
+     */
+    public boolean closestHit(Ray ray, double tMax, ClosestIntersector intersector, Hit hit) {
+        Hit result = closestHit(ray, tMax, intersector);
+        if (result.primitive < 0) return false;
+        hit.primitive = result.primitive;
+        hit.t = result.t;
+        return true;
+    }
+
+    /**
+     * Finds the closest primitive along a ray, without allocating.
+     * @param ray the ray
+     * @param tMax hits at or beyond this parameter are ignored
+     * @param intersector the primitive intersection test
+     * @return the closest primitive (-1 if nothing is hit) and its t. The object is owned by the calling thread
+     * and only valid until its next query on this BVH.
+     */
+    public Hit closestHit(Ray ray, double tMax, ClosestIntersector intersector) {
+        Scratch scratch = this.scratch.get();
+        Hit hit = scratch.hit;
+        hit.primitive = -1;
+        hit.t = Double.MAX_VALUE;
+        if (nodeCount == 0) return hit;
+
+        double ox = ray.getOriginPoint().getX(), oy = ray.getOriginPoint().getY(), oz = ray.getOriginPoint().getZ();
+        double ix = inverse(ray.getDirection().getX());
+        double iy = inverse(ray.getDirection().getY());
+        double iz = inverse(ray.getDirection().getZ());
+
+        double best = tMax;
+        int bestPrimitive = -1;
+
+        // near-first traversal: we descend into the closer child and remember the other one
+        int[] stack = scratch.stack;
+        double[] stackEntry = scratch.stackEntry;
+        int sp = 0;
+
+        int node = 0;
+        if (entry(node, ox, oy, oz, ix, iy, iz) >= best) return hit;
+
+        while (true) {
+            if (RenderStats.ENABLED) RenderStats.local().bvhNodeVisits++;
+            if (counts[node] > 0) { // leaf: test all primitives
+                int end = offsets[node] + counts[node];
+                for (int i = offsets[node]; i < end; i++) {
+                    int p = primitives[i];
+                    double t = intersector.intersect(p, ray, best);
+                    if (t > 0 && t < best) {
+                        best = t;
+                        bestPrimitive = p;
+                    }
+                }
+            } else { // interior node: visit the children the ray actually passes through
+                int left = node + 1;
+                int right = offsets[node];
+                double tLeft = entry(left, ox, oy, oz, ix, iy, iz);
+                double tRight = entry(right, ox, oy, oz, ix, iy, iz);
+                boolean hitLeft = tLeft < best, hitRight = tRight < best;
+
+                if (hitLeft && hitRight) {
+                    if (tLeft <= tRight) {
+                        stack[sp] = right; stackEntry[sp++] = tRight; node = left;
+                    } else {
+                        stack[sp] = left; stackEntry[sp++] = tLeft; node = right;
+                    }
+                    continue;
+                } else if (hitLeft) {
+                    node = left; continue;
+                } else if (hitRight) {
+                    node = right; continue;
+                }
+            }
+
+            // pop the next node, skipping those that start behind the closest hit
+            do {
+                if (sp == 0) {
+                    if (bestPrimitive >= 0) {
+                        hit.primitive = bestPrimitive;
+                        hit.t = best;
+                    }
+                    return hit;
+                }
+                node = stack[--sp];
+            } while (stackEntry[sp] >= best);
+        }
+    }
+
+    /**
+     * Checks whether any primitive blocks the ray between its origin and tMax.
+     * Stops at the first blocking primitive, which need not be the closest one.
+     * @param ray the ray
+     * @param tMax only hits in (0, tMax) count
+     * @param test the primitive occlusion test
+     * @return true if the ray is blocked
+     */
+    public boolean anyHit(Ray ray, double tMax, OcclusionTest test) {
+        if (nodeCount == 0) return false;
+
+        double ox = ray.getOriginPoint().getX(), oy = ray.getOriginPoint().getY(), oz = ray.getOriginPoint().getZ();
+        double ix = inverse(ray.getDirection().getX());
+        double iy = inverse(ray.getDirection().getY());
+        double iz = inverse(ray.getDirection().getZ());
+
+        // the same near-first descent as closestHit, but the first blocking primitive ends the search
+        int[] stack = scratch.get().stack;
+        int sp = 0;
+
+        int node = 0;
+        if (entry(node, ox, oy, oz, ix, iy, iz) >= tMax) return false;
+
+        while (true) {
+            if (RenderStats.ENABLED) RenderStats.local().bvhNodeVisits++;
+            if (counts[node] > 0) {
+                int end = offsets[node] + counts[node];
+                for (int i = offsets[node]; i < end; i++) {
+                    if (test.occluded(primitives[i], ray, tMax)) return true;
+                }
+            } else {
+                int left = node + 1;
+                int right = offsets[node];
+                double tLeft = entry(left, ox, oy, oz, ix, iy, iz);
+                double tRight = entry(right, ox, oy, oz, ix, iy, iz);
+                boolean hitLeft = tLeft < tMax, hitRight = tRight < tMax;
+
+                if (hitLeft && hitRight) {
+                    if (tLeft <= tRight) {
+                        stack[sp++] = right; node = left;
+                    } else {
+                        stack[sp++] = left; node = right;
+                    }
+                    continue;
+                } else if (hitLeft) {
+                    node = left; continue;
+                } else if (hitRight) {
+                    node = right; continue;
+                }
+            }
+
+            if (sp == 0) return false;
+            node = stack[--sp];
+        }
+    }
+
+    /**
+     * Finds the closest primitive along every ray of a packet.
+     * All rays are traversed together: a node is visited if any ray enters its box before its closest hit so far.
+     * @param packet the rays; receives the closest hits (packet.hit and packet.t)
+     * @param test the primitive test, which records closer hits with packet.hit()
+     */
+    public void closestHit(RayPacket packet, PacketTest test) {
+        traverse(packet, test);
+    }
+
+    /**
+     * Checks for every ray of a packet whether any primitive blocks it before its limit t.
+     * Blocked rays drop out of the traversal, which ends as soon as all rays are blocked.
+     * @param packet the rays; receives the blocked rays (packet.occluded)
+     * @param test the primitive occlusion test, which marks blocked rays with packet.block()
+     */
+    public void anyHit(RayPacket packet, PacketTest test) {
+        traverse(packet, test);
+    }
+
+    /**
+     * The packet traversal shared by closestHit and anyHit.
+     * The packet descends into a node as soon as one of its rays enters it, and visits the children near-first
+     * as seen by that ray. A coherent packet mostly agrees on that order, and then a node and its primitives are
+     * fetched once for all rays instead of once per ray. Only at leaves, every ray is tested against the box,
+     * so that primitives are only tested against the rays that actually reach them.
+     * Source: Wald et al., "Interactive Rendering with Coherent Ray Tracing" (2001)
+     */
+    private void traverse(RayPacket packet, PacketTest test) {
+        if (nodeCount == 0 || packet.active == 0) return;
+
+        int[] stack = scratch.get().stack;
+        int sp = 0;
+
+        int node = 0;
+        while (true) {
+            // leaves need to know exactly which rays enter them; interior nodes only whether any ray does
+            int first = counts[node] > 0 ? enter(node, packet) : firstEntering(node, packet);
+            if (first >= 0) {
+                if (RenderStats.ENABLED) RenderStats.local().bvhNodeVisits++;
+                if (counts[node] > 0) {
+                    int end = offsets[node] + counts[node];
+                    for (int i = offsets[node]; i < end && packet.active > 0; i++) test.test(primitives[i], packet);
+                    if (packet.active == 0) return; // all rays are blocked
+                } else {
+                    // the children may still be missed by all rays; that is checked when they are visited
+                    int left = node + 1;
+                    int right = offsets[node];
+                    double ox = packet.ox[first], oy = packet.oy[first], oz = packet.oz[first];
+                    double ix = packet.ix[first], iy = packet.iy[first], iz = packet.iz[first];
+                    if (entry(left, ox, oy, oz, ix, iy, iz) <= entry(right, ox, oy, oz, ix, iy, iz)) {
+                        stack[sp++] = right; node = left;
+                    } else {
+                        stack[sp++] = left; node = right;
+                    }
+                    continue;
+                }
+            }
+
+            if (sp == 0) return;
+            node = stack[--sp];
+        }
+    }
+
+    /**
+     * Slab test of all rays of a packet against the box of a node (see entry()), recorded in packet.entry.
+     * The loop runs over plain arrays without calls or branches, so the JIT can keep the box in registers.
+     * @return the first ray that enters the box before its limit, or -1 if none does
+     */
+    private int enter(int node, RayPacket packet) {
+        int b = node * 6;
+        double minX = bounds[b], minY = bounds[b+1], minZ = bounds[b+2];
+        double maxX = bounds[b+3], maxY = bounds[b+4], maxZ = bounds[b+5];
+        double[] ox = packet.ox, oy = packet.oy, oz = packet.oz, ix = packet.ix, iy = packet.iy, iz = packet.iz;
+        double[] entry = packet.entry, limit = packet.t;
+
+        int first = -1;
+        for (int i = packet.size - 1; i >= 0; i--) {
+            double t1 = (minX - ox[i]) * ix[i], t2 = (maxX - ox[i]) * ix[i];
+            double tNear = Math.min(t1, t2), tFar = Math.max(t1, t2);
+
+            t1 = (minY - oy[i]) * iy[i]; t2 = (maxY - oy[i]) * iy[i];
+            tNear = Math.max(tNear, Math.min(t1, t2)); tFar = Math.min(tFar, Math.max(t1, t2));
+
+            t1 = (minZ - oz[i]) * iz[i]; t2 = (maxZ - oz[i]) * iz[i];
+            tNear = Math.max(tNear, Math.min(t1, t2)); tFar = Math.min(tFar, Math.max(t1, t2));
+
+            double e = tFar < tNear || tFar < 0 ? Double.POSITIVE_INFINITY : tNear;
+            entry[i] = e;
+            if (e < limit[i]) first = i;
+        }
+        return first;
+    }
+
+    /**
+     * Finds a ray of a packet that enters the box of a node before its limit. In a coherent packet, the first
+     * ray that is tested usually does, so interior nodes mostly cost a single slab test instead of one per ray.
+     * @return the ray, or -1 if none enters the box
+     */
+    private int firstEntering(int node, RayPacket packet) {
+        for (int i = 0; i < packet.size; i++) {
+            double limit = packet.t[i];
+            if (limit == Double.NEGATIVE_INFINITY) continue; // blocked
+            if (entry(node, packet.ox[i], packet.oy[i], packet.oz[i], packet.ix[i], packet.iy[i], packet.iz[i]) < limit) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Slab test of a ray against the box of a node.
+     * @return the ray parameter where the ray enters the box (negative if it starts inside),
+     * or positive infinity if the box is missed
+     */
+    private double entry(int node, double ox, double oy, double oz, double ix, double iy, double iz) {
+        int b = node * 6;
+
+        double t1 = (bounds[b] - ox) * ix, t2 = (bounds[b+3] - ox) * ix;
+        double tNear = Math.min(t1, t2), tFar = Math.max(t1, t2);
+
+        t1 = (bounds[b+1] - oy) * iy; t2 = (bounds[b+4] - oy) * iy;
+        tNear = Math.max(tNear, Math.min(t1, t2)); tFar = Math.min(tFar, Math.max(t1, t2));
+
+        t1 = (bounds[b+2] - oz) * iz; t2 = (bounds[b+5] - oz) * iz;
+        tNear = Math.max(tNear, Math.min(t1, t2)); tFar = Math.min(tFar, Math.max(t1, t2));
+
+        // the box is missed, or lies completely behind the ray
+        if (tFar < tNear || tFar < 0) return Double.POSITIVE_INFINITY;
+        return tNear;
+    }
+
+    /**
+     * 1/d, but a zero component yields a huge finite value instead of infinity.
+     * That way, (bound - origin) * inverse never becomes 0 * infinity = NaN.
+     */
+    static double inverse(double d) {
+        return 1.0 / (d == 0 ? Double.MIN_NORMAL : d);
+    }
+
+    /**
+     * @return the bounds of the root node, i.e. of all primitives (empty if there are none)
+     */
+    public BoundingBox getBoundingBox() {
+        BoundingBox box = new BoundingBox();
+        if (nodeCount == 0) return box;
+        return box.include(bounds[0], bounds[1], bounds[2]).include(bounds[3], bounds[4], bounds[5]);
+    }
+
+    // ===================== REFITTING ===================== //
+    // Source: Wald, Boulos, Shirley: "Ray Tracing Deformable Scenes Using Dynamic Bounding Volume Hierarchies" (2007)
+
+    /**
+     * Recomputes all node boxes for moved primitives, keeping the tree as it is.
+     * Much cheaper than a rebuild, and as good as one while the primitives stay roughly where they were;
+     * cost() tells when they did not. Must not run while the BVH is traversed.
+     * @param primitiveBounds the new bounds, 6 values per primitive as for build()
+     */
+    public void refit(double[] primitiveBounds) {
+        if (primitiveBounds.length != primitives.length * 6) {
+            throw new IllegalArgumentException("BVH over " + primitives.length + " primitives refitted with " + primitiveBounds.length / 6);
+        }
+        // children follow their parents, so going backwards visits every child before its parent
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            int at = node * 6;
+            if (counts[node] > 0) {
+                for (int i = 0; i < 3; i++) {
+                    bounds[at + i] = Double.POSITIVE_INFINITY;
+                    bounds[at + i + 3] = Double.NEGATIVE_INFINITY;
+                }
+                for (int p = offsets[node]; p < offsets[node] + counts[node]; p++) include(bounds, at, primitiveBounds, primitives[p] * 6);
+            } else {
+                System.arraycopy(bounds, (node + 1) * 6, bounds, at, 6);
+                include(bounds, at, bounds, offsets[node] * 6);
+            }
+        }
+    }
+
+    private static void include(double[] box, int at, double[] source, int sourceAt) {
+        for (int i = 0; i < 3; i++) {
+            box[at + i] = Math.min(box[at + i], source[sourceAt + i]);
+            box[at + i + 3] = Math.max(box[at + i + 3], source[sourceAt + i + 3]);
+        }
+    }
+
+    /**
+     * Estimates the cost of a ray query with the surface area heuristic: a ray that hits the root box
+     * visits a node (or tests a primitive) with the probability area(node) / area(root).
+     * @return the expected node visits plus primitive tests per ray
+     */
+    public double cost() {
+        if (nodeCount == 0) return 0;
+        double rootArea = area(0);
+        if (rootArea == 0) return nodeCount + primitives.length;
+        double cost = 0;
+        for (int node = 0; node < nodeCount; node++) cost += area(node) * Math.max(1, counts[node]);
+        return cost / rootArea;
+    }
+
+    private double area(int node) {
+        int at = node * 6;
+        double dx = bounds[at + 3] - bounds[at], dy = bounds[at + 4] - bounds[at + 1], dz = bounds[at + 5] - bounds[at + 2];
+        if (dx < 0 || dy < 0 || dz < 0) return 0; // empty
+        return 2 * (dx*dy + dy*dz + dz*dx);
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getPrimitiveCount() {
+        return primitives.length;
+    }
+
+    public double getBuildMillis() {
+        return buildNanos / 1e6;
+    }
+
+    // ===================== SERIALIZATION ===================== //
+    // Layout (in the byte order of the buffer): nodeCount, maxDepth, primitiveCount, 0 (ints),
+    // then bounds (doubles), offsets, counts and primitives (ints), padded to a multiple of 8 bytes.
+    // The doubles start 8-byte aligned if the buffer position is, so the arrays can be read from a mapped file in bulk.
+
+    /**
+     * @return the number of bytes write() produces
+     */
+    public long getSerializedSize() {
+        return align8(16 + (long) nodeCount * 6 * Double.BYTES + (2L * nodeCount + primitives.length) * Integer.BYTES);
+    }
+
+    /**
+     * Writes this BVH, in chunks; getSerializedSize() bytes.
+     * @param out the target
+     */
+    public void write(ChannelWriter out) throws IOException {
+        out.putInt(nodeCount).putInt(maxDepth).putInt(primitives.length).putInt(0);
+        out.putDoubles(bounds, nodeCount * 6);
+        out.putInts(offsets, nodeCount).putInts(counts, nodeCount).putInts(primitives, primitives.length);
+        out.pad(8);
+    }
+
+    /**
+     * Reads a BVH written by write() and advances the buffer past it.
+     * @param in the source
+     * @return the BVH
+     */
+    public static BVH read(ByteBuffer in) {
+        int nodeCount = in.getInt(), maxDepth = in.getInt(), primitiveCount = in.getInt();
+        in.getInt();
+        if (nodeCount < 0 || primitiveCount < 0 || maxDepth < 0) throw new IllegalArgumentException("Corrupt BVH data");
+
+        double[] bounds = new double[nodeCount * 6];
+        in.asDoubleBuffer().get(bounds);
+        in.position(in.position() + bounds.length * Double.BYTES);
+        int[] offsets = getInts(in, nodeCount);
+        int[] counts = getInts(in, nodeCount);
+        int[] primitives = getInts(in, primitiveCount);
+        while (in.position() % 8 != 0) in.get();
+
+        return new BVH(bounds, offsets, counts, primitives, nodeCount, maxDepth, 0);
+    }
+
+    private static int[] getInts(ByteBuffer in, int length) {
+        int[] values = new int[length];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + length * Integer.BYTES);
+        return values;
+    }
+
+    private static long align8(long bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    BVH(double[] bounds, int[] offsets, int[] counts, int[] primitives, int nodeCount, int maxDepth, long buildNanos) {
+        this.bounds = bounds;
+        this.offsets = offsets;
+        this.counts = counts;
+        this.primitives = primitives;
+        this.nodeCount = nodeCount;
+        this.maxDepth = maxDepth;
+        this.buildNanos = buildNanos;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(maxDepth + 1));
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.graphics.accel.BVH[" +
+                "nodes=" + nodeCount +
+                ", primitives=" + primitives.length +
+                ", maxDepth=" + maxDepth +
+                String.format(", build=%.2fms", getBuildMillis()) +
+                ']';
+    }
+}
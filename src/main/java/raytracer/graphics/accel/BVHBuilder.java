@@ -0,0 +1,261 @@
+package raytracer.graphics.accel;
+
+import raytracer.render.RenderStats;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Builds a BVH top-down with the binned surface area heuristic (SAH).
+ * Sources:
+ * - Wald: "On fast Construction of SAH-based Bounding Volume Hierarchies" (binning)
+ * - https://www.pbr-book.org/3ed-2018/Primitives_and_Intersection_Acceleration/Bounding_Volume_Hierarchies
+ */
+class BVHBuilder {
+
+    /**
+     * How many bins are evaluated per axis.
+     */
+    private static final int BINS = 16;
+    /**
+     * Leaves with more primitives than this are always split.
+     */
+    private static final int MAX_LEAF_SIZE = 4;
+    /**
+     * The cost of visiting a node, relative to the cost of one primitive test.
+     */
+    private static final double TRAVERSAL_COST = 1.0;
+    /**
+     * Subtrees over at least this many primitives are built in parallel.
+     * Below that, forking costs more than it gains.
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    /**
+     * A node of the temporary (pointer-based) tree, before it is flattened.
+     */
+    private static class Node {
+        final double[] bounds = new double[6];
+        Node left, right;
+        int start, count;
+    }
+
+    private final double[] primitiveBounds;
+    private final double[] centroids;
+    private final int[] primitives;
+
+    static BVH build(double[] primitiveBounds) {
+        long startTime = System.nanoTime();
+
+        BVHBuilder builder = new BVHBuilder(primitiveBounds);
+        int n = builder.primitives.length;
+        if (n == 0) return new BVH(new double[0], new int[0], new int[0], new int[0], 0, 0, System.nanoTime() - startTime);
+
+        // the two halves of every large node are built on the fork/join pool
+        Node root = ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> builder.buildNode(0, n)));
+
+        int nodeCount = countNodes(root);
+        double[] bounds = new double[nodeCount * 6];
+        int[] offsets = new int[nodeCount];
+        int[] counts = new int[nodeCount];
+        flatten(root, new int[1], bounds, offsets, counts);
+
+        long buildNanos = System.nanoTime() - startTime;
+        if (RenderStats.ENABLED) RenderStats.addTime(RenderStats.Phase.BUILD, buildNanos);
+        return new BVH(bounds, offsets, counts, builder.primitives, nodeCount, depth(root), buildNanos);
+    }
+
+    private BVHBuilder(double[] primitiveBounds) {
+        int n = primitiveBounds.length / 6;
+        this.primitiveBounds = primitiveBounds;
+        this.centroids = new double[n * 3];
+        this.primitives = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            primitives[i] = i;
+            for (int axis = 0; axis < 3; axis++) {
+                centroids[i*3 + axis] = 0.5 * (primitiveBounds[i*6 + axis] + primitiveBounds[i*6 + 3 + axis]);
+            }
+        }
+    }
+
+    /**
+     * Recursively builds the subtree over primitives[start, end).
+     */
+    private Node buildNode(int start, int end) {
+        Node node = new Node();
+
+        // bounds of the primitives and of their centroids
+        double[] centroidBounds = new double[6];
+        reset(node.bounds);
+        reset(centroidBounds);
+        for (int i = start; i < end; i++) {
+            int p = primitives[i];
+            grow(node.bounds, primitiveBounds, p*6, p*6 + 3);
+            grow(centroidBounds, centroids, p*3, p*3);
+        }
+
+        int n = end - start;
+        if (n == 1) return leaf(node, start, n);
+
+        // ############# evaluate all bin borders on all axes #############
+        double parentArea = area(node.bounds);
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestAxis = -1, bestSplit = -1;
+
+        int[] binCounts = new int[BINS];
+        double[] binBounds = new double[BINS * 6];
+        double[] rightArea = new double[BINS];
+        double[] box = new double[6];
+
+        for (int axis = 0; axis < 3; axis++) {
+            double cMin = centroidBounds[axis], cMax = centroidBounds[axis + 3];
+            if (cMax - cMin <= 0) continue; // all centroids coincide on this axis
+
+            Arrays.fill(binCounts, 0);
+            for (int b = 0; b < BINS; b++) reset(binBounds, b * 6);
+            for (int i = start; i < end; i++) {
+                int p = primitives[i];
+                int b = bin(centroids[p*3 + axis], cMin, cMax);
+                binCounts[b]++;
+                growAt(binBounds, b * 6, primitiveBounds, p*6);
+            }
+
+            // sweep from the right to get the area of everything right of each border
+            reset(box);
+            for (int b = BINS - 1; b > 0; b--) {
+                growAt(box, 0, binBounds, b * 6);
+                rightArea[b] = area(box);
+            }
+
+            // sweep from the left and evaluate the SAH at every border
+            reset(box);
+            int leftCount = 0;
+            for (int b = 0; b < BINS - 1; b++) {
+                growAt(box, 0, binBounds, b * 6);
+                leftCount += binCounts[b];
+                int rightCount = n - leftCount;
+                if (leftCount == 0 || rightCount == 0) continue;
+
+                double cost = TRAVERSAL_COST + (area(box) * leftCount + rightArea[b + 1] * rightCount) / parentArea;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestSplit = b;
+                }
+            }
+        }
+
+        // a leaf is cheaper than any split, and small enough
+        if (n <= MAX_LEAF_SIZE && (bestAxis < 0 || bestCost >= n)) return leaf(node, start, n);
+
+        int mid;
+        if (bestAxis < 0) {
+            // the centroids cannot be separated; split the range in half so the tree still terminates
+            mid = start + n / 2;
+        } else {
+            // partition the primitives in place by bin
+            double cMin = centroidBounds[bestAxis], cMax = centroidBounds[bestAxis + 3];
+            int i = start, j = end - 1;
+            while (i <= j) {
+                if (bin(centroids[primitives[i]*3 + bestAxis], cMin, cMax) <= bestSplit) {
+                    i++;
+                } else {
+                    int tmp = primitives[i]; primitives[i] = primitives[j]; primitives[j] = tmp;
+                    j--;
+                }
+            }
+            mid = i;
+        }
+
+        // both halves work on disjoint ranges of primitives, so they can be built at the same time
+        if (n >= PARALLEL_THRESHOLD) {
+            final int split = mid;
+            ForkJoinTask<Node> left = ForkJoinTask.adapt(() -> buildNode(start, split)).fork();
+            node.right = buildNode(mid, end);
+            node.left = left.join();
+        } else {
+            node.left = buildNode(start, mid);
+            node.right = buildNode(mid, end);
+        }
+        return node;
+    }
+
+    private static int countNodes(Node node) {
+        if (node.left == null) return 1;
+        return 1 + countNodes(node.left) + countNodes(node.right);
+    }
+
+    private static int depth(Node node) {
+        if (node.left == null) return 0;
+        return 1 + Math.max(depth(node.left), depth(node.right));
+    }
+
+    private static Node leaf(Node node, int start, int count) {
+        node.start = start;
+        node.count = count;
+        return node;
+    }
+
+    /**
+     * Writes the subtree depth-first into the arrays.
+     * @return the index of the node
+     */
+    private static int flatten(Node node, int[] next, double[] bounds, int[] offsets, int[] counts) {
+        int index = next[0]++;
+        System.arraycopy(node.bounds, 0, bounds, index * 6, 6);
+
+        if (node.left == null) { // leaf
+            offsets[index] = node.start;
+            counts[index] = node.count;
+        } else {
+            flatten(node.left, next, bounds, offsets, counts); // lands at index + 1
+            offsets[index] = flatten(node.right, next, bounds, offsets, counts);
+            counts[index] = 0;
+        }
+        return index;
+    }
+
+    private static int bin(double centroid, double cMin, double cMax) {
+        int b = (int) (BINS * (centroid - cMin) / (cMax - cMin));
+        return Math.max(0, Math.min(BINS - 1, b));
+    }
+
+    private static void reset(double[] box) {
+        reset(box, 0);
+    }
+
+    private static void reset(double[] box, int at) {
+        for (int i = 0; i < 3; i++) {
+            box[at + i] = Double.POSITIVE_INFINITY;
+            box[at + i + 3] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Grows box by the point min at source[minAt] and the point max at source[maxAt].
+     */
+    private static void grow(double[] box, double[] source, int minAt, int maxAt) {
+        for (int i = 0; i < 3; i++) {
+            box[i] = Math.min(box[i], source[minAt + i]);
+            box[i + 3] = Math.max(box[i + 3], source[maxAt + i]);
+        }
+    }
+
+    /**
+     * Grows the box at box[at] by the box at source[sourceAt].
+     */
+    private static void growAt(double[] box, int at, double[] source, int sourceAt) {
+        for (int i = 0; i < 3; i++) {
+            box[at + i] = Math.min(box[at + i], source[sourceAt + i]);
+            box[at + i + 3] = Math.max(box[at + i + 3], source[sourceAt + i + 3]);
+        }
+    }
+
+    private static double area(double[] box) {
+        double dx = box[3] - box[0], dy = box[4] - box[1], dz = box[5] - box[2];
+        if (dx < 0 || dy < 0 || dz < 0) return 0; // empty
+        return 2 * (dx*dy + dy*dz + dz*dx);
+    }
+}
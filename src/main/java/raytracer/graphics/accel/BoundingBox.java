@@ -0,0 +1,90 @@
+package raytracer.graphics.accel;
+
+import raytracer.math.Vector3;
+
+/**
+ * An axis-aligned bounding box (AABB), given by its minimum and maximum corner.
+ * A newly created box is empty and grows with every point or box that is included.
+ */
+public class BoundingBox {
+
+    private double minX = Double.POSITIVE_INFINITY;
+    private double minY = Double.POSITIVE_INFINITY;
+    private double minZ = Double.POSITIVE_INFINITY;
+    private double maxX = Double.NEGATIVE_INFINITY;
+    private double maxY = Double.NEGATIVE_INFINITY;
+    private double maxZ = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Grows the box so that it contains a point.
+     * @param x x
+     * @param y y
+     * @param z z
+     * @return this box
+     */
+    public BoundingBox include(double x, double y, double z) {
+        minX = Math.min(minX, x); maxX = Math.max(maxX, x);
+        minY = Math.min(minY, y); maxY = Math.max(maxY, y);
+        minZ = Math.min(minZ, z); maxZ = Math.max(maxZ, z);
+        return this;
+    }
+
+    /**
+     * Grows the box so that it contains a point.
+     * @param point the point
+     * @return this box
+     */
+    public BoundingBox include(Vector3 point) {
+        return include(point.getX(), point.getY(), point.getZ());
+    }
+
+    /**
+     * Grows the box so that it contains another box.
+     * @param box the other box
+     * @return this box
+     */
+    public BoundingBox include(BoundingBox box) {
+        if (box.isEmpty()) return this;
+        include(box.minX, box.minY, box.minZ);
+        return include(box.maxX, box.maxY, box.maxZ);
+    }
+
+    /**
+     * @return true if nothing was included yet
+     */
+    public boolean isEmpty() {
+        return minX > maxX || minY > maxY || minZ > maxZ;
+    }
+
+    /**
+     * The surface area of the box, which is the base of the surface area heuristic (SAH).
+     * @return the surface area, 0 for empty boxes
+     */
+    public double surfaceArea() {
+        if (isEmpty()) return 0;
+        double dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+        return 2 * (dx*dy + dy*dz + dz*dx);
+    }
+
+    public Vector3 getMin() {
+        return new Vector3(minX, minY, minZ);
+    }
+
+    public Vector3 getMax() {
+        return new Vector3(maxX, maxY, maxZ);
+    }
+
+    public BoundingBox() {
+    }
+
+    public BoundingBox(Vector3 min, Vector3 max) {
+        include(min);
+        include(max);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("raytracer.graphics.accel.BoundingBox[(%.4f | %.4f | %.4f) - (%.4f | %.4f | %.4f)]",
+                minX, minY, minZ, maxX, maxY, maxZ);
+    }
+}
@@ -0,0 +1,128 @@
+package raytracer.graphics.accel;
+
+import raytracer.graphics.Ray;
+
+/**
+ * A bundle of rays that are traced together, e.g. the primary rays of a block of pixels.
+ * The rays are stored as a structure of arrays (one array per component), so that box and primitive tests
+ * run as simple loops over all rays, and every BVH node is fetched once per packet instead of once per ray.
+ *
+ * Every ray has a current limit t: for closest-hit queries the closest hit so far, for occlusion queries
+ * the distance to the light. A ray whose limit is negative infinity is finished and takes no further part.
+ */
+public class RayPacket {
+
+    /**
+     * The most rays a packet can hold.
+     */
+    public static final int MAX_SIZE = 64;
+
+    /**
+     * The number of rays in the packet.
+     */
+    public int size;
+    /**
+     * The rays themselves, for the primitive tests that work on single rays.
+     */
+    public final Ray[] rays = new Ray[MAX_SIZE];
+    /**
+     * Origins and (normalized) directions.
+     */
+    public final double[] ox = new double[MAX_SIZE], oy = new double[MAX_SIZE], oz = new double[MAX_SIZE];
+    public final double[] dx = new double[MAX_SIZE], dy = new double[MAX_SIZE], dz = new double[MAX_SIZE];
+    /**
+     * The inverse directions for the slab tests (see BVH.inverse).
+     */
+    final double[] ix = new double[MAX_SIZE], iy = new double[MAX_SIZE], iz = new double[MAX_SIZE];
+    /**
+     * The current limit of every ray: only hits with 0 < t < limit count.
+     */
+    public final double[] t = new double[MAX_SIZE];
+    /**
+     * Closest-hit queries: the primitive hit by every ray (-1 if none), and what the surface remembered about
+     * the hit (see Surface.getLastHit).
+     */
+    public final int[] hit = new int[MAX_SIZE];
+    public final int[] lastHit = new int[MAX_SIZE];
+    /**
+     * Occlusion queries: whether every ray is blocked.
+     */
+    public final boolean[] occluded = new boolean[MAX_SIZE];
+    /**
+     * Where every ray enters the box of the node that is currently visited (positive infinity if it misses it).
+     */
+    final double[] entry = new double[MAX_SIZE];
+    /**
+     * The number of rays that are not finished.
+     */
+    int active;
+
+    /**
+     * Removes all rays.
+     * @return this packet
+     */
+    public RayPacket clear() {
+        size = 0;
+        active = 0;
+        return this;
+    }
+
+    /**
+     * Adds a ray. The packet keeps the ray object, so it must not change until the query is done.
+     * @param ray the ray
+     * @param tMax the initial limit of the ray
+     * @return the index of the ray in the packet
+     */
+    public int add(Ray ray, double tMax) {
+        if (size == MAX_SIZE) throw new IllegalStateException("A packet holds at most " + MAX_SIZE + " rays");
+        int i = size++;
+        rays[i] = ray;
+        ox[i] = ray.getOriginPoint().getX(); oy[i] = ray.getOriginPoint().getY(); oz[i] = ray.getOriginPoint().getZ();
+        dx[i] = ray.getDirection().getX(); dy[i] = ray.getDirection().getY(); dz[i] = ray.getDirection().getZ();
+        ix[i] = BVH.inverse(dx[i]); iy[i] = BVH.inverse(dy[i]); iz[i] = BVH.inverse(dz[i]);
+        t[i] = tMax;
+        hit[i] = -1;
+        lastHit[i] = 0;
+        occluded[i] = false;
+        entry[i] = Double.POSITIVE_INFINITY;
+        active++;
+        return i;
+    }
+
+    /**
+     * @param i the index of a ray
+     * @return true if the ray passes through the box of the current node within its limit, so a primitive test may pay off
+     */
+    public boolean isActive(int i) {
+        return entry[i] < t[i];
+    }
+
+    /**
+     * Records a closer hit of a ray.
+     * @param i the index of the ray
+     * @param primitive the primitive
+     * @param t the ray parameter of the hit
+     * @param lastHit what the surface remembers about the hit
+     */
+    public void hit(int i, int primitive, double t, int lastHit) {
+        this.t[i] = t;
+        this.hit[i] = primitive;
+        this.lastHit[i] = lastHit;
+    }
+
+    /**
+     * Marks a ray as blocked, which finishes it.
+     * @param i the index of the ray
+     */
+    public void block(int i) {
+        if (occluded[i]) return;
+        occluded[i] = true;
+        t[i] = Double.NEGATIVE_INFINITY;
+        active--;
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.graphics.accel.RayPacket[size=" + size + ", active=" + active + ']';
+    }
+}
@@ -1,9 +1,9 @@
 package raytracer.graphics.illumination;
 
+import raytracer.image.Radiance;
+import raytracer.math.RaytracerMathException;
 import raytracer.math.Vector3;
 
-import java.awt.Color;
-
 /**
  * Contains data and methods for Phong illumination.
  */
@@ -33,14 +33,11 @@ public class Phong {
     /**
      * Calculates ambient-only phong illumination.
      * @param color the ambient light color
-     * @return ambient phong
+     * @param result receives the ambient phong (may be color itself)
+     * @return result
      */
-    public Color computeAmbient(Color color) {
-        return new Color(
-                (int)Math.round(Math.max(0, Math.min(255, color.getRed()*kAmbient))),
-                (int)Math.round(Math.max(0, Math.min(255, color.getGreen()*kAmbient))),
-                (int)Math.round(Math.max(0, Math.min(255, color.getBlue()*kAmbient)))
-        );
+    public Radiance computeAmbient(Radiance color, Radiance result) {
+        return result.set(color).multiply(kAmbient);
     }
 
     /**
@@ -52,34 +49,47 @@ public class Phong {
      * @param surfToEye A vector from the surface to the camera position.
      * @param surfNorm The surface normal at the point of illumination.
      * @param includeAmbient Whether to include ambient light or not.
-     * @return Color in Phong illumination.
+     * @param result Receives the color in Phong illumination (may be color itself).
+     * @return result
      */
-    public Color computeIllumination(Color color, Color lightColor, Vector3 surfToLight, Vector3 surfNorm, Vector3 surfToEye, boolean includeAmbient) {
-        Vector3 result = new Vector3();
-        Vector3 col = new Vector3((double)color.getRed(), (double)color.getGreen(), (double)color.getBlue());
-        Vector3 lCol = new Vector3((double)lightColor.getRed(), (double)lightColor.getGreen(), (double)lightColor.getBlue());
+    public Radiance computeIllumination(Radiance color, Radiance lightColor, Vector3 surfToLight, Vector3 surfNorm, Vector3 surfToEye, boolean includeAmbient, Radiance result) {
+        // This runs for every light at every hit, so the vector math is spelled out component-wise.
+        double r = 0, g = 0, b = 0;
+        double colR = color.getRed(), colG = color.getGreen(), colB = color.getBlue();
 
         // For ambient light, no directions matter - it's a flat factor on the color.
-        if (includeAmbient) result = result.add(col.multiply(kAmbient));
+        if (includeAmbient) {
+            r += colR*kAmbient;
+            g += colG*kAmbient;
+            b += colB*kAmbient;
+        }
 
         // For diffuse light, a surface becomes brighter the closer the incoming light is to its normal.
         // The dot is 1 when they are equal (very bright) and 0 when they're perpendicular.
-        double diffuseFactor = Math.max(0.0, surfNorm.dot(surfToLight));
-        result = result.add(col.multiply(diffuseFactor).multiply(kDiffuse));
+        double nDotL = surfNorm.dot(surfToLight);
+        double diffuseFactor = Math.max(0.0, nDotL);
+        r += colR*diffuseFactor*kDiffuse;
+        g += colG*diffuseFactor*kDiffuse;
+        b += colB*diffuseFactor*kDiffuse;
 
         // Specular light bases on the idea that a surface reflects light at a certain angle.
         // If this reflected light hits the camera, we see a specular highlight.
         // Reflected Vector = 2*dot(n,l)*n - l
-        Vector3 reflectionVector = surfNorm.multiply(2*surfNorm.dot(surfToLight)).subtract(surfToLight).normalize();
-        double specularFactor = Math.pow(Math.max(0, reflectionVector.dot(surfToEye)), exponent);
-        Vector3 specCol = lCol.multiply(specularFactor).multiply(kSpecular);
-        result = result.add(specCol);
+        double reflX = surfNorm.getX()*(2*nDotL) - surfToLight.getX();
+        double reflY = surfNorm.getY()*(2*nDotL) - surfToLight.getY();
+        double reflZ = surfNorm.getZ()*(2*nDotL) - surfToLight.getZ();
+        double reflLength = Math.sqrt(reflX*reflX + reflY*reflY + reflZ*reflZ);
+        if (reflLength == 0) throw new RaytracerMathException("Cannot normalize Vector of size 0!");
+        reflX /= reflLength; reflY /= reflLength; reflZ /= reflLength;
+
+        double reflDotEye = reflX*surfToEye.getX() + reflY*surfToEye.getY() + reflZ*surfToEye.getZ();
+        double specularFactor = Math.pow(Math.max(0, reflDotEye), exponent);
+        r += lightColor.getRed()*specularFactor*kSpecular;
+        g += lightColor.getGreen()*specularFactor*kSpecular;
+        b += lightColor.getBlue()*specularFactor*kSpecular;
 
-        return new Color(
-                (int)Math.round(Math.max(0, Math.min(255, result.getX()))),
-                (int)Math.round(Math.max(0, Math.min(255, result.getY()))),
-                (int)Math.round(Math.max(0, Math.min(255, result.getZ())))
-        );
+        // no clamping: that happens once, when the final color is written
+        return result.set(r, g, b);
     }
 
     public Phong() {
@@ -1,21 +1,32 @@
 package raytracer.graphics.lights;
 
+import raytracer.image.Radiance;
+
 import java.awt.*;
 
 public class Light {
 
     protected Color color;
+    /**
+     * The color, converted once for shading.
+     */
+    protected Radiance radiance;
 
     public Color getColor() {
         return color;
     }
 
+    public Radiance getRadiance() {
+        return radiance;
+    }
+
     public Light() {
-        this.color = Color.WHITE;
+        this(Color.WHITE);
     }
 
     public Light(Color color) {
         this.color = color;
+        this.radiance = new Radiance(color);
     }
 
     @Override
@@ -2,10 +2,9 @@ package raytracer.graphics.materials;
 
 import raytracer.graphics.illumination.Phong;
 import raytracer.graphics.surfaces.Surface;
+import raytracer.image.Radiance;
 import raytracer.math.Vector3;
 
-import java.awt.*;
-
 public abstract class Material {
 
     /**
@@ -25,7 +24,23 @@ public abstract class Material {
      */
     protected double refraction;
 
-    public abstract Color getMaterialColor(Surface s, Vector3 at);
+    /**
+     * Looks up the color of the material at a point.
+     * @param s the surface the point lies on
+     * @param at the point
+     * @param footprint the width of the area on the surface that the color stands for (about one pixel, seen
+     *                  along the traced ray), in world units; textures are filtered over it. 0 for a point sample
+     * @param dest receives the color
+     * @return dest
+     */
+    public abstract Radiance getMaterialColor(Surface s, Vector3 at, double footprint, Radiance dest);
+
+    /**
+     * Looks up the color of the material at a single point (see getMaterialColor(Surface, Vector3, double, Radiance)).
+     */
+    public Radiance getMaterialColor(Surface s, Vector3 at, Radiance dest) {
+        return getMaterialColor(s, at, 0, dest);
+    }
 
     public Material() {
         phong = new Phong();
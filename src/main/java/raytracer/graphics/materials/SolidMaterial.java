@@ -2,6 +2,7 @@ package raytracer.graphics.materials;
 
 import raytracer.graphics.illumination.Phong;
 import raytracer.graphics.surfaces.Surface;
+import raytracer.image.Radiance;
 import raytracer.math.Vector3;
 
 import java.awt.*;
@@ -9,15 +10,20 @@ import java.awt.*;
 public class SolidMaterial extends Material {
 
     private Color color;
+    /**
+     * The color, converted once for shading.
+     */
+    private Radiance radiance;
 
     public SolidMaterial(Phong phong, double reflectance, double transmittance, double refraction, Color color) {
         super(phong, reflectance, transmittance, refraction);
         this.color = color;
+        this.radiance = new Radiance(color);
     }
 
     @Override
-    public Color getMaterialColor(Surface s, Vector3 at) {
-        return color;
+    public Radiance getMaterialColor(Surface s, Vector3 at, double footprint, Radiance dest) {
+        return dest.set(radiance);
     }
 
     public Color getColor() {
@@ -2,43 +2,51 @@ package raytracer.graphics.materials;
 
 import raytracer.graphics.illumination.Phong;
 import raytracer.graphics.surfaces.Surface;
+import raytracer.image.Radiance;
+import raytracer.image.Texture;
 import raytracer.math.Vector3;
 
-import java.awt.*;
-import java.awt.image.BufferedImage;
-
 public class TexturedMaterial extends Material {
 
     private String textureName;
-    private BufferedImage texture;
+    private Texture texture;
+    /**
+     * The texture coordinates of the current lookup, per thread.
+     */
+    private final ThreadLocal<float[]> uv = ThreadLocal.withInitial(() -> new float[2]);
 
     // Shirley, Marshner pg.244
-    private Color textureLookup(float u, float v) {
-        int i = Math.round(u* texture.getWidth() -0.5f);
-        int j = Math.round(v * texture.getHeight() - 0.5f);
-        return new Color(texture.getRGB(i, j));
+    // The mip level follows the footprint of the ray on the surface, as with ray cones.
+    // Source: Akenine-Moller et al., "Texture Level of Detail Strategies for Real-Time Ray Tracing", Ray Tracing Gems, chp. 20
+    private Radiance textureLookup(float u, float v, double lod, Radiance dest) {
+        return texture.sample(u, v, lod, dest);
     }
 
-    public TexturedMaterial(Phong phong, double reflectance, double transmittance, double refraction, String textureName, BufferedImage texture) {
+    public TexturedMaterial(Phong phong, double reflectance, double transmittance, double refraction, String textureName, Texture texture) {
         super(phong, reflectance, transmittance, refraction);
         this.textureName = textureName;
         this.texture = texture;
     }
 
     @Override
-    public Color getMaterialColor(Surface s, Vector3 at) {
-        float[] uv = s.getTextureCoordinates(at);
-        return textureLookup(uv[0],uv[1]);
+    public Radiance getMaterialColor(Surface s, Vector3 at, double footprint, Radiance dest) {
+        float[] uv = s.getTextureCoordinates(at, this.uv.get());
+        return textureLookup(uv[0], uv[1], texture.levelOfDetail(footprint, s.getTextureArea()), dest);
+    }
+
+    public Texture getTexture() {
+        return texture;
     }
 
     @Override
     public String toString() {
         return "raytracer.graphics.materials.TexturedMaterial[" +
-                "texture='" + texture + '\'' +
+                "texture='" + textureName + '\'' +
+                ", " + texture +
                 ", phong=" + phong +
                 ", reflectance=" + reflectance +
                 ", transmittance=" + transmittance +
                 ", refraction=" + refraction +
                 ']';
-}
+    }
 }
@@ -1,38 +1,124 @@
 package raytracer.graphics.surfaces;
 
 import raytracer.graphics.Ray;
+import raytracer.graphics.accel.BVH;
+import raytracer.graphics.accel.BoundingBox;
+import raytracer.graphics.accel.RayPacket;
 import raytracer.graphics.materials.Material;
-import raytracer.graphics.materials.SolidMaterial;
-import raytracer.graphics.surfaces.obj.TriangleFace;
+import raytracer.graphics.surfaces.obj.TriangleMesh;
 import raytracer.graphics.trafo.Transformation;
 import raytracer.math.MathUtils;
+import raytracer.render.RenderStats;
 import raytracer.math.Vector3;
 
-import java.awt.*;
-import java.util.ArrayList;
-
+/**
+ * An instance of a triangle mesh: the triangles and their BVH are shared by all instances of the same OBJ file,
+ * each instance only adds its material and transformation.
+ * The triangles are intersected in object space (see Surface), so a thousand copies of a mesh cost its memory only once.
+ */
 public class Mesh extends Surface {
 
     private String name;
-    private ArrayList<TriangleFace> faces;
-
-    private TriangleFace lastHit; // a reference to the last hit face for optimization
+    /**
+     * The packed triangles and their BVH.
+     */
+    private TriangleMesh triangles;
+
+    // the index of the last hit triangle for optimization
+    // every render thread needs its own, otherwise parallel rays overwrite each other's hits
+    private final ThreadLocal<int[]> lastHit = ThreadLocal.withInitial(() -> new int[] { -1 });
+
+    private final BVH.ClosestIntersector triangleTest = (p, r, tMax) -> triangleIntersect(r, p);
+    private final BVH.OcclusionTest triangleOcclusionTest = (p, r, tMax) -> {
+        double t = triangleIntersect(r, p);
+        return t > 0 && t < tMax;
+    };
+    private final BVH.PacketTest trianglePacketTest = (p, packet) -> {
+        for (int i = 0; i < packet.size; i++) {
+            if (!packet.isActive(i)) continue;
+            double t = triangleIntersect(packet.rays[i], p);
+            if (t > 0 && t < packet.t[i]) packet.hit(i, p, t, 0);
+        }
+    };
+    private final BVH.PacketTest trianglePacketOcclusionTest = (p, packet) -> {
+        for (int i = 0; i < packet.size; i++) {
+            if (!packet.isActive(i)) continue;
+            double t = triangleIntersect(packet.rays[i], p);
+            if (t > 0 && t < packet.t[i]) packet.block(i);
+        }
+    };
 
 
     @Override
     public double intersect(Ray ray) {
-        double t = Double.MAX_VALUE;
-
-        // todo for each triangle intersect
-        for (TriangleFace face: faces) {
-            double tt = triangleIntersect(ray, face);
-            if (tt < t) {
-                t = tt;
-                lastHit = face;
-            }
+        if (RenderStats.ENABLED) RenderStats.local().meshTests++;
+        ObjectSpace objectSpace = objectSpace();
+        if (objectSpace.identity) return intersectObject(ray, 1);
+        if (objectSpace.worldToObject == null) return Double.MAX_VALUE;
+
+        ObjectRay objectRay = toObject(ray, objectSpace);
+        return intersectObject(objectRay.ray, objectRay.scale);
+    }
+
+    /**
+     * @param scale the length of a unit world direction in object space, to convert t back to world space
+     */
+    private double intersectObject(Ray ray, double scale) {
+        // the BVH only hands us the triangles whose boxes the ray passes through
+        BVH.Hit hit = triangles.getBVH().closestHit(ray, Double.MAX_VALUE, triangleTest);
+        if (hit.primitive < 0) return Double.MAX_VALUE;
+
+        lastHit.get()[0] = hit.primitive;
+        return hit.t / scale;
+    }
+
+    @Override
+    public boolean occluded(Ray ray, double tMax) {
+        if (RenderStats.ENABLED) RenderStats.local().meshTests++;
+
+        // any triangle in range will do, so the BVH stops at the first one instead of searching the closest
+        // (lastHit stays untouched: it belongs to the last intersect(), whose normal is still being shaded)
+        ObjectSpace objectSpace = objectSpace();
+        if (objectSpace.identity) return triangles.getBVH().anyHit(ray, tMax, triangleOcclusionTest);
+        if (objectSpace.worldToObject == null) return false;
+
+        ObjectRay objectRay = toObject(ray, objectSpace);
+        // (for parallel lights, tMax * scale may overflow to infinity, which still means "no limit")
+        return triangles.getBVH().anyHit(objectRay.ray, tMax * objectRay.scale, triangleOcclusionTest);
+    }
+
+    @Override
+    public void intersect(RayPacket packet, int primitive) {
+        ObjectSpace objectSpace = objectSpace();
+        if (objectSpace.worldToObject == null) return;
+
+        // the rays go through the triangle BVH as a packet of their own (see ObjectPacket)
+        ObjectPacket objectPacket = toObject(packet, objectSpace);
+        RayPacket rays = objectPacket.packet;
+        if (RenderStats.ENABLED) RenderStats.local().meshTests += rays.size;
+        triangles.getBVH().closestHit(rays, trianglePacketTest);
+
+        for (int n = 0; n < rays.size; n++) {
+            if (rays.hit[n] < 0) continue;
+            int i = objectPacket.index[n];
+            double t = rays.t[n] / objectPacket.scale[n];
+            if (t > 0 && t < packet.t[i]) packet.hit(i, primitive, t, rays.hit[n]); // the triangle, for surfaceNormal()
         }
+    }
+
+    @Override
+    public void occluded(RayPacket packet) {
+        ObjectSpace objectSpace = objectSpace();
+        if (objectSpace.worldToObject == null) return;
+
+        ObjectPacket objectPacket = toObject(packet, objectSpace);
+        RayPacket rays = objectPacket.packet;
+        if (RenderStats.ENABLED) RenderStats.local().meshTests += rays.size;
+        triangles.getBVH().anyHit(rays, trianglePacketOcclusionTest);
 
-        return t;
+        for (int n = 0; n < rays.size; n++) {
+            if (rays.occluded[n]) packet.block(objectPacket.index[n]);
+        }
     }
 
     // Uses the Möller–Trumbore algorithm for fast and simple Ray-Triangle intersection. Sources:
@@ -41,12 +127,23 @@ public class Mesh extends Surface {
     // with det = (d x e2)^T * e1, which is trianglenormal x direction; a b ... barycentrics
     // - https://en.wikipedia.org/wiki/M%C3%B6ller%E2%80%93Trumbore_intersection_algorithm
     // - https://www.scratchapixel.com/lessons/3d-basic-rendering/ray-tracing-rendering-a-triangle/moller-trumbore-ray-triangle-intersection
-    private double triangleIntersect(Ray ray, TriangleFace triangle) {
+    // The vectors are spelled out component-wise, reading the packed triangle directly.
+    private double triangleIntersect(Ray ray, int triangle) {
+        if (RenderStats.ENABLED) RenderStats.local().triangleTests++;
+        double[] geometry = triangles.getGeometry();
+        int g = triangle * TriangleMesh.GEOMETRY_STRIDE;
+
+        double dx = ray.getDirection().getX(), dy = ray.getDirection().getY(), dz = ray.getDirection().getZ();
+        double e1x = geometry[g + 3], e1y = geometry[g + 4], e1z = geometry[g + 5];
+        double e2x = geometry[g + 6], e2y = geometry[g + 7], e2z = geometry[g + 8];
 
         // first, check whether the ray and triangle are parallel
         // if the dot of the triangle normal and the ray is 0, they are!
-        Vector3 p = ray.getDirection().cross(triangle.getEdgev13());
-        double det = p.dot(triangle.getEdgev12());
+        // p = d x e2
+        double px = dy*e2z - dz*e2y;
+        double py = dz*e2x - dx*e2z;
+        double pz = dx*e2y - dy*e2x;
+        double det = px*e1x + py*e1y + pz*e1z;
         if (Math.abs(det) <= MathUtils.EPSILON) { // no backface culling
             return Double.MAX_VALUE; // there is no intersection
         }
@@ -57,22 +154,29 @@ public class Mesh extends Surface {
         // now, we calculate the barycentric a and b coordinates, and check if they fulfill the constraints
         // it must be that 0 <= a, b <=1 ... if that is not fulfilled, we have no intersection
         // we start with calculating a and checking the constraints:
-        Vector3 aa = ray.getOriginPoint().subtract(triangle.getVertex1().getV());
-        double a = invDet * aa.dot(p);
+        // s = o - v0
+        double sx = ray.getOriginPoint().getX() - geometry[g];
+        double sy = ray.getOriginPoint().getY() - geometry[g + 1];
+        double sz = ray.getOriginPoint().getZ() - geometry[g + 2];
+        double a = invDet * (sx*px + sy*py + sz*pz);
         if (a < 0.0 || a > 1.0) { // the constraint is violated
             return Double.MAX_VALUE;
         }
 
         // a is allright, now we check for b
-        Vector3 bb = aa.cross(triangle.getEdgev12());
-        double b = invDet * ray.getDirection().dot(bb);
-        if (b < 0.0 || b > 1.0) { // the constraint is violated
+        // a and b must also sum up to at most 1, otherwise we hit the parallelogram spanned by the edges
+        // q = s x e1
+        double qx = sy*e1z - sz*e1y;
+        double qy = sz*e1x - sx*e1z;
+        double qz = sx*e1y - sy*e1x;
+        double b = invDet * (dx*qx + dy*qy + dz*qz);
+        if (b < 0.0 || a + b > 1.0) { // the constraint is violated
             return Double.MAX_VALUE;
         }
 
         // We now know that both a and b are valid, and can use them to calculate t.
         // This will give us the intersection point!
-        double t = invDet * triangle.getEdgev13().dot(bb);
+        double t = invDet * (e2x*qx + e2y*qy + e2z*qz);
 
         // The final check: is this a ray or line intersection?
         if (t > MathUtils.EPSILON) {
@@ -82,49 +186,61 @@ public class Mesh extends Surface {
         }
     }
 
-    private boolean isPointOnTriangle(TriangleFace face, Vector3 at) {
-        return true;
-    }
-
     @Override
     public Vector3 surfaceNormal(Vector3 at) {
-        return lastHit.getNormal().normalize();
-
-        /*
-        // on which triangle is this?
-        TriangleFace f = null;
-        for (TriangleFace face : faces) {
-            if (isPointOnTriangle(face, at)) {
-                f = face; break;
-            }
-        }
+        return surfaceNormal(at, new Vector3());
+    }
 
-        if (f == null) throw new RuntimeException("Point is not on any surface!");
+    @Override
+    public Vector3 surfaceNormal(Vector3 at, Vector3 dest) {
+        // the normal of the triangle that the last intersect() on this thread hit
+        int n = lastHit.get()[0] * TriangleMesh.NORMAL_STRIDE;
+        double[] normals = triangles.getNormals();
+        return objectSpace().normalToWorld(dest.set(normals[n], normals[n + 1], normals[n + 2]), dest);
+    }
 
-        return f.getNormal().normalize();
-        */
+    @Override
+    public int getLastHit() {
+        return lastHit.get()[0];
     }
 
     @Override
-    public float[] getTextureCoordinates(Vector3 at) {
-        float[] uv = new float[2];
+    public void setLastHit(int lastHit) {
+        this.lastHit.get()[0] = lastHit;
+    }
 
+    @Override
+    public float[] getTextureCoordinates(Vector3 at, float[] uv) {
         uv[0] = 0.0f;
         uv[1] = 0.0f;
 
         return uv;
     }
 
-    public Mesh(Material material, Transformation transformation, String name, ArrayList<TriangleFace> faces) {
+    @Override
+    public BoundingBox getBoundingBox() {
+        // the object space box of the shared BVH, transformed into world space
+        return toWorld(triangles.getBVH().getBoundingBox());
+    }
+
+    public Mesh(Material material, Transformation transformation, String name, TriangleMesh triangles) {
         super(material, transformation);
         this.name = name;
-        this.faces = faces;
+        this.triangles = triangles;
+    }
+
+    public TriangleMesh getTriangles() {
+        return triangles;
+    }
+
+    public BVH getBVH() {
+        return triangles.getBVH();
     }
 
     @Override
     public String toString() {
         return "Mesh['" + name + "', " +
-                "faces=" + faces +
+                "triangles=" + triangles +
                 ", material=" + material +
                 ", transformation=" + transformation +
                 '}';
@@ -1,12 +1,14 @@
 package raytracer.graphics.surfaces;
 
 import raytracer.graphics.Ray;
+import raytracer.graphics.accel.BoundingBox;
+import raytracer.graphics.accel.RayPacket;
 import raytracer.graphics.materials.Material;
 import raytracer.graphics.trafo.Transformation;
 import raytracer.math.MathUtils;
-import raytracer.math.MatrixUtils;
+import raytracer.math.Matrix4;
 import raytracer.math.Vector3;
-import raytracer.math.Vector4;
+import raytracer.render.RenderStats;
 
 /**
  * Represents a sphere object in a scene.
@@ -18,9 +20,13 @@ public class Sphere extends Surface {
      */
     private double radius;
     /**
-     * The position of the sphere's center (in world coordinates).
+     * The position of the sphere's center (in object coordinates).
      */
     private Vector3 position;
+    /**
+     * The squared radius, which is what the intersection test needs.
+     */
+    private double radiusSquared;
 
     // Sources:
     // https://www.scratchapixel.com/lessons/3d-basic-rendering/minimal-ray-tracer-rendering-simple-shapes/ray-sphere-intersection
@@ -28,83 +34,208 @@ public class Sphere extends Surface {
 
     @Override
     public double intersect(Ray ray) {
-        // sphere equation: x^2 + y^2 + z^2 = r^2
-        // intersection equation: (ray - spherecenter)^2 + r^2 = 0
-        // TODO: worldPosition is bandaid fix, only works for translation!
+        if (RenderStats.ENABLED) RenderStats.local().sphereTests++;
 
-        // The idea: instead of transforming the object, we inverse transform the rays!
-        // ... sadly, I never got it to work. so here's a bandaid fix!
-        /*
-        Matrix wto = transformation.getObjToWorld().invert();
-        Ray invRay = new Ray(
-                MatrixUtils.transformPoint(ray.getOriginPoint(), wto),
-                MatrixUtils.transformDirection(ray.getDirection(), wto)
-        );*/
+        // the ray is transformed into object space (see Surface), where the sphere is a sphere again
+        ObjectSpace objectSpace = objectSpace();
+        if (objectSpace.identity) return intersectObject(ray);
+        if (objectSpace.worldToObject == null) return Double.MAX_VALUE;
 
-        Vector3 originOffset = ray.getOriginPoint().subtract(worldPosition()); // band-aid
+        ObjectRay objectRay = toObject(ray, objectSpace);
+        double t = intersectObject(objectRay.ray);
+        return t == Double.MAX_VALUE ? t : t / objectRay.scale;
+    }
 
-        double a = ray.getDirection().dot(ray.getDirection());
-        double b = 2 * ray.getDirection().dot(originOffset);
-        double c = originOffset.dot(originOffset) - this.radius; // TODO fix "world radius"
-        double[] solutions = MathUtils.solveQuadratic(a, b, c);
+    private double intersectObject(Ray ray) {
+        return intersectObject(
+                ray.getOriginPoint().getX() - position.getX(),
+                ray.getOriginPoint().getY() - position.getY(),
+                ray.getOriginPoint().getZ() - position.getZ(),
+                ray.getDirection().getX(), ray.getDirection().getY(), ray.getDirection().getZ());
+    }
 
-        double result = 0;
+    /**
+     * The test for a ray with origin (ox, oy, oz) relative to the center and direction (dx, dy, dz).
+     */
+    private double intersectObject(double ox, double oy, double oz, double dx, double dy, double dz) {
+        // sphere equation: x^2 + y^2 + z^2 = r^2
+        // intersection equation: (ray - spherecenter)^2 + r^2 = 0
+
+        // everything is spelled out component-wise, so the test does not create any temporary vectors
+        double a = dx*dx + dy*dy + dz*dz;
+        double b = 2 * (dx*ox + dy*oy + dz*oz);
+        double c = (ox*ox + oy*oy + oz*oz) - this.radiusSquared;
+
+        // the quadratic formula, as in MathUtils.solveQuadratic
+        if (a == 0) return Double.MAX_VALUE;
+        double discriminant = b*b - 4*a*c;
 
-        /* Assuming t0 and t1 are sorted, the following cases exist:
-         * - no t0 or 01: there is no intersection (a)
+        /* Assuming t0 <= t1, the following cases exist:
+         * - no t0 or t1: there is no intersection (a)
          * - t0 = t1: the ray is tangent to the sphere (b)
          * - t0 > 0 && t1 > 0: the ray "cuts through" the sphere in two points (c)
          * - t0 < 0 && t1 > 0: ray cuts twice, but the camera is inside the ray (d)
          * - t1 < 0 && t1 < 0: the sphere is completely behind the camera (e)
          */
 
-        switch (solutions.length) {
-            case 0: // there is no intersection
-                result = Double.MAX_VALUE; // (a)
-                break;
-            case 1: // one intersection, it's a tangent
-                result = solutions[0]; // (b)
-                break;
-            case 2: // two intersections, we must do further checks
-                if (solutions[0] < 0) {
-                    // the first one is negative, thus "behind" our ray - we don't count it
-                    // we check for the second ray instead
-                    solutions[0] = solutions[1];
-                    if (solutions[0] < 0) { // both are <0, ie. the sphere is behind us!
-                        return Double.MAX_VALUE; // (e)
-                    } // else, if t1>0 the camera is inside the sphere
-                }
-                // we have either the classic "two intersections, camera in front" case and return the min
-                // (note: MathUtils sorts the result!)
-                // or the camera is inside the sphere
-                result = solutions[0]; // (c) or (d)
-                break;
-            default: throw new RuntimeException("Illegal quadratic solution!");
+        if (discriminant < 0) { // there is no intersection
+            return Double.MAX_VALUE; // (a)
+        } else if (discriminant == 0) { // one intersection, it's a tangent
+            return -(b/(2*a)); // (b)
+        }
+
+        // two intersections, we must do further checks
+        double root = Math.sqrt(discriminant);
+        double t0 = (-b+root)/(2*a), t1 = (-b-root)/(2*a);
+        if (t1 < t0) {
+            double tmp = t0; t0 = t1; t1 = tmp;
+        }
+
+        if (t0 < 0) {
+            // the first one is negative, thus "behind" our ray - we don't count it
+            // we check for the second ray instead
+            if (t1 < 0) { // both are <0, ie. the sphere is behind us!
+                return Double.MAX_VALUE; // (e)
+            } // else, if t1>0 the camera is inside the sphere
+            return t1; // (d)
         }
+        // the classic "two intersections, camera in front" case: we return the closer one
+        return t0; // (c)
+    }
+
+    @Override
+    public boolean occluded(Ray ray, double tMax) {
+        if (RenderStats.ENABLED) RenderStats.local().sphereTests++;
 
-        return result;
+        ObjectSpace objectSpace = objectSpace();
+        if (objectSpace.identity) return occludedObject(ray, tMax);
+        if (objectSpace.worldToObject == null) return false;
+
+        ObjectRay objectRay = toObject(ray, objectSpace);
+        // (for parallel lights, tMax * scale may overflow to infinity, which still means "no limit")
+        return occludedObject(objectRay.ray, tMax * objectRay.scale);
+    }
+
+    private boolean occludedObject(Ray ray, double tMax) {
+        return occludedObject(
+                ray.getOriginPoint().getX() - position.getX(),
+                ray.getOriginPoint().getY() - position.getY(),
+                ray.getOriginPoint().getZ() - position.getZ(),
+                ray.getDirection().getX(), ray.getDirection().getY(), ray.getDirection().getZ(), tMax);
+    }
+
+    private boolean occludedObject(double ox, double oy, double oz, double dx, double dy, double dz, double tMax) {
+        // the same quadratic as in intersectObject(), see the cases there
+        double a = dx*dx + dy*dy + dz*dz;
+        double b = 2 * (dx*ox + dy*oy + dz*oz);
+        double c = (ox*ox + oy*oy + oz*oz) - this.radiusSquared;
+
+        // most shadow rays start outside of the sphere and point away from it: no square root needed (e)
+        if (a == 0 || (c > 0 && b > 0)) return false;
+        double discriminant = b*b - 4*a*c;
+        if (discriminant < 0) return false; // (a)
+
+        // with a > 0, the smaller root comes from -root
+        double root = Math.sqrt(discriminant);
+        double t0 = (-b-root)/(2*a), t1 = (-b+root)/(2*a);
+        double t = t0 >= 0 ? t0 : t1; // (b), (c) or (d)
+        return t > 0 && t < tMax;
+    }
+
+    @Override
+    public void intersect(RayPacket packet, int primitive) {
+        ObjectSpace objectSpace = objectSpace();
+        int tests = 0;
+        if (objectSpace.identity) {
+            // the same test as intersect(Ray), straight from the packet's arrays
+            double px = position.getX(), py = position.getY(), pz = position.getZ();
+            for (int i = 0; i < packet.size; i++) {
+                if (!packet.isActive(i)) continue;
+                tests++;
+                double t = intersectObject(packet.ox[i] - px, packet.oy[i] - py, packet.oz[i] - pz,
+                        packet.dx[i], packet.dy[i], packet.dz[i]);
+                if (t > 0 && t < packet.t[i]) packet.hit(i, primitive, t, 0);
+            }
+        } else if (objectSpace.worldToObject != null) {
+            ObjectPacket objectPacket = toObject(packet, objectSpace);
+            RayPacket rays = objectPacket.packet;
+            double px = position.getX(), py = position.getY(), pz = position.getZ();
+            for (int n = 0; n < rays.size; n++) {
+                tests++;
+                double t = intersectObject(rays.ox[n] - px, rays.oy[n] - py, rays.oz[n] - pz, rays.dx[n], rays.dy[n], rays.dz[n]);
+                if (t == Double.MAX_VALUE) continue;
+                t /= objectPacket.scale[n];
+                int i = objectPacket.index[n];
+                if (t > 0 && t < packet.t[i]) packet.hit(i, primitive, t, 0);
+            }
+        }
+        if (RenderStats.ENABLED) RenderStats.local().sphereTests += tests;
+    }
+
+    @Override
+    public void occluded(RayPacket packet) {
+        ObjectSpace objectSpace = objectSpace();
+        int tests = 0;
+        if (objectSpace.identity) {
+            double px = position.getX(), py = position.getY(), pz = position.getZ();
+            for (int i = 0; i < packet.size; i++) {
+                if (!packet.isActive(i)) continue;
+                tests++;
+                if (occludedObject(packet.ox[i] - px, packet.oy[i] - py, packet.oz[i] - pz,
+                        packet.dx[i], packet.dy[i], packet.dz[i], packet.t[i])) packet.block(i);
+            }
+        } else if (objectSpace.worldToObject != null) {
+            // the object packet's limits are already scaled, like tMax in occluded(Ray, double)
+            ObjectPacket objectPacket = toObject(packet, objectSpace);
+            RayPacket rays = objectPacket.packet;
+            double px = position.getX(), py = position.getY(), pz = position.getZ();
+            for (int n = 0; n < rays.size; n++) {
+                tests++;
+                if (occludedObject(rays.ox[n] - px, rays.oy[n] - py, rays.oz[n] - pz,
+                        rays.dx[n], rays.dy[n], rays.dz[n], rays.t[n])) packet.block(objectPacket.index[n]);
+            }
+        }
+        if (RenderStats.ENABLED) RenderStats.local().sphereTests += tests;
     }
 
     @Override
     public Vector3 surfaceNormal(Vector3 at) {
-        //at = MatrixUtils.transformPoint(at, transformation.getObjToWorld().invert());
+        return surfaceNormal(at, new Vector3());
+    }
+
+    @Override
+    public Vector3 surfaceNormal(Vector3 at, Vector3 dest) {
+        ObjectSpace objectSpace = objectSpace();
+        Vector3 p = toObjectPoint(objectSpace, at, dest);
 
         // check if "at" is really a point on this surface
-        if (!isPointOnSphere(at)) throw new RuntimeException("Vector is not on the sphere!");
+        if (!isPointOnSphere(p)) throw new RuntimeException("Vector is not on the sphere!");
 
-        // the normal is simply the vector from the sphere's middle point
+        // in object space, the normal is simply the vector from the sphere's middle point
         // to the point on the surface
-        return at.subtract(worldPosition()).normalize(); // TODO bandaid fix
+        dest.set(p.getX() - position.getX(), p.getY() - position.getY(), p.getZ() - position.getZ());
+        return objectSpace.normalToWorld(Vector3.normalize(dest, dest), dest);
     }
 
     @Override
-    public float[] getTextureCoordinates(Vector3 at) {
-        float[] uv = new float[2];
-
+    public float[] getTextureCoordinates(Vector3 at, float[] uv) {
         // Formula taken from: https://en.wikipedia.org/wiki/UV_mapping
-        Vector3 d = at.subtract(position).normalize();
-        uv[0] = (float)(0.5 + ((Math.atan2(d.getZ(), d.getX())/(2*Math.PI))));
-        uv[1] = (float)(0.5 - ((Math.asin(d.getY())/Math.PI)));
+        // (in object space, so the texture moves with the sphere; spelled out so that no vectors are created)
+        ObjectSpace objectSpace = objectSpace();
+        double x = at.getX(), y = at.getY(), z = at.getZ();
+        if (!objectSpace.identity && objectSpace.worldToObject != null) {
+            Matrix4 m = objectSpace.worldToObject;
+            double ox = m.m11*x + m.m12*y + m.m13*z + m.m14;
+            double oy = m.m21*x + m.m22*y + m.m23*z + m.m24;
+            double oz = m.m31*x + m.m32*y + m.m33*z + m.m34;
+            x = ox;
+            y = oy;
+            z = oz;
+        }
+        double dx = x - position.getX(), dy = y - position.getY(), dz = z - position.getZ();
+        double length = Math.sqrt(dx*dx + dy*dy + dz*dz);
+        uv[0] = (float)(0.5 + ((Math.atan2(dz / length, dx / length)/(2*Math.PI))));
+        uv[1] = (float)(0.5 - ((Math.asin(dy / length)/Math.PI)));
 
         if(uv[0] > 1 || uv[0] < 0 || uv[1] > 1 || uv[1] < 0)
             throw new RuntimeException("illegal uv");
@@ -112,19 +243,61 @@ public class Sphere extends Surface {
         return uv;
     }
 
+    /**
+     * The surface of the sphere, 4 pi r^2; a scale changes it by about the product of its factors to the power 2/3
+     * (exact for uniform scales).
+     */
+    @Override
+    public double getTextureArea() {
+        Vector3 scale = transformation.getScale();
+        double volume = Math.abs(scale.getX() * scale.getY() * scale.getZ());
+        return 4 * Math.PI * radiusSquared * Math.pow(volume, 2.0 / 3);
+    }
+
+    @Override
+    public BoundingBox getBoundingBox() {
+        // the object space box around the sphere, transformed into world space
+        Vector3 extent = new Vector3(radius, radius, radius);
+        return toWorld(new BoundingBox(position.subtract(extent), position.add(extent)));
+    }
+
+    /**
+     * @param dest receives the point in object space, unless the transformation is the identity: then it is at itself
+     */
+    private static Vector3 toObjectPoint(ObjectSpace objectSpace, Vector3 at, Vector3 dest) {
+        if (objectSpace.identity || objectSpace.worldToObject == null) return at;
+        return objectSpace.worldToObject.transformPoint(at, dest);
+    }
+
+    /**
+     * @param p a point in object space
+     */
     private boolean isPointOnSphere(Vector3 p) {
-        Vector3 o = p.subtract(position);
-        return (o.getX()*o.getX() + o.getY()*o.getY() + o.getZ()*o.getZ() - radius*radius) <= MathUtils.EPSILON;
+        double ox = p.getX() - position.getX(), oy = p.getY() - position.getY(), oz = p.getZ() - position.getZ();
+        return (ox*ox + oy*oy + oz*oz - radiusSquared) <= MathUtils.EPSILON;
     }
 
     public Vector3 worldPosition() {
-        return new Vector3(this.transformation.getObjToWorld().multiply4x4(new Vector4(position,1)));
+        return transformation.getObjToWorld().transformPoint(position);
+    }
+
+    /**
+     * The inverse of the object-to-world matrix, cached until the transformation changes.
+     * @return the world-to-object matrix, or null if the transformation cannot be inverted
+     */
+    public Matrix4 getWorldToObject() {
+        return objectSpace().worldToObject;
+    }
+
+    public double getRadius() {
+        return radius;
     }
 
     public Sphere(Material material, Transformation transformation, Vector3 position, double radius) {
         super(material, transformation);
         this.position = position;
         this.radius = radius;
+        this.radiusSquared = radius * radius;
     }
 
     @Override
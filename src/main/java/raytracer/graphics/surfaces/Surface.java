@@ -1,17 +1,196 @@
 package raytracer.graphics.surfaces;
 
 import raytracer.graphics.Ray;
+import raytracer.graphics.accel.BoundingBox;
+import raytracer.graphics.accel.RayPacket;
 import raytracer.graphics.materials.Material;
 import raytracer.graphics.trafo.Transformation;
+import raytracer.image.Radiance;
+import raytracer.math.Matrix4;
 import raytracer.math.Vector3;
 
-import java.awt.*;
-
 public abstract class Surface {
 
     protected Material material;
     protected Transformation transformation;
 
+    // ===================== OBJECT SPACE ===================== //
+    // Surfaces intersect in object space: instead of transforming the object, we inverse transform the rays.
+    // Source: Shirley/Marschner, ch. 13.2 "Instancing"
+
+    /**
+     * Everything about the surface that depends on its transformation.
+     * Immutable, so render threads can share it without locking.
+     */
+    protected static final class ObjectSpace {
+        /**
+         * The transformation version this was computed for.
+         */
+        final long version;
+        /**
+         * True if the transformation does nothing, so rays and normals can be used as they are.
+         */
+        public final boolean identity;
+        /**
+         * The world-to-object matrix, or null if the transformation cannot be inverted (e.g. scale 0): then nothing is hit.
+         */
+        public final Matrix4 worldToObject;
+        /**
+         * Transforms object space normals to world space: the inverse transpose of the object-to-world matrix
+         * (null like worldToObject). Normals are not simply rotated and scaled like the surface,
+         * otherwise they would no longer be perpendicular to a non-uniformly scaled surface.
+         */
+        public final Matrix4 normalMatrix;
+
+        ObjectSpace(Transformation transformation) {
+            this.version = transformation.getVersion();
+            Matrix4 objToWorld = transformation.getObjToWorld();
+            this.identity = objToWorld.equals(Matrix4.identity());
+            this.worldToObject = objToWorld.determinant() == 0 ? null : objToWorld.invert();
+            this.normalMatrix = worldToObject == null ? null : worldToObject.transpose();
+        }
+
+        /**
+         * Transforms an object space normal to world space.
+         * @param normal the normal in object space
+         * @param dest receives the normalized world space normal (may be normal itself)
+         * @return dest
+         */
+        public Vector3 normalToWorld(Vector3 normal, Vector3 dest) {
+            if (identity || normalMatrix == null) return dest.set(normal);
+            return Vector3.normalize(normalMatrix.transformDirection(normal, dest), dest);
+        }
+    }
+
+    /**
+     * The cached object space data; recomputed when the transformation changes.
+     */
+    private volatile ObjectSpace objectSpace;
+
+    protected ObjectSpace objectSpace() {
+        ObjectSpace cache = objectSpace;
+        if (cache == null || cache.version != transformation.getVersion()) {
+            // several threads may recompute it at the same time, but they all get the same result
+            cache = new ObjectSpace(transformation);
+            objectSpace = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * A ray transformed into object space. Every thread has one, shared by all surfaces: a surface test
+     * transforms its ray once and is done with it before the next surface is tested.
+     */
+    protected static final class ObjectRay {
+        public final Ray ray = new Ray();
+        private final Vector3 origin = new Vector3();
+        private final Vector3 direction = new Vector3();
+        /**
+         * The length of the transformed (unit) world direction; the object space ray is normalized again,
+         * so t in object space = t in world space * scale.
+         */
+        public double scale;
+
+        private Ray set(Ray worldRay, Matrix4 worldToObject) {
+            worldToObject.transformPoint(worldRay.getOriginPoint(), origin);
+            worldToObject.transformDirection(worldRay.getDirection(), direction);
+            scale = direction.length();
+            return ray.set(origin, direction);
+        }
+    }
+
+    private static final ThreadLocal<ObjectRay> objectRay = ThreadLocal.withInitial(ObjectRay::new);
+
+    /**
+     * Transforms a world space ray into object space.
+     * @param ray the world space ray
+     * @param objectSpace the surface's object space; worldToObject must not be null
+     * @return the calling thread's object ray, valid until its next call
+     */
+    protected static ObjectRay toObject(Ray ray, ObjectSpace objectSpace) {
+        ObjectRay result = objectRay.get();
+        result.set(ray, objectSpace.worldToObject);
+        return result;
+    }
+
+    /**
+     * The active rays of a world space packet (see RayPacket.isActive), transformed into object space like ObjectRay.
+     * Every thread has one, shared by all surfaces like its ObjectRay. It is a packet of its own, so that
+     * surfaces can traverse their own BVH with it while the world packet is in the middle of the scene BVH.
+     */
+    protected static final class ObjectPacket {
+        public final RayPacket packet = new RayPacket();
+        /**
+         * For every object ray: the index of its ray in the world packet,
+         * and the length of the transformed world direction (see ObjectRay.scale).
+         */
+        public final int[] index = new int[RayPacket.MAX_SIZE];
+        public final double[] scale = new double[RayPacket.MAX_SIZE];
+        private final Ray[] rays = new Ray[RayPacket.MAX_SIZE];
+        private final Vector3 origin = new Vector3();
+        private final Vector3 direction = new Vector3();
+
+        private ObjectPacket() {
+            for (int i = 0; i < rays.length; i++) rays[i] = new Ray();
+        }
+
+        private RayPacket set(RayPacket world, ObjectSpace objectSpace) {
+            packet.clear();
+            for (int i = 0; i < world.size; i++) {
+                if (!world.isActive(i)) continue;
+                Ray ray = world.rays[i];
+                double s = 1;
+                if (!objectSpace.identity) {
+                    objectSpace.worldToObject.transformPoint(ray.getOriginPoint(), origin);
+                    objectSpace.worldToObject.transformDirection(ray.getDirection(), direction);
+                    s = direction.length();
+                    ray = rays[packet.size].set(origin, direction);
+                }
+                index[packet.size] = i;
+                scale[packet.size] = s;
+                // (for parallel lights, t * scale may overflow to infinity, which still means "no limit")
+                packet.add(ray, world.t[i] * s);
+            }
+            return packet;
+        }
+    }
+
+    private static final ThreadLocal<ObjectPacket> objectPacket = ThreadLocal.withInitial(ObjectPacket::new);
+
+    /**
+     * Transforms the active rays of a world space packet into object space. The limits t are transformed as well.
+     * @param packet the world space packet
+     * @param objectSpace the surface's object space; worldToObject must not be null
+     * @return the calling thread's object packet, valid until its next call
+     */
+    protected static ObjectPacket toObject(RayPacket packet, ObjectSpace objectSpace) {
+        ObjectPacket result = objectPacket.get();
+        result.set(packet, objectSpace);
+        return result;
+    }
+
+    /**
+     * Transforms a box from object to world space: the box around its eight transformed corners.
+     * @param objectBox the box in object space
+     * @return the box in world space
+     */
+    protected BoundingBox toWorld(BoundingBox objectBox) {
+        if (objectBox.isEmpty() || objectSpace().identity) return objectBox;
+
+        Matrix4 objToWorld = transformation.getObjToWorld();
+        Vector3 min = objectBox.getMin(), max = objectBox.getMax(), corner = new Vector3();
+        BoundingBox box = new BoundingBox();
+        for (int i = 0; i < 8; i++) {
+            corner.set(
+                    (i & 1) == 0 ? min.getX() : max.getX(),
+                    (i & 2) == 0 ? min.getY() : max.getY(),
+                    (i & 4) == 0 ? min.getZ() : max.getZ()
+            );
+            box.include(objToWorld.transformPoint(corner, corner));
+        }
+        return box;
+    }
+
     /**
      * Checks whether a ray intersects with this surface.
      * @param ray The ray r(t)=o+d*t.
@@ -19,6 +198,59 @@ public abstract class Surface {
      */
     public abstract double intersect(Ray ray);
 
+    /**
+     * Checks whether this surface blocks a ray somewhere between its origin and tMax, e.g. for shadows.
+     * Unlike intersect(), any hit in range will do, so surfaces may stop at the first one they find.
+     * @param ray The ray r(t)=o+d*t.
+     * @param tMax only hits with 0 < t < tMax count (e.g. the distance to the light)
+     * @return true if the ray is blocked
+     */
+    public boolean occluded(Ray ray, double tMax) {
+        double t = intersect(ray);
+        return t > 0 && t < tMax;
+    }
+
+    /**
+     * Intersects all active rays of a packet (see RayPacket.isActive) with this surface, and records closer hits.
+     * By default every ray is tested on its own; surfaces with a cheap test override this with a loop over the packet.
+     * @param packet the rays
+     * @param primitive the index of this surface in the scene, recorded with every hit
+     */
+    public void intersect(RayPacket packet, int primitive) {
+        for (int i = 0; i < packet.size; i++) {
+            if (!packet.isActive(i)) continue;
+            double t = intersect(packet.rays[i]);
+            if (t > 0 && t < packet.t[i]) packet.hit(i, primitive, t, getLastHit());
+        }
+    }
+
+    /**
+     * Checks for all active rays of a packet whether this surface blocks them before their limit t,
+     * and marks the blocked ones (see occluded(Ray, double)).
+     * @param packet the rays
+     */
+    public void occluded(RayPacket packet) {
+        for (int i = 0; i < packet.size; i++) {
+            if (packet.isActive(i) && occluded(packet.rays[i], packet.t[i])) packet.block(i);
+        }
+    }
+
+    /**
+     * What the surface remembers about the last hit of intersect() on this thread, for surfaceNormal()
+     * (e.g. which triangle of a mesh was hit). Packets save it with every hit, because the surface only
+     * remembers the last one; before shading a hit, it is restored with setLastHit().
+     * @return the remembered hit; 0 if the surface does not need one
+     */
+    public int getLastHit() {
+        return 0;
+    }
+
+    /**
+     * @param lastHit a value returned by getLastHit(), which the next surfaceNormal() on this thread refers to
+     */
+    public void setLastHit(int lastHit) {
+    }
+
     /**
      * Computes the surface normal at a certain point.
      * @param at a point on the surface
@@ -26,15 +258,58 @@ public abstract class Surface {
      */
     public abstract Vector3 surfaceNormal(Vector3 at);
 
-    public Color illuminate(Color lightColor, Vector3 at, Vector3 surfToLight, Vector3 surfToView, Vector3 surfNormal, boolean includeAmbient) {
-        return material.getPhong().computeIllumination(material.getMaterialColor(this, at),lightColor,surfToLight,surfToView,surfNormal,includeAmbient);
+    /**
+     * Computes the surface normal at a certain point into an existing vector.
+     * Surfaces on the hot path override this so that shading does not create vectors.
+     * @param at a point on the surface
+     * @param dest receives the normalized surface normal
+     * @return dest
+     */
+    public Vector3 surfaceNormal(Vector3 at, Vector3 dest) {
+        return dest.set(surfaceNormal(at));
+    }
+
+    /**
+     * Computes the Phong illumination by one light.
+     * @param materialColor the material color at the point (see Material.getMaterialColor), looked up once per hit
+     * @param result receives the color (may be materialColor itself)
+     * @return result
+     */
+    public Radiance illuminate(Radiance materialColor, Radiance lightColor, Vector3 surfToLight, Vector3 surfToView, Vector3 surfNormal, boolean includeAmbient, Radiance result) {
+        return material.getPhong().computeIllumination(materialColor,lightColor,surfToLight,surfToView,surfNormal,includeAmbient,result);
     }
 
-    public Color illuminateAmbient(Vector3 at) {
-        return material.getPhong().computeAmbient(material.getMaterialColor(this, at));
+    public Radiance illuminateAmbient(Radiance materialColor, Radiance result) {
+        return material.getPhong().computeAmbient(materialColor, result);
     }
 
-    public abstract float[] getTextureCoordinates(Vector3 at);
+    public float[] getTextureCoordinates(Vector3 at) {
+        return getTextureCoordinates(at, new float[2]);
+    }
+
+    /**
+     * Computes the texture coordinates of a point, without allocating anything.
+     * @param at a point on the surface
+     * @param dest receives u and v
+     * @return dest
+     */
+    public abstract float[] getTextureCoordinates(Vector3 at, float[] dest);
+
+    /**
+     * The area of the surface (in world units) that the unit square of texture coordinates is mapped onto,
+     * used to choose the mip level of texture lookups.
+     * @return the area, or 0 if the surface has no texture mapping
+     */
+    public double getTextureArea() {
+        return 0;
+    }
+
+    /**
+     * Computes a box (in world coordinates) that encloses everything intersect() can hit.
+     * Used to build the acceleration structure of the scene.
+     * @return the bounding box
+     */
+    public abstract BoundingBox getBoundingBox();
 
     public Surface(Material material, Transformation transformation) {
         this.material = material;
@@ -0,0 +1,240 @@
+package raytracer.graphics.surfaces.obj;
+
+import raytracer.graphics.accel.BVH;
+import raytracer.io.ChannelWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The triangles of a mesh, packed into flat primitive arrays ("structure of arrays").
+ * All data of triangle i is found at index i * stride of the respective array,
+ * so the intersection test reads a few contiguous doubles instead of chasing vertex objects.
+ */
+public class TriangleMesh {
+
+    /**
+     * Doubles per triangle in geometry: v0 (x,y,z), edge v0->v1 (x,y,z), edge v0->v2 (x,y,z).
+     */
+    public static final int GEOMETRY_STRIDE = 9;
+    /**
+     * Doubles per triangle in normals.
+     */
+    public static final int NORMAL_STRIDE = 3;
+    /**
+     * Floats per triangle in uvs: (u,v) of each of the three vertices.
+     */
+    public static final int UV_STRIDE = 6;
+
+    /**
+     * The name of the mesh (usually the OBJ file).
+     */
+    private final String name;
+    /**
+     * The number of triangles.
+     */
+    private final int triangleCount;
+    /**
+     * The first vertex and both edges of every triangle, pre-computed for Möller–Trumbore.
+     */
+    private final double[] geometry;
+    /**
+     * The normalized face normal of every triangle (0 for degenerate triangles).
+     */
+    private final double[] normals;
+    /**
+     * The texture coordinates of every vertex of every triangle.
+     */
+    private final float[] uvs;
+    /**
+     * The triangle BVH, built once when the mesh is loaded.
+     */
+    private final BVH bvh;
+
+    /**
+     * Packs triangles and builds their BVH.
+     * @param name the name of the mesh
+     * @param vertices 9 values per triangle: the positions of its three vertices
+     * @param uvs 6 values per triangle: the texture coordinates of its vertices (may be null)
+     */
+    public TriangleMesh(String name, double[] vertices, float[] uvs) {
+        this.name = name;
+        this.triangleCount = vertices.length / 9;
+        this.geometry = new double[triangleCount * GEOMETRY_STRIDE];
+        this.normals = new double[triangleCount * NORMAL_STRIDE];
+        this.uvs = uvs != null ? uvs : new float[triangleCount * UV_STRIDE];
+
+        for (int i = 0; i < triangleCount; i++) {
+            int v = i * 9, g = i * GEOMETRY_STRIDE, n = i * NORMAL_STRIDE;
+
+            // v0
+            geometry[g]     = vertices[v];
+            geometry[g + 1] = vertices[v + 1];
+            geometry[g + 2] = vertices[v + 2];
+            // edge v0->v1
+            double e1x = vertices[v + 3] - vertices[v];
+            double e1y = vertices[v + 4] - vertices[v + 1];
+            double e1z = vertices[v + 5] - vertices[v + 2];
+            geometry[g + 3] = e1x; geometry[g + 4] = e1y; geometry[g + 5] = e1z;
+            // edge v0->v2
+            double e2x = vertices[v + 6] - vertices[v];
+            double e2y = vertices[v + 7] - vertices[v + 1];
+            double e2z = vertices[v + 8] - vertices[v + 2];
+            geometry[g + 6] = e2x; geometry[g + 7] = e2y; geometry[g + 8] = e2z;
+
+            // face normal = e1 x e2
+            double nx = e1y*e2z - e1z*e2y;
+            double ny = e1z*e2x - e1x*e2z;
+            double nz = e1x*e2y - e1y*e2x;
+            double length = Math.sqrt(nx*nx + ny*ny + nz*nz);
+            if (length > 0) { // a degenerate triangle can never be hit, its normal does not matter
+                normals[n] = nx / length;
+                normals[n + 1] = ny / length;
+                normals[n + 2] = nz / length;
+            }
+        }
+
+        this.bvh = buildBVH();
+    }
+
+    /**
+     * Wraps already packed arrays, e.g. read from a mesh cache.
+     */
+    private TriangleMesh(String name, double[] geometry, double[] normals, float[] uvs, BVH bvh) {
+        this.name = name;
+        this.triangleCount = geometry.length / GEOMETRY_STRIDE;
+        this.geometry = geometry;
+        this.normals = normals;
+        this.uvs = uvs;
+        this.bvh = bvh;
+    }
+
+    private BVH buildBVH() {
+        BVH bvh = BVH.build(triangleBounds());
+        System.out.printf("Built BVH for mesh '%s': %d triangles, %d nodes, depth %d in %.2f ms%n",
+                name, bvh.getPrimitiveCount(), bvh.getNodeCount(), bvh.getMaxDepth(), bvh.getBuildMillis());
+        return bvh;
+    }
+
+    /**
+     * @return 6 values per triangle: the minimum and maximum corner of its bounding box
+     */
+    public double[] triangleBounds() {
+        double[] bounds = new double[triangleCount * 6];
+        for (int i = 0; i < triangleCount; i++) {
+            int g = i * GEOMETRY_STRIDE;
+            for (int axis = 0; axis < 3; axis++) {
+                double v0 = geometry[g + axis];
+                double v1 = v0 + geometry[g + 3 + axis];
+                double v2 = v0 + geometry[g + 6 + axis];
+                bounds[i*6 + axis] = Math.min(v0, Math.min(v1, v2));
+                bounds[i*6 + 3 + axis] = Math.max(v0, Math.max(v1, v2));
+            }
+        }
+        return bounds;
+    }
+
+    // ===================== SERIALIZATION ===================== //
+    // Layout (in the byte order of the buffer): name length, triangle count (ints), the name (UTF-8),
+    // geometry, normals (doubles), uvs (floats), each padded to a multiple of 8 bytes, then the BVH.
+
+    /**
+     * @return the number of bytes write() produces
+     */
+    public long getSerializedSize() {
+        int nameBytes = name.getBytes(StandardCharsets.UTF_8).length;
+        return 8 + align8(nameBytes)
+                + (long) (geometry.length + normals.length) * Double.BYTES
+                + align8((long) uvs.length * Float.BYTES)
+                + bvh.getSerializedSize();
+    }
+
+    /**
+     * Writes the packed arrays and the BVH, in chunks. The data written so far must be 8-byte aligned.
+     * @param out the target
+     */
+    public void write(ChannelWriter out) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        out.putInt(nameBytes.length).putInt(triangleCount);
+        out.put(nameBytes).pad(8);
+        out.putDoubles(geometry, geometry.length).putDoubles(normals, normals.length);
+        out.putFloats(uvs, uvs.length).pad(8);
+        bvh.write(out);
+    }
+
+    /**
+     * Reads a mesh written by write(). The BVH is read as well, not rebuilt.
+     * @param in the source, at an 8-byte aligned position
+     * @return the mesh
+     */
+    public static TriangleMesh read(ByteBuffer in) {
+        int nameLength = in.getInt(), triangleCount = in.getInt();
+        if (nameLength < 0 || triangleCount < 0) throw new IllegalArgumentException("Corrupt mesh data");
+
+        byte[] nameBytes = new byte[nameLength];
+        in.get(nameBytes);
+        skipPadding(in);
+        double[] geometry = new double[triangleCount * GEOMETRY_STRIDE];
+        double[] normals = new double[triangleCount * NORMAL_STRIDE];
+        float[] uvs = new float[triangleCount * UV_STRIDE];
+        in.asDoubleBuffer().get(geometry).get(normals);
+        in.position(in.position() + (geometry.length + normals.length) * Double.BYTES);
+        in.asFloatBuffer().get(uvs);
+        in.position(in.position() + uvs.length * Float.BYTES);
+        skipPadding(in);
+        BVH bvh = BVH.read(in);
+        if (bvh.getPrimitiveCount() != triangleCount) throw new IllegalArgumentException("Corrupt mesh data: BVH does not match");
+
+        return new TriangleMesh(new String(nameBytes, StandardCharsets.UTF_8), geometry, normals, uvs, bvh);
+    }
+
+    private static long align8(long bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private static void skipPadding(ByteBuffer in) {
+        while (in.position() % 8 != 0) in.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * The packed v0/edge data; see GEOMETRY_STRIDE. Callers must not modify it.
+     * @return the geometry array
+     */
+    public double[] getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * The packed face normals; see NORMAL_STRIDE. Callers must not modify it.
+     * @return the normal array
+     */
+    public double[] getNormals() {
+        return normals;
+    }
+
+    /**
+     * The packed texture coordinates; see UV_STRIDE. Callers must not modify it.
+     * @return the uv array
+     */
+    public float[] getUvs() {
+        return uvs;
+    }
+
+    public BVH getBVH() {
+        return bvh;
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.graphics.surfaces.obj.TriangleMesh['" + name + "', triangles=" + triangleCount + ", bvh=" + bvh + ']';
+    }
+}
@@ -17,10 +17,15 @@ public class Transformation {
      */
     private Vector3 rotationDegrees;
 
-    private Matrix objToWorld; // pre-computed object-to-world matrix
+    private Matrix4 objToWorld; // pre-computed object-to-world matrix
+    /**
+     * Counts the changes of this transformation, so that users can tell when their cached data is outdated.
+     */
+    private long version = 0;
 
     private void calculateObjToWorld () {
         this.objToWorld = MatrixUtils.objectToWorld(scale, rotationDegrees, translation);
+        this.version++;
     }
 
     public Transformation() {
@@ -32,7 +37,7 @@ public class Transformation {
 
     public Transformation(Vector3 translation, Vector3 scale, Vector3 rotationDegrees) {
         this.translation        = translation       == null ? new Vector3() : translation;
-        this.scale              = scale             == null ? new Vector3() : scale;
+        this.scale              = scale             == null ? new Vector3(1,1,1) : scale;
         this.rotationDegrees    = rotationDegrees   == null ? new Vector3() : rotationDegrees;
 
         // pre-compute the matrix from object-space to world
@@ -91,7 +96,16 @@ public class Transformation {
         calculateObjToWorld();
     }
 
-    public Matrix getObjToWorld() {
+    public Matrix4 getObjToWorld() {
         return objToWorld;
     }
+
+    /**
+     * Changes with every setter and every ...By() call.
+     * (Modifying the vectors returned by the getters directly is not noticed.)
+     * @return the current version
+     */
+    public long getVersion() {
+        return version;
+    }
 }
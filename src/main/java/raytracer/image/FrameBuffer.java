@@ -0,0 +1,150 @@
+package raytracer.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * The image a renderer draws into: one packed ARGB int per pixel, row-major,
+ * and optionally the unclamped linear colors (3 floats per pixel) for HDR output.
+ * Pixels are plain array elements, so render threads can write disjoint pixels without locking,
+ * and toImage() hands the very same array to ImageIO without copying it.
+ */
+public class FrameBuffer {
+
+    private final int width;
+    private final int height;
+    /**
+     * The 8-bit ARGB pixels, as in BufferedImage.TYPE_INT_ARGB.
+     */
+    private final int[] pixels;
+    /**
+     * The linear RGB radiance of every pixel, or null if only 8-bit output is needed.
+     */
+    private final float[] hdr;
+
+    /**
+     * Stores the color of a pixel.
+     * @param x column
+     * @param y row
+     * @param color the color; converted to 8 bits once here
+     */
+    public void set(int x, int y, Radiance color) {
+        int i = y * width + x;
+        pixels[i] = color.toRGB();
+        if (hdr != null) {
+            hdr[i*3] = (float) color.getRed();
+            hdr[i*3 + 1] = (float) color.getGreen();
+            hdr[i*3 + 2] = (float) color.getBlue();
+        }
+    }
+
+    public void setRGB(int x, int y, int argb) {
+        pixels[y * width + x] = argb;
+    }
+
+    public int getRGB(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    /**
+     * Wraps the pixels in a BufferedImage of type TYPE_INT_ARGB, without copying them.
+     * Later writes to the frame buffer show up in the image (and vice versa).
+     * @return the image
+     */
+    public BufferedImage toImage() {
+        DirectColorModel colorModel = (DirectColorModel) ColorModel.getRGBdefault();
+        DataBufferInt buffer = new DataBufferInt(pixels, pixels.length);
+        WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width, colorModel.getMasks(), null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * @return a new frame buffer with the same pixels (and HDR colors, if any)
+     */
+    public FrameBuffer copy() {
+        FrameBuffer copy = new FrameBuffer(width, height, hdr != null);
+        System.arraycopy(pixels, 0, copy.pixels, 0, pixels.length);
+        if (hdr != null) System.arraycopy(hdr, 0, copy.hdr, 0, hdr.length);
+        return copy;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The packed ARGB pixels, row-major. Writes go straight into the frame buffer.
+     * @return the pixel array
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * The linear colors, 3 floats (r, g, b) per pixel, row-major.
+     * @return the HDR array, or null if this frame buffer was created without it
+     */
+    public float[] getHdr() {
+        return hdr;
+    }
+
+    public boolean hasHdr() {
+        return hdr != null;
+    }
+
+    /**
+     * Copies the linear colors of one row, for writing HDR images a row at a time.
+     * Without HDR colors, the 8-bit pixels are converted (1.0 = 255, as in Radiance).
+     * @param y the row
+     * @param row receives 3 floats (r, g, b) per pixel
+     * @return row
+     */
+    public float[] getHdrRow(int y, float[] row) {
+        if (hdr != null) {
+            System.arraycopy(hdr, y * width * 3, row, 0, width * 3);
+            return row;
+        }
+        for (int x = 0; x < width; x++) {
+            int pixel = pixels[y * width + x];
+            row[x*3] = (float) (((pixel >> 16) & 0xFF) / Radiance.COLOR_DEPTH);
+            row[x*3 + 1] = (float) (((pixel >> 8) & 0xFF) / Radiance.COLOR_DEPTH);
+            row[x*3 + 2] = (float) ((pixel & 0xFF) / Radiance.COLOR_DEPTH);
+        }
+        return row;
+    }
+
+    /**
+     * Creates an 8-bit frame buffer.
+     * @param width the width in pixels
+     * @param height the height in pixels
+     */
+    public FrameBuffer(int width, int height) {
+        this(width, height, false);
+    }
+
+    /**
+     * @param width the width in pixels
+     * @param height the height in pixels
+     * @param hdr whether to also keep the unclamped linear colors
+     */
+    public FrameBuffer(int width, int height, boolean hdr) {
+        if (width < 1 || height < 1) throw new IllegalArgumentException("Illegal frame buffer size: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        this.hdr = hdr ? new float[width * height * 3] : null;
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.image.FrameBuffer[" + width + "x" + height + (hdr != null ? ", hdr" : "") + ']';
+    }
+}
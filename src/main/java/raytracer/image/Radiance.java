@@ -0,0 +1,141 @@
+package raytracer.image;
+
+import java.awt.Color;
+
+/**
+ * A linear RGB color with double precision, used for all shading computations.
+ * 1.0 is the full intensity of an 8-bit channel (255), but values are neither clamped nor rounded
+ * until the final conversion with toRGB(). That keeps reflections free of quantization errors,
+ * and since a Radiance is mutable, shading can reuse a few of them instead of creating a Color per light.
+ */
+public class Radiance {
+
+    /**
+     * The maximum value of an 8-bit color channel.
+     */
+    public static final double COLOR_DEPTH = 255.0;
+
+    private double red;
+    private double green;
+    private double blue;
+
+    /**
+     * Overwrites all channels.
+     * @param red red
+     * @param green green
+     * @param blue blue
+     * @return this radiance
+     */
+    public Radiance set(double red, double green, double blue) {
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+        return this;
+    }
+
+    /**
+     * Copies another radiance.
+     * @param radiance the source
+     * @return this radiance
+     */
+    public Radiance set(Radiance radiance) {
+        return set(radiance.red, radiance.green, radiance.blue);
+    }
+
+    /**
+     * Converts an 8-bit color.
+     * @param color the color
+     * @return this radiance
+     */
+    public Radiance set(Color color) {
+        return set(color.getRed() / COLOR_DEPTH, color.getGreen() / COLOR_DEPTH, color.getBlue() / COLOR_DEPTH);
+    }
+
+    /**
+     * Converts an 8-bit color given as (A)RGB int, as returned by BufferedImage.getRGB. Alpha is ignored.
+     * @param rgb the packed color
+     * @return this radiance
+     */
+    public Radiance setRGB(int rgb) {
+        return set(((rgb >> 16) & 0xFF) / COLOR_DEPTH, ((rgb >> 8) & 0xFF) / COLOR_DEPTH, (rgb & 0xFF) / COLOR_DEPTH);
+    }
+
+    /**
+     * this += radiance
+     * @param radiance the addend
+     * @return this radiance
+     */
+    public Radiance add(Radiance radiance) {
+        return set(red + radiance.red, green + radiance.green, blue + radiance.blue);
+    }
+
+    /**
+     * this *= scalar
+     * @param scalar the scalar
+     * @return this radiance
+     */
+    public Radiance multiply(double scalar) {
+        return set(red * scalar, green * scalar, blue * scalar);
+    }
+
+    /**
+     * Blends towards another radiance: this = (1-t)*this + t*radiance
+     * @param radiance the other radiance
+     * @param t how much of the other radiance to take
+     * @return this radiance
+     */
+    public Radiance blend(Radiance radiance, double t) {
+        return set(
+                (1-t)*red + t*radiance.red,
+                (1-t)*green + t*radiance.green,
+                (1-t)*blue + t*radiance.blue
+        );
+    }
+
+    /**
+     * Converts to an opaque 8-bit color, clamping every channel to [0, 255].
+     * @return the color as ARGB int, like Color.getRGB
+     */
+    public int toRGB() {
+        return 0xFF000000 | (toByte(red) << 16) | (toByte(green) << 8) | toByte(blue);
+    }
+
+    /**
+     * @return the color as java.awt.Color (see toRGB)
+     */
+    public Color toColor() {
+        return new Color(toRGB());
+    }
+
+    private static int toByte(double channel) {
+        return (int) Math.max(0, Math.min(255, Math.round(channel * COLOR_DEPTH)));
+    }
+
+    public double getRed() {
+        return red;
+    }
+
+    public double getGreen() {
+        return green;
+    }
+
+    public double getBlue() {
+        return blue;
+    }
+
+    public Radiance() {
+    }
+
+    public Radiance(double red, double green, double blue) {
+        set(red, green, blue);
+    }
+
+    public Radiance(Color color) {
+        set(color);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("raytracer.image.Radiance[r=%f|g=%f|b=%f]", red, green, blue);
+    }
+}
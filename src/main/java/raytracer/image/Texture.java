@@ -0,0 +1,274 @@
+package raytracer.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A texture, converted once at load time into a mip pyramid of packed RGB ints.
+ *
+ * Every level is half the size of the one before (rounded up), down to 1x1; its texels are the averages of 2x2
+ * texels of the level above. Distant surfaces are sampled from a coarser level, so they neither alias nor jump
+ * around the whole texture in memory.
+ * Source: Lance Williams, "Pyramidal Parametrics", SIGGRAPH 1983
+ *
+ * Levels are stored in square tiles of 8x8 texels (one tile is 256 bytes), so the texels a bilinear lookup needs
+ * are almost always in the same few cache lines, however wide the texture is.
+ * At 4 bytes per texel, the whole pyramid of an 8K texture takes about 360 MB.
+ * Sampling allocates nothing and only reads, so render threads can share a texture.
+ */
+public class Texture {
+
+    /**
+     * What happens to texture coordinates outside of [0, 1].
+     */
+    public enum Wrap {
+        /**
+         * The texture repeats: 1.25 is the same as 0.25.
+         */
+        REPEAT,
+        /**
+         * The border texels continue outwards.
+         */
+        CLAMP
+    }
+
+    /**
+     * How texels are combined into a sample.
+     */
+    public enum Filter {
+        /**
+         * The texel the coordinates fall into, on the nearest level.
+         */
+        NEAREST,
+        /**
+         * The four nearest texels, weighted by distance, on the nearest level.
+         */
+        BILINEAR,
+        /**
+         * Bilinear samples of the two nearest levels, weighted by the level of detail.
+         */
+        TRILINEAR
+    }
+
+    private static final int TILE_SHIFT = 3;
+    private static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    /**
+     * All levels, one after another, each in tiles of TILE_SIZE x TILE_SIZE texels (0xRRGGBB).
+     */
+    private final int[] texels;
+    /**
+     * Per level: the size in texels, the width in tiles, and where it starts in texels.
+     */
+    private final int[] widths;
+    private final int[] heights;
+    private final int[] tileColumns;
+    private final int[] offsets;
+
+    private final Wrap wrapU;
+    private final Wrap wrapV;
+    private final Filter filter;
+
+    /**
+     * Samples the texture. (0, 0) is the top left corner of the image, (1, 1) the bottom right one.
+     * @param u the horizontal texture coordinate
+     * @param v the vertical texture coordinate
+     * @param lod the level of detail: 0 is the full resolution, 1 the level of half the size etc.;
+     *            fractions blend between levels (TRILINEAR only), values outside of the pyramid are clamped
+     * @param dest receives the color (1.0 = 255, as in Radiance.setRGB)
+     * @return dest
+     */
+    public Radiance sample(double u, double v, double lod, Radiance dest) {
+        int levels = widths.length;
+        lod = lod > 0 ? Math.min(lod, levels - 1) : 0; // also turns NaN into 0
+
+        if (filter == Filter.NEAREST) {
+            int level = (int) (lod + 0.5); // lod is not negative here
+            return dest.setRGB(texel(level,
+                    wrap(floor(u * widths[level]), widths[level], wrapU),
+                    wrap(floor(v * heights[level]), heights[level], wrapV)));
+        }
+        if (filter == Filter.BILINEAR) {
+            int level = (int) (lod + 0.5); // lod is not negative here
+            return bilinear(level, u, v, 1, dest.set(0, 0, 0));
+        }
+
+        int level = (int) lod;
+        double fraction = lod - level;
+        dest.set(0, 0, 0);
+        if (fraction == 0) return bilinear(level, u, v, 1, dest);
+        bilinear(level, u, v, 1 - fraction, dest);
+        return bilinear(level + 1, u, v, fraction, dest);
+    }
+
+    /**
+     * Adds the bilinear sample of one level, times a weight, to dest.
+     */
+    private Radiance bilinear(int level, double u, double v, double weight, Radiance dest) {
+        int width = widths[level], height = heights[level];
+        // texel centers are at integer coordinates
+        double x = u * width - 0.5, y = v * height - 0.5;
+        int floorX = floor(x), floorY = floor(y);
+        double fx = x - floorX, fy = y - floorY;
+        int x0 = wrap(floorX, width, wrapU), x1 = wrap(floorX + 1, width, wrapU);
+        int y0 = wrap(floorY, height, wrapV), y1 = wrap(floorY + 1, height, wrapV);
+
+        int t00 = texel(level, x0, y0), t10 = texel(level, x1, y0);
+        int t01 = texel(level, x0, y1), t11 = texel(level, x1, y1);
+        double w00 = (1 - fx) * (1 - fy), w10 = fx * (1 - fy), w01 = (1 - fx) * fy, w11 = fx * fy;
+
+        double red = w00 * ((t00 >> 16) & 0xFF) + w10 * ((t10 >> 16) & 0xFF) + w01 * ((t01 >> 16) & 0xFF) + w11 * ((t11 >> 16) & 0xFF);
+        double green = w00 * ((t00 >> 8) & 0xFF) + w10 * ((t10 >> 8) & 0xFF) + w01 * ((t01 >> 8) & 0xFF) + w11 * ((t11 >> 8) & 0xFF);
+        double blue = w00 * (t00 & 0xFF) + w10 * (t10 & 0xFF) + w01 * (t01 & 0xFF) + w11 * (t11 & 0xFF);
+
+        double scale = weight / Radiance.COLOR_DEPTH;
+        return dest.set(dest.getRed() + red * scale, dest.getGreen() + green * scale, dest.getBlue() + blue * scale);
+    }
+
+    /**
+     * Math.floor, without its detour through StrictMath (and in int, which is what texel coordinates need).
+     */
+    private static int floor(double value) {
+        int i = (int) value;
+        return value < i ? i - 1 : i;
+    }
+
+    /**
+     * Maps a texel coordinate into [0, size).
+     */
+    private static int wrap(int i, int size, Wrap wrap) {
+        if (i >= 0 && i < size) return i;
+        return wrap == Wrap.REPEAT ? Math.floorMod(i, size) : (i < 0 ? 0 : size - 1);
+    }
+
+    private int texel(int level, int x, int y) {
+        return texels[index(level, x, y)];
+    }
+
+    private int index(int level, int x, int y) {
+        int tile = (y >> TILE_SHIFT) * tileColumns[level] + (x >> TILE_SHIFT);
+        return offsets[level] + (tile << (2 * TILE_SHIFT)) + ((y & TILE_MASK) << TILE_SHIFT) + (x & TILE_MASK);
+    }
+
+    /**
+     * The level of detail for a sample that covers a given area of the surface.
+     * @param footprint the width of the sample on the surface, in world units
+     * @param textureArea the area of the surface that the whole texture covers, in world units (see
+     *                    Surface.getTextureArea); 0 if unknown
+     * @return log2 of the texels per sample width, at least 0
+     */
+    public double levelOfDetail(double footprint, double textureArea) {
+        if (!(footprint > 0) || !(textureArea > 0)) return 0;
+        double texelsPerUnit = Math.sqrt((double) getWidth() * getHeight() / textureArea);
+        return Math.max(0, Math.log(footprint * texelsPerUnit) / Math.log(2));
+    }
+
+    public int getWidth() {
+        return widths[0];
+    }
+
+    public int getHeight() {
+        return heights[0];
+    }
+
+    /**
+     * @return the number of levels, including the full resolution one
+     */
+    public int getLevels() {
+        return widths.length;
+    }
+
+    /**
+     * @param level a level
+     * @param x the column
+     * @param y the row
+     * @return the texel as 0xRRGGBB
+     */
+    public int getTexel(int level, int x, int y) {
+        if (level < 0 || level >= widths.length || x < 0 || x >= widths[level] || y < 0 || y >= heights[level]) {
+            throw new IndexOutOfBoundsException("No texel " + x + "," + y + " on level " + level);
+        }
+        return texel(level, x, y);
+    }
+
+    public Wrap getWrapU() {
+        return wrapU;
+    }
+
+    public Wrap getWrapV() {
+        return wrapV;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Converts an image into a mip pyramid. Alpha is ignored.
+     * @param image the image
+     * @param wrapU how u is wrapped
+     * @param wrapV how v is wrapped
+     * @param filter how texels are sampled
+     */
+    public Texture(BufferedImage image, Wrap wrapU, Wrap wrapV, Filter filter) {
+        this.wrapU = wrapU;
+        this.wrapV = wrapV;
+        this.filter = filter;
+
+        int levels = 1;
+        for (int w = image.getWidth(), h = image.getHeight(); w > 1 || h > 1; w = (w + 1) / 2, h = (h + 1) / 2) levels++;
+        widths = new int[levels];
+        heights = new int[levels];
+        tileColumns = new int[levels];
+        offsets = new int[levels];
+        long total = 0;
+        for (int level = 0, w = image.getWidth(), h = image.getHeight(); level < levels; level++, w = (w + 1) / 2, h = (h + 1) / 2) {
+            widths[level] = w;
+            heights[level] = h;
+            tileColumns[level] = (w + TILE_MASK) >> TILE_SHIFT;
+            offsets[level] = (int) total;
+            total += (long) tileColumns[level] * ((h + TILE_MASK) >> TILE_SHIFT) * TILE_SIZE * TILE_SIZE;
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Texture too large: " + image.getWidth() + "x" + image.getHeight());
+        }
+        texels = new int[(int) total];
+
+        // the full resolution, a row at a time
+        int[] row = new int[widths[0]];
+        for (int y = 0; y < heights[0]; y++) {
+            image.getRGB(0, y, widths[0], 1, row, 0, widths[0]);
+            for (int x = 0; x < widths[0]; x++) texels[index(0, x, y)] = row[x] & 0xFFFFFF;
+        }
+
+        // every other level: 2x2 averages of the one above; at odd sizes, the last column/row is used twice
+        for (int level = 1; level < levels; level++) {
+            int above = level - 1;
+            for (int y = 0; y < heights[level]; y++) {
+                int y0 = 2 * y, y1 = Math.min(2 * y + 1, heights[above] - 1);
+                for (int x = 0; x < widths[level]; x++) {
+                    int x0 = 2 * x, x1 = Math.min(2 * x + 1, widths[above] - 1);
+                    int a = texel(above, x0, y0), b = texel(above, x1, y0), c = texel(above, x0, y1), d = texel(above, x1, y1);
+                    int red = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2;
+                    int green = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2;
+                    int blue = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+                    texels[index(level, x, y)] = red << 16 | green << 8 | blue;
+                }
+            }
+        }
+    }
+
+    /**
+     * A repeating, trilinearly filtered texture.
+     * @param image the image
+     */
+    public Texture(BufferedImage image) {
+        this(image, Wrap.REPEAT, Wrap.REPEAT, Filter.TRILINEAR);
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.image.Texture[" + getWidth() + "x" + getHeight() + ", levels=" + widths.length +
+                ", wrap=" + wrapU + "/" + wrapV + ", filter=" + filter + ']';
+    }
+}
@@ -0,0 +1,113 @@
+package raytracer.io;
+
+import raytracer.animation.Animation;
+import raytracer.animation.Track;
+import raytracer.math.Vector3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads keyframe files. One statement per line, '#' starts a comment:
+ *
+ *   frames 120                              the number of frames (required, before any keyframe)
+ *   output turntable_%04d                   the file name of a frame, a String.format pattern with the frame number
+ *                                           (default: the output file of the scene with "_%04d" appended)
+ *   camera 0 rotate 0 0 0                   a keyframe of the camera: frame, translate|rotate, x y z
+ *   surface 2 60 translate 0 1.5 -5         a keyframe of the surface with index 2 (in the order of the scene file):
+ *                                           frame, translate|rotate|scale, x y z
+ *
+ * Rotations are in degrees. A keyframe replaces the value from the scene file for its part of the transformation,
+ * e.g. a surface with only translate keyframes keeps its rotation and scale.
+ */
+public class AnimationParser {
+
+    /**
+     * @param filename the keyframe file
+     * @return the animation
+     * @throws UncheckedIOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not valid, with the line number
+     */
+    public static Animation parseKeyframes(String filename) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(new File(filename).toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read keyframe file " + filename + ": " + e.getMessage(), e);
+        }
+
+        Animation animation = null;
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n);
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            String[] words = line.split("\\s+");
+            try {
+                switch (words[0]) {
+                    case "frames":
+                        if (animation != null) throw new IllegalArgumentException("'frames' given twice");
+                        expectWords(words, 2);
+                        animation = new Animation(Integer.parseInt(words[1]));
+                        break;
+                    case "output":
+                        expectWords(words, 2);
+                        requireFrames(animation).setOutputPattern(words[1]);
+                        String.format(words[1], 0); // fail here, not after the first frame
+                        break;
+                    case "camera":
+                        expectWords(words, 6);
+                        addKey(requireFrames(animation), Track.CAMERA, words, 1);
+                        break;
+                    case "surface":
+                        expectWords(words, 7);
+                        int surface = Integer.parseInt(words[1]);
+                        if (surface < 0) throw new IllegalArgumentException("Illegal surface index " + surface);
+                        addKey(requireFrames(animation), surface, words, 2);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown statement '" + words[0] + "'");
+                }
+            } catch (IllegalArgumentException e) { // includes NumberFormatException and IllegalFormatException
+                throw new IllegalArgumentException(filename + ":" + (n + 1) + ": " + e.getMessage(), e);
+            }
+        }
+
+        if (animation == null) throw new IllegalArgumentException(filename + ": no 'frames' given");
+        return animation;
+    }
+
+    /**
+     * Reads "frame channel x y z" starting at words[from].
+     */
+    private static void addKey(Animation animation, int target, String[] words, int from) {
+        double frame = Double.parseDouble(words[from]);
+        Track.Channel channel;
+        try {
+            channel = Track.Channel.valueOf(words[from + 1].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown transformation '" + words[from + 1] + "', expected translate, rotate or scale");
+        }
+        Vector3 value = new Vector3(
+                Double.parseDouble(words[from + 2]),
+                Double.parseDouble(words[from + 3]),
+                Double.parseDouble(words[from + 4]));
+        animation.track(target, channel).addKey(frame, value);
+    }
+
+    private static void expectWords(String[] words, int count) {
+        if (words.length != count) throw new IllegalArgumentException("'" + words[0] + "' needs " + (count - 1) + " values, got " + (words.length - 1));
+    }
+
+    private static Animation requireFrames(Animation animation) {
+        if (animation == null) throw new IllegalArgumentException("'frames' must come first");
+        return animation;
+    }
+}
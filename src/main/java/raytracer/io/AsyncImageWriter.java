@@ -0,0 +1,180 @@
+package raytracer.io;
+
+import raytracer.image.FrameBuffer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes images on a background thread (see ImageWriter), so rendering can go on while they are encoded.
+ *
+ * At most capacity images wait or are written at a time; write() blocks while the queue is full, so a renderer
+ * that is faster than the disc cannot pile up frame buffers. Images are written one after another in the order
+ * they were submitted (PNG encoding itself runs on all cores).
+ * A failed write is thrown by the next write() and by close(), so callers that never look at the returned
+ * futures still learn about it.
+ */
+public class AsyncImageWriter implements Closeable {
+
+    /**
+     * The default number of images that may be queued.
+     */
+    public static final int DEFAULT_CAPACITY = 2;
+
+    private final ExecutorService executor;
+    /**
+     * One permit per free place in the queue.
+     */
+    private final Semaphore places;
+    private final int capacity;
+    /**
+     * The first failure of a background write.
+     */
+    private volatile RuntimeException failure = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Queues a frame buffer for writing, waiting for a free place if the queue is full.
+     * @param frameBuffer the image; must not change until the returned future is done
+     * @param format the image format (see ImageWriter)
+     * @param target the directory to write to
+     * @param name the file name, without extension
+     * @return the written file, once it is written
+     * @throws RuntimeException if an earlier write failed, or the writer is closed
+     */
+    public Future<File> write(FrameBuffer frameBuffer, String format, Path target, String name) {
+        checkFailure();
+        if (closed) throw new IllegalStateException("Image writer is closed");
+        try {
+            places.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to write " + name, e);
+        }
+        return submit(frameBuffer, format, target, name);
+    }
+
+    /**
+     * Queues a frame buffer for writing if there is a free place, e.g. for previews that may as well be skipped.
+     * @return the written file, once it is written; null if the queue is full and nothing was queued
+     * @throws RuntimeException if an earlier write failed, or the writer is closed
+     * @see #write(FrameBuffer, String, Path, String)
+     */
+    public Future<File> tryWrite(FrameBuffer frameBuffer, String format, Path target, String name) {
+        checkFailure();
+        if (closed) throw new IllegalStateException("Image writer is closed");
+        if (!places.tryAcquire()) return null;
+        return submit(frameBuffer, format, target, name);
+    }
+
+    /**
+     * Hands an image to the background thread; the caller holds a place in the queue.
+     */
+    private Future<File> submit(FrameBuffer frameBuffer, String format, Path target, String name) {
+        try {
+            checkFailure();
+        } catch (RuntimeException e) {
+            places.release();
+            throw e;
+        }
+
+        try {
+            return executor.submit(() -> {
+                try {
+                    return ImageWriter.writeImage(frameBuffer, format, target, name);
+                } catch (Throwable e) {
+                    // errors as well, or flush() and close() would report success for an image that was never written
+                    if (failure == null) failure = e instanceof RuntimeException ? (RuntimeException) e
+                            : new RuntimeException("Could not write " + name + ": " + e, e);
+                    throw e;
+                } finally {
+                    places.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // close() ran between the check in write() and here; the task never runs to give the place back
+            places.release();
+            throw new IllegalStateException("Image writer is closed", e);
+        }
+    }
+
+    /**
+     * Waits until all queued images are written.
+     * @throws RuntimeException if any of them failed
+     */
+    public void flush() {
+        try {
+            places.acquire(capacity);
+            places.release(capacity);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing images", e);
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        RuntimeException e = failure;
+        if (e == null) return;
+        if (e instanceof UncheckedIOException) throw new UncheckedIOException(e.getMessage(), ((UncheckedIOException) e).getCause());
+        throw new RuntimeException(e.getMessage(), e);
+    }
+
+    /**
+     * Writes all queued images and stops the background thread.
+     * @throws RuntimeException if any write failed
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println(" WARNING: Still writing images...");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    /**
+     * @return how many images may be queued at once
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param capacity how many images may be queued (including the one being written)
+     */
+    public AsyncImageWriter(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.places = new Semaphore(capacity);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "image-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public AsyncImageWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.io.AsyncImageWriter[capacity=" + capacity + ", queued=" + (capacity - places.availablePermits()) + ']';
+    }
+}
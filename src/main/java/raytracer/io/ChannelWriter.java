@@ -0,0 +1,144 @@
+package raytracer.io;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes binary data to a channel through a fixed-size buffer, so large arrays are streamed in chunks
+ * instead of being copied into one buffer of the whole file first.
+ *
+ * Arrays are written with bulk copies into the buffer, as many values at a time as fit. Every value starts
+ * at a multiple of its size if the data written before it is aligned (see pad), which is what readers that
+ * map the file need.
+ */
+public final class ChannelWriter implements Flushable {
+
+    /**
+     * The default buffer size in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    /**
+     * The bytes written so far, including the ones still in the buffer.
+     */
+    private long position = 0;
+
+    public ChannelWriter putInt(int value) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+        position += Integer.BYTES;
+        return this;
+    }
+
+    public ChannelWriter putLong(long value) throws IOException {
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+        position += Long.BYTES;
+        return this;
+    }
+
+    public ChannelWriter put(byte[] values) throws IOException {
+        for (int offset = 0; offset < values.length; ) {
+            ensure(1);
+            int n = Math.min(values.length - offset, buffer.remaining());
+            buffer.put(values, offset, n);
+            offset += n;
+            position += n;
+        }
+        return this;
+    }
+
+    public ChannelWriter putDoubles(double[] values, int length) throws IOException {
+        for (int offset = 0; offset < length; ) {
+            ensure(Double.BYTES);
+            int n = Math.min(length - offset, buffer.remaining() / Double.BYTES);
+            buffer.asDoubleBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + n * Double.BYTES);
+            offset += n;
+            position += (long) n * Double.BYTES;
+        }
+        return this;
+    }
+
+    public ChannelWriter putFloats(float[] values, int length) throws IOException {
+        for (int offset = 0; offset < length; ) {
+            ensure(Float.BYTES);
+            int n = Math.min(length - offset, buffer.remaining() / Float.BYTES);
+            buffer.asFloatBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + n * Float.BYTES);
+            offset += n;
+            position += (long) n * Float.BYTES;
+        }
+        return this;
+    }
+
+    public ChannelWriter putInts(int[] values, int length) throws IOException {
+        for (int offset = 0; offset < length; ) {
+            ensure(Integer.BYTES);
+            int n = Math.min(length - offset, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + n * Integer.BYTES);
+            offset += n;
+            position += (long) n * Integer.BYTES;
+        }
+        return this;
+    }
+
+    /**
+     * Writes zeros up to the next multiple of alignment bytes.
+     * @param alignment the alignment in bytes, at most 8
+     * @return this
+     */
+    public ChannelWriter pad(int alignment) throws IOException {
+        while (position % alignment != 0) {
+            ensure(1);
+            buffer.put((byte) 0);
+            position++;
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Makes room for a value, so that it is put into the buffer in one piece.
+     */
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+    }
+
+    /**
+     * Writes the buffered bytes to the channel.
+     */
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * @param channel the target; not closed by this writer
+     * @param order the byte order of all values
+     * @param bufferSize the size of the buffer in bytes, at least 8
+     */
+    public ChannelWriter(WritableByteChannel channel, ByteOrder order, int bufferSize) {
+        if (bufferSize < 8) throw new IllegalArgumentException("The buffer must hold at least 8 bytes: " + bufferSize);
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize).order(order);
+    }
+
+    public ChannelWriter(WritableByteChannel channel, ByteOrder order) {
+        this(channel, order, DEFAULT_BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,221 @@
+package raytracer.io;
+
+import raytracer.image.FrameBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the linear colors of frame buffers as OpenEXR: a single-part scanline file with the 32-bit float
+ * channels B, G and R, one scanline per block, uncompressed or RLE compressed.
+ *
+ * The file is written a scanline at a time; only one row of floats and its compressed bytes are held in memory.
+ * The offset table in front of the scanlines needs the size of every compressed scanline, so with RLE every
+ * scanline is compressed twice: once to measure it, once to write it. RLE is cheap, the second pass costs less
+ * than holding a 16K frame in memory.
+ * RLE only pays off for flat areas (masks, empty backgrounds): the low mantissa bytes of rendered floats hardly
+ * ever repeat, so a typical render stays about as large and takes three times as long to write. Hence the
+ * default is uncompressed.
+ * Source: OpenEXR, "OpenEXR File Layout", https://openexr.com/en/latest/OpenEXRFileLayout.html
+ * Source: OpenEXR, ImfRleCompressor.cpp and ImfRle.cpp (byte reordering, predictor and run-length encoding)
+ */
+public class ExrEncoder {
+
+    private static final int MAGIC = 20000630;
+    /**
+     * File format version 2, single-part scanline file, short attribute names.
+     */
+    private static final int VERSION = 2;
+    private static final int NO_COMPRESSION = 0;
+    private static final int RLE_COMPRESSION = 1;
+    private static final int FLOAT = 2;
+    private static final int MIN_RUN_LENGTH = 3;
+    private static final int MAX_RUN_LENGTH = 127;
+
+    private final boolean rle;
+
+    /**
+     * Encodes a frame buffer. Without HDR colors, the 8-bit pixels are written as floats (see FrameBuffer.getHdrRow).
+     * @param frameBuffer the image; must not change while it is encoded
+     * @param out the stream to write the EXR file to (not closed)
+     */
+    public void encode(FrameBuffer frameBuffer, OutputStream out) throws IOException {
+        int width = frameBuffer.getWidth(), height = frameBuffer.getHeight();
+        int lineBytes = width * 3 * 4;
+
+        // the header, all little-endian
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(512);
+        writeInt(headerBytes, MAGIC);
+        writeInt(headerBytes, VERSION);
+        ByteArrayOutputStream channels = new ByteArrayOutputStream();
+        for (String channel : new String[]{"B", "G", "R"}) { // sorted by name
+            writeString(channels, channel);
+            writeInt(channels, FLOAT);
+            writeInt(channels, 0); // pLinear and three reserved bytes
+            writeInt(channels, 1); // x sampling
+            writeInt(channels, 1); // y sampling
+        }
+        channels.write(0);
+        writeAttribute(headerBytes, "channels", "chlist", channels.toByteArray());
+        writeAttribute(headerBytes, "compression", "compression", new byte[]{(byte) (rle ? RLE_COMPRESSION : NO_COMPRESSION)});
+        byte[] window = littleEndian(16).putInt(0).putInt(0).putInt(width - 1).putInt(height - 1).array();
+        writeAttribute(headerBytes, "dataWindow", "box2i", window);
+        writeAttribute(headerBytes, "displayWindow", "box2i", window);
+        writeAttribute(headerBytes, "lineOrder", "lineOrder", new byte[]{0}); // increasing y
+        writeAttribute(headerBytes, "pixelAspectRatio", "float", littleEndian(4).putFloat(1).array());
+        writeAttribute(headerBytes, "screenWindowCenter", "v2f", littleEndian(8).putFloat(0).putFloat(0).array());
+        writeAttribute(headerBytes, "screenWindowWidth", "float", littleEndian(4).putFloat(1).array());
+        headerBytes.write(0);
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(headerBytes.toByteArray());
+
+        float[] row = new float[width * 3];
+        ByteBuffer line = littleEndian(lineBytes);
+        byte[] scratch = new byte[lineBytes], packed = new byte[packedCapacity(lineBytes)];
+
+        // the offset table: where every scanline block starts (its y, its size, then its data)
+        ByteBuffer offset = littleEndian(8);
+        long position = headerBytes.size() + 8L * height;
+        for (int y = 0; y < height; y++) {
+            int size = rle ? blockSize(frameBuffer, y, row, line, scratch, packed) : lineBytes;
+            data.write(offset.putLong(0, position).array());
+            position += 8 + size;
+        }
+
+        // the scanlines
+        ByteBuffer blockHeader = littleEndian(8);
+        for (int y = 0; y < height; y++) {
+            fillLine(frameBuffer, y, row, line);
+            byte[] block = line.array();
+            int size = lineBytes;
+            if (rle) {
+                int compressed = compress(block, lineBytes, scratch, packed);
+                // as in OpenEXR, a block that does not get smaller is stored as it is
+                if (compressed < lineBytes) {
+                    block = packed;
+                    size = compressed;
+                }
+            }
+            data.write(blockHeader.putInt(0, y).putInt(4, size).array());
+            data.write(block, 0, size);
+        }
+        data.flush();
+    }
+
+    /**
+     * The stored size of a scanline, compressed or not.
+     */
+    private int blockSize(FrameBuffer frameBuffer, int y, float[] row, ByteBuffer line, byte[] scratch, byte[] packed) {
+        fillLine(frameBuffer, y, row, line);
+        return Math.min(line.capacity(), compress(line.array(), line.capacity(), scratch, packed));
+    }
+
+    /**
+     * Puts a scanline into line: all blue values, then all green, then all red.
+     */
+    private static void fillLine(FrameBuffer frameBuffer, int y, float[] row, ByteBuffer line) {
+        frameBuffer.getHdrRow(y, row);
+        int width = frameBuffer.getWidth();
+        line.clear();
+        for (int channel = 2; channel >= 0; channel--) {
+            for (int x = 0; x < width; x++) line.putFloat(row[x*3 + channel]);
+        }
+    }
+
+    /**
+     * Compresses like OpenEXR's RLE compressor: the bytes are split into even and odd ones (so the similar high
+     * bytes of neighboring floats end up next to each other), replaced by their differences, then run-length encoded.
+     * @param raw the scanline
+     * @param length its length in bytes
+     * @param scratch receives the reordered differences, at least length bytes
+     * @param packed receives the compressed bytes, at least packedCapacity(length)
+     * @return the number of compressed bytes
+     */
+    private static int compress(byte[] raw, int length, byte[] scratch, byte[] packed) {
+        int half = (length + 1) / 2;
+        for (int i = 0; i < length; i++) scratch[(i & 1) == 0 ? i / 2 : half + i / 2] = raw[i];
+        int previous = scratch[0] & 0xFF;
+        for (int i = 1; i < length; i++) {
+            int current = scratch[i] & 0xFF;
+            scratch[i] = (byte) (current - previous + 128);
+            previous = current;
+        }
+
+        int written = 0;
+        int runStart = 0, runEnd = 1;
+        while (runStart < length) {
+            while (runEnd < length && scratch[runStart] == scratch[runEnd] && runEnd - runStart - 1 < MAX_RUN_LENGTH) runEnd++;
+            if (runEnd - runStart >= MIN_RUN_LENGTH) {
+                // a run: its length - 1, then the repeated byte
+                packed[written++] = (byte) (runEnd - runStart - 1);
+                packed[written++] = scratch[runStart];
+                runStart = runEnd;
+            } else {
+                // literal bytes up to the next run of three: minus their count, then the bytes
+                while (runEnd < length
+                        && (runEnd + 1 >= length || scratch[runEnd] != scratch[runEnd + 1]
+                            || runEnd + 2 >= length || scratch[runEnd + 1] != scratch[runEnd + 2])
+                        && runEnd - runStart < MAX_RUN_LENGTH) {
+                    runEnd++;
+                }
+                packed[written++] = (byte) (runStart - runEnd);
+                while (runStart < runEnd) packed[written++] = scratch[runStart++];
+            }
+            runEnd++;
+        }
+        return written;
+    }
+
+    /**
+     * The worst case of compress(): one count byte per 127 literal bytes.
+     */
+    private static int packedCapacity(int length) {
+        return length + length / MAX_RUN_LENGTH + 1;
+    }
+
+    private static ByteBuffer littleEndian(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(littleEndian(4).putInt(value).array(), 0, 4);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        out.write(bytes, 0, bytes.length);
+        out.write(0);
+    }
+
+    /**
+     * Writes a header attribute: name, type name, size, value.
+     */
+    private static void writeAttribute(ByteArrayOutputStream out, String name, String type, byte[] value) {
+        writeString(out, name);
+        writeString(out, type);
+        writeInt(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    /**
+     * @param rle whether to compress the scanlines with RLE (lossless)
+     */
+    public ExrEncoder(boolean rle) {
+        this.rle = rle;
+    }
+
+    public ExrEncoder() {
+        this(false);
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.io.ExrEncoder[" + (rle ? "rle" : "uncompressed") + ']';
+    }
+}
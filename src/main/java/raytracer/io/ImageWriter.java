@@ -1,17 +1,51 @@
 package raytracer.io;
 
+import raytracer.image.FrameBuffer;
+
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 /**
  * Writes images to disc.
+ *
+ * Frame buffers are written as "png" with the parallel PngEncoder, as "ppm" (binary PPM, a quick uncompressed
+ * dump for intermediate output), or in any other format ImageIO knows. The HDR formats "exr" (OpenEXR, see
+ * ExrEncoder) and "pfm" (Portable FloatMap) hold the unclamped linear colors of frame buffers created with HDR;
+ * they are written a row at a time, without an 8-bit copy of the image. Files are written under a temporary name
+ * and then renamed, so a viewer (or the next step of a pipeline) never sees half an image.
+ * Failures are thrown as UncheckedIOException.
  */
 public class ImageWriter {
 
+    /**
+     * The formats writeImage(FrameBuffer, ...) writes without ImageIO.
+     */
+    public static final String PNG = "png";
+    public static final String PPM = "ppm";
+    public static final String EXR = "exr";
+    public static final String PFM = "pfm";
+
+    /**
+     * @param format an image format
+     * @return whether the format stores linear float colors, i.e. frame buffers for it should be created with HDR
+     */
+    public static boolean isHdr(String format) {
+        return EXR.equals(format) || PFM.equals(format);
+    }
+
     /**
      * Writes a BufferedImage to disc.
      * @param image the image to write
@@ -23,22 +57,126 @@ public class ImageWriter {
         writeImage(image, format, currentDirectory, name);
     }
 
+    /**
+     * Writes a frame buffer to disc, into the working directory.
+     * @param frameBuffer the frame buffer to write
+     * @param format the image format to write to
+     * @param name the file name of the written image
+     * @return the written file
+     */
+    public static File writeImage(FrameBuffer frameBuffer, String format, String name) {
+        return writeImage(frameBuffer, format, Paths.get("").toAbsolutePath(), name);
+    }
+
+    /**
+     * Writes a frame buffer to disc.
+     * @param frameBuffer the frame buffer to write; must not change until this method returns
+     * @param format the image format
+     * @param target the directory to write to
+     * @param name the file name of the written image, without extension
+     * @return the written file
+     * @throws UncheckedIOException if the file cannot be written
+     * @throws IllegalArgumentException if there is no writer for the format
+     */
+    public static File writeImage(FrameBuffer frameBuffer, String format, Path target, String name) {
+        return write(target, name, format, out -> {
+            switch (format) {
+                case PNG:
+                    new PngEncoder().encode(frameBuffer, out);
+                    break;
+                case PPM:
+                    writePpm(frameBuffer, out);
+                    break;
+                case EXR:
+                    new ExrEncoder().encode(frameBuffer, out);
+                    break;
+                case PFM:
+                    writePfm(frameBuffer, out);
+                    break;
+                default:
+                    // ImageIO wraps the pixels, they are not copied
+                    writeImageIO(frameBuffer.toImage(), format, out);
+            }
+        });
+    }
+
     /**
      * Writes a BufferedImage to disc.
      * @param image the image to write
      * @param format the image format
      * @param target the location to write to
      * @param name the file name of the written image
+     * @throws UncheckedIOException if the file cannot be written
+     * @throws IllegalArgumentException if ImageIO has no writer for the format
      */
     public static void writeImage(BufferedImage image, String format, Path target, String name) {
+        write(target, name, format, out -> writeImageIO(image, format, out));
+    }
+
+    private interface Encoder {
+        void encode(OutputStream out) throws IOException;
+    }
+
+    private static File write(Path target, String name, String format, Encoder encoder) {
+        File file = new File(target + File.separator + name + "." + format);
+        // not Files.createTempFile: its files are only readable by their owner, and the image keeps that
+        Path temp = target.resolve(file.getName() + "." + Thread.currentThread().getId() + ".tmp");
         try {
-            ImageIO.write(
-                    image,
-                    format,
-                    new File(target + File.separator + name + "." + format)
-            );
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp.toFile()), 64 * 1024)) {
+                encoder.encode(out);
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return file;
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Could not write " + file + ": " + e.getMessage(), e);
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                System.out.println(" WARNING: Could not delete " + temp);
+            }
+        }
+    }
+
+    private static void writeImageIO(BufferedImage image, String format, OutputStream out) throws IOException {
+        if (!ImageIO.write(image, format, out)) throw new IllegalArgumentException("No image writer for format " + format);
+    }
+
+    /**
+     * Writes binary PPM (P6): a short text header, then the RGB bytes of all pixels. Alpha is dropped.
+     * Source: http://netpbm.sourceforge.net/doc/ppm.html
+     */
+    private static void writePpm(FrameBuffer frameBuffer, OutputStream out) throws IOException {
+        int width = frameBuffer.getWidth();
+        int[] pixels = frameBuffer.getPixels();
+        out.write(("P6\n" + width + " " + frameBuffer.getHeight() + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+        byte[] row = new byte[width * 3];
+        for (int y = 0; y < frameBuffer.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                row[x*3] = (byte) (pixel >> 16);
+                row[x*3 + 1] = (byte) (pixel >> 8);
+                row[x*3 + 2] = (byte) pixel;
+            }
+            out.write(row);
+        }
+    }
+
+    /**
+     * Writes a Portable FloatMap: a short text header, then the linear RGB floats of all pixels, little-endian
+     * (the negative scale in the header), rows from bottom to top.
+     * Source: http://www.pauldebevec.com/Research/HDR/PFM/
+     */
+    private static void writePfm(FrameBuffer frameBuffer, OutputStream out) throws IOException {
+        int width = frameBuffer.getWidth();
+        out.write(("PF\n" + width + " " + frameBuffer.getHeight() + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII));
+        float[] row = new float[width * 3];
+        ByteBuffer bytes = ByteBuffer.allocate(row.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = frameBuffer.getHeight() - 1; y >= 0; y--) {
+            frameBuffer.getHdrRow(y, row);
+            bytes.clear();
+            bytes.asFloatBuffer().put(row);
+            out.write(bytes.array());
         }
     }
 }
@@ -0,0 +1,282 @@
+package raytracer.io;
+
+import raytracer.graphics.surfaces.obj.TriangleMesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A binary cache of parsed meshes, so repeated renders of the same scene skip OBJ parsing and BVH building.
+ *
+ * Every OBJ file gets one cache file with a header (all little-endian):
+ *   magic "RTMC", format version (ints), size and modification time of the OBJ file (longs),
+ *   SHA-256 of the OBJ file (32 bytes), payload size (long),
+ *   length of the absolute path of the OBJ file (int), the path (UTF-8), padding to a multiple of 8 bytes
+ * followed by the packed arrays of the TriangleMesh and its BVH (see TriangleMesh.write).
+ * All arrays are 8-byte aligned, so a cache file is loaded by mapping it and bulk-copying the arrays out,
+ * without any text parsing. Writing streams the arrays through a small buffer (see ChannelWriter).
+ *
+ * A cache file is valid if its version and path match and the OBJ file has the recorded size and modification
+ * time. If only the modification time differs (the file was touched or copied), the hash decides.
+ * Cache files are written to a temporary file first and then moved into place, so concurrent renders never
+ * read half a file; a cache file that cannot be read is ignored and rewritten. Whenever a cache file is written,
+ * the cache files of OBJ files that no longer exist are deleted.
+ * The cache lives in the user's home directory by default, as the meshes of other users' scenes are none of
+ * our business.
+ */
+public class MeshCache {
+
+    /**
+     * "RTMC" as little-endian int.
+     */
+    public static final int MAGIC = 'R' | 'T' << 8 | 'M' << 16 | 'C' << 24;
+    /**
+     * Increment whenever the layout of the header, the TriangleMesh or the BVH changes.
+     */
+    public static final int VERSION = 3;
+    /**
+     * The file extension of cache files.
+     */
+    public static final String EXTENSION = ".rtmesh";
+
+    private static final int HASH_SIZE = 32;
+    /**
+     * The header without the path.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + HASH_SIZE + 8;
+
+    /**
+     * The default cache directory: .cache/raytracer in the user's home directory.
+     */
+    public static final File DEFAULT_DIRECTORY = new File(new File(System.getProperty("user.home"), ".cache"), "raytracer");
+
+    /**
+     * Where cache files are kept; null disables the cache.
+     */
+    private static volatile File directory = DEFAULT_DIRECTORY;
+
+    /**
+     * Loads a mesh from its cache file if it is valid, or parses the OBJ file and caches the result.
+     * @param objFile the OBJ file
+     * @return the mesh
+     * @throws java.io.UncheckedIOException if the OBJ file cannot be read
+     * @throws IllegalArgumentException if the OBJ file is not valid
+     */
+    public static TriangleMesh load(File objFile) {
+        File cacheFile = getCacheFile(objFile);
+        if (cacheFile == null) return ObjLoader.load(objFile);
+
+        if (cacheFile.exists()) {
+            try {
+                TriangleMesh mesh = read(cacheFile, objFile);
+                if (mesh != null) {
+                    System.out.println("Loaded mesh '" + mesh.getName() + "' from cache " + cacheFile);
+                    return mesh;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println(" WARNING: Ignoring unreadable mesh cache " + cacheFile + ": " + e.getMessage());
+            }
+        }
+
+        TriangleMesh mesh = ObjLoader.load(objFile);
+        try {
+            write(cacheFile, objFile, mesh);
+        } catch (IOException | RuntimeException e) {
+            System.out.println(" WARNING: Could not write mesh cache " + cacheFile + ": " + e.getMessage());
+        }
+        return mesh;
+    }
+
+    /**
+     * Checks whether an OBJ file has a valid cache file.
+     * @param objFile the OBJ file
+     * @return true if load() would use the cache
+     */
+    public static boolean isValid(File objFile) {
+        File cacheFile = getCacheFile(objFile);
+        if (cacheFile == null || !cacheFile.exists()) return false;
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            return isValid(map(channel), objFile);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The cache file of an OBJ file: its name plus the SHA-256 of its absolute path, so equally named
+     * files in different directories do not replace each other.
+     * @param objFile the OBJ file
+     * @return the cache file, or null if the cache is disabled
+     */
+    public static File getCacheFile(File objFile) {
+        File dir = directory;
+        if (dir == null) return null;
+        StringBuilder name = new StringBuilder(objFile.getName()).append('-');
+        for (byte b : sha256().digest(path(objFile))) name.append(String.format("%02x", b));
+        return new File(dir, name.append(EXTENSION).toString());
+    }
+
+    /**
+     * @return the absolute path of a file, as stored in the header
+     */
+    private static byte[] path(File file) {
+        return file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a cache file.
+     * @return the mesh, or null if the cache file is out of date
+     */
+    private static TriangleMesh read(File cacheFile, File objFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE + 4) throw new IOException("truncated header");
+            MappedByteBuffer buffer = map(channel);
+            if (!isValid(buffer, objFile)) return null;
+
+            long payloadSize = buffer.getLong(HEADER_SIZE - 8);
+            long headerSize = headerSize(buffer.getInt(HEADER_SIZE));
+            if (headerSize + payloadSize != channel.size()) throw new IOException("truncated payload");
+            buffer.position((int) headerSize);
+            return TriangleMesh.read(buffer);
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * @return the size of the header with a path of the given length in bytes
+     */
+    private static long headerSize(int pathLength) {
+        return (HEADER_SIZE + 4 + (long) pathLength + 7) & ~7;
+    }
+
+    /**
+     * @return the path of the OBJ file stored in a header, or null if the header is not one of this version
+     */
+    private static byte[] storedPath(ByteBuffer header) {
+        if (header.limit() < HEADER_SIZE + 4 || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) return null;
+        int pathLength = header.getInt(HEADER_SIZE);
+        if (pathLength < 0 || headerSize(pathLength) > header.limit()) return null;
+        byte[] path = new byte[pathLength];
+        for (int i = 0; i < pathLength; i++) path[i] = header.get(HEADER_SIZE + 4 + i);
+        return path;
+    }
+
+    /**
+     * Checks the header of a cache file against the OBJ file.
+     */
+    private static boolean isValid(ByteBuffer header, File objFile) throws IOException {
+        // different paths may share a cache file name, if only in theory
+        if (!Arrays.equals(storedPath(header), path(objFile))) return false;
+        if (!objFile.exists() || objFile.length() != header.getLong(8)) return false;
+        if (objFile.lastModified() == header.getLong(16)) return true;
+
+        // touched, but maybe not changed
+        byte[] hash = new byte[HASH_SIZE];
+        for (int i = 0; i < HASH_SIZE; i++) hash[i] = header.get(24 + i);
+        return Arrays.equals(hash, hash(objFile));
+    }
+
+    /**
+     * Writes a cache file atomically: to a temporary file in the cache directory, then moved into place.
+     * The header and the arrays of the mesh are streamed through a small buffer.
+     */
+    private static void write(File cacheFile, File objFile, TriangleMesh mesh) throws IOException {
+        byte[] path = path(objFile);
+        long payloadSize = mesh.getSerializedSize();
+        // read() maps the whole file, and a mapping holds at most 2 GB
+        if (headerSize(path.length) + payloadSize > Integer.MAX_VALUE) throw new IOException("mesh too large for the cache");
+        // the OBJ file may change while it is hashed; reading size and time first errs on the side of a stale time
+        long size = objFile.length(), lastModified = objFile.lastModified();
+        byte[] hash = hash(objFile);
+
+        Path dir = cacheFile.getParentFile().toPath();
+        Files.createDirectories(dir);
+        evictStale(dir);
+        Path temp = Files.createTempFile(dir, cacheFile.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ChannelWriter out = new ChannelWriter(channel, ByteOrder.LITTLE_ENDIAN);
+                out.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(lastModified).put(hash).putLong(payloadSize);
+                out.putInt(path.length).put(path).pad(8);
+                mesh.write(out);
+                out.flush();
+            }
+            Files.move(temp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Deletes the cache files of OBJ files that no longer exist, and cache files of other versions.
+     */
+    private static void evictStale(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+            for (Path file : files) {
+                byte[] path;
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    // only the header, without mapping the file (a mapped file cannot be deleted everywhere)
+                    ByteBuffer header = ByteBuffer.allocate((int) Math.min(channel.size(), 1 << 16)).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int read = 0; read >= 0 && header.hasRemaining(); ) read = channel.read(header);
+                    header.flip();
+                    path = storedPath(header);
+                } catch (IOException e) {
+                    continue; // e.g. being replaced right now
+                }
+                if (path == null || !new File(new String(path, StandardCharsets.UTF_8)).exists()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static byte[] hash(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest digest = sha256();
+            byte[] chunk = new byte[1 << 16];
+            for (int read; (read = in.read(chunk)) > 0; ) digest.update(chunk, 0, read);
+            return digest.digest();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e); // every JRE has it
+        }
+    }
+
+    /**
+     * @return the cache directory, or null if the cache is disabled
+     */
+    public static File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param directory the new cache directory, or null to disable the cache
+     */
+    public static void setDirectory(File directory) {
+        MeshCache.directory = directory;
+    }
+}
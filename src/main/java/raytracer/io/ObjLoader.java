@@ -0,0 +1,434 @@
+package raytracer.io;
+
+import raytracer.graphics.surfaces.obj.TriangleMesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A fast OBJ loader that parses the bytes of a file straight into the packed arrays of a TriangleMesh.
+ *
+ * The file is mapped and split into chunks at line boundaries, which are parsed in parallel:
+ * 1. Every chunk collects its positions ("v") and texture coordinates ("vt"), and the corners of its faces ("f")
+ *    as indices. Polygons are split into a fan of triangles (0,1,2), (0,2,3), ... around their first vertex.
+ * 2. Once the number of vertices of all chunks is known, every chunk resolves its indices (which are global, or
+ *    relative to the vertices before the face if negative) and writes its triangles into the shared arrays.
+ * Numbers are parsed by hand without creating strings; only numbers that cannot be converted exactly
+ * with doubles fall back to Double.parseDouble. Normals, groups, materials and smoothing groups are ignored:
+ * the mesh only uses face normals and the material of its XML element.
+ */
+public class ObjLoader {
+
+    /**
+     * Files smaller than this are parsed in one chunk; parallel parsing does not pay off for them.
+     */
+    static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The uv index of a corner without texture coordinates.
+     */
+    private static final int NONE = Integer.MIN_VALUE;
+
+    /**
+     * Powers of ten that are exact doubles (10^22 is the largest one).
+     */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    /**
+     * Loads an OBJ file.
+     * @param file the OBJ file
+     * @return the mesh, named after the file
+     * @throws UncheckedIOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not valid OBJ
+     */
+    public static TriangleMesh load(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IllegalArgumentException("OBJ file too large: " + file);
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return parse(file.getName(), data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read OBJ file " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses OBJ data.
+     * @param name the name of the mesh
+     * @param data the contents of an OBJ file, from position to limit
+     * @return the mesh
+     * @throws IllegalArgumentException if the data is not valid OBJ
+     */
+    public static TriangleMesh parse(String name, ByteBuffer data) {
+        int chunkCount = Math.max(1, Math.min(
+                4 * Runtime.getRuntime().availableProcessors(), data.remaining() / MIN_CHUNK_SIZE));
+        return parse(name, data, chunkCount);
+    }
+
+    static TriangleMesh parse(String name, ByteBuffer data, int chunkCount) {
+        List<Chunk> chunks = split(data, chunkCount);
+
+        // 1. tokenize
+        ForkJoinTask.invokeAll(tasks(chunks, Chunk::parse));
+
+        // vertex and triangle offsets of all chunks
+        int positionCount = 0, uvCount = 0, triangleCount = 0;
+        for (Chunk chunk : chunks) {
+            chunk.firstPosition = positionCount;
+            chunk.firstUv = uvCount;
+            chunk.firstTriangle = triangleCount;
+            positionCount += chunk.positions.size / 3;
+            uvCount += chunk.uvs.size / 2;
+            triangleCount += chunk.corners.size / 6;
+        }
+        double[] positions = new double[positionCount * 3];
+        float[] uvs = new float[uvCount * 2];
+        for (Chunk chunk : chunks) {
+            System.arraycopy(chunk.positions.values, 0, positions, chunk.firstPosition * 3, chunk.positions.size);
+            for (int i = 0; i < chunk.uvs.size; i++) uvs[chunk.firstUv * 2 + i] = (float) chunk.uvs.values[i];
+        }
+
+        // 2. resolve the indices and write the triangles
+        double[] vertices = new double[triangleCount * 9];
+        float[] triangleUvs = new float[triangleCount * TriangleMesh.UV_STRIDE];
+        ForkJoinTask.invokeAll(tasks(chunks, chunk -> chunk.writeTriangles(positions, uvs, vertices, triangleUvs)));
+
+        return new TriangleMesh(name, vertices, triangleUvs);
+    }
+
+    /**
+     * Splits the data into chunks that end after a line break (or at the end of the data).
+     */
+    private static List<Chunk> split(ByteBuffer data, int chunkCount) {
+        List<Chunk> chunks = new ArrayList<>(chunkCount);
+        int start = data.position(), end = data.limit();
+        long chunkSize = Math.max(1, ((long) end - start) / chunkCount);
+        while (start < end) {
+            int stop = (int) Math.min(end, start + chunkSize);
+            while (stop < end && data.get(stop - 1) != '\n') stop++;
+            chunks.add(new Chunk(data, start, stop));
+            start = stop;
+        }
+        return chunks;
+    }
+
+    private interface ChunkAction {
+        void run(Chunk chunk);
+    }
+
+    private static List<ForkJoinTask<?>> tasks(List<Chunk> chunks, ChunkAction action) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) tasks.add(ForkJoinTask.adapt(() -> action.run(chunk)));
+        return tasks;
+    }
+
+    /**
+     * A range of lines, and what was parsed from them.
+     */
+    private static class Chunk {
+        private final ByteBuffer data;
+        private final int start;
+        private final int end;
+        /**
+         * The read position of the tokenizer.
+         */
+        private int pos;
+
+        /**
+         * x,y,z of every "v" ...
+         */
+        final DoubleList positions = new DoubleList();
+        /**
+         * ... u,v of every "vt" ...
+         */
+        final DoubleList uvs = new DoubleList();
+        /**
+         * ... and 6 indices per triangle: 3 positions, then 3 uvs (NONE = no uv). Indices are 0-based and global,
+         * except for the slots listed in relative, which count from the first vertex of this chunk
+         * (and are negative if they point into an earlier chunk).
+         */
+        final IntList corners = new IntList();
+        final IntList relative = new IntList();
+        /**
+         * The corners of the current face: position index, uv index, and whether each of them is relative (0/1).
+         */
+        private final IntList face = new IntList();
+        /**
+         * Whether the last index() was negative in the file, i.e. relative.
+         */
+        private boolean relativeIndex;
+
+        /**
+         * The number of vertices and triangles in all chunks before this one.
+         */
+        int firstPosition, firstUv, firstTriangle;
+
+        Chunk(ByteBuffer data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+        }
+
+        void parse() {
+            pos = start;
+            while (pos < end) {
+                skipSpaces();
+                if (pos >= end) break;
+                byte c = data.get(pos);
+                if (c == 'v') {
+                    byte next = pos + 1 < end ? data.get(pos + 1) : (byte) '\n';
+                    if (isSpace(next)) {
+                        pos++;
+                        positions.add(number());
+                        positions.add(number());
+                        positions.add(number());
+                    } else if (next == 't' && pos + 2 < end && isSpace(data.get(pos + 2))) {
+                        pos += 2;
+                        uvs.add(number());
+                        skipSpaces();
+                        uvs.add(atEndOfLine() ? 0 : number()); // v is optional
+                    }
+                } else if (c == 'f' && pos + 1 < end && isSpace(data.get(pos + 1))) {
+                    pos++;
+                    face();
+                }
+                skipLine(); // also skips optional values (w), and all other statements and comments
+            }
+        }
+
+        /**
+         * Parses the corners of a face and adds its triangles.
+         */
+        private void face() {
+            face.size = 0;
+            while (true) {
+                skipSpaces();
+                if (atEndOfLine()) break;
+                int position = index(positions.size / 3);
+                boolean relativePosition = relativeIndex;
+                int uv = NONE;
+                boolean relativeUv = false;
+                if (pos < end && data.get(pos) == '/') {
+                    pos++;
+                    if (pos < end && data.get(pos) != '/' && !isSpace(data.get(pos))) {
+                        uv = index(uvs.size / 2);
+                        relativeUv = relativeIndex;
+                    }
+                    if (pos < end && data.get(pos) == '/') { // the normal index is not used
+                        pos++;
+                        if (pos < end && !isSpace(data.get(pos))) index(0);
+                    }
+                }
+                face.add(position);
+                face.add(uv);
+                face.add(relativePosition ? 1 : 0);
+                face.add(relativeUv ? 1 : 0);
+            }
+            int n = face.size / 4;
+            if (n < 3) throw error("A face needs at least 3 vertices");
+
+            // a fan around the first corner: (0, k-1, k) for k = 2..n-1, positions first, then uvs
+            for (int k = 2; k < n; k++) {
+                corner(0, 0); corner(k - 1, 0); corner(k, 0);
+                corner(0, 1); corner(k - 1, 1); corner(k, 1);
+            }
+        }
+
+        /**
+         * Adds the position (part 0) or uv index (part 1) of a corner of the current face to the triangles.
+         */
+        private void corner(int corner, int part) {
+            if (face.values[corner*4 + 2 + part] != 0) relative.add(corners.size);
+            corners.add(face.values[corner*4 + part]);
+        }
+
+        /**
+         * Parses a 1-based index and returns it 0-based. A negative index counts back from the last vertex parsed
+         * so far; it is returned relative to the first vertex of this chunk, and relativeIndex is set.
+         * @param count the number of vertices of this kind parsed so far in this chunk
+         */
+        private int index(int count) {
+            int begin = pos;
+            boolean negative = pos < end && data.get(pos) == '-';
+            if (negative) pos++;
+            int value = 0, digits = 0;
+            while (pos < end && isDigit(data.get(pos))) {
+                value = value * 10 + (data.get(pos++) - '0');
+                digits++;
+            }
+            if (digits == 0 || digits > 9 || value == 0) {
+                pos = begin;
+                throw error("Illegal index");
+            }
+            relativeIndex = negative;
+            return negative ? count - value : value - 1;
+        }
+
+        /**
+         * Parses a decimal number like 1, -2.5, .5 or 1.5e-3.
+         */
+        private double number() {
+            skipSpaces();
+            int begin = pos;
+            boolean negative = false;
+            if (pos < end && (data.get(pos) == '-' || data.get(pos) == '+')) negative = data.get(pos++) == '-';
+
+            long mantissa = 0;
+            int digits = 0, exponent = 0;
+            boolean any = false, truncated = false;
+            for (; pos < end && isDigit(data.get(pos)); pos++) {
+                any = true;
+                if (mantissa == 0 && data.get(pos) == '0') continue; // leading zeros
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (data.get(pos) - '0');
+                    digits++;
+                } else {
+                    exponent++;
+                    truncated = true;
+                }
+            }
+            if (pos < end && data.get(pos) == '.') {
+                pos++;
+                for (; pos < end && isDigit(data.get(pos)); pos++) {
+                    any = true;
+                    if (mantissa == 0 && data.get(pos) == '0') {
+                        exponent--;
+                    } else if (digits < 18) {
+                        mantissa = mantissa * 10 + (data.get(pos) - '0');
+                        digits++;
+                        exponent--;
+                    } else {
+                        truncated = true;
+                    }
+                }
+            }
+            if (!any) {
+                pos = begin;
+                throw error("Number expected");
+            }
+            if (pos < end && (data.get(pos) == 'e' || data.get(pos) == 'E')) {
+                pos++;
+                boolean negativeExponent = false;
+                if (pos < end && (data.get(pos) == '-' || data.get(pos) == '+')) negativeExponent = data.get(pos++) == '-';
+                int e = 0;
+                boolean anyExponent = false;
+                for (; pos < end && isDigit(data.get(pos)); pos++) {
+                    anyExponent = true;
+                    if (e < 10000) e = e * 10 + (data.get(pos) - '0');
+                }
+                if (!anyExponent) throw error("Illegal exponent");
+                exponent += negativeExponent ? -e : e;
+            }
+            if (pos < end && !isSpace(data.get(pos))) throw error("Illegal number");
+
+            // exact: both the mantissa and the power of ten are exact doubles, so there is only one rounding
+            if (truncated || mantissa >= (1L << 53) || Math.abs(exponent) >= POWERS_OF_TEN.length) {
+                return Double.parseDouble(text(begin, pos));
+            }
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+
+        /**
+         * Writes the triangles of this chunk with their positions and uvs.
+         */
+        void writeTriangles(double[] positions, float[] uvs, double[] vertices, float[] triangleUvs) {
+            int[] c = corners.values;
+            for (int i = 0; i < relative.size; i++) {
+                int slot = relative.values[i];
+                c[slot] += slot % 6 < 3 ? firstPosition : firstUv;
+            }
+            int positionCount = positions.length / 3, uvCount = uvs.length / 2;
+
+            for (int t = 0; t < corners.size / 6; t++) {
+                int v = (firstTriangle + t) * 9, u = (firstTriangle + t) * TriangleMesh.UV_STRIDE;
+                for (int k = 0; k < 3; k++) {
+                    int p = c[t*6 + k], uv = c[t*6 + 3 + k];
+                    if (p < 0 || p >= positionCount) throw new IllegalArgumentException("Face refers to missing vertex " + (p + 1));
+                    vertices[v + k*3]     = positions[p*3];
+                    vertices[v + k*3 + 1] = positions[p*3 + 1];
+                    vertices[v + k*3 + 2] = positions[p*3 + 2];
+                    if (uv == NONE) continue;
+                    if (uv < 0 || uv >= uvCount) throw new IllegalArgumentException("Face refers to missing texture coordinate " + (uv + 1));
+                    triangleUvs[u + k*2]     = uvs[uv*2];
+                    triangleUvs[u + k*2 + 1] = uvs[uv*2 + 1];
+                }
+            }
+        }
+
+        private boolean atEndOfLine() {
+            return pos >= end || data.get(pos) == '\n' || data.get(pos) == '\r' || data.get(pos) == '#';
+        }
+
+        private void skipSpaces() {
+            while (pos < end && (data.get(pos) == ' ' || data.get(pos) == '\t')) pos++;
+        }
+
+        private void skipLine() {
+            while (pos < end && data.get(pos) != '\n') pos++;
+            pos++;
+        }
+
+        private String text(int from, int to) {
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = data.get(from + i);
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * @return an exception with the line number of the read position (only counted when needed)
+         */
+        private IllegalArgumentException error(String message) {
+            int line = 1;
+            for (int i = data.position(); i < Math.min(pos, data.limit()); i++) if (data.get(i) == '\n') line++;
+            return new IllegalArgumentException(message + " in OBJ line " + line);
+        }
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    /**
+     * A growable int array.
+     */
+    private static class IntList {
+        int[] values = new int[64];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * A growable double array.
+     */
+    private static class DoubleList {
+        double[] values = new double[64];
+        int size;
+
+        void add(double value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
@@ -5,19 +5,17 @@ import com.owens.oobjloader.builder.FaceVertex;
 import com.owens.oobjloader.parser.Parse;
 import com.owens.oobjloader.builder.Build;
 
-import raytracer.graphics.surfaces.obj.TriangleFace;
-import raytracer.graphics.surfaces.obj.MeshVertex;
-import raytracer.math.Vector3;
+import raytracer.graphics.surfaces.obj.TriangleMesh;
 
 import java.io.File;
-import java.util.ArrayList;
 
 /**
  * A wrapper class for the oObjLoader by Sean Owens: https://github.com/seanrowens/oObjLoader
+ * Scenes load meshes with the much faster ObjLoader; this one is kept as a reference implementation.
  */
 public class ObjParser {
 
-    public static ArrayList<TriangleFace> parseObj(String filename) {
+    public static TriangleMesh parseObj(String filename) {
         try {
             Build builder = new Build();
             Parse objData = new Parse(builder, filename);
@@ -29,27 +27,25 @@ public class ObjParser {
                 // insert a face split at Build.java, line 88
             }
 
-            ArrayList<TriangleFace> faces = new ArrayList<>();
-
-            for(Face face : builder.faces) {
-                ArrayList<MeshVertex> vertices = new ArrayList<>();
-                for(FaceVertex v : face.vertices) {
-                    MeshVertex mv = new MeshVertex(
-                            v.v == null ? null : new Vector3((double)v.v.x, (double)v.v.y, (double)v.v.z),
-                            v.n == null ? null : new Vector3((double)v.n.x, (double)v.n.y, (double)v.n.z),
-                            v.t == null ? null :(double)v.t.u,
-                            v.t == null ? null :(double)v.t.v
-                    );
-                    vertices.add(mv);
+            // copy the faces straight into the packed arrays, 9 positions and 6 uvs per triangle
+            double[] vertices = new double[builder.faces.size() * 9];
+            float[] uvs = new float[builder.faces.size() * TriangleMesh.UV_STRIDE];
+
+            for (int i = 0; i < builder.faces.size(); i++) {
+                Face face = builder.faces.get(i);
+                for (int k = 0; k < 3; k++) {
+                    FaceVertex v = face.vertices.get(k);
+                    vertices[i*9 + k*3]     = v.v.x;
+                    vertices[i*9 + k*3 + 1] = v.v.y;
+                    vertices[i*9 + k*3 + 2] = v.v.z;
+                    if (v.t != null) {
+                        uvs[i*TriangleMesh.UV_STRIDE + k*2]     = v.t.u;
+                        uvs[i*TriangleMesh.UV_STRIDE + k*2 + 1] = v.t.v;
+                    }
                 }
-                faces.add(new TriangleFace(
-                        vertices.get(0),
-                        vertices.get(1),
-                        vertices.get(2)
-                ));
             }
 
-            return faces;
+            return new TriangleMesh(new File(filename).getName(), vertices, uvs);
         } catch(Exception e) {
             e.printStackTrace();
             return null;
@@ -57,10 +53,10 @@ public class ObjParser {
     }
 
     public static void main(String[] args) {
-        ArrayList<TriangleFace> faces = parseObj(
+        TriangleMesh mesh = parseObj(
                 new File(SceneParser.class.getResource("/scenes/box.obj").getFile()).getAbsolutePath()
         );
 
-        System.out.println(faces.toString());
+        System.out.println(mesh.toString());
     }
 }
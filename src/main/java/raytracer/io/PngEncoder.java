@@ -0,0 +1,262 @@
+package raytracer.io;
+
+import raytracer.image.FrameBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes frame buffers as PNG, compressing on all cores.
+ *
+ * ImageIO filters and deflates an image on a single thread. Here, the rows are split into stripes which are
+ * filtered and deflated in parallel, each by its own Deflater; the compressed stripes are simply concatenated.
+ * Every stripe but the last ends with a sync flush, so it stops at a byte boundary and the next one can follow,
+ * and every stripe is primed with the last 32 KB of the stripe before it, so it compresses (almost) as well as
+ * a single stream. The result is one ordinary zlib stream, readable by every PNG decoder.
+ * Source: Mark Adler, pigz (parallel gzip), https://zlib.net/pigz/
+ *
+ * Rows are filtered with the usual heuristic: per row, the filter with the smallest sum of absolute differences.
+ * Source: PNG specification, 12.8 "Filter selection"
+ */
+public class PngEncoder {
+
+    /**
+     * The default zlib compression level (1 = fastest, 9 = smallest).
+     */
+    public static final int DEFAULT_LEVEL = 6;
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    /**
+     * The deflate window: how far back a stripe can refer into the stripe before it.
+     */
+    private static final int WINDOW = 32 * 1024;
+    /**
+     * Stripes hold at least this much filtered data; smaller ones compress worse and gain nothing.
+     */
+    private static final int MIN_STRIPE_BYTES = 128 * 1024;
+
+    private final int level;
+
+    /**
+     * Encodes a frame buffer. The alpha channel is only written if some pixel is not opaque.
+     * @param frameBuffer the image; must not change while it is encoded
+     * @param out the stream to write the PNG file to (not closed)
+     */
+    public void encode(FrameBuffer frameBuffer, OutputStream out) throws IOException {
+        int width = frameBuffer.getWidth(), height = frameBuffer.getHeight();
+        int[] pixels = frameBuffer.getPixels();
+        boolean alpha = false;
+        for (int pixel : pixels) {
+            if ((pixel >>> 24) != 0xFF) {
+                alpha = true;
+                break;
+            }
+        }
+        int channels = alpha ? 4 : 3;
+        int rowBytes = 1 + width * channels; // the filter type, then the filtered samples
+
+        int stripeRows = Math.max(1, (MIN_STRIPE_BYTES + rowBytes - 1) / rowBytes);
+        int stripes = (height + stripeRows - 1) / stripeRows;
+
+        // 1. filter all rows; rows only depend on the pixels, so stripes are independent
+        byte[] filtered = new byte[height * rowBytes];
+        boolean withAlpha = alpha;
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            byte[] previous = new byte[width * channels], current = new byte[width * channels];
+            int y0 = s * stripeRows, y1 = Math.min(height, y0 + stripeRows);
+            if (y0 > 0) unpack(pixels, (y0 - 1) * width, width, withAlpha, previous);
+            for (int y = y0; y < y1; y++) {
+                unpack(pixels, y * width, width, withAlpha, current);
+                filterRow(current, previous, channels, filtered, y * rowBytes);
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+        });
+
+        // 2. deflate the stripes, each primed with the window before it
+        byte[][] compressed = new byte[stripes][];
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            int from = s * stripeRows * rowBytes, to = Math.min(height, (s + 1) * stripeRows) * rowBytes;
+            compressed[s] = deflate(filtered, from, to, s == stripes - 1);
+        });
+        Adler32 adler = new Adler32();
+        adler.update(filtered, 0, filtered.length);
+
+        // 3. the file: header, one IDAT chunk per stripe (the first with the zlib header, the last with its checksum)
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(width);
+        ihdr.writeInt(height);
+        ihdr.writeByte(8); // bits per sample
+        ihdr.writeByte(alpha ? 6 : 2); // RGBA or RGB
+        ihdr.writeByte(0); // deflate
+        ihdr.writeByte(0); // adaptive filtering
+        ihdr.writeByte(0); // not interlaced
+        writeChunk(data, "IHDR", header.toByteArray(), 0, header.size(), null, null);
+
+        for (int s = 0; s < stripes; s++) {
+            byte[] prefix = s == 0 ? zlibHeader() : null;
+            byte[] suffix = s == stripes - 1 ? intBytes((int) adler.getValue()) : null;
+            writeChunk(data, "IDAT", compressed[s], 0, compressed[s].length, prefix, suffix);
+        }
+        writeChunk(data, "IEND", new byte[0], 0, 0, null, null);
+        data.flush();
+    }
+
+    /**
+     * Copies a row of packed ARGB pixels into RGB(A) bytes.
+     */
+    private static void unpack(int[] pixels, int offset, int width, boolean alpha, byte[] row) {
+        int i = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = pixels[offset + x];
+            row[i++] = (byte) (pixel >> 16);
+            row[i++] = (byte) (pixel >> 8);
+            row[i++] = (byte) pixel;
+            if (alpha) row[i++] = (byte) (pixel >>> 24);
+        }
+    }
+
+    /**
+     * Writes the filter type and the filtered row, choosing the filter whose output has the smallest sum of
+     * absolute values (as signed bytes).
+     * @param row the raw row
+     * @param previous the raw row above (all zero for the first row)
+     * @param bpp the bytes per pixel
+     * @param dest receives the filter type and the filtered row
+     * @param at where the row starts in dest
+     */
+    private static void filterRow(byte[] row, byte[] previous, int bpp, byte[] dest, int at) {
+        int best = 0;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = 0; type < 5; type++) {
+            long sum = 0;
+            for (int i = 0; i < row.length && sum < bestSum; i++) sum += Math.abs((byte) filter(type, row, previous, bpp, i));
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = type;
+            }
+        }
+        dest[at] = (byte) best;
+        for (int i = 0; i < row.length; i++) dest[at + 1 + i] = (byte) filter(best, row, previous, bpp, i);
+    }
+
+    private static int filter(int type, byte[] row, byte[] previous, int bpp, int i) {
+        int x = row[i] & 0xFF;
+        int a = i >= bpp ? row[i - bpp] & 0xFF : 0; // left
+        int b = previous[i] & 0xFF;                   // up
+        switch (type) {
+            case 0: return x;
+            case 1: return x - a;
+            case 2: return x - b;
+            case 3: return x - ((a + b) >> 1);
+            default:
+                int c = i >= bpp ? previous[i - bpp] & 0xFF : 0; // up left
+                return x - paeth(a, b, c);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Deflates data[from, to) as raw deflate blocks: primed with the preceding window, ending with a sync flush,
+     * or with the final block if it is the last stripe.
+     */
+    private byte[] deflate(byte[] data, int from, int to, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (from > 0) {
+                int window = Math.min(WINDOW, from);
+                deflater.setDictionary(data, from - window, window);
+            }
+            deflater.setInput(data, from, to - from);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((to - from) / 4 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+            } else {
+                // a sync flush is complete once it no longer fills the buffer
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * The two bytes before the deflate data: deflate with a 32 KB window, the compression level, and the check bits.
+     */
+    private byte[] zlibHeader() {
+        int cmf = 0x78;
+        int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int flg = flevel << 6;
+        flg += 31 - (cmf * 256 + flg) % 31;
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    /**
+     * Writes a chunk: length, type, prefix + data + suffix, CRC over type and content.
+     */
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length,
+                                   byte[] prefix, byte[] suffix) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        int prefixLength = prefix == null ? 0 : prefix.length, suffixLength = suffix == null ? 0 : suffix.length;
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        out.writeInt(prefixLength + length + suffixLength);
+        out.write(typeBytes);
+        if (prefix != null) {
+            out.write(prefix);
+            crc.update(prefix);
+        }
+        out.write(data, offset, length);
+        crc.update(data, offset, length);
+        if (suffix != null) {
+            out.write(suffix);
+            crc.update(suffix);
+        }
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * @param level the zlib compression level, 0 (none) to 9 (smallest)
+     */
+    public PngEncoder(int level) {
+        if (level < 0 || level > 9) throw new IllegalArgumentException("Compression level must be between 0 and 9: " + level);
+        this.level = level;
+    }
+
+    public PngEncoder() {
+        this(DEFAULT_LEVEL);
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.io.PngEncoder[level=" + level + ']';
+    }
+}
@@ -17,8 +17,9 @@ import raytracer.graphics.materials.SolidMaterial;
 import raytracer.graphics.materials.TexturedMaterial;
 import raytracer.graphics.surfaces.Mesh;
 import raytracer.graphics.surfaces.Sphere;
-import raytracer.graphics.surfaces.obj.TriangleFace;
+import raytracer.graphics.surfaces.obj.TriangleMesh;
 import raytracer.graphics.trafo.Transformation;
+import raytracer.image.Texture;
 import raytracer.math.Vector3;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -30,7 +31,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Contains methods for parsing scene data out of XML files.
@@ -201,7 +205,7 @@ public class SceneParser {
             // next, for meshes
 
             // generate a list of already parsed OBJ files for performance increase
-            Map<String, ArrayList<TriangleFace>> parsedOBJs = new HashMap<>();
+            Map<String, TriangleMesh> parsedOBJs = new HashMap<>();
 
             NodeList meshes = surfaces.getElementsByTagName("mesh");
             for (int i = 0; i < meshes.getLength(); i++) {
@@ -215,18 +219,19 @@ public class SceneParser {
 
                     // parse out the mesh information from the OBJ file
                     String objName = mesh.getAttribute("name");
-                    ArrayList<TriangleFace> objData;
+                    TriangleMesh objData;
                     if (!parsedOBJs.containsKey(objName)) {
-                        objData = ObjParser.parseObj(xmlDir+File.separator+objName);
+                        objData = MeshCache.load(new File(xmlDir, objName));
                         parsedOBJs.put(objName, objData);
                     } else {
                         objData = parsedOBJs.get(objName);
                     }
 
                     //System.out.println("OBJ @ " + objDir + File.separator + mesh.getAttribute("name"));
+                    // all meshes of the same file share its triangles and BVH; each only adds its transformation
                     Mesh m = new Mesh(
-                            parseMaterial(mesh, xmlDir),
-                            parseTransform(mesh),
+                            material,
+                            transformation,
                             objName,
                             objData
                     );
@@ -241,9 +246,37 @@ public class SceneParser {
             throw new RuntimeException(e.getMessage(),e.getCause());
         }
 
+        // all surfaces are known now, so we can build the acceleration structure once
+        scene.buildBVH();
+
         return scene;
     }
 
+    /**
+     * Lists the files a scene file needs besides itself: its DTD, OBJ files and textures,
+     * as written in the XML, i.e. relative to the directory of the scene file.
+     * The XML is only read, not validated, so this is cheap even for scenes with huge meshes.
+     * @param xmlPath the path of the XML file
+     * @return the relative paths, without duplicates, in document order
+     */
+    public static List<String> referencedFiles(String xmlPath) {
+        try {
+            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+            dbFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            Document doc = dbFactory.newDocumentBuilder().parse(new File(xmlPath));
+
+            Set<String> files = new LinkedHashSet<>();
+            if (doc.getDoctype() != null && doc.getDoctype().getSystemId() != null) files.add(doc.getDoctype().getSystemId());
+            for (String tag : new String[] { "mesh", "texture" }) {
+                NodeList elements = doc.getElementsByTagName(tag);
+                for (int i = 0; i < elements.getLength(); i++) files.add(((Element) elements.item(i)).getAttribute("name"));
+            }
+            return new ArrayList<>(files);
+        } catch (IOException | ParserConfigurationException | SAXException e) {
+            throw new RuntimeException("Cannot read scene file " + xmlPath + ": " + e.getMessage(), e);
+        }
+    }
+
     private static Vector3 parseVec3(Element element) {
         return new Vector3(
                 Double.valueOf(element.getAttribute("x")),
@@ -295,7 +328,11 @@ public class SceneParser {
                 Double.valueOf(transmittance.getAttribute("t")),
                 Double.valueOf(refraction.getAttribute("iof")),
                 texture.getAttribute("name"),
-                ImageReader.readImage(xmlDir + File.separator + texture.getAttribute("name"))
+                // converted into a mip pyramid once; u goes around spheres, v ends at their poles.
+                // Meshes have no texture coordinates yet (always 0,0): clamped, they keep the corner texel
+                new Texture(ImageReader.readImage(xmlDir + File.separator + texture.getAttribute("name")),
+                        element.getNodeName().equals("sphere") ? Texture.Wrap.REPEAT : Texture.Wrap.CLAMP,
+                        Texture.Wrap.CLAMP, Texture.Filter.TRILINEAR)
         );
 
         throw new RuntimeException("Unknown Material Type!");
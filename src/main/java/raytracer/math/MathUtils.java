@@ -36,8 +36,8 @@ public class MathUtils {
             result[0] = -(b/(2*a));
         } else { // there are two solutions
             result = new double[2];
-            result[0] = (-b+Math.sqrt(discriminant))/2*a;
-            result[1] = (-b-Math.sqrt(discriminant))/2*a;
+            result[0] = (-b+Math.sqrt(discriminant))/(2*a);
+            result[1] = (-b-Math.sqrt(discriminant))/(2*a);
         }
 
         // sort the results by ascending (=increasing) order
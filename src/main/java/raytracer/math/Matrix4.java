@@ -0,0 +1,266 @@
+package raytracer.math;
+
+import java.util.Arrays;
+
+/**
+ * An immutable 4x4 matrix for affine transformations.
+ * Unlike Matrix, it keeps its 16 entries in fields and spells every operation out,
+ * so there are no loops, no index translation and no nested arrays on the hot path.
+ * Entry mRC is at row R and column C (indexed from 1, as in Matrix.at).
+ */
+public final class Matrix4 {
+
+    public final double m11, m12, m13, m14;
+    public final double m21, m22, m23, m24;
+    public final double m31, m32, m33, m34;
+    public final double m41, m42, m43, m44;
+
+    private static final Matrix4 IDENTITY = new Matrix4(
+            1,0,0,0,
+            0,1,0,0,
+            0,0,1,0,
+            0,0,0,1
+    );
+
+    /**
+     * Creates a matrix from its entries, row by row.
+     */
+    public Matrix4(double m11, double m12, double m13, double m14,
+                   double m21, double m22, double m23, double m24,
+                   double m31, double m32, double m33, double m34,
+                   double m41, double m42, double m43, double m44) {
+        this.m11 = m11; this.m12 = m12; this.m13 = m13; this.m14 = m14;
+        this.m21 = m21; this.m22 = m22; this.m23 = m23; this.m24 = m24;
+        this.m31 = m31; this.m32 = m32; this.m33 = m33; this.m34 = m34;
+        this.m41 = m41; this.m42 = m42; this.m43 = m43; this.m44 = m44;
+    }
+
+    /**
+     * @return the identity matrix I
+     */
+    public static Matrix4 identity() {
+        return IDENTITY;
+    }
+
+    /**
+     * Multiplies two matrices.
+     * @param mat the multiplicand
+     * @return A matrix c = this * mat
+     */
+    public Matrix4 multiply(Matrix4 mat) {
+        return new Matrix4(
+                m11*mat.m11 + m12*mat.m21 + m13*mat.m31 + m14*mat.m41,
+                m11*mat.m12 + m12*mat.m22 + m13*mat.m32 + m14*mat.m42,
+                m11*mat.m13 + m12*mat.m23 + m13*mat.m33 + m14*mat.m43,
+                m11*mat.m14 + m12*mat.m24 + m13*mat.m34 + m14*mat.m44,
+
+                m21*mat.m11 + m22*mat.m21 + m23*mat.m31 + m24*mat.m41,
+                m21*mat.m12 + m22*mat.m22 + m23*mat.m32 + m24*mat.m42,
+                m21*mat.m13 + m22*mat.m23 + m23*mat.m33 + m24*mat.m43,
+                m21*mat.m14 + m22*mat.m24 + m23*mat.m34 + m24*mat.m44,
+
+                m31*mat.m11 + m32*mat.m21 + m33*mat.m31 + m34*mat.m41,
+                m31*mat.m12 + m32*mat.m22 + m33*mat.m32 + m34*mat.m42,
+                m31*mat.m13 + m32*mat.m23 + m33*mat.m33 + m34*mat.m43,
+                m31*mat.m14 + m32*mat.m24 + m33*mat.m34 + m34*mat.m44,
+
+                m41*mat.m11 + m42*mat.m21 + m43*mat.m31 + m44*mat.m41,
+                m41*mat.m12 + m42*mat.m22 + m43*mat.m32 + m44*mat.m42,
+                m41*mat.m13 + m42*mat.m23 + m43*mat.m33 + m44*mat.m43,
+                m41*mat.m14 + m42*mat.m24 + m43*mat.m34 + m44*mat.m44
+        );
+    }
+
+    /**
+     * Multiplies the matrix with a scalar element-wise.
+     * @param scalar The scalar.
+     * @return The scaled Matrix
+     */
+    public Matrix4 multiply(double scalar) {
+        return new Matrix4(
+                m11*scalar, m12*scalar, m13*scalar, m14*scalar,
+                m21*scalar, m22*scalar, m23*scalar, m24*scalar,
+                m31*scalar, m32*scalar, m33*scalar, m34*scalar,
+                m41*scalar, m42*scalar, m43*scalar, m44*scalar
+        );
+    }
+
+    public Vector4 multiply4x4(Vector4 vec) {
+        double a = vec.getA(); double b = vec.getB(); double c = vec.getC(); double d = vec.getD(); // makes it shorter
+        return new Vector4(
+                m11*a + m12*b + m13*c + m14*d,
+                m21*a + m22*b + m23*c + m24*d,
+                m31*a + m32*b + m33*c + m34*d,
+                m41*a + m42*b + m43*c + m44*d
+        );
+    }
+
+    /**
+     * Transforms a point (w = 1), so translation applies.
+     * The bottom row is assumed to be (0 0 0 1), as for all affine transformations.
+     * @param point the point
+     * @param dest receives the transformed point (may be point itself)
+     * @return dest
+     */
+    public Vector3 transformPoint(Vector3 point, Vector3 dest) {
+        double x = point.getX(), y = point.getY(), z = point.getZ();
+        return dest.set(
+                m11*x + m12*y + m13*z + m14,
+                m21*x + m22*y + m23*z + m24,
+                m31*x + m32*y + m33*z + m34
+        );
+    }
+
+    public Vector3 transformPoint(Vector3 point) {
+        return transformPoint(point, new Vector3());
+    }
+
+    /**
+     * Transforms a direction (w = 0), so translation does not apply.
+     * @param direction the direction
+     * @param dest receives the transformed direction (may be direction itself)
+     * @return dest
+     */
+    public Vector3 transformDirection(Vector3 direction, Vector3 dest) {
+        double x = direction.getX(), y = direction.getY(), z = direction.getZ();
+        return dest.set(
+                m11*x + m12*y + m13*z,
+                m21*x + m22*y + m23*z,
+                m31*x + m32*y + m33*z
+        );
+    }
+
+    public Vector3 transformDirection(Vector3 direction) {
+        return transformDirection(direction, new Vector3());
+    }
+
+    /**
+     * Transposes a matrix by flipping its rows and columns.
+     * @return a new transposed matrix
+     */
+    public Matrix4 transpose() {
+        return new Matrix4(
+                m11, m21, m31, m41,
+                m12, m22, m32, m42,
+                m13, m23, m33, m43,
+                m14, m24, m34, m44
+        );
+    }
+
+    // The 2x2 sub-determinants of the upper two and the lower two rows.
+    // Both the determinant and the inverse are built from them.
+    // Source: http://glmatrix.net/docs/mat4.js.html (invert)
+
+    /**
+     * Calculates the determinant of a matrix.
+     * @return determinant
+     */
+    public double determinant() {
+        double b00 = m11*m22 - m12*m21, b01 = m11*m23 - m13*m21, b02 = m11*m24 - m14*m21;
+        double b03 = m12*m23 - m13*m22, b04 = m12*m24 - m14*m22, b05 = m13*m24 - m14*m23;
+        double b06 = m31*m42 - m32*m41, b07 = m31*m43 - m33*m41, b08 = m31*m44 - m34*m41;
+        double b09 = m32*m43 - m33*m42, b10 = m32*m44 - m34*m42, b11 = m33*m44 - m34*m43;
+        return b00*b11 - b01*b10 + b02*b09 + b03*b08 - b04*b07 + b05*b06;
+    }
+
+    /**
+     * Inverts a matrix in closed form (via the cofactors).
+     * @return the new inverted matrix
+     * @throws RaytracerMathException when no inverse exists
+     */
+    public Matrix4 invert() throws RaytracerMathException {
+        double b00 = m11*m22 - m12*m21, b01 = m11*m23 - m13*m21, b02 = m11*m24 - m14*m21;
+        double b03 = m12*m23 - m13*m22, b04 = m12*m24 - m14*m22, b05 = m13*m24 - m14*m23;
+        double b06 = m31*m42 - m32*m41, b07 = m31*m43 - m33*m41, b08 = m31*m44 - m34*m41;
+        double b09 = m32*m43 - m33*m42, b10 = m32*m44 - m34*m42, b11 = m33*m44 - m34*m43;
+
+        double det = b00*b11 - b01*b10 + b02*b09 + b03*b08 - b04*b07 + b05*b06;
+        if (det == 0) throw new RaytracerMathException("Matrix4::invert: Matrix is singular! (Det=0, cannot be inverted.)");
+        double invDet = 1.0 / det;
+
+        return new Matrix4(
+                (m22*b11 - m23*b10 + m24*b09) * invDet,
+                (m13*b10 - m12*b11 - m14*b09) * invDet,
+                (m42*b05 - m43*b04 + m44*b03) * invDet,
+                (m33*b04 - m32*b05 - m34*b03) * invDet,
+
+                (m23*b08 - m21*b11 - m24*b07) * invDet,
+                (m11*b11 - m13*b08 + m14*b07) * invDet,
+                (m43*b02 - m41*b05 - m44*b01) * invDet,
+                (m31*b05 - m33*b02 + m34*b01) * invDet,
+
+                (m21*b10 - m22*b08 + m24*b06) * invDet,
+                (m12*b08 - m11*b10 - m14*b06) * invDet,
+                (m41*b04 - m42*b02 + m44*b00) * invDet,
+                (m32*b02 - m31*b04 - m34*b00) * invDet,
+
+                (m22*b07 - m21*b09 - m23*b06) * invDet,
+                (m11*b09 - m12*b07 + m13*b06) * invDet,
+                (m42*b01 - m41*b03 - m43*b00) * invDet,
+                (m31*b03 - m32*b01 + m33*b00) * invDet
+        );
+    }
+
+    /**
+     * Returns the matrix at a certain row and column.
+     * Meant for tests and debugging; hot code reads the fields directly.
+     * @param row the row (indexed from 1)
+     * @param col the column (indexed from 1)
+     * @return the entry at [row, col]
+     */
+    public double at(int row, int col) {
+        switch ((row - 1) * 4 + (col - 1)) {
+            case 0: return m11;  case 1: return m12;  case 2: return m13;  case 3: return m14;
+            case 4: return m21;  case 5: return m22;  case 6: return m23;  case 7: return m24;
+            case 8: return m31;  case 9: return m32;  case 10: return m33; case 11: return m34;
+            case 12: return m41; case 13: return m42; case 14: return m43; case 15: return m44;
+            default: throw new RaytracerMathException("Matrix4::at: Illegal index [" + row + "," + col + "]!");
+        }
+    }
+
+    /**
+     * @return the same entries as a general Matrix
+     */
+    public Matrix toMatrix() {
+        return new Matrix(
+                m11, m12, m13, m14,
+                m21, m22, m23, m24,
+                m31, m32, m33, m34,
+                m41, m42, m43, m44
+        );
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (!(obj instanceof Matrix4)) return false;
+
+        Matrix4 m = (Matrix4)obj;
+        return m11 == m.m11 && m12 == m.m12 && m13 == m.m13 && m14 == m.m14
+                && m21 == m.m21 && m22 == m.m22 && m23 == m.m23 && m24 == m.m24
+                && m31 == m.m31 && m32 == m.m32 && m33 == m.m33 && m34 == m.m34
+                && m41 == m.m41 && m42 == m.m42 && m43 == m.m43 && m44 == m.m44;
+    }
+
+    @Override
+    public int hashCode() {
+        double[] entries = {
+                m11, m12, m13, m14, m21, m22, m23, m24,
+                m31, m32, m33, m34, m41, m42, m43, m44
+        };
+        return Arrays.hashCode(entries);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("raytracer.math.Matrix4\n" +
+                        "( %.4f | %.4f | %.4f | %.4f )\n" +
+                        "( %.4f | %.4f | %.4f | %.4f )\n" +
+                        "( %.4f | %.4f | %.4f | %.4f )\n" +
+                        "( %.4f | %.4f | %.4f | %.4f )\n",
+                m11, m12, m13, m14,
+                m21, m22, m23, m24,
+                m31, m32, m33, m34,
+                m41, m42, m43, m44);
+    }
+}
@@ -16,16 +16,16 @@ public class MatrixUtils {
      * @param translation translation
      * @return matrix
      */
-    public static Matrix objectToWorld(Vector3 scale, Vector3 rotation, Vector3 translation) {
+    public static Matrix4 objectToWorld(Vector3 scale, Vector3 rotation, Vector3 translation) {
 
         // calculate all matrices
-        Matrix scaleMat = fromScale(scale);
-        Matrix rotMat = fromRotation(rotation);
-        Matrix transMat = fromTranslation(translation);
+        Matrix4 scaleMat = fromScale(scale);
+        Matrix4 rotMat = fromRotation(rotation);
+        Matrix4 transMat = fromTranslation(translation);
 
         // to avoid distortion, we must first Scale -> Rotate -> Translate
         // we assume objects "at origin", and must apply inverse order:
-        Matrix result = rotMat.multiply(scaleMat);
+        Matrix4 result = rotMat.multiply(scaleMat);
         result = transMat.multiply(result);
 
         return result;
@@ -38,14 +38,14 @@ public class MatrixUtils {
      * @param translation translation
      * @return matrix
      */
-    public static Matrix worldToObject(Vector3 scale, Vector3 rotation, Vector3 translation) {
-        Matrix s = fromScale(new Vector3(1.0/scale.getX(), 1.0/scale.getY(), 1.0/scale.getZ()));
-        Matrix rX = fromRotationX(-rotation.getX());
-        Matrix rY = fromRotationY(-rotation.getY());
-        Matrix rZ = fromRotationZ(-rotation.getZ());
-        Matrix t = fromTranslation(translation.multiply(-1));
-
-        Matrix result = rZ.multiply(t);
+    public static Matrix4 worldToObject(Vector3 scale, Vector3 rotation, Vector3 translation) {
+        Matrix4 s = fromScale(new Vector3(1.0/scale.getX(), 1.0/scale.getY(), 1.0/scale.getZ()));
+        Matrix4 rX = fromRotationX(-rotation.getX());
+        Matrix4 rY = fromRotationY(-rotation.getY());
+        Matrix4 rZ = fromRotationZ(-rotation.getZ());
+        Matrix4 t = fromTranslation(translation.multiply(-1));
+
+        Matrix4 result = rZ.multiply(t);
         result = rY.multiply(result);
         result = rX.multiply(result);
         result = s.multiply(result);
@@ -53,12 +53,12 @@ public class MatrixUtils {
         return result;
     }
 
-    public static Vector3 transformPoint(Vector3 vector, Matrix matrix) {
-        return new Vector3(matrix.multiply4x4(new Vector4(vector, 1)));
+    public static Vector3 transformPoint(Vector3 vector, Matrix4 matrix) {
+        return matrix.transformPoint(vector);
     }
 
-    public static Vector3 transformDirection(Vector3 vector, Matrix matrix) {
-        return new Vector3(matrix.multiply4x4(new Vector4(vector, 0)));
+    public static Vector3 transformDirection(Vector3 vector, Matrix4 matrix) {
+        return matrix.transformDirection(vector);
     }
 
     /**
@@ -67,9 +67,9 @@ public class MatrixUtils {
      * @param translation translation
      * @return matrix
      */
-    public static Matrix cameraToWorld(Vector3 rotation, Vector3 translation) {
-        Matrix rotMat = fromRotation(rotation);
-        Matrix traMat = fromTranslation(translation);
+    public static Matrix4 cameraToWorld(Vector3 rotation, Vector3 translation) {
+        Matrix4 rotMat = fromRotation(rotation);
+        Matrix4 traMat = fromTranslation(translation);
         return traMat.multiply(rotMat);
     }
 
@@ -83,14 +83,13 @@ public class MatrixUtils {
      * @param translation tx ty tz
      * @return A 4D translation matrix.
      */
-    public static Matrix fromTranslation(Vector3 translation) {
-        Matrix result = Matrix.identity(4);
-
-        result.set(1,4,translation.getX());
-        result.set(2,4, translation.getY());
-        result.set(3,4,translation.getZ());
-
-        return result;
+    public static Matrix4 fromTranslation(Vector3 translation) {
+        return new Matrix4(
+                1, 0, 0, translation.getX(),
+                0, 1, 0, translation.getY(),
+                0, 0, 1, translation.getZ(),
+                0, 0, 0, 1
+        );
     }
 
     /**
@@ -103,14 +102,13 @@ public class MatrixUtils {
      * @param scale sx sy sz
      * @return the scale matarix
      */
-    public static Matrix fromScale(Vector3 scale) {
-        Matrix result = Matrix.identity(4);
-
-        result.set(1,1,scale.getX());
-        result.set(2,2,scale.getY());
-        result.set(3,3,scale.getZ());
-
-        return result;
+    public static Matrix4 fromScale(Vector3 scale) {
+        return new Matrix4(
+                scale.getX(), 0, 0, 0,
+                0, scale.getY(), 0, 0,
+                0, 0, scale.getZ(), 0,
+                0, 0, 0, 1
+        );
     }
 
     /**
@@ -118,12 +116,12 @@ public class MatrixUtils {
      * @param rotation xRot yRot zRot
      * @return rotmat
      */
-    public static Matrix fromRotation(Vector3 rotation) {
-        Matrix rX = fromRotationX(rotation.getX());
-        Matrix rY = fromRotationY(rotation.getY());
-        Matrix rZ = fromRotationZ(rotation.getZ());
+    public static Matrix4 fromRotation(Vector3 rotation) {
+        Matrix4 rX = fromRotationX(rotation.getX());
+        Matrix4 rY = fromRotationY(rotation.getY());
+        Matrix4 rZ = fromRotationZ(rotation.getZ());
 
-        Matrix result = rY.multiply(rZ);
+        Matrix4 result = rY.multiply(rZ);
         result = rX.multiply(result);
 
         return result;
@@ -140,11 +138,11 @@ public class MatrixUtils {
      * @param alpha Degrees.
      * @return RotationX.
      */
-    public static Matrix fromRotationX(double alpha) {
+    public static Matrix4 fromRotationX(double alpha) {
         double sinA = Math.sin(Math.toRadians(alpha));
         double cosA = Math.cos(Math.toRadians(alpha));
 
-        return new Matrix(
+        return new Matrix4(
                 1,0,0,0,
                 0,cosA,-sinA,0,
                 0,sinA,cosA,0,
@@ -163,11 +161,11 @@ public class MatrixUtils {
      * @param alpha Degrees.
      * @return RotationY.
      */
-    public static Matrix fromRotationY(double alpha) {
+    public static Matrix4 fromRotationY(double alpha) {
         double sinA = Math.sin(Math.toRadians(alpha));
         double cosA = Math.cos(Math.toRadians(alpha));
 
-        return new Matrix(
+        return new Matrix4(
                 cosA,0,sinA,0,
                 0,1,0,0,
                 -sinA,0,cosA,0,
@@ -185,11 +183,11 @@ public class MatrixUtils {
      * @param alpha Degrees.
      * @return RotationZ.
      */
-    public static Matrix fromRotationZ(double alpha) {
+    public static Matrix4 fromRotationZ(double alpha) {
         double sinA = Math.sin(Math.toRadians(alpha));
         double cosA = Math.cos(Math.toRadians(alpha));
 
-        return new Matrix(
+        return new Matrix4(
                 cosA, -sinA, 0, 0,
                 sinA, cosA, 0, 0,
                 0, 0, 1, 0,
@@ -116,6 +116,108 @@ public class Vector3 {
         return Math.sqrt(x*x + y*y + z*z);
     }
 
+    // ===================== IN-PLACE OPERATIONS ===================== //
+    // The following operations write their result into a destination vector instead of
+    // creating a new one, so hot loops can reuse a few vectors. dest may be an operand.
+
+    /**
+     * Overwrites all components.
+     * @param x x
+     * @param y y
+     * @param z z
+     * @return this vector
+     */
+    public Vector3 set (double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    /**
+     * Copies all components of another vector.
+     * @param vector the source
+     * @return this vector
+     */
+    public Vector3 set (Vector3 vector) {
+        return set(vector.x, vector.y, vector.z);
+    }
+
+    /**
+     * dest = a + b
+     * @param a augend
+     * @param b addend
+     * @param dest the result
+     * @return dest
+     */
+    public static Vector3 add (Vector3 a, Vector3 b, Vector3 dest) {
+        return dest.set(a.x + b.x, a.y + b.y, a.z + b.z);
+    }
+
+    /**
+     * dest = a - b
+     * @param a minuend
+     * @param b subtrahend
+     * @param dest the result
+     * @return dest
+     */
+    public static Vector3 subtract (Vector3 a, Vector3 b, Vector3 dest) {
+        return dest.set(a.x - b.x, a.y - b.y, a.z - b.z);
+    }
+
+    /**
+     * dest = a * scalar
+     * @param a the vector
+     * @param scalar the scalar
+     * @param dest the result
+     * @return dest
+     */
+    public static Vector3 multiply (Vector3 a, double scalar, Vector3 dest) {
+        return dest.set(a.x * scalar, a.y * scalar, a.z * scalar);
+    }
+
+    /**
+     * dest = a + b * scalar, e.g. the point o + t*d on a ray.
+     * @param a the base
+     * @param b the scaled vector
+     * @param scalar the scalar
+     * @param dest the result
+     * @return dest
+     */
+    public static Vector3 scaleAdd (Vector3 a, Vector3 b, double scalar, Vector3 dest) {
+        return dest.set(a.x + b.x * scalar, a.y + b.y * scalar, a.z + b.z * scalar);
+    }
+
+    /**
+     * dest = a x b
+     * @param a left operand
+     * @param b right operand
+     * @param dest the result
+     * @return dest
+     */
+    public static Vector3 cross (Vector3 a, Vector3 b, Vector3 dest) {
+        return dest.set(
+                a.y*b.z - a.z*b.y,
+                a.z*b.x - a.x*b.z,
+                a.x*b.y - a.y*b.x
+        );
+    }
+
+    /**
+     * dest = a / |a|
+     * @param a the vector
+     * @param dest the result
+     * @return dest
+     * @throws RaytracerMathException If length = 0.
+     */
+    public static Vector3 normalize (Vector3 a, Vector3 dest) throws RaytracerMathException {
+        double length = a.length();
+
+        if (length == 0) throw new RaytracerMathException("Cannot normalize Vector of size 0!");
+
+        return dest.set(a.x / length, a.y / length, a.z / length);
+    }
+
     public double getX() {
         return x;
     }
@@ -0,0 +1,335 @@
+package raytracer.render;
+
+import raytracer.Raytracer;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Ray;
+import raytracer.graphics.Scene;
+import raytracer.image.FrameBuffer;
+import raytracer.image.Radiance;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Anti-aliasing with adaptive supersampling: extra rays are only spent where the image actually changes.
+ *
+ * 1. Every pixel gets minSamples stratified samples: one at a random point in every cell of a
+ *    sqrt(minSamples) x sqrt(minSamples) grid over the pixel.
+ * 2. A pixel is refined if its samples disagree (the standard deviation of a color channel exceeds
+ *    the threshold) or if a channel differs from one of its four neighbors by more than the threshold,
+ *    which catches edges that fell between the first samples. Refining adds further stratified rounds of
+ *    minSamples samples until maxSamples are taken or the mean is certain enough (standard error below threshold / 2).
+ *
+ * Colors are compared channel by channel and as displayed, i.e. clamped to [0, 1]: dark edges (e.g. a dark red
+ * sphere on black) hardly differ in brightness but are clearly visible, and overbright highlights should not
+ * attract samples.
+ * The jitter is a hash of the pixel and the sample number, so the image does not depend on the thread count.
+ */
+public class AdaptiveRenderer {
+
+    public static final int DEFAULT_MIN_SAMPLES = 4;
+    public static final int DEFAULT_MAX_SAMPLES = 16;
+    public static final double DEFAULT_THRESHOLD = 0.05;
+
+    /**
+     * The scene to render.
+     */
+    private final Scene scene;
+    /**
+     * How many worker threads the pool may use.
+     */
+    private final int threads;
+    /**
+     * The samples every pixel gets, and the size of every refinement round; a square number.
+     */
+    private final int minSamples;
+    /**
+     * The most samples a pixel can get.
+     */
+    private final int maxSamples;
+    /**
+     * The edge length of the stratification grid: sqrt(minSamples).
+     */
+    private final int strata;
+    /**
+     * The difference of a color channel (0..1) that counts as an edge.
+     */
+    private final double threshold;
+
+    /**
+     * The samples taken by the last render.
+     */
+    private final AtomicLong samples = new AtomicLong();
+    private long pixels = 0;
+
+    /**
+     * The running sums of the pixel that is being sampled: the colors of its samples, and the displayed colors for
+     * the statistics. Every row has one, which is reset for each of its pixels.
+     */
+    private static class PixelSamples {
+        int count;
+        double red, green, blue;
+        /**
+         * The sums of the clamped channels, and of their squares.
+         */
+        final double[] displayed = new double[3], displayedSquared = new double[3];
+
+        void reset() {
+            count = 0;
+            red = green = blue = 0;
+            for (int c = 0; c < 3; c++) displayed[c] = displayedSquared[c] = 0;
+        }
+
+        void add(Radiance color) {
+            count++;
+            red += color.getRed();
+            green += color.getGreen();
+            blue += color.getBlue();
+            addDisplayed(0, color.getRed());
+            addDisplayed(1, color.getGreen());
+            addDisplayed(2, color.getBlue());
+        }
+
+        private void addDisplayed(int channel, double value) {
+            double v = Math.max(0, Math.min(1, value));
+            displayed[channel] += v;
+            displayedSquared[channel] += v * v;
+        }
+
+        /**
+         * @return dest, set to the mean color of the samples
+         */
+        Radiance mean(Radiance dest) {
+            return dest.set(red / count, green / count, blue / count);
+        }
+
+        double meanDisplayed(int channel) {
+            return displayed[channel] / count;
+        }
+
+        /**
+         * @return the largest standard deviation of a displayed color channel among the samples
+         */
+        double standardDeviation() {
+            if (count < 2) return 0;
+            double variance = 0;
+            for (int c = 0; c < 3; c++) {
+                double mean = meanDisplayed(c);
+                variance = Math.max(variance, (displayedSquared[c] - count * mean * mean) / (count - 1));
+            }
+            return Math.sqrt(variance); // starting at 0, max() also discards tiny negative rounding errors
+        }
+    }
+
+    /**
+     * Renders the scene into a new 8-bit frame buffer.
+     * @return the rendered frame buffer
+     */
+    public FrameBuffer render() {
+        Camera camera = scene.getCamera();
+        FrameBuffer frameBuffer = new FrameBuffer(camera.getRes().getHorizontal(), camera.getRes().getVertical());
+        render(frameBuffer);
+        return frameBuffer;
+    }
+
+    /**
+     * Renders the scene into a frame buffer of the camera's resolution.
+     *
+     * Besides the frame buffer, only the displayed color of every pixel after the first round and whether it was
+     * refined are kept (13 bytes per pixel); the running sums only exist while a pixel is sampled. A pixel whose own
+     * samples disagree is refined right away. A pixel that is only refined because of a neighbor has its first
+     * round traced again (the jitter is the same, so are the samples) instead of keeping the sums of every pixel;
+     * these repeated samples are not counted in getSampleCount().
+     * @param frameBuffer the target
+     */
+    public void render(FrameBuffer frameBuffer) {
+        int width = frameBuffer.getWidth(), height = frameBuffer.getHeight();
+        // the displayed color of every pixel after the first round (3 floats per pixel); refining must not look at
+        // already refined neighbors, otherwise the result would depend on the order in which pixels are rendered
+        float[] firstColors = new float[width * height * 3];
+        boolean[] refined = new boolean[width * height];
+        samples.set(0);
+        pixels = (long) width * height;
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // 1. the same number of samples everywhere, and more where they disagree
+            pool.invoke(new RowTask(0, height, y -> {
+                Radiance color = new Radiance();
+                PixelSamples pixel = new PixelSamples();
+                long taken = 0;
+                for (int x = 0; x < width; x++) {
+                    pixel.reset();
+                    taken += sampleRound(x, y, pixel, color);
+                    for (int c = 0; c < 3; c++) firstColors[(y * width + x) * 3 + c] = (float) pixel.meanDisplayed(c);
+                    if (pixel.standardDeviation() > threshold) {
+                        taken += refine(x, y, pixel, color);
+                        refined[y * width + x] = true;
+                    }
+                    frameBuffer.set(x, y, pixel.mean(color));
+                }
+                samples.addAndGet(taken);
+            }));
+
+            // 2. more samples at edges that fell between the first samples
+            pool.invoke(new RowTask(0, height, y -> {
+                Radiance color = new Radiance();
+                PixelSamples pixel = new PixelSamples();
+                long taken = 0;
+                for (int x = 0; x < width; x++) {
+                    if (refined[y * width + x] || neighborContrast(firstColors, width, height, x, y) <= threshold) continue;
+                    pixel.reset();
+                    sampleRound(x, y, pixel, color); // the first round again, already counted
+                    taken += refine(x, y, pixel, color);
+                    frameBuffer.set(x, y, pixel.mean(color));
+                }
+                samples.addAndGet(taken);
+            }));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Takes rounds of samples until maxSamples are taken or the mean is certain enough; at least one.
+     * @return the number of samples taken
+     */
+    private int refine(int x, int y, PixelSamples pixel, Radiance color) {
+        int taken = 0;
+        do {
+            taken += sampleRound(x, y, pixel, color);
+        } while (pixel.count < maxSamples && pixel.standardDeviation() / Math.sqrt(pixel.count) > threshold / 2);
+        return taken;
+    }
+
+    /**
+     * Takes one stratified round of samples (at most up to maxSamples).
+     * @return the number of samples taken
+     */
+    private int sampleRound(int x, int y, PixelSamples pixel, Radiance color) {
+        Camera camera = scene.getCamera();
+        int n = Math.min(minSamples, maxSamples - pixel.count);
+        for (int i = 0; i < n; i++) {
+            int sample = pixel.count;
+            // a random point inside cell i of the grid
+            long hash = hash(x, y, sample);
+            double offsetX = (i % strata + toUnit(hash)) / strata;
+            double offsetY = (i / strata + toUnit(hash >>> 32)) / strata;
+
+            Ray ray = camera.generateRay(x, y, offsetX, offsetY);
+            Raytracer.traceRay(scene, ray, 0, camera.getOrigin(), color);
+
+            pixel.add(color);
+        }
+        return n;
+    }
+
+    /**
+     * @return the largest difference of a color channel between a pixel and its four neighbors
+     */
+    private static double neighborContrast(float[] colors, int width, int height, int x, int y) {
+        int p = y * width + x;
+        double contrast = 0;
+        if (x > 0) contrast = Math.max(contrast, difference(colors, p, p - 1));
+        if (x < width - 1) contrast = Math.max(contrast, difference(colors, p, p + 1));
+        if (y > 0) contrast = Math.max(contrast, difference(colors, p, p - width));
+        if (y < height - 1) contrast = Math.max(contrast, difference(colors, p, p + width));
+        return contrast;
+    }
+
+    private static double difference(float[] colors, int p, int q) {
+        return Math.max(Math.abs(colors[p*3] - colors[q*3]),
+                Math.max(Math.abs(colors[p*3 + 1] - colors[q*3 + 1]), Math.abs(colors[p*3 + 2] - colors[q*3 + 2])));
+    }
+
+    /**
+     * A well-mixed 64-bit hash of a sample (the SplitMix64 finalizer), for reproducible jitter.
+     */
+    private static long hash(int x, int y, int sample) {
+        long z = ((long) x << 40) ^ ((long) y << 20) ^ sample;
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return the lower 24 bits as a number in [0, 1)
+     */
+    private static double toUnit(long bits) {
+        return (bits & 0xFFFFFF) / (double) (1 << 24);
+    }
+
+    /**
+     * @return the average number of samples per pixel of the last render
+     */
+    public double getAverageSamplesPerPixel() {
+        return pixels == 0 ? 0 : (double) samples.get() / pixels;
+    }
+
+    public long getSampleCount() {
+        return samples.get();
+    }
+
+    /**
+     * Renders rows in parallel; recursively halves a range of rows until a single row is left.
+     */
+    @SuppressWarnings("serial") // fork/join tasks are never serialized
+    private static class RowTask extends RecursiveAction {
+
+        interface Row {
+            void render(int y);
+        }
+
+        private final int from;
+        private final int to;
+        private final Row row;
+
+        RowTask(int from, int to, Row row) {
+            this.from = from;
+            this.to = to;
+            this.row = row;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) row.render(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RowTask(from, mid, row), new RowTask(mid, to, row));
+        }
+    }
+
+    /**
+     * @param scene the scene to render
+     * @param threads how many threads trace pixels
+     * @param minSamples the samples every pixel gets; a square number (1, 4, 9, 16, ...)
+     * @param maxSamples the most samples a pixel can get
+     * @param threshold the difference of a color channel (0..1) that makes a pixel take more samples
+     */
+    public AdaptiveRenderer(Scene scene, int threads, int minSamples, int maxSamples, double threshold) {
+        if (threads < 1) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        int strata = (int) Math.round(Math.sqrt(minSamples));
+        if (minSamples < 1 || strata * strata != minSamples) {
+            throw new IllegalArgumentException("The minimum sample count must be a square number: " + minSamples);
+        }
+        if (maxSamples < minSamples) {
+            throw new IllegalArgumentException("The maximum sample count must be at least " + minSamples + ": " + maxSamples);
+        }
+        if (threshold < 0) throw new IllegalArgumentException("The threshold must not be negative: " + threshold);
+
+        this.scene = scene;
+        this.threads = threads;
+        this.minSamples = minSamples;
+        this.maxSamples = maxSamples;
+        this.strata = strata;
+        this.threshold = threshold;
+    }
+
+    public AdaptiveRenderer(Scene scene, int threads) {
+        this(scene, threads, DEFAULT_MIN_SAMPLES, DEFAULT_MAX_SAMPLES, DEFAULT_THRESHOLD);
+    }
+}
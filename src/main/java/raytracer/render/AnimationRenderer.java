@@ -0,0 +1,175 @@
+package raytracer.render;
+
+import raytracer.animation.Animation;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Scene;
+import raytracer.image.FrameBuffer;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders all frames of an animation in one go.
+ *
+ * The scene is parsed once; per frame, the animation moves the camera and surfaces, and the BVH of the scene is
+ * refitted instead of rebuilt (see Scene.refitBVH). Frames are rendered like single images (see TileRenderer),
+ * into two frame buffers in turn: while frame N is encoded on a separate thread, frame N+1 is already rendered.
+ */
+public class AnimationRenderer {
+
+    /**
+     * Receives the finished frames, one at a time and in order, on the encoder thread.
+     */
+    public interface FrameSink {
+        /**
+         * @param frame the frame number
+         * @param frameBuffer the image; only valid until this method returns, it is reused for a later frame
+         */
+        void write(int frame, FrameBuffer frameBuffer) throws IOException;
+    }
+
+    private final Scene scene;
+    private final Animation animation;
+    private final TileRenderer renderer;
+    /**
+     * Whether the frame buffers keep the unclamped colors, for HDR output.
+     */
+    private boolean hdr = false;
+
+    /**
+     * Statistics of the last render.
+     */
+    private int refits = 0;
+    private int rebuilds = 0;
+    private long renderNanos = 0;
+    /**
+     * How long rendering waited for the encoder, i.e. how much of the encoding was not hidden behind rendering.
+     */
+    private long encodeWaitNanos = 0;
+
+    /**
+     * Renders all frames.
+     * @param sink receives the frames
+     * @throws RuntimeException if the sink fails on a frame; the frames before it have been written
+     */
+    public void render(FrameSink sink) {
+        refits = rebuilds = 0;
+        renderNanos = encodeWaitNanos = 0;
+
+        Camera camera = scene.getCamera();
+        FrameBuffer[] buffers = new FrameBuffer[2];
+        Future<?>[] encoding = new Future<?>[2];
+        ExecutorService encoder = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "animation-encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            for (int frame = 0; frame < animation.getFrameCount(); frame++) {
+                int b = frame % 2;
+                // the buffer of frame N-2 is free again once that frame is written
+                long start = System.nanoTime();
+                await(encoding[b]);
+                encodeWaitNanos += System.nanoTime() - start;
+                if (buffers[b] == null) buffers[b] = new FrameBuffer(camera.getRes().getHorizontal(), camera.getRes().getVertical(), hdr);
+
+                start = System.nanoTime();
+                if (animation.apply(scene, frame) || scene.getBVH() == null) {
+                    if (scene.refitBVH()) rebuilds++;
+                    else refits++;
+                }
+                renderer.render(buffers[b]);
+                renderNanos += System.nanoTime() - start;
+
+                int number = frame;
+                FrameBuffer frameBuffer = buffers[b];
+                encoding[b] = encoder.submit(() -> {
+                    sink.write(number, frameBuffer);
+                    return null;
+                });
+            }
+
+            long start = System.nanoTime();
+            await(encoding[0]);
+            await(encoding[1]);
+            encodeWaitNanos += System.nanoTime() - start;
+        } finally {
+            encoder.shutdownNow();
+        }
+    }
+
+    private static void await(Future<?> encoding) {
+        if (encoding == null) return;
+        try {
+            encoding.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new RuntimeException("Writing a frame failed: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing a frame", e);
+        }
+    }
+
+    /**
+     * @return how often the last render refitted the BVH of the scene
+     */
+    public int getRefits() {
+        return refits;
+    }
+
+    /**
+     * @return how often the last render had to rebuild the BVH of the scene, because refitting made it too slow
+     */
+    public int getRebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * @return the time the last render spent moving surfaces, refitting and rendering, in seconds
+     */
+    public double getRenderSeconds() {
+        return renderNanos / 1e9;
+    }
+
+    /**
+     * @return the time the last render waited for frames to be written, in seconds
+     */
+    public double getEncodeWaitSeconds() {
+        return encodeWaitNanos / 1e9;
+    }
+
+    /**
+     * @param hdr whether the frames passed to the sink keep the unclamped linear colors (see FrameBuffer)
+     */
+    public void setHdr(boolean hdr) {
+        this.hdr = hdr;
+    }
+
+    public boolean isHdr() {
+        return hdr;
+    }
+
+    /**
+     * @param scene the scene; the animation moves its camera and surfaces
+     * @param animation the keyframes
+     * @param threads how many threads render a frame
+     * @param tileSize the edge length (in pixels) of a tile
+     * @param packetSize the edge length (in pixels) of the blocks traced as ray packets; 0 traces every ray on its own
+     */
+    public AnimationRenderer(Scene scene, Animation animation, int threads, int tileSize, int packetSize) {
+        this.scene = scene;
+        this.animation = animation;
+        this.renderer = new TileRenderer(scene, threads, tileSize, packetSize);
+    }
+
+    @Override
+    public String toString() {
+        return "raytracer.render.AnimationRenderer[frames=" + animation.getFrameCount() + ", refits=" + refits +
+                ", rebuilds=" + rebuilds + ']';
+    }
+}
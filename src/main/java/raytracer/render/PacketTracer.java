@@ -0,0 +1,159 @@
+package raytracer.render;
+
+import raytracer.Raytracer;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Ray;
+import raytracer.graphics.Scene;
+import raytracer.graphics.accel.RayPacket;
+import raytracer.graphics.surfaces.Surface;
+import raytracer.image.FrameBuffer;
+import raytracer.image.Radiance;
+import raytracer.math.Vector3;
+
+/**
+ * Traces square blocks of pixels as ray packets (see RayPacket).
+ * The primary rays of neighboring pixels start at the camera and point in almost the same direction, so they
+ * visit the same BVH nodes and surfaces; the same holds for their shadow rays towards one light.
+ * Tracing them together fetches every node once per packet and runs the box and sphere tests as loops over
+ * the packet. Reflections are not coherent and are traced one by one.
+ *
+ * The hits, shadows and colors are exactly those of Raytracer.traceRay, so the image does not change.
+ * A tracer keeps its packets between blocks, so every thread needs its own.
+ */
+public class PacketTracer {
+
+    /**
+     * The default edge length (in pixels) of a block: 4x4 rays per packet.
+     */
+    public static final int DEFAULT_PACKET_SIZE = 4;
+    /**
+     * The largest edge length: 8x8 rays fill a RayPacket.
+     */
+    public static final int MAX_PACKET_SIZE = 8;
+
+    private final Scene scene;
+    /**
+     * The edge length (in pixels) of a block.
+     */
+    private final int packetSize;
+
+    private final RayPacket primary = new RayPacket();
+    private final RayPacket shadow = new RayPacket();
+    /**
+     * Per primary ray: its hit point and normal, and its shadow ray towards the current light.
+     */
+    private final Vector3[] positions = new Vector3[RayPacket.MAX_SIZE];
+    private final Vector3[] normals = new Vector3[RayPacket.MAX_SIZE];
+    private final Ray[] shadowRays = new Ray[RayPacket.MAX_SIZE];
+    /**
+     * Per primary ray: for every light, whether the hit point is in its shadow.
+     */
+    private final boolean[][] shadowed;
+    /**
+     * Per primary ray: the index of its shadow ray in the shadow packet.
+     */
+    private final int[] shadowIndex = new int[RayPacket.MAX_SIZE];
+
+    private final Vector3 origin = new Vector3();
+    private final Vector3 toLight = new Vector3();
+    private final Radiance color = new Radiance();
+
+    /**
+     * Traces all pixels of a rectangle, block by block.
+     * @param x0 the first column
+     * @param y0 the first row
+     * @param x1 the column after the last one
+     * @param y1 the row after the last one
+     * @param frameBuffer the target
+     */
+    public void render(int x0, int y0, int x1, int y1, FrameBuffer frameBuffer) {
+        for (int y = y0; y < y1; y += packetSize) {
+            for (int x = x0; x < x1; x += packetSize) {
+                renderBlock(x, y, Math.min(x + packetSize, x1), Math.min(y + packetSize, y1), frameBuffer);
+            }
+        }
+    }
+
+    /**
+     * Traces one block of at most packetSize x packetSize pixels.
+     */
+    private void renderBlock(int x0, int y0, int x1, int y1, FrameBuffer frameBuffer) {
+        Camera camera = scene.getCamera();
+        if (camera.getMaxBounces() < 0) { // not even primary rays (see traceRay)
+            color.set(0, 0, 0);
+            for (int y = y0; y < y1; y++) for (int x = x0; x < x1; x++) frameBuffer.set(x, y, color);
+            return;
+        }
+
+        // 1. the primary rays, in scanline order
+        primary.clear();
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) primary.add(camera.generateRay(x, y), Double.MAX_VALUE);
+        }
+        if (RenderStats.ENABLED) RenderStats.local().primaryRays += primary.size;
+        scene.intersect(primary);
+
+        // 2. where they hit
+        for (int i = 0; i < primary.size; i++) {
+            if (primary.hit[i] < 0) continue;
+            Surface surface = scene.getSurfaces().get(primary.hit[i]);
+            surface.setLastHit(primary.lastHit[i]);
+            primary.rays[i].at(primary.t[i], positions[i]);
+            surface.surfaceNormal(positions[i], normals[i]);
+        }
+
+        // 3. one shadow packet per light
+        for (int l = 0; l < scene.getLights().size(); l++) {
+            shadow.clear();
+            for (int i = 0; i < primary.size; i++) {
+                if (primary.hit[i] < 0) continue;
+                double lightDistance = Raytracer.toLight(scene.getLights().get(l), positions[i], toLight);
+                Ray shadowRay = shadowRays[i].set(Raytracer.shadowOrigin(positions[i], normals[i], origin), toLight);
+                shadowIndex[i] = shadow.add(shadowRay, lightDistance);
+            }
+            if (RenderStats.ENABLED) RenderStats.local().shadowRays += shadow.size;
+            scene.occluded(shadow);
+
+            for (int i = 0; i < primary.size; i++) {
+                if (primary.hit[i] >= 0) shadowed[i][l] = shadow.occluded[shadowIndex[i]];
+            }
+        }
+
+        // 4. shading, with the shadows known
+        int i = 0;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++, i++) {
+                if (primary.hit[i] < 0) {
+                    color.set(scene.getBackgroundColor());
+                } else {
+                    Surface surface = scene.getSurfaces().get(primary.hit[i]);
+                    surface.setLastHit(primary.lastHit[i]);
+                    Raytracer.shade(scene, primary.rays[i], surface, primary.t[i], 0, camera.getOrigin(), shadowed[i], color);
+                }
+                frameBuffer.set(x, y, color);
+            }
+        }
+    }
+
+    /**
+     * @param scene the scene to render
+     * @param packetSize the edge length (in pixels) of a block, from 1 to MAX_PACKET_SIZE
+     */
+    public PacketTracer(Scene scene, int packetSize) {
+        if (packetSize < 1 || packetSize > MAX_PACKET_SIZE) {
+            throw new IllegalArgumentException("Packet size must be between 1 and " + MAX_PACKET_SIZE + ": " + packetSize);
+        }
+        this.scene = scene;
+        this.packetSize = packetSize;
+        this.shadowed = new boolean[RayPacket.MAX_SIZE][scene.getLights().size()];
+        for (int i = 0; i < RayPacket.MAX_SIZE; i++) {
+            positions[i] = new Vector3();
+            normals[i] = new Vector3();
+            shadowRays[i] = new Ray();
+        }
+    }
+
+    public PacketTracer(Scene scene) {
+        this(scene, DEFAULT_PACKET_SIZE);
+    }
+}
@@ -0,0 +1,220 @@
+package raytracer.render;
+
+import raytracer.Raytracer;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Ray;
+import raytracer.graphics.Scene;
+import raytracer.image.FrameBuffer;
+import raytracer.image.Radiance;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders a scene coarse-to-fine, so that a usable preview exists long before the image is done.
+ *
+ * The first pass traces every step-th pixel in both directions (e.g. every 8th) and fills the
+ * step x step block below and right of it with its color. Every further pass halves the step and only
+ * traces the pixels that are new on the finer grid, until the last pass (step 1) has traced the rest.
+ * Every pixel is traced exactly once, so the final image is the same as the one of the serial renderer,
+ * at the same cost.
+ *
+ * Previews are handed to a listener after every pass and, during long passes, whenever the preview
+ * interval has passed. The listener always runs on the thread that called render().
+ */
+public class ProgressiveRenderer {
+
+    /**
+     * The default pixel step of the first pass: 1/64 of all pixels.
+     */
+    public static final int DEFAULT_INITIAL_STEP = 8;
+
+    /**
+     * Receives the intermediate frames of a progressive render.
+     */
+    public interface PreviewListener {
+        /**
+         * Called with the current state of the image.
+         * Render threads may still write into the frame buffer (unless finished is true),
+         * so it should be encoded or copied right away.
+         * @param frameBuffer the image so far; pixels that were not traced yet show the color of a coarser pass
+         * @param progress the fraction of all pixels traced so far (0..1)
+         * @param finished true for the final image
+         */
+        void preview(FrameBuffer frameBuffer, double progress, boolean finished);
+    }
+
+    /**
+     * The scene to render.
+     */
+    private final Scene scene;
+    /**
+     * How many worker threads the pool may use.
+     */
+    private final int threads;
+    /**
+     * The pixel step of the first pass; a power of two.
+     */
+    private final int initialStep;
+    /**
+     * The minimum time between two previews within a pass, in milliseconds. 0 = only after every pass.
+     */
+    private final long previewInterval;
+
+    /**
+     * Renders the scene into a new 8-bit frame buffer.
+     * @param listener receives the previews (may be null)
+     * @return the rendered frame buffer
+     */
+    public FrameBuffer render(PreviewListener listener) {
+        Camera camera = scene.getCamera();
+        FrameBuffer frameBuffer = new FrameBuffer(camera.getRes().getHorizontal(), camera.getRes().getVertical());
+        render(frameBuffer, listener);
+        return frameBuffer;
+    }
+
+    /**
+     * Renders the scene into a frame buffer of the camera's resolution.
+     * @param frameBuffer the target
+     * @param listener receives the previews (may be null)
+     */
+    public void render(FrameBuffer frameBuffer, PreviewListener listener) {
+        long total = (long) frameBuffer.getWidth() * frameBuffer.getHeight();
+        AtomicLong traced = new AtomicLong();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (int step = initialStep; step >= 1; step /= 2) {
+                ForkJoinTask<Void> pass = pool.submit(new RowTask(frameBuffer, step, 0, frameBuffer.getHeight(), traced));
+                waitForPass(pass, frameBuffer, listener, total, traced);
+
+                if (listener != null) listener.preview(frameBuffer, (double) traced.get() / total, step == 1);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Waits until a pass is done, and shows previews in between if it takes longer than the preview interval.
+     */
+    private void waitForPass(ForkJoinTask<Void> pass, FrameBuffer frameBuffer, PreviewListener listener,
+                             long total, AtomicLong traced) {
+        try {
+            if (listener == null || previewInterval <= 0) {
+                pass.get();
+                return;
+            }
+            while (true) {
+                try {
+                    pass.get(previewInterval, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    listener.preview(frameBuffer, (double) traced.get() / total, false);
+                }
+            }
+        } catch (InterruptedException e) {
+            pass.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Progressive rendering was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Progressive rendering failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Traces the pixels of one row that are new in the pass with the given step, and fills their blocks.
+     * @param y the row; a multiple of step
+     * @return the number of traced pixels
+     */
+    private int renderRow(FrameBuffer frameBuffer, int step, int y, Radiance color) {
+        Camera camera = scene.getCamera();
+        int width = frameBuffer.getWidth(), height = frameBuffer.getHeight();
+
+        // on rows of the coarser grid, the pixels on every other column were traced by an earlier pass
+        boolean coarseRow = step < initialStep && y % (2 * step) == 0;
+        int x0 = coarseRow ? step : 0;
+        int xStep = coarseRow ? 2 * step : step;
+
+        int count = 0;
+        for (int x = x0; x < width; x += xStep) {
+            Ray ray = camera.generateRay(x, y);
+            frameBuffer.set(x, y, Raytracer.traceRay(scene, ray, 0, camera.getOrigin(), color));
+            int argb = frameBuffer.getRGB(x, y);
+
+            // the block of this pixel only contains pixels of finer passes, which overwrite it later
+            for (int by = y; by < Math.min(y + step, height); by++) {
+                for (int bx = x; bx < Math.min(x + step, width); bx++) {
+                    if (bx != x || by != y) frameBuffer.setRGB(bx, by, argb);
+                }
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Recursively halves a range of rows until a single row is left.
+     */
+    @SuppressWarnings("serial") // fork/join tasks are never serialized
+    private class RowTask extends RecursiveAction {
+
+        private final FrameBuffer frameBuffer;
+        private final int step;
+        private final int from;
+        private final int to;
+        private final AtomicLong traced;
+
+        RowTask(FrameBuffer frameBuffer, int step, int from, int to, AtomicLong traced) {
+            this.frameBuffer = frameBuffer;
+            this.step = step;
+            this.from = from;
+            this.to = to;
+            this.traced = traced;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= step) {
+                Radiance color = new Radiance();
+                for (int y = from; y < to; y++) {
+                    if (y % step == 0) traced.addAndGet(renderRow(frameBuffer, step, y, color));
+                }
+                return;
+            }
+            // split on a multiple of the step, so every row of this pass lands in exactly one half
+            int mid = ((from + to) >>> 1) / step * step;
+            if (mid <= from) mid = from + step;
+            invokeAll(
+                    new RowTask(frameBuffer, step, from, mid, traced),
+                    new RowTask(frameBuffer, step, mid, to, traced)
+            );
+        }
+    }
+
+    /**
+     * @param scene the scene to render
+     * @param threads how many threads trace pixels
+     * @param initialStep the pixel step of the first pass; must be a power of two
+     * @param previewInterval the minimum time between two previews within a pass, in milliseconds (0 = only after every pass)
+     */
+    public ProgressiveRenderer(Scene scene, int threads, int initialStep, long previewInterval) {
+        if (threads < 1) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        if (initialStep < 1 || Integer.bitCount(initialStep) != 1) {
+            throw new IllegalArgumentException("The initial step must be a power of two: " + initialStep);
+        }
+        this.scene = scene;
+        this.threads = threads;
+        this.initialStep = initialStep;
+        this.previewInterval = previewInterval;
+    }
+
+    public ProgressiveRenderer(Scene scene, int threads, long previewInterval) {
+        this(scene, threads, DEFAULT_INITIAL_STEP, previewInterval);
+    }
+}
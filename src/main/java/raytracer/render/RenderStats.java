@@ -0,0 +1,224 @@
+package raytracer.render;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what the renderer does: rays by kind, intersection tests by surface type, BVH node visits,
+ * the deepest recursion and the time spent per phase.
+ *
+ * Every thread counts into its own Counters, with plain (unsynchronized) increments;
+ * collect() sums them up once rendering is done. The hot paths only count behind
+ * "if (RenderStats.ENABLED)", and ENABLED is a static final constant, so when statistics
+ * are switched off the JIT removes the counting code entirely.
+ */
+public final class RenderStats {
+
+    /**
+     * The system property that switches statistics on. It is read once, when this class is loaded,
+     * so it has to be set before anything is rendered (the --stats option does that).
+     */
+    public static final String PROPERTY = "raytracer.stats";
+
+    /**
+     * Whether statistics are gathered. Fixed for the lifetime of the JVM.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+    /**
+     * The phases of a render, timed separately.
+     */
+    public enum Phase {
+        /** reading the scene and OBJ files (without building BVHs) */
+        PARSE,
+        /** building the scene and mesh BVHs */
+        BUILD,
+        /** tracing all pixels */
+        RENDER,
+        /** compressing and writing the image */
+        ENCODE
+    }
+
+    /**
+     * The counters of one thread. Only the owning thread writes them.
+     */
+    public static final class Counters {
+        public long primaryRays;
+        public long shadowRays;
+        public long reflectionRays;
+        public long sphereTests;
+        public long meshTests;
+        public long triangleTests;
+        public long bvhNodeVisits;
+        /**
+         * The deepest recursion level reached (0 = only primary rays).
+         */
+        public int maxDepth;
+
+        /**
+         * Adds other counters to these ones.
+         * @param other the counters to add
+         * @return this
+         */
+        public Counters add(Counters other) {
+            primaryRays += other.primaryRays;
+            shadowRays += other.shadowRays;
+            reflectionRays += other.reflectionRays;
+            sphereTests += other.sphereTests;
+            meshTests += other.meshTests;
+            triangleTests += other.triangleTests;
+            bvhNodeVisits += other.bvhNodeVisits;
+            maxDepth = Math.max(maxDepth, other.maxDepth);
+            return this;
+        }
+
+        public long getRays() {
+            return primaryRays + shadowRays + reflectionRays;
+        }
+
+        public long getIntersectionTests() {
+            return sphereTests + meshTests + triangleTests;
+        }
+    }
+
+    /**
+     * The counters of every thread that ever counted something.
+     */
+    private static final Queue<Counters> allCounters = new ConcurrentLinkedQueue<>();
+
+    private static final ThreadLocal<Counters> counters = ThreadLocal.withInitial(() -> {
+        Counters c = new Counters();
+        allCounters.add(c);
+        return c;
+    });
+
+    private static final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+    /**
+     * The counters of the calling thread. Call sites should check ENABLED first.
+     * @return the counters of this thread
+     */
+    public static Counters local() {
+        return counters.get();
+    }
+
+    /**
+     * Adds time to a phase.
+     * @param phase the phase
+     * @param nanos the duration in nanoseconds
+     */
+    public static void addTime(Phase phase, long nanos) {
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+    }
+
+    /**
+     * @param phase the phase
+     * @return the total time spent in this phase so far, in nanoseconds
+     */
+    public static long getTime(Phase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    /**
+     * Sums up the counters of all threads.
+     * Only exact when no thread is rendering, e.g. after the renderer has returned.
+     * @return the totals
+     */
+    public static Counters collect() {
+        Counters total = new Counters();
+        for (Counters c : allCounters) total.add(c);
+        return total;
+    }
+
+    /**
+     * Sets all counters and timings back to zero. Must not be called while rendering.
+     */
+    public static void reset() {
+        for (Counters c : allCounters) {
+            c.primaryRays = c.shadowRays = c.reflectionRays = 0;
+            c.sphereTests = c.meshTests = c.triangleTests = c.bvhNodeVisits = 0;
+            c.maxDepth = 0;
+        }
+        for (Phase p : Phase.values()) phaseNanos.set(p.ordinal(), 0);
+    }
+
+    /**
+     * A human-readable report of the current statistics.
+     * @param pixels the number of pixels rendered, for the per-pixel figures
+     * @return the report
+     */
+    public static String summary(long pixels) {
+        Counters c = collect();
+        double renderSeconds = getTime(Phase.RENDER) / 1e9;
+        StringBuilder s = new StringBuilder("Render statistics:\n");
+        s.append(String.format(Locale.ROOT, "  rays:        %,d (primary %,d, shadow %,d, reflection %,d)%n",
+                c.getRays(), c.primaryRays, c.shadowRays, c.reflectionRays));
+        if (renderSeconds > 0) {
+            s.append(String.format(Locale.ROOT, "               %.2f Mrays/s, %.1f rays/pixel%n",
+                    c.getRays() / renderSeconds / 1e6, pixels > 0 ? (double) c.getRays() / pixels : 0));
+        }
+        s.append(String.format(Locale.ROOT, "  tests:       %,d (spheres %,d, meshes %,d, triangles %,d)%n",
+                c.getIntersectionTests(), c.sphereTests, c.meshTests, c.triangleTests));
+        s.append(String.format(Locale.ROOT, "  BVH nodes:   %,d visited (%.1f per ray)%n",
+                c.bvhNodeVisits, c.getRays() > 0 ? (double) c.bvhNodeVisits / c.getRays() : 0));
+        s.append(String.format(Locale.ROOT, "  max depth:   %d%n", c.maxDepth));
+        s.append("  time:       ");
+        for (Phase p : Phase.values()) {
+            s.append(String.format(Locale.ROOT, " %s %.1f ms", p.name().toLowerCase(Locale.ROOT), getTime(p) / 1e6));
+        }
+        return s.append('\n').toString();
+    }
+
+    /**
+     * The current statistics as a JSON object.
+     * @param pixels the number of pixels rendered
+     * @return the JSON text
+     */
+    public static String toJson(long pixels) {
+        Counters c = collect();
+        StringBuilder s = new StringBuilder("{\n");
+        s.append("  \"pixels\": ").append(pixels).append(",\n");
+        s.append("  \"rays\": {")
+                .append("\"primary\": ").append(c.primaryRays)
+                .append(", \"shadow\": ").append(c.shadowRays)
+                .append(", \"reflection\": ").append(c.reflectionRays)
+                .append(", \"total\": ").append(c.getRays()).append("},\n");
+        s.append("  \"intersectionTests\": {")
+                .append("\"sphere\": ").append(c.sphereTests)
+                .append(", \"mesh\": ").append(c.meshTests)
+                .append(", \"triangle\": ").append(c.triangleTests)
+                .append(", \"total\": ").append(c.getIntersectionTests()).append("},\n");
+        s.append("  \"bvhNodeVisits\": ").append(c.bvhNodeVisits).append(",\n");
+        s.append("  \"maxDepth\": ").append(c.maxDepth).append(",\n");
+        s.append("  \"phaseMillis\": {");
+        for (Phase p : Phase.values()) {
+            if (p.ordinal() > 0) s.append(", ");
+            s.append('"').append(p.name().toLowerCase(Locale.ROOT)).append("\": ")
+                    .append(String.format(Locale.ROOT, "%.3f", getTime(p) / 1e6));
+        }
+        return s.append("}\n}\n").toString();
+    }
+
+    /**
+     * Writes the statistics as JSON.
+     * @param target the file to write
+     * @param pixels the number of pixels rendered
+     */
+    public static void writeJson(Path target, long pixels) {
+        try {
+            Files.write(target, toJson(pixels).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write render statistics to " + target, e);
+        }
+    }
+
+    private RenderStats() {
+    }
+}
@@ -0,0 +1,61 @@
+package raytracer.render;
+
+/**
+ * A rectangular block of pixels [x0,x1) x [y0,y1) of the output image.
+ * Tiles are the unit of work for the parallel renderers.
+ */
+public class Tile {
+
+    /**
+     * The first column of the tile (inclusive).
+     */
+    private final int x0;
+    /**
+     * The first row of the tile (inclusive).
+     */
+    private final int y0;
+    /**
+     * The last column of the tile (exclusive).
+     */
+    private final int x1;
+    /**
+     * The last row of the tile (exclusive).
+     */
+    private final int y1;
+
+    public Tile(int x0, int y0, int x1, int y1) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+    }
+
+    public int width() {
+        return x1 - x0;
+    }
+
+    public int height() {
+        return y1 - y0;
+    }
+
+    public int getX0() {
+        return x0;
+    }
+
+    public int getY0() {
+        return y0;
+    }
+
+    public int getX1() {
+        return x1;
+    }
+
+    public int getY1() {
+        return y1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("raytracer.render.Tile[(%d,%d)-(%d,%d)]", x0, y0, x1, y1);
+    }
+}
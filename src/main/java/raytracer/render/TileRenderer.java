@@ -0,0 +1,170 @@
+package raytracer.render;
+
+import raytracer.Raytracer;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Ray;
+import raytracer.graphics.Scene;
+import raytracer.image.FrameBuffer;
+import raytracer.image.Radiance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders a scene on multiple cores.
+ * The image is split into square tiles, which are scheduled on a work-stealing fork/join pool.
+ * Every pixel is traced exactly like in the serial renderer, so the result is the same image.
+ * Optionally, the pixels of a tile are traced in small blocks as ray packets (see PacketTracer).
+ */
+public class TileRenderer {
+
+    /**
+     * The default edge length (in pixels) of a tile.
+     */
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    /**
+     * The scene to render.
+     */
+    private final Scene scene;
+    /**
+     * How many worker threads the pool may use.
+     */
+    private final int threads;
+    /**
+     * The edge length (in pixels) of a tile.
+     */
+    private final int tileSize;
+    /**
+     * The edge length (in pixels) of the blocks traced as ray packets (see PacketTracer); 0 traces every ray on its own.
+     */
+    private final int packetSize;
+
+    /**
+     * Renders the scene into a new 8-bit frame buffer.
+     * @return the rendered frame buffer
+     */
+    public FrameBuffer render() {
+        Camera camera = scene.getCamera();
+        FrameBuffer frameBuffer = new FrameBuffer(camera.getRes().getHorizontal(), camera.getRes().getVertical());
+        render(frameBuffer);
+        return frameBuffer;
+    }
+
+    /**
+     * Renders the scene into a frame buffer of the camera's resolution.
+     * @param frameBuffer the target
+     */
+    public void render(FrameBuffer frameBuffer) {
+        // every tile writes into its own pixels of the frame buffer, so no locking is needed
+        List<Tile> tiles = splitIntoTiles(frameBuffer.getWidth(), frameBuffer.getHeight(), tileSize);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new TileTask(tiles, 0, tiles.size(), frameBuffer));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Traces all pixels of one tile.
+     * @param tile the tile to render
+     * @param frameBuffer the target
+     */
+    private void renderTile(Tile tile, FrameBuffer frameBuffer) {
+        if (packetSize > 0) {
+            new PacketTracer(scene, packetSize).render(tile.getX0(), tile.getY0(), tile.getX1(), tile.getY1(), frameBuffer);
+            return;
+        }
+
+        Camera camera = scene.getCamera();
+        Radiance color = new Radiance();
+        for (int i = tile.getX0(); i < tile.getX1(); i++) {
+            for (int j = tile.getY0(); j < tile.getY1(); j++) {
+                Ray ray = camera.generateRay(i, j);
+                frameBuffer.set(i, j, Raytracer.traceRay(scene, ray, 0, camera.getOrigin(), color));
+            }
+        }
+    }
+
+    /**
+     * Splits an image into tiles in scanline order. Tiles at the right and bottom border may be smaller.
+     * @param width the image width
+     * @param height the image height
+     * @param tileSize the edge length of a tile
+     * @return all tiles covering the image
+     */
+    public static List<Tile> splitIntoTiles(int width, int height, int tileSize) {
+        if (tileSize < 1) throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+
+        List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Tile(x, y, Math.min(x + tileSize, width), Math.min(y + tileSize, height)));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Recursively halves a range of tiles until a single tile is left.
+     * Idle workers steal the other halves from the queues of busy ones.
+     */
+    @SuppressWarnings("serial") // fork/join tasks are never serialized
+    private class TileTask extends RecursiveAction {
+
+        private final List<Tile> tiles;
+        private final int from;
+        private final int to;
+        private final FrameBuffer frameBuffer;
+
+        TileTask(List<Tile> tiles, int from, int to, FrameBuffer frameBuffer) {
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+            this.frameBuffer = frameBuffer;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) renderTile(tiles.get(from), frameBuffer);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(
+                    new TileTask(tiles, from, mid, frameBuffer),
+                    new TileTask(tiles, mid, to, frameBuffer)
+            );
+        }
+    }
+
+    /**
+     * @param scene the scene to render
+     * @param threads how many threads trace pixels
+     * @param tileSize the edge length (in pixels) of a tile
+     * @param packetSize the edge length (in pixels) of the blocks traced as ray packets, up to
+     *                   PacketTracer.MAX_PACKET_SIZE; 0 traces every ray on its own
+     */
+    public TileRenderer(Scene scene, int threads, int tileSize, int packetSize) {
+        if (threads < 1) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        if (packetSize < 0 || packetSize > PacketTracer.MAX_PACKET_SIZE) {
+            throw new IllegalArgumentException("Packet size must be between 0 and " + PacketTracer.MAX_PACKET_SIZE + ": " + packetSize);
+        }
+        this.scene = scene;
+        this.threads = threads;
+        this.tileSize = tileSize;
+        this.packetSize = packetSize;
+    }
+
+    public TileRenderer(Scene scene, int threads, int tileSize) {
+        this(scene, threads, tileSize, 0);
+    }
+
+    public TileRenderer(Scene scene) {
+        this(scene, Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_SIZE);
+    }
+}
@@ -0,0 +1,60 @@
+package raytracer;
+
+import org.junit.Test;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Ray;
+import raytracer.graphics.Scene;
+import raytracer.image.Radiance;
+import raytracer.io.SceneParser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Guards the allocation-free shading path: tracing a ray should not create
+ * temporary vectors, colors, hit records or traversal stacks.
+ */
+public class RaytracerAllocationTest {
+
+    /**
+     * Before the in-place vector path, a primary ray of example1 allocated about 160 bytes.
+     * Now only the rays themselves allocate, and they are generated before the measurement.
+     */
+    private static final double MAX_BYTES_PER_RAY = 8;
+
+    @Test
+    public void traceRayAllocation() {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        // only HotSpot-like VMs can count allocated bytes per thread
+        assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mx;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        Scene scene = SceneParser.parseXML(SceneParser.example1);
+        Camera camera = scene.getCamera();
+        int width = camera.getRes().getHorizontal(), height = camera.getRes().getVertical();
+
+        // the rays are generated up front, the camera is not under test here
+        Ray[] rays = new Ray[width * height];
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                rays[i * height + j] = camera.generateRay(i, j);
+            }
+        }
+
+        Radiance color = new Radiance();
+        long threadId = Thread.currentThread().getId();
+        double bytesPerRay = Double.MAX_VALUE;
+        for (int pass = 0; pass < 3; pass++) { // the first passes warm up the scratch and the JIT
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (Ray ray : rays) Raytracer.traceRay(scene, ray, 0, camera.getPosition(), color);
+            long after = threads.getThreadAllocatedBytes(threadId);
+            bytesPerRay = (after - before) / (double) rays.length;
+        }
+
+        assertTrue(String.format("%.1f bytes per ray", bytesPerRay), bytesPerRay < MAX_BYTES_PER_RAY);
+    }
+}
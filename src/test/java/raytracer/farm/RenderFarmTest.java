@@ -0,0 +1,204 @@
+package raytracer.farm;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import raytracer.Raytracer;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Scene;
+import raytracer.image.FrameBuffer;
+import raytracer.io.MeshCache;
+import raytracer.io.SceneParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RenderFarmTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static File meshCacheDirectory;
+
+    // example5 has meshes, which must not end up in the user's mesh cache
+    @BeforeClass
+    public static void disableMeshCache() {
+        meshCacheDirectory = MeshCache.getDirectory();
+        MeshCache.setDirectory(null);
+    }
+
+    @AfterClass
+    public static void restoreMeshCache() {
+        MeshCache.setDirectory(meshCacheDirectory);
+    }
+
+    private static RenderCoordinator coordinator(String sceneFile, Scene scene) throws IOException {
+        Camera camera = scene.getCamera();
+        RenderCoordinator coordinator = new RenderCoordinator(SceneBundle.of(new File(sceneFile)),
+                camera.getRes().getHorizontal(), camera.getRes().getVertical(), 64, 0);
+        coordinator.setTimeout(60 * 1000);
+        return coordinator;
+    }
+
+    /**
+     * Takes the scene and one tile like a worker, and then disconnects.
+     */
+    private static void failingWorker(int port) throws IOException {
+        failingWorker(port, -1);
+    }
+
+    /**
+     * Takes the scene and one tile like a worker, starts to send its pixels, and then disconnects.
+     * @param pixels how many pixels to send; -1 sends no PIXELS message at all
+     */
+    private static void failingWorker(int port, int pixels) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(FarmProtocol.MAGIC);
+            out.writeInt(FarmProtocol.VERSION);
+            out.writeInt(1);
+            assertEquals(FarmProtocol.SCENE, in.readByte());
+            SceneBundle.read(in);
+            out.writeByte(FarmProtocol.READY);
+            assertEquals(FarmProtocol.TILE, in.readByte());
+            int id = in.readInt();
+            in.readFully(new byte[4 * 4]);
+            if (pixels >= 0) {
+                out.writeByte(FarmProtocol.PIXELS);
+                out.writeInt(id);
+                for (int i = 0; i < pixels; i++) out.writeInt(0xFFFF00FF);
+                out.flush();
+            }
+        }
+    }
+
+    @Test
+    public void workerProcessesRenderTheSameImage() throws Exception {
+        Scene scene = SceneParser.parseXML(SceneParser.example1);
+        try (RenderCoordinator coordinator = coordinator(SceneParser.example1, scene)) {
+            List<Process> workers = RenderWorker.startLocal(2, "localhost", coordinator.getPort(), "--threads", "2");
+            try {
+                FrameBuffer frameBuffer = coordinator.render();
+                assertArrayEquals(Raytracer.renderScene(scene).getPixels(), frameBuffer.getPixels());
+                assertTrue(coordinator.getWorkerCount() >= 1);
+                for (Process worker : workers) assertEquals(0, worker.waitFor());
+            } finally {
+                for (Process worker : workers) worker.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void tilesOfFailedWorkersAreRenderedAgain() throws Exception {
+        Scene scene = SceneParser.parseXML(SceneParser.example5);
+        try (RenderCoordinator coordinator = coordinator(SceneParser.example5, scene)) {
+            RenderWorker worker = new RenderWorker("localhost", coordinator.getPort(), 2);
+            worker.setBundleDirectory(folder.getRoot());
+            Thread workers = new Thread(() -> {
+                try {
+                    failingWorker(coordinator.getPort());
+                    worker.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers.start();
+
+            FrameBuffer frameBuffer = coordinator.render();
+            workers.join();
+            assertTrue(coordinator.getRetriedTiles() >= 1);
+            assertArrayEquals(Raytracer.renderScene(scene).getPixels(), frameBuffer.getPixels());
+        }
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void tileOfAWorkerThatFailsWhileSendingItIsRenderedAgain() throws Exception {
+        Scene scene = SceneParser.parseXML(SceneParser.example1);
+        try (RenderCoordinator coordinator = coordinator(SceneParser.example1, scene)) {
+            RenderWorker worker = new RenderWorker("localhost", coordinator.getPort(), 2);
+            worker.setBundleDirectory(folder.getRoot());
+            Thread workers = new Thread(() -> {
+                try {
+                    failingWorker(coordinator.getPort(), 100);
+                    worker.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers.start();
+
+            FrameBuffer frameBuffer = coordinator.render();
+            workers.join();
+            assertEquals(1, coordinator.getRetriedTiles());
+            assertArrayEquals(Raytracer.renderScene(scene).getPixels(), frameBuffer.getPixels());
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void frameFailsAfterMaxAttempts() throws Exception {
+        Scene scene = SceneParser.parseXML(SceneParser.example1);
+        try (RenderCoordinator coordinator = coordinator(SceneParser.example1, scene)) {
+            coordinator.setMaxAttempts(1);
+            Thread worker = new Thread(() -> {
+                try {
+                    failingWorker(coordinator.getPort());
+                } catch (IOException e) {
+                    // the coordinator gives up and disconnects
+                }
+            });
+            worker.start();
+            coordinator.render();
+        }
+    }
+
+    @Test
+    public void bundleHoldsReferencedFiles() throws Exception {
+        SceneBundle bundle = SceneBundle.of(new File(SceneParser.example5));
+        assertTrue(bundle.getFiles().keySet().contains("scene.dtd"));
+        assertTrue(bundle.getFiles().size() > 2); // the scene, its DTD and its meshes
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bundle.write(new DataOutputStream(bytes));
+        SceneBundle copy = SceneBundle.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(bundle.getId(), copy.getId());
+
+        byte[] corrupt = bytes.toByteArray();
+        corrupt[corrupt.length - 1] ^= 1;
+        try {
+            SceneBundle.read(new DataInputStream(new ByteArrayInputStream(corrupt)));
+            fail("corrupt bundle was read");
+        } catch (IOException expected) {
+            // the hash does not match
+        }
+    }
+
+    @Test
+    public void extractingDeletesBundlesThatWereNotUsedForLong() throws Exception {
+        File root = folder.getRoot();
+        long old = System.currentTimeMillis() - SceneBundle.MAX_AGE - 60 * 1000;
+        File unused = new File(root, "0123456789abcdef"), recent = new File(root, "fedcba9876543210"), other = new File(root, "other");
+        for (File dir : new File[]{unused, recent, other}) {
+            assertTrue(new File(dir, "meshes").mkdirs());
+            assertTrue(new File(dir, "meshes/mesh.obj").createNewFile());
+        }
+        assertTrue(unused.setLastModified(old));
+        assertTrue(other.setLastModified(old));
+
+        File scene = SceneBundle.of(new File(SceneParser.example5)).extract(root);
+        assertTrue(scene.isFile());
+        assertFalse(unused.exists());
+        assertTrue(recent.exists());
+        assertTrue(other.exists()); // not a bundle
+    }
+}
@@ -0,0 +1,81 @@
+package raytracer.graphics;
+
+import org.junit.Test;
+import raytracer.graphics.trafo.Transformation;
+import raytracer.math.Matrix4;
+import raytracer.math.MatrixUtils;
+import raytracer.math.Vector3;
+
+import static org.junit.Assert.*;
+
+public class CameraTest {
+
+    private static final double DELTA = 1e-9;
+
+    /**
+     * The primary ray as computed before the ray setup was cached: the full matrix per pixel.
+     */
+    private static Ray referenceRay(Camera camera, int pixelX, double pixelY) {
+        double tan = Math.tan(Math.toRadians(camera.getHorizontalFOV()));
+        double xCamera = (2*((pixelX+0.5)/camera.getRes().width())-1) * camera.getRes().aspectRatio() * tan;
+        double yCamera = (1-2*((pixelY+0.5)/camera.getRes().height())) * tan;
+
+        Matrix4 camToWorld = MatrixUtils.cameraToWorld(camera.transformation.getRotationDegrees(), camera.transformation.getTranslation());
+        Vector3 wPos = camToWorld.transformPoint(camera.getPosition());
+        Vector3 wPixel = camToWorld.transformPoint(new Vector3(xCamera, yCamera, -1));
+        return new Ray(wPos, wPixel.subtract(wPos));
+    }
+
+    private static void assertRaysMatch(Camera camera) {
+        int w = camera.getRes().getHorizontal(), h = camera.getRes().getVertical();
+        for (int x = 0; x < w; x += 7) {
+            for (double y = 0; y < h; y += 4.5) {
+                Ray expected = referenceRay(camera, x, y), actual = camera.generateRay(x, y);
+                Vector3 o = expected.getOriginPoint(), d = expected.getDirection();
+                assertEquals(o.getX(), actual.getOriginPoint().getX(), DELTA);
+                assertEquals(o.getY(), actual.getOriginPoint().getY(), DELTA);
+                assertEquals(o.getZ(), actual.getOriginPoint().getZ(), DELTA);
+                assertEquals(d.getX(), actual.getDirection().getX(), DELTA);
+                assertEquals(d.getY(), actual.getDirection().getY(), DELTA);
+                assertEquals(d.getZ(), actual.getDirection().getZ(), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void generateRay() {
+        Camera camera = new Camera(new Vector3(1, 2, 3), new Vector3(0, 0, -1), new Vector3(0, 1, 0), 30, 64, 48, 2);
+        assertRaysMatch(camera);
+    }
+
+    @Test
+    public void generateRayInsidePixel() {
+        Camera camera = new Camera(new Vector3(1, 2, 3), new Vector3(0, 0, -1), new Vector3(0, 1, 0), 30, 64, 48, 2);
+        // the center is the ray of generateRay(int, double) ...
+        assertEquals(camera.generateRay(5, 7).getDirection(), camera.generateRay(5, 7, 0.5, 0.5).getDirection());
+        // ... and the bottom edge lies half a pixel further down
+        Vector3 edge = camera.generateRay(5, 7, 0.5, 1).getDirection(), expected = referenceRay(camera, 5, 7.5).getDirection();
+        assertEquals(expected.getX(), edge.getX(), DELTA);
+        assertEquals(expected.getY(), edge.getY(), DELTA);
+        assertEquals(expected.getZ(), edge.getZ(), DELTA);
+        // neighboring pixels share their edge
+        Vector3 left = camera.generateRay(5, 7, 0, 0.5).getDirection(), right = camera.generateRay(4, 7, 1, 0.5).getDirection();
+        assertEquals(left.getX(), right.getX(), DELTA);
+        assertEquals(left.getY(), right.getY(), DELTA);
+    }
+
+    @Test
+    public void transformationChange() {
+        Camera camera = new Camera(64, 48);
+        assertRaysMatch(camera);
+
+        // the cached setup must notice a changed ...
+        camera.transformation.translateBy(new Vector3(0, 0, 5));
+        camera.transformation.setRotationDegrees(new Vector3(10, 20, 30));
+        assertRaysMatch(camera);
+
+        // ... and a replaced transformation
+        camera.transformation = new Transformation(new Vector3(-1, 0, 0), null, new Vector3(0, 45, 0));
+        assertRaysMatch(camera);
+    }
+}
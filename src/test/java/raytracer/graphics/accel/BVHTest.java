@@ -0,0 +1,140 @@
+package raytracer.graphics.accel;
+
+import org.junit.Test;
+import raytracer.graphics.Ray;
+import raytracer.math.Vector3;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BVHTest {
+
+    private static final int N = 500;
+
+    // random spheres as primitives, given as center + radius
+    private static final double[] spheres = new double[N * 4];
+    private static final double[] bounds = new double[N * 6];
+
+    static {
+        Random random = new Random(42);
+        for (int i = 0; i < N; i++) {
+            double r = 0.05 + random.nextDouble() * 0.3;
+            for (int axis = 0; axis < 3; axis++) {
+                double c = random.nextDouble() * 20 - 10;
+                spheres[i*4 + axis] = c;
+                bounds[i*6 + axis] = c - r;
+                bounds[i*6 + 3 + axis] = c + r;
+            }
+            spheres[i*4 + 3] = r;
+        }
+    }
+
+    private static double intersectSphere(int i, Ray ray) {
+        return intersectSphere(spheres, i, ray);
+    }
+
+    private static double intersectSphere(double[] spheres, int i, Ray ray) {
+        Vector3 o = ray.getOriginPoint(), d = ray.getDirection();
+        double ox = o.getX() - spheres[i*4], oy = o.getY() - spheres[i*4 + 1], oz = o.getZ() - spheres[i*4 + 2];
+        double b = ox*d.getX() + oy*d.getY() + oz*d.getZ();
+        double c = ox*ox + oy*oy + oz*oz - spheres[i*4 + 3]*spheres[i*4 + 3];
+        double disc = b*b - c;
+        if (disc < 0) return Double.MAX_VALUE;
+        double t = -b - Math.sqrt(disc);
+        if (t <= 0) t = -b + Math.sqrt(disc);
+        return t > 0 ? t : Double.MAX_VALUE;
+    }
+
+    private static Ray randomRay(Random random) {
+        return new Ray(
+                new Vector3(random.nextDouble() * 30 - 15, random.nextDouble() * 30 - 15, random.nextDouble() * 30 - 15),
+                new Vector3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian())
+        );
+    }
+
+    @Test
+    public void closestHitMatchesLinearScan() {
+        BVH bvh = BVH.build(bounds);
+        Random random = new Random(7);
+
+        for (int k = 0; k < 2000; k++) {
+            Ray ray = randomRay(random);
+
+            double expected = Double.MAX_VALUE;
+            for (int i = 0; i < N; i++) expected = Math.min(expected, intersectSphere(i, ray));
+
+            BVH.Hit hit = new BVH.Hit();
+            boolean found = bvh.closestHit(ray, Double.MAX_VALUE, (p, r, tMax) -> intersectSphere(p, r), hit);
+            assertEquals(expected < Double.MAX_VALUE, found);
+            if (found) assertEquals(expected, hit.t, 0);
+        }
+    }
+
+    @Test
+    public void anyHitMatchesLinearScan() {
+        BVH bvh = BVH.build(bounds);
+        Random random = new Random(11);
+
+        for (int k = 0; k < 2000; k++) {
+            Ray ray = randomRay(random);
+            double tMax = random.nextDouble() * 20;
+
+            boolean expected = false;
+            for (int i = 0; i < N; i++) expected |= intersectSphere(i, ray) < tMax;
+
+            assertEquals(expected, bvh.anyHit(ray, tMax, (p, r, t) -> intersectSphere(p, r) < t));
+        }
+    }
+
+    @Test
+    public void emptyHierarchy() {
+        BVH bvh = BVH.build(new double[0]);
+        Ray ray = new Ray(new Vector3(), new Vector3(0, 0, -1));
+        assertFalse(bvh.closestHit(ray, Double.MAX_VALUE, (p, r, tMax) -> 1, new BVH.Hit()));
+        assertFalse(bvh.anyHit(ray, Double.MAX_VALUE, (p, r, tMax) -> true));
+    }
+
+    @Test
+    public void everyPrimitiveIsReferencedOnce() {
+        BVH bvh = BVH.build(bounds);
+        boolean[] seen = new boolean[N];
+        for (int node = 0; node < bvh.getNodeCount(); node++) {
+            for (int i = bvh.offsets[node]; i < bvh.offsets[node] + bvh.counts[node]; i++) {
+                assertFalse(seen[bvh.primitives[i]]);
+                seen[bvh.primitives[i]] = true;
+            }
+        }
+        for (boolean s : seen) assertTrue(s);
+    }
+
+    @Test
+    public void refitFollowsMovedPrimitives() {
+        BVH bvh = BVH.build(bounds);
+        double[] built = bvh.bounds.clone();
+        bvh.refit(bounds);
+        assertArrayEquals(built, bvh.bounds, 0);
+
+        // move every sphere, then hits on the moved spheres must still be found
+        Random random = new Random(3);
+        double[] moved = spheres.clone();
+        double[] movedBounds = new double[N * 6];
+        for (int i = 0; i < N; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                moved[i*4 + axis] += random.nextDouble() * 4 - 2;
+                movedBounds[i*6 + axis] = moved[i*4 + axis] - moved[i*4 + 3];
+                movedBounds[i*6 + 3 + axis] = moved[i*4 + axis] + moved[i*4 + 3];
+            }
+        }
+        double cost = bvh.cost();
+        bvh.refit(movedBounds);
+        assertTrue(bvh.cost() > cost);
+
+        for (int k = 0; k < 2000; k++) {
+            Ray ray = randomRay(random);
+            double expected = Double.MAX_VALUE;
+            for (int i = 0; i < N; i++) expected = Math.min(expected, intersectSphere(moved, i, ray));
+            assertEquals(expected, bvh.closestHit(ray, Double.MAX_VALUE, (p, r, tMax) -> intersectSphere(moved, p, r)).t, 0);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package raytracer.graphics.surfaces;
+
+import org.junit.Test;
+import raytracer.graphics.Ray;
+import raytracer.graphics.accel.BoundingBox;
+import raytracer.graphics.illumination.Phong;
+import raytracer.graphics.materials.SolidMaterial;
+import raytracer.graphics.surfaces.obj.TriangleMesh;
+import raytracer.graphics.trafo.Transformation;
+import raytracer.math.MathUtils;
+import raytracer.math.Vector3;
+
+import java.awt.Color;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MeshTest {
+
+    private static final double DELTA = 1e-9;
+
+    // a unit quad in the xy plane at z = 0, facing +z
+    private static final TriangleMesh QUAD = new TriangleMesh("quad", new double[]{
+            -1, -1, 0,  1, -1, 0,  1, 1, 0,
+            -1, -1, 0,  1, 1, 0,  -1, 1, 0
+    }, null);
+
+    private static Mesh instance(Transformation transformation) {
+        return instance(transformation, QUAD);
+    }
+
+    private static Mesh instance(Transformation transformation, TriangleMesh triangles) {
+        return new Mesh(new SolidMaterial(new Phong(), 0, 0, 0, Color.WHITE), transformation, triangles.getName(), triangles);
+    }
+
+    /**
+     * Random triangles in a cube of the given size, with edges of up to 1.
+     * @return 9 values per triangle: the positions of its vertices
+     */
+    private static double[] randomTriangles(Random random, int count, double size) {
+        double[] vertices = new double[count * 9];
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                double corner = random.nextDouble() * size - size / 2;
+                vertices[i*9 + axis] = corner;
+                vertices[i*9 + 3 + axis] = corner + random.nextDouble() - 0.5;
+                vertices[i*9 + 6 + axis] = corner + random.nextDouble() - 0.5;
+            }
+        }
+        return vertices;
+    }
+
+    /**
+     * A textbook Möller–Trumbore test of one unpacked triangle, with the same epsilons as Mesh.
+     * @return t, or Double.MAX_VALUE if the ray misses the triangle
+     */
+    private static double referenceIntersect(double[] vertices, int triangle, Ray ray) {
+        int v = triangle * 9;
+        Vector3 v0 = new Vector3(vertices[v], vertices[v + 1], vertices[v + 2]);
+        Vector3 e1 = new Vector3(vertices[v + 3], vertices[v + 4], vertices[v + 5]).subtract(v0);
+        Vector3 e2 = new Vector3(vertices[v + 6], vertices[v + 7], vertices[v + 8]).subtract(v0);
+        Vector3 d = ray.getDirection();
+
+        Vector3 p = d.cross(e2);
+        double det = p.dot(e1);
+        if (Math.abs(det) <= MathUtils.EPSILON) return Double.MAX_VALUE;
+        Vector3 s = ray.getOriginPoint().subtract(v0);
+        double a = s.dot(p) / det;
+        if (a < 0 || a > 1) return Double.MAX_VALUE;
+        Vector3 q = s.cross(e1);
+        double b = d.dot(q) / det;
+        if (b < 0 || a + b > 1) return Double.MAX_VALUE;
+        double t = e2.dot(q) / det;
+        return t > MathUtils.EPSILON ? t : Double.MAX_VALUE;
+    }
+
+    /**
+     * A ray from a random point, half of them aimed at a random triangle, so that there are plenty of hits.
+     */
+    private static Ray randomRay(Random random, double[] vertices, double size) {
+        Vector3 origin = new Vector3(random.nextDouble() * 2 * size - size, random.nextDouble() * 2 * size - size, size);
+        if (random.nextBoolean()) {
+            return new Ray(origin, new Vector3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()));
+        }
+        int v = random.nextInt(vertices.length / 9) * 9;
+        double a = random.nextDouble(), b = random.nextDouble() * (1 - a);
+        Vector3 target = new Vector3(
+                vertices[v] + a * (vertices[v + 3] - vertices[v]) + b * (vertices[v + 6] - vertices[v]),
+                vertices[v + 1] + a * (vertices[v + 4] - vertices[v + 1]) + b * (vertices[v + 7] - vertices[v + 1]),
+                vertices[v + 2] + a * (vertices[v + 5] - vertices[v + 2]) + b * (vertices[v + 8] - vertices[v + 2]));
+        return new Ray(origin, target.subtract(origin));
+    }
+
+    @Test
+    public void instancesShareGeometry() {
+        Mesh a = instance(new Transformation(new Vector3(0, 0, -5), null, null));
+        Mesh b = instance(new Transformation(new Vector3(0, 0, -8), null, null));
+        assertSame(a.getBVH(), b.getBVH());
+
+        Ray ray = new Ray(new Vector3(0.5, 0.5, 0), new Vector3(0, 0, -1));
+        assertEquals(5, a.intersect(ray), DELTA);
+        assertEquals(8, b.intersect(ray), DELTA);
+        assertEquals(Double.MAX_VALUE, a.intersect(new Ray(new Vector3(3, 0, 0), new Vector3(0, 0, -1))), 0);
+
+        // shadow rays stop at the light
+        assertTrue(a.occluded(ray, 6));
+        assertFalse(a.occluded(ray, 4));
+    }
+
+    @Test
+    public void scaleAndRotation() {
+        // scaled to 4x4, then turned to face +x, then moved to x = -5
+        Mesh mesh = instance(new Transformation(new Vector3(-5, 0, 0), new Vector3(2, 2, 1), new Vector3(0, -90, 0)));
+
+        // the quad is hit at 1.5 (inside the scaled quad only), and t stays in world units
+        Ray ray = new Ray(new Vector3(0, 1.5, 0), new Vector3(-1, 0, 0));
+        double t = mesh.intersect(ray);
+        assertEquals(5, t, DELTA);
+        assertEquals(Double.MAX_VALUE, mesh.intersect(new Ray(new Vector3(0, 2.5, 0), new Vector3(-1, 0, 0))), 0);
+
+        Vector3 normal = mesh.surfaceNormal(ray.at(t));
+        assertEquals(1, Math.abs(normal.getX()), DELTA);
+        assertEquals(0, normal.getY(), DELTA);
+        assertEquals(0, normal.getZ(), DELTA);
+
+        BoundingBox box = mesh.getBoundingBox();
+        assertEquals(-5, box.getMin().getX(), DELTA);
+        assertEquals(-5, box.getMax().getX(), DELTA);
+        assertEquals(-2, box.getMin().getY(), DELTA);
+        assertEquals(2, box.getMax().getZ(), DELTA);
+    }
+
+    @Test
+    public void packedTrianglesMatchTheTextbookTest() {
+        Random random = new Random(4);
+        double[] vertices = randomTriangles(random, 40, 4);
+        Mesh mesh = instance(new Transformation(new Vector3(0, 0, 0), null, null), new TriangleMesh("random", vertices, null));
+
+        int hits = 0;
+        for (int k = 0; k < 5000; k++) {
+            Ray ray = randomRay(random, vertices, 4);
+            double expected = Double.MAX_VALUE;
+            int triangle = -1;
+            for (int i = 0; i < 40; i++) {
+                double t = referenceIntersect(vertices, i, ray);
+                if (t < expected) {
+                    expected = t;
+                    triangle = i;
+                }
+            }
+
+            double t = mesh.intersect(ray);
+            if (triangle < 0) {
+                assertEquals(Double.MAX_VALUE, t, 0);
+                continue;
+            }
+            hits++;
+            assertEquals(expected, t, 1e-9 * expected);
+            assertEquals(triangle, mesh.getLastHit());
+
+            int v = triangle * 9;
+            Vector3 e1 = new Vector3(vertices[v + 3] - vertices[v], vertices[v + 4] - vertices[v + 1], vertices[v + 5] - vertices[v + 2]);
+            Vector3 e2 = new Vector3(vertices[v + 6] - vertices[v], vertices[v + 7] - vertices[v + 1], vertices[v + 8] - vertices[v + 2]);
+            Vector3 expectedNormal = e1.cross(e2).normalize();
+            Vector3 normal = mesh.surfaceNormal(ray.at(t));
+            assertEquals(expectedNormal.getX(), normal.getX(), DELTA);
+            assertEquals(expectedNormal.getY(), normal.getY(), DELTA);
+            assertEquals(expectedNormal.getZ(), normal.getZ(), DELTA);
+        }
+        assertTrue("only " + hits + " hits", hits > 2000);
+    }
+
+    @Test
+    public void bvhFindsWhatALinearScanFinds() {
+        // more triangles than BVHBuilder.PARALLEL_THRESHOLD (4096), so the upper levels are built in parallel
+        int count = 10000;
+        Random random = new Random(3);
+        double[] vertices = randomTriangles(random, count, 20);
+        Mesh mesh = instance(new Transformation(new Vector3(0, 0, 0), null, null), new TriangleMesh("large", vertices, null));
+        assertEquals(count, mesh.getBVH().getPrimitiveCount());
+
+        int hits = 0;
+        for (int k = 0; k < 1000; k++) {
+            Ray ray = randomRay(random, vertices, 20);
+            double expected = Double.MAX_VALUE;
+            int triangle = -1;
+            for (int i = 0; i < count; i++) {
+                double t = referenceIntersect(vertices, i, ray);
+                if (t < expected) {
+                    expected = t;
+                    triangle = i;
+                }
+            }
+
+            double t = mesh.intersect(ray);
+            if (triangle >= 0) {
+                hits++;
+                assertEquals(expected, t, 1e-9 * expected);
+                assertEquals(triangle, mesh.getLastHit());
+            } else {
+                assertEquals(Double.MAX_VALUE, t, 0);
+            }
+
+            // shadow rays: anything closer than a random distance
+            double tMax = random.nextDouble() * 40;
+            assertEquals(expected < tMax, mesh.occluded(ray, tMax));
+        }
+        assertTrue("only " + hits + " hits", hits > 400);
+    }
+}
@@ -0,0 +1,90 @@
+package raytracer.graphics.surfaces;
+
+import org.junit.Test;
+import raytracer.graphics.Ray;
+import raytracer.graphics.illumination.Phong;
+import raytracer.graphics.materials.SolidMaterial;
+import raytracer.graphics.trafo.Transformation;
+import raytracer.math.Vector3;
+
+import java.awt.Color;
+
+import static org.junit.Assert.*;
+
+public class SphereTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static Sphere sphere(Transformation transformation, double radius) {
+        return new Sphere(new SolidMaterial(new Phong(), 0, 0, 0, Color.WHITE), transformation,
+                new Vector3(0, 0, -10), radius);
+    }
+
+    @Test
+    public void intersect() {
+        Ray ray = new Ray(new Vector3(), new Vector3(0, 0, -1));
+
+        // the ray enters the sphere one radius before its center
+        assertEquals(8, sphere(null, 2).intersect(ray), DELTA);
+        assertEquals(9.5, sphere(null, 0.5).intersect(ray), DELTA);
+
+        // missed
+        assertEquals(Double.MAX_VALUE, sphere(null, 2).intersect(new Ray(new Vector3(), new Vector3(0, 1, 0))), 0);
+    }
+
+    @Test
+    public void occluded() {
+        Sphere sphere = sphere(null, 2);
+        Ray ray = new Ray(new Vector3(), new Vector3(0, 0, -1));
+
+        // blocks a light behind the sphere, but not one in front of it
+        assertTrue(sphere.occluded(ray, 100));
+        assertTrue(sphere.occluded(ray, 8.5));
+        assertFalse(sphere.occluded(ray, 7.5));
+
+        // pointing away, and starting inside the sphere
+        assertFalse(sphere.occluded(new Ray(new Vector3(), new Vector3(0, 0, 1)), 100));
+        assertTrue(sphere.occluded(new Ray(new Vector3(0, 0, -10), new Vector3(1, 0, 0)), 100));
+        assertFalse(sphere.occluded(new Ray(new Vector3(0, 0, -10), new Vector3(1, 0, 0)), 1.5));
+    }
+
+    @Test
+    public void transformationChange() {
+        Transformation transformation = new Transformation();
+        Sphere sphere = sphere(transformation, 1);
+        Ray ray = new Ray(new Vector3(), new Vector3(0, 0, -1));
+        assertEquals(9, sphere.intersect(ray), DELTA);
+
+        // the cached world position must follow the transformation
+        transformation.translateBy(new Vector3(0, 0, 5));
+        assertEquals(new Vector3(0, 0, -5), sphere.worldPosition());
+        assertEquals(4, sphere.intersect(ray), DELTA);
+        assertEquals(new Vector3(0, 0, 1), sphere.surfaceNormal(ray.at(4)));
+        assertEquals(new Vector3(0, 0, -5), sphere.getWorldToObject().transformPoint(new Vector3()));
+    }
+
+    @Test
+    public void nonUniformScale() {
+        // a unit sphere stretched to an ellipsoid with half axes 2, 1, 1, centered at (0, 0, -10)
+        Sphere sphere = new Sphere(new SolidMaterial(new Phong(), 0, 0, 0, Color.WHITE),
+                new Transformation(new Vector3(0, 0, -10), new Vector3(2, 1, 1), null), new Vector3(), 1);
+
+        // t is in world units, whatever the scale
+        assertEquals(9, sphere.intersect(new Ray(new Vector3(), new Vector3(0, 0, -1))), DELTA);
+        assertEquals(8, sphere.intersect(new Ray(new Vector3(-10, 0, -10), new Vector3(1, 0, 0))), DELTA);
+        assertTrue(sphere.occluded(new Ray(new Vector3(-10, 0, -10), new Vector3(1, 0, 0)), 8.5));
+        assertFalse(sphere.occluded(new Ray(new Vector3(-10, 0, -10), new Vector3(1, 0, 0)), 7.5));
+        assertEquals(Double.MAX_VALUE, sphere.intersect(new Ray(new Vector3(-10, 1.5, -10), new Vector3(1, 0, 0))), 0);
+
+        // the normal of the ellipse x = 2 cos(a), y = sin(a) is (cos(a) / 2, sin(a)), not the direction from the center
+        Vector3 at = new Vector3(2 * Math.cos(Math.PI / 4), Math.sin(Math.PI / 4), -10);
+        Vector3 expected = new Vector3(0.5, 1, 0).normalize();
+        Vector3 normal = sphere.surfaceNormal(at);
+        assertEquals(expected.getX(), normal.getX(), DELTA);
+        assertEquals(expected.getY(), normal.getY(), DELTA);
+        assertEquals(0, normal.getZ(), DELTA);
+
+        assertEquals(-2, sphere.getBoundingBox().getMin().getX(), DELTA);
+        assertEquals(1, sphere.getBoundingBox().getMax().getY(), DELTA);
+    }
+}
@@ -0,0 +1,46 @@
+package raytracer.image;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+public class FrameBufferTest {
+
+    @Test
+    public void toImageSharesPixels() {
+        FrameBuffer frameBuffer = new FrameBuffer(3, 2);
+        frameBuffer.set(2, 1, new Radiance(Color.ORANGE));
+
+        BufferedImage image = frameBuffer.toImage();
+        assertEquals(BufferedImage.TYPE_INT_ARGB, image.getType());
+        assertEquals(3, image.getWidth());
+        assertEquals(2, image.getHeight());
+        assertEquals(Color.ORANGE.getRGB(), image.getRGB(2, 1));
+
+        // no copy: later writes show up in the image
+        frameBuffer.setRGB(0, 0, Color.CYAN.getRGB());
+        assertEquals(Color.CYAN.getRGB(), image.getRGB(0, 0));
+        assertEquals(Color.CYAN.getRGB(), frameBuffer.getPixels()[0]);
+    }
+
+    @Test
+    public void hdr() {
+        assertFalse(new FrameBuffer(1, 1).hasHdr());
+
+        FrameBuffer frameBuffer = new FrameBuffer(2, 2, true);
+        frameBuffer.set(1, 1, new Radiance(2.5, 0.5, -1));
+        assertEquals(2.5f, frameBuffer.getHdr()[9], 0);
+        assertEquals(0.5f, frameBuffer.getHdr()[10], 0);
+        assertEquals(-1f, frameBuffer.getHdr()[11], 0);
+        assertEquals(new Color(255, 128, 0).getRGB(), frameBuffer.getRGB(1, 1));
+        assertArrayEquals(new float[]{0, 0, 0, 2.5f, 0.5f, -1}, frameBuffer.getHdrRow(1, new float[6]), 0);
+
+        // without HDR colors, the row comes from the 8-bit pixels
+        FrameBuffer lowDynamicRange = new FrameBuffer(1, 1);
+        lowDynamicRange.set(0, 0, new Radiance(2.5, 0.2, -1));
+        assertArrayEquals(new float[]{1, 51 / 255f, 0}, lowDynamicRange.getHdrRow(0, new float[3]), 1e-7f);
+    }
+}
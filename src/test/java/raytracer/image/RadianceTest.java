@@ -0,0 +1,38 @@
+package raytracer.image;
+
+import org.junit.Test;
+
+import java.awt.Color;
+
+import static org.junit.Assert.*;
+
+public class RadianceTest {
+
+    private static final double DELTA = 1e-12;
+
+    @Test
+    public void conversion() {
+        Color color = new Color(12, 128, 255);
+        assertEquals(color.getRGB(), new Radiance(color).toRGB());
+        assertEquals(color.getRGB(), new Radiance().setRGB(color.getRGB()).toRGB());
+        assertEquals(color, new Radiance(color).toColor());
+    }
+
+    @Test
+    public void clampOnlyOnConversion() {
+        // overbright and negative values survive shading and are only clamped when converted
+        Radiance r = new Radiance(2, -1, 0.5).multiply(2);
+        assertEquals(4, r.getRed(), DELTA);
+        assertEquals(-2, r.getGreen(), DELTA);
+        assertEquals(new Color(255, 0, 255).getRGB(), r.toRGB());
+    }
+
+    @Test
+    public void blend() {
+        Radiance r = new Radiance(1, 0, 0.5).blend(new Radiance(0, 1, 0.5), 0.25);
+        assertEquals(0.75, r.getRed(), DELTA);
+        assertEquals(0.25, r.getGreen(), DELTA);
+        assertEquals(0.5, r.getBlue(), DELTA);
+        assertEquals(1.5, r.add(new Radiance(0.75, 0, 0)).getRed(), DELTA);
+    }
+}
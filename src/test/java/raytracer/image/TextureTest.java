@@ -0,0 +1,88 @@
+package raytracer.image;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+public class TextureTest {
+
+    /**
+     * An image whose texels encode their position: red = x, green = y.
+     */
+    private static BufferedImage gradient(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) image.setRGB(x, y, x << 16 | y << 8);
+        }
+        return image;
+    }
+
+    private static void assertColor(double red, double green, double blue, Radiance actual) {
+        assertEquals(red, actual.getRed() * 255, 1e-9);
+        assertEquals(green, actual.getGreen() * 255, 1e-9);
+        assertEquals(blue, actual.getBlue() * 255, 1e-9);
+    }
+
+    @Test
+    public void pyramidOfANonPowerOfTwoImage() {
+        BufferedImage image = gradient(37, 5);
+        image.setRGB(36, 4, 0x0000FF);
+        Texture texture = new Texture(image);
+
+        // 37x5, 19x3, 10x2, 5x1, 3x1, 2x1, 1x1
+        assertEquals(7, texture.getLevels());
+        for (int y = 0; y < 5; y++) {
+            for (int x = 0; x < 37; x++) assertEquals(image.getRGB(x, y) & 0xFFFFFF, texture.getTexel(0, x, y));
+        }
+        // 2x2 averages, rounded; the odd last column and row are averaged with themselves
+        assertEquals((3 << 16) | (1 << 8), texture.getTexel(1, 1, 0) & 0xFFFF00); // x 2..3, y 0..1
+        assertEquals(0xFF, texture.getTexel(1, 18, 2)); // only the blue texel
+    }
+
+    @Test
+    public void wrapsInsteadOfIndexingOutOfBounds() {
+        Texture repeat = new Texture(gradient(4, 4), Texture.Wrap.REPEAT, Texture.Wrap.REPEAT, Texture.Filter.NEAREST);
+        Texture clamp = new Texture(gradient(4, 4), Texture.Wrap.CLAMP, Texture.Wrap.CLAMP, Texture.Filter.NEAREST);
+        Radiance color = new Radiance();
+
+        assertColor(0, 0, 0, repeat.sample(1, 1, 0, color));
+        assertColor(3, 3, 0, clamp.sample(1, 1, 0, color));
+        assertColor(1, 2, 0, repeat.sample(-0.75, 2.5, 0, color));
+        assertColor(0, 3, 0, clamp.sample(-0.75, 2.5, 0, color));
+        assertColor(2, 1, 0, clamp.sample(0.5, 0.25, 0, color));
+    }
+
+    @Test
+    public void bilinearAndTrilinear() {
+        Texture bilinear = new Texture(gradient(4, 4), Texture.Wrap.CLAMP, Texture.Wrap.REPEAT, Texture.Filter.BILINEAR);
+        Texture trilinear = new Texture(gradient(4, 4), Texture.Wrap.CLAMP, Texture.Wrap.CLAMP, Texture.Filter.TRILINEAR);
+        Radiance color = new Radiance();
+
+        // texel centers are exact, in between is interpolated
+        assertColor(1, 2, 0, bilinear.sample(1.5 / 4, 2.5 / 4, 0, color));
+        assertColor(1.25, 2.5, 0, bilinear.sample(1.75 / 4, 3 / 4.0, 0, color));
+        // clamped at the left, repeated from the top row at the bottom
+        assertColor(0, 1.5, 0, bilinear.sample(0, 4 / 4.0, 0, color));
+
+        // level 1 texel (0, 0) averages 0..1 x 0..1 (0.5, rounded to 1), level 2 all of level 1
+        assertColor(1, 1, 0, trilinear.sample(0.25, 0.25, 1, color));
+        assertColor(2, 2, 0, trilinear.sample(0.25, 0.25, 2, color));
+        assertColor(1.5, 1.5, 0, trilinear.sample(0.25, 0.25, 1.5, color));
+        // beyond the pyramid, the lod is clamped
+        assertColor(2, 2, 0, trilinear.sample(0.9, 0.1, 10, color));
+    }
+
+    @Test
+    public void levelOfDetailFollowsTheFootprint() {
+        Texture texture = new Texture(gradient(256, 64));
+        // 256x64 texels on 16 square units: 32 texels per unit
+        assertEquals(0, texture.levelOfDetail(1 / 32.0, 16), 1e-9);
+        assertEquals(3, texture.levelOfDetail(8 / 32.0, 16), 1e-9);
+        // magnified, unknown mapping, point samples
+        assertEquals(0, texture.levelOfDetail(1 / 128.0, 16), 0);
+        assertEquals(0, texture.levelOfDetail(1, 0), 0);
+        assertEquals(0, texture.levelOfDetail(0, 16), 0);
+    }
+}
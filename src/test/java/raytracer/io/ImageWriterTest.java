@@ -0,0 +1,199 @@
+package raytracer.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import raytracer.image.FrameBuffer;
+import raytracer.image.Radiance;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ImageWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Smooth gradients with some noise, large enough for several PNG stripes.
+     */
+    private static FrameBuffer testImage(boolean alpha) {
+        FrameBuffer frameBuffer = new FrameBuffer(301, 257);
+        Random random = new Random(5);
+        for (int y = 0; y < frameBuffer.getHeight(); y++) {
+            for (int x = 0; x < frameBuffer.getWidth(); x++) {
+                int a = alpha ? (x + y) & 0xFF : 0xFF;
+                int rgb = (x & 0xFF) << 16 | (y & 0xFF) << 8 | random.nextInt(8);
+                frameBuffer.setRGB(x, y, a << 24 | rgb);
+            }
+        }
+        return frameBuffer;
+    }
+
+    private static void assertSamePixels(FrameBuffer expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) assertEquals(x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+        }
+    }
+
+    @Test
+    public void parallelPngDecodesToTheSamePixels() throws Exception {
+        for (boolean alpha : new boolean[]{false, true}) {
+            for (int level : new int[]{0, 1, 6, 9}) {
+                FrameBuffer frameBuffer = testImage(alpha);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new PngEncoder(level).encode(frameBuffer, out);
+                assertSamePixels(frameBuffer, ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+            }
+        }
+    }
+
+    @Test
+    public void ppmHoldsTheRgbBytes() throws Exception {
+        FrameBuffer frameBuffer = new FrameBuffer(2, 1);
+        frameBuffer.setRGB(0, 0, 0xFF102030);
+        frameBuffer.setRGB(1, 0, 0xFFFFFFFF);
+        File file = ImageWriter.writeImage(frameBuffer, ImageWriter.PPM, folder.getRoot().toPath(), "dump");
+
+        byte[] header = "P6\n2 1\n255\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertEquals(header.length + 6, bytes.length);
+        assertEquals(0x10, bytes[header.length]);
+        assertEquals(0x30, bytes[header.length + 2]);
+        assertEquals((byte) 0xFF, bytes[header.length + 5]);
+    }
+
+    /**
+     * HDR colors: smooth (compressible) with some bright and negative values, plus noisy rows that RLE cannot shrink.
+     */
+    private static FrameBuffer hdrImage() {
+        FrameBuffer frameBuffer = new FrameBuffer(67, 9, true);
+        Random random = new Random(5);
+        Radiance color = new Radiance();
+        for (int y = 0; y < frameBuffer.getHeight(); y++) {
+            for (int x = 0; x < frameBuffer.getWidth(); x++) {
+                if (y % 4 == 3) color.set(random.nextFloat() * 1e6, -random.nextFloat(), random.nextFloat());
+                else color.set(x / 8.0, y < 4 ? 0.25 : 40, -x);
+                frameBuffer.set(x, y, color);
+            }
+        }
+        return frameBuffer;
+    }
+
+    /**
+     * Reads an EXR file as written by ExrEncoder: skips the header, then follows the offset table and decodes
+     * the scanlines (uncompressed or RLE, as in OpenEXR's ImfRle.cpp and ImfRleCompressor.cpp).
+     * @return r, g, b per pixel, as in FrameBuffer.getHdr
+     */
+    private static float[] readExr(byte[] file, int width, int height) {
+        ByteBuffer in = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(20000630, in.getInt());
+        assertEquals(2, in.getInt());
+        while (file[in.position()] != 0) {
+            while (in.get() != 0) ; // name
+            while (in.get() != 0) ; // type
+            int size = in.getInt();
+            in.position(in.position() + size);
+        }
+        in.get();
+
+        float[] hdr = new float[width * height * 3];
+        int lineBytes = width * 12;
+        for (int y = 0; y < height; y++) {
+            ByteBuffer block = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+            block.position((int) in.getLong());
+            assertEquals(y, block.getInt());
+            int size = block.getInt();
+            byte[] line = new byte[lineBytes];
+            if (size == lineBytes) {
+                block.get(line);
+            } else {
+                byte[] raw = new byte[lineBytes];
+                int n = 0, end = block.position() + size;
+                while (block.position() < end) {
+                    int count = block.get();
+                    if (count < 0) for (int i = 0; i < -count; i++) raw[n++] = block.get();
+                    else for (int i = 0, value = block.get(); i <= count; i++) raw[n++] = (byte) value;
+                }
+                assertEquals(lineBytes, n);
+                for (int i = 1; i < lineBytes; i++) raw[i] = (byte) (raw[i - 1] + raw[i] - 128);
+                for (int i = 0; i < lineBytes; i++) line[i] = raw[(i & 1) == 0 ? i / 2 : (lineBytes + 1) / 2 + i / 2];
+            }
+            ByteBuffer floats = ByteBuffer.wrap(line).order(ByteOrder.LITTLE_ENDIAN);
+            for (int channel = 2; channel >= 0; channel--) { // B, G, R
+                for (int x = 0; x < width; x++) hdr[(y * width + x) * 3 + channel] = floats.getFloat();
+            }
+        }
+        return hdr;
+    }
+
+    @Test
+    public void exrHoldsTheLinearColors() throws Exception {
+        FrameBuffer frameBuffer = hdrImage();
+        int[] sizes = new int[2];
+        for (boolean rle : new boolean[]{false, true}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new ExrEncoder(rle).encode(frameBuffer, out);
+            float[] hdr = readExr(out.toByteArray(), frameBuffer.getWidth(), frameBuffer.getHeight());
+            assertArrayEquals(frameBuffer.getHdr(), hdr, 0);
+            sizes[rle ? 1 : 0] = out.size();
+        }
+        assertTrue("RLE did not compress the smooth rows", sizes[1] < sizes[0]);
+    }
+
+    @Test
+    public void pfmHoldsTheLinearColorsBottomUp() throws Exception {
+        FrameBuffer frameBuffer = hdrImage();
+        File file = ImageWriter.writeImage(frameBuffer, ImageWriter.PFM, folder.getRoot().toPath(), "dump");
+
+        byte[] header = "PF\n67 9\n-1.0\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertEquals(header.length + frameBuffer.getHdr().length * 4, bytes.length);
+        ByteBuffer floats = ByteBuffer.wrap(bytes, header.length, bytes.length - header.length).order(ByteOrder.LITTLE_ENDIAN);
+        float[] row = new float[67 * 3];
+        for (int y = 8; y >= 0; y--) {
+            for (int i = 0; i < row.length; i++) row[i] = floats.getFloat();
+            assertArrayEquals(frameBuffer.getHdrRow(y, new float[row.length]), row, 0);
+        }
+    }
+
+    @Test
+    public void asyncWritesArriveAndFailuresPropagate() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        FrameBuffer frameBuffer = testImage(false);
+        AsyncImageWriter writer = new AsyncImageWriter(1);
+        Future<File> written = writer.write(frameBuffer, ImageWriter.PNG, directory, "frame");
+        assertSamePixels(frameBuffer, ImageIO.read(written.get()));
+
+        Future<File> failed = writer.write(frameBuffer, ImageWriter.PNG, directory.resolve("missing"), "frame");
+        try {
+            failed.get();
+            fail("wrote into a missing directory");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof UncheckedIOException);
+        }
+        try {
+            writer.close();
+            fail("the failure was not reported");
+        } catch (UncheckedIOException expected) {
+            // the failed write
+        }
+        assertArrayEquals(new String[]{"frame.png"}, folder.getRoot().list()); // no temporary files left
+    }
+}
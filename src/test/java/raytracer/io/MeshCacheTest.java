@@ -0,0 +1,134 @@
+package raytracer.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import raytracer.graphics.Ray;
+import raytracer.graphics.surfaces.obj.TriangleMesh;
+import raytracer.math.Vector3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.*;
+
+public class MeshCacheTest {
+
+    // two triangles forming a quad at z = -2
+    private static final String QUAD = "v -1 -1 -2\nv 1 -1 -2\nv 1 1 -2\nv -1 1 -2\n"
+            + "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n"
+            + "f 1/1 2/2 3/3\nf 1/1 3/3 4/4\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File previousDirectory;
+    private File obj;
+
+    @Before
+    public void setUp() throws IOException {
+        previousDirectory = MeshCache.getDirectory();
+        MeshCache.setDirectory(folder.newFolder("cache"));
+        obj = folder.newFile("quad.obj");
+        Files.write(obj.toPath(), QUAD.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @After
+    public void tearDown() {
+        MeshCache.setDirectory(previousDirectory);
+    }
+
+    @Test
+    public void cachedMeshEqualsParsedMesh() {
+        assertFalse(MeshCache.isValid(obj));
+        TriangleMesh parsed = MeshCache.load(obj);
+        assertTrue(MeshCache.isValid(obj));
+        TriangleMesh cached = MeshCache.load(obj);
+
+        assertNotSame(parsed, cached);
+        assertEquals(parsed.getName(), cached.getName());
+        assertEquals(2, cached.getTriangleCount());
+        assertArrayEquals(parsed.getGeometry(), cached.getGeometry(), 0);
+        assertArrayEquals(parsed.getNormals(), cached.getNormals(), 0);
+        assertArrayEquals(parsed.getUvs(), cached.getUvs(), 0);
+        assertEquals(parsed.getBVH().getNodeCount(), cached.getBVH().getNodeCount());
+
+        // the BVH of the cached mesh finds the quad
+        Ray ray = new Ray(new Vector3(0.5, 0.2, 0), new Vector3(0, 0, -1));
+        assertTrue(cached.getBVH().anyHit(ray, Double.MAX_VALUE, (primitive, r, tMax) -> true));
+    }
+
+    @Test
+    public void changedFileInvalidatesCache() throws IOException {
+        MeshCache.load(obj);
+        Files.write(obj.toPath(), QUAD.replace("-2", "-3").getBytes(StandardCharsets.US_ASCII));
+        assertFalse(MeshCache.isValid(obj));
+
+        TriangleMesh mesh = MeshCache.load(obj);
+        assertEquals(-3, mesh.getGeometry()[2], 0);
+        assertTrue(MeshCache.isValid(obj));
+    }
+
+    @Test
+    public void touchedFileKeepsCache() {
+        MeshCache.load(obj);
+        assertTrue(obj.setLastModified(obj.lastModified() - 60_000));
+        assertTrue(MeshCache.isValid(obj));
+    }
+
+    @Test
+    public void cacheFileOfAnotherPathIsNotUsed() throws IOException {
+        MeshCache.load(obj);
+        // an identical file elsewhere, whose cache file name happens to be the same
+        File copy = folder.newFile("copy.obj");
+        Files.copy(obj.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(copy.setLastModified(obj.lastModified()));
+        Files.copy(MeshCache.getCacheFile(obj).toPath(), MeshCache.getCacheFile(copy).toPath());
+        assertFalse(MeshCache.isValid(copy));
+    }
+
+    @Test
+    public void cacheFilesOfDeletedFilesAreEvicted() throws IOException {
+        File cacheFile = MeshCache.getCacheFile(obj);
+        MeshCache.load(obj);
+        assertTrue(obj.delete());
+
+        File other = folder.newFile("other.obj");
+        Files.write(other.toPath(), QUAD.getBytes(StandardCharsets.US_ASCII));
+        MeshCache.load(other);
+        assertFalse(cacheFile.exists());
+        assertTrue(MeshCache.isValid(other));
+    }
+
+    @Test
+    public void largeMeshIsWrittenInChunks() throws IOException {
+        // 4096 triangles: the geometry alone is several times the write buffer
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 4096; i++) {
+            text.append("v ").append(i).append(" 0 -2\nv ").append(i + 1).append(" 0 -2\nv ").append(i).append(" 1 -2\n");
+            text.append("f ").append(3*i + 1).append(' ').append(3*i + 2).append(' ').append(3*i + 3).append('\n');
+        }
+        File large = folder.newFile("large.obj");
+        Files.write(large.toPath(), text.toString().getBytes(StandardCharsets.US_ASCII));
+
+        TriangleMesh parsed = MeshCache.load(large);
+        TriangleMesh cached = MeshCache.load(large);
+        assertNotSame(parsed, cached);
+        assertEquals(4096, cached.getTriangleCount());
+        assertArrayEquals(parsed.getGeometry(), cached.getGeometry(), 0);
+        assertArrayEquals(parsed.getNormals(), cached.getNormals(), 0);
+        assertEquals(parsed.getBVH().getNodeCount(), cached.getBVH().getNodeCount());
+    }
+
+    @Test
+    public void disabledCacheParses() {
+        MeshCache.setDirectory(null);
+        assertNotNull(MeshCache.load(obj));
+        assertFalse(MeshCache.isValid(obj));
+    }
+}
@@ -0,0 +1,90 @@
+package raytracer.io;
+
+import org.junit.Test;
+import raytracer.graphics.surfaces.obj.TriangleMesh;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ObjLoaderTest {
+
+    private static TriangleMesh parse(String obj, int chunks) {
+        return ObjLoader.parse("test.obj", ByteBuffer.wrap(obj.getBytes(StandardCharsets.US_ASCII)), chunks);
+    }
+
+    @Test
+    public void sameMeshAsOObjLoader() {
+        for (String name : new String[]{"box.obj", "open_room.obj", "plane_small.obj"}) {
+            File file = new File(ObjLoaderTest.class.getResource("/scenes/" + name).getFile());
+            TriangleMesh expected = ObjParser.parseObj(file.getAbsolutePath());
+            TriangleMesh actual = ObjLoader.load(file);
+
+            assertEquals(name, expected.getName(), actual.getName());
+            assertEquals(name, expected.getTriangleCount(), actual.getTriangleCount());
+            // oObjLoader parses floats, ObjLoader doubles
+            assertArrayEquals(name, expected.getGeometry(), actual.getGeometry(), 1e-6);
+            assertArrayEquals(name, expected.getUvs(), actual.getUvs(), 0);
+        }
+    }
+
+    @Test
+    public void polygonsAreFanTriangulated() {
+        TriangleMesh mesh = parse("v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0.5 2 0\nv 0 1 0\nf 1 2 3 4 5\n", 1);
+        assertEquals(3, mesh.getTriangleCount());
+        double[] g = mesh.getGeometry();
+        // (1,2,3), (1,3,4), (1,4,5): all start at vertex 1, the second edge of one is the first of the next
+        for (int t = 0; t < 3; t++) assertArrayEquals(new double[]{0, 0, 0}, new double[]{g[t*9], g[t*9+1], g[t*9+2]}, 0);
+        assertArrayEquals(new double[]{1, 1, 0}, new double[]{g[9+3], g[9+4], g[9+5]}, 0);
+        assertArrayEquals(new double[]{0, 1, 0}, new double[]{g[18+6], g[18+7], g[18+8]}, 0);
+    }
+
+    @Test
+    public void chunksResolveRelativeIndices() {
+        StringBuilder obj = new StringBuilder("# relative and absolute indices across chunk borders\n");
+        for (int i = 0; i < 200; i++) {
+            obj.append("v ").append(i).append(" 0 0\nv ").append(i).append(" 1.5e0 0\nv ").append(i).append(" 0 -.25\n");
+            obj.append("vt 0.5 ").append(i / 200.0).append('\n');
+            obj.append(i % 2 == 0 ? "f -3/-1 -2/-1 -1/-1\n" : "f " + (3*i + 1) + "/" + (i + 1) + "/1 " + (3*i + 2) + " " + (3*i + 3) + "\n");
+        }
+        TriangleMesh serial = parse(obj.toString(), 1);
+        TriangleMesh parallel = parse(obj.toString(), 7);
+
+        assertEquals(200, parallel.getTriangleCount());
+        assertArrayEquals(serial.getGeometry(), parallel.getGeometry(), 0);
+        assertArrayEquals(serial.getUvs(), parallel.getUvs(), 0);
+        for (int i = 0; i < 200; i++) {
+            double[] g = parallel.getGeometry();
+            assertEquals(i, g[i*9], 0);
+            assertEquals(1.5, g[i*9 + 4], 0);
+            assertEquals(-0.25, g[i*9 + 8], 0);
+            // relative faces have uvs; the absolute ones only on their first corner
+            assertEquals((float) (i / 200.0), parallel.getUvs()[i*6 + 1], 0);
+            assertEquals(i % 2 == 0 ? 0.5f : 0f, parallel.getUvs()[i*6 + 2], 0);
+        }
+    }
+
+    @Test
+    public void numbersAreExact() {
+        TriangleMesh mesh = parse("v 0.1 -1e-3 123456789.123456789\nv 1e30 +2 0\nv 0 0 7E+2\nf 1 2 3\n", 1);
+        double[] g = mesh.getGeometry();
+        assertEquals(0.1, g[0], 0);
+        assertEquals(-1e-3, g[1], 0);
+        assertEquals(123456789.123456789, g[2], 0);
+        assertEquals(1e30 - 0.1, g[3], 0);
+        assertEquals(2 + 1e-3, g[4], 0);
+        assertEquals(700 - 123456789.123456789, g[8], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingVertex() {
+        parse("v 0 0 0\nf 1 2 3\n", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalNumber() {
+        parse("v 0 0 x\n", 1);
+    }
+}
@@ -0,0 +1,104 @@
+package raytracer.math;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class Matrix4Test {
+
+    private static final Matrix4 operand1 = new Matrix4(
+            2, 0, 1, 3,
+            1, 3, 0, -1,
+            0, 1, 4, 2,
+            1, 0, 0, 1);
+    private static final Matrix4 operand2 = new Matrix4(
+            1, 2, 3, 4,
+            -1, 0, 2, 1,
+            0, 5, -2, 3,
+            2, 1, 0, -1);
+
+    // a typical affine transformation: scale, rotate, translate
+    private static final Matrix4 affine = MatrixUtils.objectToWorld(
+            new Vector3(2, 3, 0.5), new Vector3(10, 20, 30), new Vector3(1, -2, 3));
+
+    private static final double DELTA = 1e-9;
+
+    private static void assertMatrixEquals(Matrix4 expected, Matrix4 actual) {
+        for (int row = 1; row <= 4; row++) {
+            for (int col = 1; col <= 4; col++) {
+                assertEquals("[" + row + "," + col + "]", expected.at(row, col), actual.at(row, col), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void multiply() {
+        // same result as the general matrix
+        assertEquals(operand1.toMatrix().multiply(operand2.toMatrix()), operand1.multiply(operand2).toMatrix());
+        assertEquals(operand1, operand1.multiply(Matrix4.identity()));
+        assertEquals(operand1.toMatrix().multiply(-2), operand1.multiply(-2).toMatrix());
+
+        Vector4 v1234 = new Vector4(1, 2, 3, 4);
+        assertEquals(operand1.toMatrix().multiply4x4(v1234), operand1.multiply4x4(v1234));
+    }
+
+    @Test
+    public void transform() {
+        Vector3 p = new Vector3(-1, 2, 5);
+        assertEquals(new Vector3(affine.multiply4x4(new Vector4(p, 1))), affine.transformPoint(p));
+        assertEquals(new Vector3(affine.multiply4x4(new Vector4(p, 0))), affine.transformDirection(p));
+
+        // translation only moves points
+        Matrix4 translation = MatrixUtils.fromTranslation(new Vector3(1, 2, 3));
+        assertEquals(new Vector3(0, 4, 8), translation.transformPoint(p));
+        assertEquals(p, translation.transformDirection(p));
+
+        // in place
+        Vector3 v = new Vector3(p);
+        assertSame(v, translation.transformPoint(v, v));
+        assertEquals(new Vector3(0, 4, 8), v);
+    }
+
+    @Test
+    public void transpose() {
+        assertEquals(operand1.toMatrix().transpose(), operand1.transpose().toMatrix());
+    }
+
+    @Test
+    public void determinant() {
+        assertEquals(operand1.toMatrix().determinant(), operand1.determinant(), DELTA);
+        assertEquals(operand2.toMatrix().determinant(), operand2.determinant(), DELTA);
+        assertEquals(1, Matrix4.identity().determinant(), 0);
+        assertEquals(2 * 3 * 0.5, affine.determinant(), DELTA);
+    }
+
+    @Test
+    public void invert() {
+        assertMatrixEquals(Matrix4.identity(), operand1.multiply(operand1.invert()));
+        assertMatrixEquals(Matrix4.identity(), operand2.invert().multiply(operand2));
+        assertMatrixEquals(Matrix4.identity(), affine.multiply(affine.invert()));
+
+        // the inverse transformation takes a point back
+        Vector3 p = new Vector3(-1, 2, 5);
+        Vector3 back = affine.invert().transformPoint(affine.transformPoint(p));
+        assertEquals(p.getX(), back.getX(), DELTA);
+        assertEquals(p.getY(), back.getY(), DELTA);
+        assertEquals(p.getZ(), back.getZ(), DELTA);
+    }
+
+    @Test(expected = RaytracerMathException.class)
+    public void invertSingular() {
+        MatrixUtils.fromScale(new Vector3(1, 0, 1)).invert();
+    }
+
+    @Test
+    public void equals() {
+        assertEquals(operand1, new Matrix4(
+                2, 0, 1, 3,
+                1, 3, 0, -1,
+                0, 1, 4, 2,
+                1, 0, 0, 1));
+        assertEquals(operand1.hashCode(), operand1.transpose().transpose().hashCode());
+        assertNotEquals(operand1, operand2);
+    }
+}
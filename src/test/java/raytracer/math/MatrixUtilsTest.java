@@ -6,41 +6,41 @@ import static org.junit.Assert.*;
 
 public class MatrixUtilsTest {
 
-    private static final Matrix id4 = Matrix.identity(4);
+    private static final Matrix4 id4 = Matrix4.identity();
 
     private static final double angle = 45;
     private static final double sinA = Math.sin(Math.toRadians(angle));
     private static final double cosA = Math.cos(Math.toRadians(angle));
 
-    private static final Matrix transMat = new Matrix(
+    private static final Matrix4 transMat = new Matrix4(
             1,0,0,1,
             0,1,0,2,
             0,0,1,3,
             0,0,0,1);
-    private static final Matrix scaleMat = new Matrix(
+    private static final Matrix4 scaleMat = new Matrix4(
             4,0,0,0,
             0,5,0,0,
             0,0,6,0,
             0,0,0,1);
-    private static final Matrix scaleTransMat = new Matrix(
+    private static final Matrix4 scaleTransMat = new Matrix4(
             4,0,0,1,
             0,5,0,2,
             0,0,6,3,
             0,0,0,1);
 
-    private static final Matrix rotXMat = new Matrix(
+    private static final Matrix4 rotXMat = new Matrix4(
             1,0,0,0,
             0,cosA,-sinA,0,
             0,sinA,cosA,0,
             0,0,0,1
     );
-    private static final Matrix rotYMat = new Matrix(
+    private static final Matrix4 rotYMat = new Matrix4(
             cosA, 0, sinA, 0,
             0, 1, 0, 0,
             -sinA, 0, cosA, 0,
             0, 0, 0, 1
     );
-    private static final Matrix rotZMat = new Matrix(
+    private static final Matrix4 rotZMat = new Matrix4(
             cosA, -sinA, 0, 0,
             sinA, cosA, 0, 0,
             0, 0, 1, 0,
@@ -51,7 +51,7 @@ public class MatrixUtilsTest {
     public void objectToWorld() {
         // no transformations = identity
         Vector4 v1234 = new Vector4(1,2,3,4);
-        Matrix zeroTransform = MatrixUtils.objectToWorld(
+        Matrix4 zeroTransform = MatrixUtils.objectToWorld(
                 new Vector3(1,1,1),
                 new Vector3(),
                 new Vector3()
@@ -76,7 +76,7 @@ public class MatrixUtilsTest {
 
         // self-inversion
         Vector3 t = new Vector3(); Vector3 r = new Vector3(); Vector3 s = new Vector3(1,1,1);
-        Matrix otw = MatrixUtils.objectToWorld(s,r,t);
+        Matrix4 otw = MatrixUtils.objectToWorld(s,r,t);
         assertEquals(id4, otw.multiply(otw.invert()));
         assertEquals(id4, otw.invert().multiply(otw));
     }
@@ -85,8 +85,8 @@ public class MatrixUtilsTest {
     public void worldToObject() {
         // default vectors do not change anything
         Vector3 t = new Vector3(); Vector3 r = new Vector3(); Vector3 s = new Vector3(1,1,1);
-        Matrix otw = MatrixUtils.objectToWorld(s,r,t);
-        Matrix wto = MatrixUtils.worldToObject(s,r,t);
+        Matrix4 otw = MatrixUtils.objectToWorld(s,r,t);
+        Matrix4 wto = MatrixUtils.worldToObject(s,r,t);
         assertEquals(id4, wto.multiply(otw));
 
         // transform to object space and back with defaults
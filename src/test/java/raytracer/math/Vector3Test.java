@@ -75,6 +75,22 @@ public class Vector3Test {
         assertEquals(0, operand0.length(), DELTA);
     }
 
+    @Test
+    public void inPlace() {
+        Vector3 dest = new Vector3();
+        assertEquals(operand1.add(operand2), Vector3.add(operand1, operand2, dest));
+        assertEquals(operand1.subtract(operand3), Vector3.subtract(operand1, operand3, dest));
+        assertEquals(operand2.multiply(3), Vector3.multiply(operand2, 3, dest));
+        assertEquals(operand1.add(operand2.multiply(2)), Vector3.scaleAdd(operand1, operand2, 2, dest));
+        assertEquals(operand1.cross(operand3), Vector3.cross(operand1, operand3, dest));
+        assertEquals(operand3.normalize(), Vector3.normalize(operand3, dest));
+
+        // the destination may be an operand
+        Vector3 v = new Vector3(operand1);
+        assertSame(v, Vector3.cross(v, operand3, v));
+        assertEquals(new Vector3(3,-6,3), v);
+    }
+
     @Test
     public void equals() {
         assertEquals(operand1, new Vector3(1,1,1));
@@ -0,0 +1,59 @@
+package raytracer.render;
+
+import org.junit.Test;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Scene;
+import raytracer.image.FrameBuffer;
+import raytracer.io.SceneParser;
+
+import java.awt.Color;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveRendererTest {
+
+    private static Scene example1(int width, int height) {
+        Scene scene = SceneParser.parseXML(SceneParser.example1);
+        Camera c = scene.getCamera();
+        scene.setCamera(new Camera(c.getPosition(), c.getLookAt(), c.getUp(), c.getHorizontalFOV(), width, height, c.getMaxBounces()));
+        return scene;
+    }
+
+    @Test
+    public void flatImageTakesMinimumSamples() {
+        Scene scene = new Scene();
+        scene.setCamera(new Camera(20, 10));
+        scene.setBackgroundColor(Color.GRAY);
+        scene.buildBVH();
+
+        AdaptiveRenderer renderer = new AdaptiveRenderer(scene, 2, 4, 16, 0.05);
+        FrameBuffer frameBuffer = renderer.render();
+        assertEquals(4.0, renderer.getAverageSamplesPerPixel(), 0);
+        assertEquals(200 * 4, renderer.getSampleCount());
+        assertEquals(Color.GRAY.getRGB(), frameBuffer.getRGB(13, 7));
+    }
+
+    @Test
+    public void edgesTakeMoreSamples() {
+        Scene scene = example1(64, 64);
+        AdaptiveRenderer renderer = new AdaptiveRenderer(scene, 2, 4, 16, 0.05);
+        renderer.render();
+
+        // only the sphere outlines are refined
+        assertTrue(renderer.getAverageSamplesPerPixel() > 4.2);
+        assertTrue(renderer.getAverageSamplesPerPixel() < 8);
+
+        // a threshold of 0 refines everything up to the maximum, except pixels whose samples are all the same
+        AdaptiveRenderer everywhere = new AdaptiveRenderer(scene, 2, 4, 9, 0);
+        everywhere.render();
+        assertTrue(everywhere.getAverageSamplesPerPixel() <= 9);
+    }
+
+    @Test
+    public void independentOfThreadCount() {
+        Scene scene = example1(40, 30);
+        FrameBuffer serial = new AdaptiveRenderer(scene, 1).render();
+        FrameBuffer parallel = new AdaptiveRenderer(scene, 4).render();
+        assertArrayEquals(serial.getPixels(), parallel.getPixels());
+    }
+}
@@ -0,0 +1,116 @@
+package raytracer.render;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import raytracer.Raytracer;
+import raytracer.animation.Animation;
+import raytracer.animation.Track;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Scene;
+import raytracer.io.AnimationParser;
+import raytracer.io.MeshCache;
+import raytracer.io.SceneParser;
+import raytracer.math.Vector3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AnimationRendererTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static File meshCacheDirectory;
+
+    // example5 has meshes, which must not end up in the user's mesh cache
+    @BeforeClass
+    public static void disableMeshCache() {
+        meshCacheDirectory = MeshCache.getDirectory();
+        MeshCache.setDirectory(null);
+    }
+
+    @AfterClass
+    public static void restoreMeshCache() {
+        MeshCache.setDirectory(meshCacheDirectory);
+    }
+
+    private static Scene example5(int width, int height) {
+        Scene scene = SceneParser.parseXML(SceneParser.example5);
+        Camera c = scene.getCamera();
+        scene.setCamera(new Camera(c.getPosition(), c.getLookAt(), c.getUp(), c.getHorizontalFOV(), width, height, c.getMaxBounces()));
+        return scene;
+    }
+
+    private Animation parse(String... lines) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.asList(lines));
+        return AnimationParser.parseKeyframes(file.getPath());
+    }
+
+    @Test
+    public void framesMatchFreshlyBuiltScenes() throws IOException {
+        Animation animation = parse(
+                "frames 4",
+                "camera 0 translate 0 0 0",
+                "camera 3 translate 0.5 0.5 -2",
+                "camera 3 rotate 0 20 0",
+                "surface 4 3 rotate 0 90 0",
+                "surface 11 0 translate 0 5.5 -8.5",
+                "surface 11 3 translate -3 0 -6 # far enough to make the refitted BVH worse");
+
+        Scene scene = example5(40, 30);
+        List<int[]> frames = new ArrayList<>();
+        AnimationRenderer renderer = new AnimationRenderer(scene, animation, 2, 16, 0);
+        renderer.render((frame, frameBuffer) -> {
+            assertEquals(frames.size(), frame);
+            frames.add(frameBuffer.getPixels().clone());
+        });
+        assertEquals(4, frames.size());
+        assertEquals(4, renderer.getRefits() + renderer.getRebuilds());
+
+        for (int frame = 0; frame < 4; frame++) {
+            Scene expected = example5(40, 30);
+            animation.apply(expected, frame);
+            expected.buildBVH();
+            assertArrayEquals("frame " + frame, Raytracer.renderScene(expected).getPixels(), frames.get(frame));
+        }
+    }
+
+    @Test
+    public void keyframesAreInterpolated() throws IOException {
+        Animation animation = parse(
+                "# comment",
+                "frames 10",
+                "output shot_%02d",
+                "surface 0 2 translate 0 0 0",
+                "surface 0 6 translate 4 -8 2  # comment");
+        assertEquals(10, animation.getFrameCount());
+        assertEquals("shot_07", animation.getOutputName(7, "scene.png"));
+
+        Track track = animation.getTracks().get(0);
+        assertEquals(new Vector3(0, 0, 0), track.valueAt(0));
+        assertEquals(new Vector3(1, -2, 0.5), track.valueAt(3));
+        assertEquals(new Vector3(4, -8, 2), track.valueAt(9));
+
+        assertEquals("scene_0003", new Animation(5).getOutputName(3, "scene.png"));
+    }
+
+    @Test
+    public void errorsNameTheLine() throws IOException {
+        try {
+            parse("frames 2", "", "camera 1 scale 1 1 1");
+            fail("the camera was scaled");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(":3:"));
+        }
+    }
+}
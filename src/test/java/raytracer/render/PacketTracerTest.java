@@ -0,0 +1,77 @@
+package raytracer.render;
+
+import org.junit.Test;
+import raytracer.Raytracer;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Scene;
+import raytracer.graphics.illumination.Phong;
+import raytracer.graphics.lights.ParallelLight;
+import raytracer.graphics.lights.PointLight;
+import raytracer.graphics.materials.SolidMaterial;
+import raytracer.graphics.surfaces.Mesh;
+import raytracer.graphics.surfaces.Sphere;
+import raytracer.graphics.surfaces.obj.TriangleMesh;
+import raytracer.graphics.trafo.Transformation;
+import raytracer.image.FrameBuffer;
+import raytracer.io.SceneParser;
+import raytracer.math.Vector3;
+
+import java.awt.Color;
+
+import static org.junit.Assert.*;
+
+public class PacketTracerTest {
+
+    // a unit quad in the xz plane at y = 0, facing +y
+    private static final TriangleMesh QUAD = new TriangleMesh("quad", new double[]{
+            -1, 0, -1,  -1, 0, 1,  1, 0, 1,
+            -1, 0, -1,  1, 0, 1,  1, 0, -1
+    }, null);
+
+    /**
+     * Transformed spheres and mesh instances, a mirror, and both kinds of lights.
+     */
+    private static Scene testScene(boolean bvh) {
+        Scene scene = new Scene();
+        scene.setCamera(new Camera(37, 29)); // not a multiple of any packet size
+        scene.setBackgroundColor(Color.DARK_GRAY);
+        scene.setAmbientLight(new Color(30, 30, 30));
+        scene.addLight(new PointLight(Color.WHITE, new Vector3(2, 4, 0)));
+        scene.addLight(new ParallelLight(new Color(80, 80, 120), new Vector3(-1, -1, -1)));
+
+        Phong phong = new Phong(0.3, 0.9, 0.5, 20);
+        scene.addSurface(new Mesh(new SolidMaterial(phong, 0, 0, 0, Color.WHITE),
+                new Transformation(new Vector3(0, -1, -6), new Vector3(8, 1, 8), null), "floor", QUAD));
+        scene.addSurface(new Mesh(new SolidMaterial(phong, 0, 0, 0, Color.ORANGE),
+                new Transformation(new Vector3(1.5, 0, -5), new Vector3(0.5, 1, 0.5), new Vector3(90, 30, 0)), "wall", QUAD));
+        scene.addSurface(new Sphere(new SolidMaterial(phong, 0.4, 0, 0, Color.RED), null, new Vector3(-1, 0, -6), 1));
+        scene.addSurface(new Sphere(new SolidMaterial(phong, 0, 0, 0, Color.GREEN),
+                new Transformation(new Vector3(0.5, -0.5, -4), new Vector3(1, 0.4, 0.6), new Vector3(0, 0, 30)), new Vector3(0, 0, 0), 0.5));
+        if (bvh) scene.buildBVH();
+        return scene;
+    }
+
+    private static void assertSameImage(Scene scene) {
+        FrameBuffer scalar = Raytracer.renderScene(scene);
+        for (int packetSize = 1; packetSize <= PacketTracer.MAX_PACKET_SIZE; packetSize++) {
+            FrameBuffer packets = new TileRenderer(scene, 2, 16, packetSize).render();
+            assertArrayEquals("packet size " + packetSize, scalar.getPixels(), packets.getPixels());
+        }
+    }
+
+    @Test
+    public void sameImageAsScalarTracing() {
+        assertSameImage(testScene(true));
+        assertSameImage(SceneParser.parseXML(SceneParser.example1));
+    }
+
+    @Test
+    public void sameImageWithoutBVH() {
+        assertSameImage(testScene(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void packetSizeIsLimited() {
+        new TileRenderer(testScene(true), 1, 16, PacketTracer.MAX_PACKET_SIZE + 1);
+    }
+}
@@ -0,0 +1,61 @@
+package raytracer.render;
+
+import org.junit.Test;
+import raytracer.Raytracer;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Scene;
+import raytracer.image.FrameBuffer;
+import raytracer.io.SceneParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProgressiveRendererTest {
+
+    private static Scene scene(int width, int height) {
+        Scene scene = SceneParser.parseXML(SceneParser.example1);
+        Camera c = scene.getCamera();
+        scene.setCamera(new Camera(c.getPosition(), c.getLookAt(), c.getUp(), c.getHorizontalFOV(), width, height, c.getMaxBounces()));
+        return scene;
+    }
+
+    @Test
+    public void finalImageMatchesSerialRenderer() {
+        // not a multiple of the initial step, so the border blocks are clipped
+        Scene scene = scene(61, 35);
+        FrameBuffer expected = Raytracer.renderScene(scene);
+
+        List<Double> progress = new ArrayList<>();
+        List<Boolean> finished = new ArrayList<>();
+        FrameBuffer frameBuffer = new ProgressiveRenderer(scene, 3, 0).render((fb, p, done) -> {
+            progress.add(p);
+            finished.add(done);
+        });
+
+        assertArrayEquals(expected.getPixels(), frameBuffer.getPixels());
+
+        // one preview per pass (8, 4, 2, 1), only the last one is final
+        assertEquals(Arrays.asList(false, false, false, true), finished);
+        for (int i = 1; i < progress.size(); i++) assertTrue(progress.get(i) > progress.get(i - 1));
+        assertEquals(1.0, progress.get(progress.size() - 1), 0);
+    }
+
+    @Test
+    public void firstPassFillsTheWholeImage() {
+        Scene scene = scene(16, 16);
+        FrameBuffer expected = Raytracer.renderScene(scene);
+
+        new ProgressiveRenderer(scene, 1, 8, 0).render((fb, p, done) -> {
+            if (p > 4.0 / 256) return; // only the first pass traced 2x2 pixels
+            // every pixel shows the color of the traced pixel at the top left of its 8x8 block
+            for (int y = 0; y < 16; y++) {
+                for (int x = 0; x < 16; x++) {
+                    assertEquals(expected.getRGB(x / 8 * 8, y / 8 * 8), fb.getRGB(x, y));
+                }
+            }
+        });
+    }
+}
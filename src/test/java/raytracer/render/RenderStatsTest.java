@@ -0,0 +1,120 @@
+package raytracer.render;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import raytracer.RenderOptions;
+import raytracer.Raytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class RenderStatsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Renders example2 at 40x30 in another JVM (statistics are switched on when RenderStats is loaded)
+     * with --stats-json and the given options, and returns the statistics it wrote.
+     */
+    private String renderWithStats(String... options) throws IOException, InterruptedException {
+        File scenes = new File(Raytracer.class.getResource("/scenes/example2.xml").getFile()).getParentFile();
+        String scene = new String(Files.readAllBytes(new File(scenes, "example2.xml").toPath()), StandardCharsets.UTF_8)
+                .replace("horizontal=\"512\" vertical=\"512\"", "horizontal=\"40\" vertical=\"30\"");
+        Files.write(folder.getRoot().toPath().resolve("small.xml"), scene.getBytes(StandardCharsets.UTF_8));
+        Files.copy(new File(scenes, "scene.dtd").toPath(), folder.getRoot().toPath().resolve("scene.dtd"));
+
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), Raytracer.class.getName(), "--stats-json", "--no-mesh-cache"));
+        command.addAll(Arrays.asList(options));
+        command.add("file");
+        command.add(new File(folder.getRoot(), "small.xml").getAbsolutePath());
+        Process process = new ProcessBuilder(command).directory(folder.getRoot()).inheritIO().start();
+        assertTrue(process.waitFor(2, TimeUnit.MINUTES));
+        assertEquals(0, process.exitValue());
+        return new String(Files.readAllBytes(folder.getRoot().toPath().resolve("example2.png.stats.json")), StandardCharsets.UTF_8);
+    }
+
+    private static long rays(String json, String kind) {
+        Matcher matcher = Pattern.compile("\"" + kind + "\": (\\d+)").matcher(json);
+        assertTrue(json, matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    @Test
+    public void renderCountsEveryRay() throws Exception {
+        String json = renderWithStats();
+        assertTrue(json, json.contains("\"pixels\": 1200"));
+        assertEquals(40 * 30, rays(json, "primary"));
+        assertTrue(rays(json, "shadow") > 0);
+    }
+
+    @Test
+    public void animationCountsAllFrames() throws Exception {
+        Files.write(folder.getRoot().toPath().resolve("frames.txt"), "frames 2\n".getBytes(StandardCharsets.UTF_8));
+        String json = renderWithStats("--animate", new File(folder.getRoot(), "frames.txt").getAbsolutePath());
+        assertTrue(json, json.contains("\"pixels\": 2400"));
+        assertEquals(2 * 40 * 30, rays(json, "primary"));
+        assertTrue(rays(json, "shadow") > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void farmHasNoStatistics() {
+        RenderOptions.parse(new String[]{"--farm", "0", "--stats"});
+    }
+
+    @Test
+    public void collectSumsAllThreads() throws InterruptedException {
+        RenderStats.reset();
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            int depth = i;
+            threads[i] = new Thread(() -> {
+                RenderStats.Counters c = RenderStats.local();
+                c.primaryRays += 10;
+                c.shadowRays += 5;
+                c.triangleTests += 100;
+                c.maxDepth = Math.max(c.maxDepth, depth);
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) t.join();
+
+        RenderStats.Counters total = RenderStats.collect();
+        assertEquals(40, total.primaryRays);
+        assertEquals(20, total.shadowRays);
+        assertEquals(60, total.getRays());
+        assertEquals(400, total.getIntersectionTests());
+        assertEquals(3, total.maxDepth);
+
+        RenderStats.reset();
+        assertEquals(0, RenderStats.collect().getRays());
+    }
+
+    @Test
+    public void json() {
+        RenderStats.reset();
+        RenderStats.local().sphereTests = 7;
+        RenderStats.addTime(RenderStats.Phase.RENDER, 1_500_000);
+
+        String json = RenderStats.toJson(16);
+        assertTrue(json.contains("\"pixels\": 16"));
+        assertTrue(json.contains("\"sphere\": 7"));
+        assertTrue(json.contains("\"render\": 1.500"));
+        RenderStats.reset();
+    }
+}
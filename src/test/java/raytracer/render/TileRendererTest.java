@@ -0,0 +1,63 @@
+package raytracer.render;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import raytracer.Raytracer;
+import raytracer.graphics.Camera;
+import raytracer.graphics.Scene;
+import raytracer.io.MeshCache;
+import raytracer.io.SceneParser;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class TileRendererTest {
+
+    private static File meshCacheDirectory;
+
+    @BeforeClass
+    public static void disableMeshCache() {
+        meshCacheDirectory = MeshCache.getDirectory();
+        MeshCache.setDirectory(null);
+    }
+
+    @AfterClass
+    public static void restoreMeshCache() {
+        MeshCache.setDirectory(meshCacheDirectory);
+    }
+
+    private static Scene scene(String file, int width, int height) {
+        Scene scene = SceneParser.parseXML(file);
+        Camera c = scene.getCamera();
+        scene.setCamera(new Camera(c.getPosition(), c.getLookAt(), c.getUp(), c.getHorizontalFOV(), width, height, c.getMaxBounces()));
+        return scene;
+    }
+
+    @Test
+    public void sameImageAsTheSerialRenderer() {
+        // example4 has a mesh (its last hit is per thread) next to reflecting spheres
+        Scene scene = scene(SceneParser.example4, 61, 37);
+        int[] serial = Raytracer.renderScene(scene).getPixels();
+
+        for (int threads : new int[]{1, 2, 4}) {
+            // tile sizes that do not divide 61x37, a single pixel, and one tile for the whole image
+            for (int tileSize : new int[]{1, 7, 16, 64}) {
+                int[] tiled = new TileRenderer(scene, threads, tileSize).render().getPixels();
+                assertArrayEquals(threads + " threads, tile size " + tileSize, serial, tiled);
+            }
+        }
+    }
+
+    @Test
+    public void tilesCoverTheImageOnce() {
+        int[] covered = new int[61 * 37];
+        for (Tile tile : TileRenderer.splitIntoTiles(61, 37, 16)) {
+            for (int y = tile.getY0(); y < tile.getY1(); y++) {
+                for (int x = tile.getX0(); x < tile.getX1(); x++) covered[y * 61 + x]++;
+            }
+        }
+        for (int count : covered) assertEquals(1, count);
+    }
+}